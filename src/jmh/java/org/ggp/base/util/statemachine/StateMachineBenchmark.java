@@ -0,0 +1,139 @@
+package org.ggp.base.util.statemachine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.SamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the basic state machine operations, and of
+ * whole depth charges, for each state machine implementation on each of
+ * the games in games/games.
+ *
+ * Before measuring, a fixed sample of reachable states is collected with
+ * seeded random playouts, along with one legal joint move for each. The
+ * per-operation benchmarks then cycle through the sample, so that they see
+ * a realistic mix of states rather than the same one over and over.
+ *
+ * Run with "gradle jmh"; see build.gradle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateMachineBenchmark
+{
+    private static final int NUM_SAMPLE_STATES = 1000;
+
+    @Param({"ticTacToe", "connectFour", "maze"})
+    public String game;
+
+    @Param({"prover", "cachedProver", "propNet", "compiledPropNet", "differentialPropNet"})
+    public String machine;
+
+    private StateMachine stateMachine;
+    private Role role;
+    private final List<MachineState> states = new ArrayList<MachineState>();
+    private final List<List<Move>> jointMoves = new ArrayList<List<Move>>();
+    private final List<MachineState> terminalStates = new ArrayList<MachineState>();
+    private final int[] depth = new int[1];
+    private int next;
+    private int nextTerminal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File rulesheet = new File("games/games/" + game + "/" + game + ".kif");
+        List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(rulesheet))).getRules();
+        stateMachine = createStateMachine(machine);
+        stateMachine.initialize(rules);
+        role = stateMachine.getRoles().get(0);
+
+        Random random = new Random(0);
+        while (states.size() < NUM_SAMPLE_STATES) {
+            MachineState state = stateMachine.getInitialState();
+            while (!stateMachine.isTerminal(state)) {
+                List<Move> jointMove = new ArrayList<Move>();
+                for (Role r : stateMachine.getRoles()) {
+                    List<Move> legals = stateMachine.getLegalMoves(state, r);
+                    jointMove.add(legals.get(random.nextInt(legals.size())));
+                }
+                states.add(state);
+                jointMoves.add(jointMove);
+                state = stateMachine.getNextState(state, jointMove);
+            }
+            terminalStates.add(state);
+        }
+    }
+
+    private static StateMachine createStateMachine(String name) {
+        switch (name) {
+        case "prover":
+            return new ProverStateMachine();
+        case "cachedProver":
+            return new CachedStateMachine(new ProverStateMachine());
+        case "propNet":
+            return new SamplePropNetStateMachine();
+        case "compiledPropNet":
+            return new CompiledPropNetStateMachine(CompiledPropNetStateMachine.PropagationMode.FULL);
+        case "differentialPropNet":
+            return new CompiledPropNetStateMachine(CompiledPropNetStateMachine.PropagationMode.DIFFERENTIAL);
+        default:
+            throw new IllegalArgumentException("Unknown state machine: " + name);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % states.size();
+        return next;
+    }
+
+    @Benchmark
+    public List<Move> getLegalMoves() throws Exception {
+        return stateMachine.getLegalMoves(states.get(nextIndex()), role);
+    }
+
+    @Benchmark
+    public MachineState getNextState() throws Exception {
+        int i = nextIndex();
+        return stateMachine.getNextState(states.get(i), jointMoves.get(i));
+    }
+
+    @Benchmark
+    public boolean isTerminal() {
+        return stateMachine.isTerminal(states.get(nextIndex()));
+    }
+
+    @Benchmark
+    public int getGoal() throws Exception {
+        nextTerminal = (nextTerminal + 1) % terminalStates.size();
+        return stateMachine.getGoal(terminalStates.get(nextTerminal), role);
+    }
+
+    @Benchmark
+    public MachineState performDepthCharge() throws Exception {
+        return stateMachine.performDepthCharge(stateMachine.getInitialState(), depth);
+    }
+}
@@ -1,12 +1,15 @@
 package org.ggp.base.apps.server.scheduling;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ggp.base.util.game.Game;
 import org.ggp.base.util.presence.PlayerPresence;
 
 public final class PendingMatch
 {
+    private static final AtomicLong lastMatchTime = new AtomicLong();
+
     public final Game theGame;
     public final List<PlayerPresence> thePlayers;
     public final String matchID;
@@ -20,7 +23,7 @@ public final class PendingMatch
     public final boolean shouldPublish;
 
     public PendingMatch(String matchIdPrefix, Game theGame, List<PlayerPresence> thePlayers, int previewClock, int startClock, int playClock, boolean shouldScramble, boolean shouldQueue, boolean shouldDetail, boolean shouldSave, boolean shouldPublish) {
-        this.matchID = matchIdPrefix + "." + theGame.getKey() + "." + System.currentTimeMillis();
+        this.matchID = matchIdPrefix + "." + theGame.getKey() + "." + getUniqueMatchTime();
         this.theGame = theGame;
         this.thePlayers = thePlayers;
         this.previewClock = previewClock;
@@ -32,4 +35,17 @@ public final class PendingMatch
         this.shouldSave = shouldSave;
         this.shouldPublish = shouldPublish;
     }
+
+    // Match IDs end with the time the match was created, bumped forward when
+    // several are created in the same millisecond so that they don't collide.
+    private static long getUniqueMatchTime() {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long last = lastMatchTime.get();
+            long next = Math.max(now, last + 1);
+            if (lastMatchTime.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
 }
\ No newline at end of file
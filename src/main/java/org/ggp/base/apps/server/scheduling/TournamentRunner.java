@@ -0,0 +1,512 @@
+package org.ggp.base.apps.server.scheduling;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.server.GameServer;
+import org.ggp.base.util.crypto.BaseCryptography.EncodedKeyPair;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.observer.Observer;
+import org.ggp.base.util.presence.PlayerPresence;
+import org.ggp.base.util.propnet.cache.PropNetCache;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * TournamentRunner plays a list of matches without any user interface, as
+ * many at once as it is allowed to, which makes it suitable for running
+ * large batches of matches such as regression tournaments.
+ *
+ * Matches are played in the order they were added, except that a match is
+ * held back while any of its players is unavailable or already playing as
+ * many matches as it may (one by default); later matches whose players are
+ * free go ahead of it. Nothing polls: the queue is looked at again whenever
+ * a match is added or finishes, or a player's availability changes. Each
+ * match runs its GameServer on one of a fixed number of worker threads.
+ *
+ * Matches of the same game share one Game object, and one compiled propnet
+ * built from it, from which every match gets its own
+ * {@link CompiledPropNetStateMachine#createView() view}. Propnets are kept in
+ * a {@link PropNetCache} between tournaments. Games whose propnet can't be
+ * built are played on a ProverStateMachine instead.
+ *
+ * As each match finishes, a line of JSON describing its outcome is appended
+ * to the results file and flushed, so the results of a long tournament can
+ * be followed while it runs and survive it being stopped:
+ * <pre>
+ * {"matchId": ..., "game": ..., "players": ["host:port", ...],
+ *  "playerNames": [...], "isCompleted": ..., "isAborted": ...,
+ *  "goalValues": [...], "errorCounts": [...], "startTime": ...,
+ *  "duration": ..., "failure": ... (if the match couldn't be set up)}
+ * </pre>
+ * The shouldSave and shouldPublish options of each PendingMatch are honored
+ * in the same way as by the Scheduler; the UI-related ones are ignored.
+ */
+public final class TournamentRunner
+{
+    private final int maxConcurrentMatches;
+    private final File resultsFile;
+    private final ExecutorService workers;
+
+    private int maxMatchesPerPlayer = 1;
+    private boolean usingCompiledStateMachines = true;
+    private PropNetCache propNetCache = PropNetCache.getDefaultCache();
+    private File matchesDirectory = new File(System.getProperty("user.home"), "ggp-saved-matches");
+    private String tournamentName = "";
+    private EncodedKeyPair signingKeys;
+    private final List<Observer> observers = new ArrayList<Observer>();
+
+    // Everything below is guarded by the runner's lock.
+
+    private final List<PendingMatch> queue = new ArrayList<PendingMatch>();
+    private final Map<String, Integer> busyPlayers = new HashMap<String, Integer>();
+    private final Set<String> unavailablePlayers = new HashSet<String>();
+    /** The games seen so far, by rulesheet. */
+    private final Map<String, SharedGame> games = new HashMap<String, SharedGame>();
+    private Writer resultsWriter;
+    private int numRunning;
+    private int numCompleted;
+    private int numFailed;
+    private boolean shutDown;
+
+    /**
+     * Creates a runner that plays at most the given number of matches at
+     * once, and appends their results to the given file, unless it is null.
+     */
+    public TournamentRunner(int maxConcurrentMatches, File resultsFile) {
+        this.maxConcurrentMatches = maxConcurrentMatches;
+        this.resultsFile = resultsFile;
+        this.workers = Executors.newFixedThreadPool(maxConcurrentMatches, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TournamentRunner worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Sets how many matches each player may be in at once. A player that
+     * plays several roles in one match counts once for each role. This
+     * should be set before any matches are added.
+     */
+    public synchronized void setMaxMatchesPerPlayer(int maxMatchesPerPlayer) {
+        this.maxMatchesPerPlayer = maxMatchesPerPlayer;
+        scheduleMatches();
+    }
+
+    /**
+     * Sets whether matches are played on compiled propnets rather than on
+     * the prover. On by default.
+     */
+    public synchronized void setUsingCompiledStateMachines(boolean usingCompiledStateMachines) {
+        this.usingCompiledStateMachines = usingCompiledStateMachines;
+    }
+
+    /**
+     * Sets the cache that the propnets of the games are read from, and added
+     * to once built, or null to always build them. By default, this is
+     * {@link PropNetCache#getDefaultCache()}, so a game seen in an earlier
+     * tournament doesn't need its propnet built again.
+     */
+    public synchronized void setPropNetCache(PropNetCache propNetCache) {
+        this.propNetCache = propNetCache;
+    }
+
+    /**
+     * Sets the directory that matches with shouldSave set are saved to. By
+     * default, this is the same one that the Scheduler uses.
+     */
+    public synchronized void setMatchesDirectory(File matchesDirectory) {
+        this.matchesDirectory = matchesDirectory;
+    }
+
+    public synchronized void setTournamentName(String tournamentName) {
+        this.tournamentName = tournamentName;
+    }
+
+    public synchronized void setSigningKeys(EncodedKeyPair signingKeys) {
+        this.signingKeys = signingKeys;
+    }
+
+    /**
+     * Adds an observer to the game server of every match started from now
+     * on. Observers must be thread-safe, since matches run concurrently.
+     */
+    public synchronized void addObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * Marks a player as available or not. No new matches are started with
+     * an unavailable player; matches already running are left alone.
+     */
+    public synchronized void setPlayerAvailable(PlayerPresence player, boolean available) {
+        if (available) {
+            unavailablePlayers.remove(getPlayerKey(player));
+        } else {
+            unavailablePlayers.add(getPlayerKey(player));
+        }
+        scheduleMatches();
+    }
+
+    /**
+     * Queues a match, and starts it right away if its players are free.
+     */
+    public synchronized void addPendingMatch(PendingMatch spec) {
+        if (shutDown) {
+            throw new IllegalStateException("TournamentRunner has been shut down");
+        }
+        for (Map.Entry<String, Integer> player : countPlayers(spec).entrySet()) {
+            if (player.getValue() > maxMatchesPerPlayer) {
+                throw new IllegalArgumentException("Player " + player.getKey() + " would be in more than " + maxMatchesPerPlayer + " matches at once in match " + spec.matchID);
+            }
+        }
+        String rulesheet = spec.theGame.getRulesheet();
+        if (!games.containsKey(rulesheet)) {
+            games.put(rulesheet, new SharedGame(spec.theGame));
+        }
+        queue.add(spec);
+        scheduleMatches();
+    }
+
+    public synchronized void addPendingMatches(List<PendingMatch> specs) {
+        for (PendingMatch spec : specs) {
+            addPendingMatch(spec);
+        }
+    }
+
+    /**
+     * Waits until every match added so far has finished. Matches held back
+     * by unavailable players keep this waiting until the players become
+     * available.
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (!queue.isEmpty() || numRunning > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Plays all of the given matches, and returns once they have finished.
+     */
+    public void runAll(List<PendingMatch> specs) throws InterruptedException {
+        addPendingMatches(specs);
+        awaitCompletion();
+    }
+
+    /**
+     * Drops the matches that haven't started, waits for the running ones to
+     * finish, and closes the results file.
+     */
+    public void shutdown() throws InterruptedException {
+        synchronized (this) {
+            shutDown = true;
+            queue.clear();
+            awaitCompletion();
+            if (resultsWriter != null) {
+                try {
+                    resultsWriter.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                resultsWriter = null;
+            }
+        }
+        workers.shutdown();
+    }
+
+    public synchronized int getNumQueued() {
+        return queue.size();
+    }
+
+    public synchronized int getNumRunning() {
+        return numRunning;
+    }
+
+    /**
+     * Returns the number of matches that were played to the end.
+     */
+    public synchronized int getNumCompleted() {
+        return numCompleted;
+    }
+
+    /**
+     * Returns the number of matches that finished without being played to
+     * the end, because they were aborted or failed.
+     */
+    public synchronized int getNumFailed() {
+        return numFailed;
+    }
+
+    /**
+     * Starts as many of the queued matches as the limits allow. Must be
+     * called with the lock held.
+     */
+    private void scheduleMatches() {
+        Iterator<PendingMatch> it = queue.iterator();
+        while (numRunning < maxConcurrentMatches && it.hasNext()) {
+            PendingMatch spec = it.next();
+            Map<String, Integer> players = countPlayers(spec);
+            if (canSchedule(players)) {
+                it.remove();
+                for (Map.Entry<String, Integer> player : players.entrySet()) {
+                    Integer busy = busyPlayers.get(player.getKey());
+                    busyPlayers.put(player.getKey(), ((busy == null) ? 0 : busy) + player.getValue());
+                }
+                numRunning++;
+                workers.execute(new MatchTask(spec, games.get(spec.theGame.getRulesheet())));
+            }
+        }
+    }
+
+    private boolean canSchedule(Map<String, Integer> players) {
+        for (Map.Entry<String, Integer> player : players.entrySet()) {
+            Integer busy = busyPlayers.get(player.getKey());
+            if (unavailablePlayers.contains(player.getKey()) || ((busy == null) ? 0 : busy) + player.getValue() > maxMatchesPerPlayer) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void finishMatch(PendingMatch spec, Match match) {
+        for (Map.Entry<String, Integer> player : countPlayers(spec).entrySet()) {
+            int busy = busyPlayers.get(player.getKey()) - player.getValue();
+            if (busy == 0) {
+                busyPlayers.remove(player.getKey());
+            } else {
+                busyPlayers.put(player.getKey(), busy);
+            }
+        }
+        numRunning--;
+        if (match != null && match.isCompleted()) {
+            numCompleted++;
+        } else {
+            numFailed++;
+        }
+        scheduleMatches();
+        notifyAll();
+    }
+
+    private synchronized void writeResult(JSONObject result) {
+        if (resultsFile == null) {
+            return;
+        }
+        try {
+            if (resultsWriter == null) {
+                resultsWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(resultsFile, true), "UTF-8"));
+            }
+            resultsWriter.write(result.toString());
+            resultsWriter.write('\n');
+            resultsWriter.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Map<String, Integer> countPlayers(PendingMatch spec) {
+        Map<String, Integer> players = new HashMap<String, Integer>();
+        for (PlayerPresence player : spec.thePlayers) {
+            Integer count = players.get(getPlayerKey(player));
+            players.put(getPlayerKey(player), (count == null) ? 1 : count + 1);
+        }
+        return players;
+    }
+
+    private static String getPlayerKey(PlayerPresence player) {
+        return player.getHost() + ":" + player.getPort();
+    }
+
+    /**
+     * Sets up and plays one match on a worker thread, and records its result.
+     */
+    private final class MatchTask implements Runnable {
+        private final PendingMatch spec;
+        private final SharedGame game;
+
+        MatchTask(PendingMatch spec, SharedGame game) {
+            this.spec = spec;
+            this.game = game;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.currentTimeMillis();
+            Match match = null;
+            String failure = null;
+            try {
+                match = playMatch();
+            } catch (Exception e) {
+                e.printStackTrace();
+                failure = e.toString();
+            } finally {
+                writeResult(renderResult(match, startTime, failure));
+                finishMatch(spec, match);
+            }
+        }
+
+        private Match playMatch() throws Exception {
+            String theTournamentName;
+            EncodedKeyPair theSigningKeys;
+            List<Observer> theObservers;
+            File theMatchesDirectory;
+            boolean useCompiledStateMachine;
+            PropNetCache thePropNetCache;
+            synchronized (TournamentRunner.this) {
+                theTournamentName = tournamentName;
+                theSigningKeys = signingKeys;
+                theObservers = new ArrayList<Observer>(observers);
+                theMatchesDirectory = matchesDirectory;
+                useCompiledStateMachine = usingCompiledStateMachines;
+                thePropNetCache = propNetCache;
+            }
+
+            Match match = new Match(spec.matchID, spec.previewClock, spec.startClock, spec.playClock, game.game, theTournamentName);
+            List<String> hosts = new ArrayList<String>(spec.thePlayers.size());
+            List<Integer> ports = new ArrayList<Integer>(spec.thePlayers.size());
+            List<String> playerNames = new ArrayList<String>(spec.thePlayers.size());
+            for (PlayerPresence player : spec.thePlayers) {
+                hosts.add(player.getHost());
+                ports.add(player.getPort());
+                playerNames.add((player.getName() != null) ? player.getName() : getPlayerKey(player));
+            }
+            match.setCryptographicKeys(theSigningKeys);
+            match.setPlayerNamesFromHost(playerNames);
+            if (spec.shouldScramble) {
+                match.enableScrambling();
+            }
+
+            GameServer gameServer = new GameServer(match, hosts, ports, game.createStateMachine(useCompiledStateMachine, thePropNetCache));
+            for (Observer observer : theObservers) {
+                gameServer.addObserver(observer);
+            }
+            if (spec.shouldSave) {
+                if (!theMatchesDirectory.exists()) {
+                    theMatchesDirectory.mkdirs();
+                }
+                gameServer.startSavingToFilename(new File(theMatchesDirectory, match.getMatchId() + ".json").getAbsolutePath());
+            }
+            if (spec.shouldPublish) {
+                String repositoryURL = match.getGame().getRepositoryURL();
+                if (repositoryURL != null && !repositoryURL.contains("127.0.0.1")) {
+                    gameServer.startPublishingToSpectatorServer("http://matches.ggp.org/");
+                }
+            }
+
+            // The match is played on this worker thread rather than on a
+            // thread of the game server's own
+            gameServer.run();
+            return match;
+        }
+
+        private JSONObject renderResult(Match match, long startTime, String failure) {
+            JSONObject result = new JSONObject();
+            try {
+                result.put("matchId", spec.matchID);
+                result.put("game", spec.theGame.getKey());
+                JSONArray players = new JSONArray();
+                for (PlayerPresence player : spec.thePlayers) {
+                    players.put(getPlayerKey(player));
+                }
+                result.put("players", players);
+                if (match != null) {
+                    result.put("playerNames", match.getPlayerNamesFromHost());
+                    result.put("isCompleted", match.isCompleted());
+                    result.put("isAborted", match.isAborted());
+                    if (match.getGoalValues().size() > 0) {
+                        result.put("goalValues", match.getGoalValues());
+                    }
+                    int[] errorCounts = new int[spec.thePlayers.size()];
+                    for (List<String> errors : match.getErrorHistory()) {
+                        for (int i = 0; i < errors.size() && i < errorCounts.length; i++) {
+                            if (!errors.get(i).isEmpty()) {
+                                errorCounts[i]++;
+                            }
+                        }
+                    }
+                    JSONArray theErrorCounts = new JSONArray();
+                    for (int errorCount : errorCounts) {
+                        theErrorCounts.put(errorCount);
+                    }
+                    result.put("errorCounts", theErrorCounts);
+                } else {
+                    result.put("isCompleted", false);
+                    result.put("isAborted", false);
+                }
+                result.put("startTime", startTime);
+                result.put("duration", System.currentTimeMillis() - startTime);
+                if (failure != null) {
+                    result.put("failure", failure);
+                }
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A game shared by all of the matches that play it, along with the
+     * compiled propnet they play it on, built by the first of them to start.
+     * If the propnet can't be built, the matches are played on the prover.
+     */
+    private static final class SharedGame {
+        final Game game;
+        private CompiledPropNetStateMachine compiledMachine;
+        private boolean compileFailed;
+
+        SharedGame(Game game) {
+            this.game = game;
+        }
+
+        StateMachine createStateMachine(boolean useCompiledStateMachine, PropNetCache propNetCache) {
+            if (useCompiledStateMachine) {
+                synchronized (this) {
+                    if (compiledMachine == null && !compileFailed) {
+                        try {
+                            CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine();
+                            machine.setPropNetCache(propNetCache);
+                            machine.initialize(game.getRules());
+                            compiledMachine = machine;
+                        } catch (ThreadDeath d) {
+                            throw d;
+                        } catch (Throwable t) {
+                            // Building the propnet of a big game can also run
+                            // out of stack or memory; play it on the prover
+                            t.printStackTrace();
+                            compileFailed = true;
+                        }
+                    }
+                    if (compiledMachine != null) {
+                        return compiledMachine.createView();
+                    }
+                }
+            }
+            StateMachine machine = new ProverStateMachine();
+            machine.initialize(game.getRules());
+            return machine;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.ggp.base.player.gamer.event;
+
+import org.ggp.base.util.observer.Event;
+
+/**
+ * Reports the size of a gamer's search tree after it has selected a move.
+ */
+public final class GamerSearchTreeEvent extends Event
+{
+    private final long nodeCount;
+    private final long estimatedBytes;
+    private final long nodesFreed;
+    private final long nodesEvicted;
+
+    public GamerSearchTreeEvent(long nodeCount, long estimatedBytes, long nodesFreed, long nodesEvicted) {
+        this.nodeCount = nodeCount;
+        this.estimatedBytes = estimatedBytes;
+        this.nodesFreed = nodesFreed;
+        this.nodesEvicted = nodesEvicted;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Returns the number of nodes dropped so far in the match because the
+     * game went another way.
+     */
+    public long getNodesFreed() {
+        return nodesFreed;
+    }
+
+    /**
+     * Returns the number of nodes evicted so far in the match to stay within
+     * the memory budget.
+     */
+    public long getNodesEvicted() {
+        return nodesEvicted;
+    }
+}
@@ -0,0 +1,14 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+/**
+ * Decides whether the search should add a node to the tree when it reaches a
+ * joint move that has not been expanded yet. If not, the playout starts from
+ * the resulting state without storing it.
+ *
+ * Implementations are shared by all the search threads, so they must be
+ * thread-safe.
+ */
+public interface ExpansionPolicy
+{
+    boolean shouldExpand(MctsNode parent, int[] moveIndices);
+}
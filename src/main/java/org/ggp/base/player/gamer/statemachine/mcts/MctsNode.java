@@ -0,0 +1,267 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateSummary;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+/**
+ * A node of the search tree built by {@link MctsSearch}, for one game state.
+ *
+ * Statistics are kept separately for each role and each of its legal moves,
+ * rather than for each joint move. This is what lets the same tree handle
+ * turn-taking and simultaneous games: in a turn-taking game, the roles that
+ * are not moving have a single legal move, and the statistics of the moving
+ * role are the usual ones. The child for a joint move is created the first
+ * time that joint move is expanded.
+ *
+ * All the statistics are updated atomically, so a node can be shared by any
+ * number of search threads. A visit is recorded when a thread passes through
+ * the node on the way down, and its utility only when the playout is done, so
+ * a visit in flight counts as a loss for the moves it went through. This
+ * "virtual loss" steers other threads away from the same path until the
+ * result is known.
+ */
+public final class MctsNode
+{
+    private final MachineState state;
+    private final boolean terminal;
+    private final int[] goals;
+
+    /** Per role: the legal moves in this state. */
+    private final Move[][] moves;
+    /** Per role: where the statistics of its moves start in the arrays below. */
+    private final int[] offsets;
+    private final AtomicIntegerArray moveVisits;
+    private final AtomicLongArray moveUtilities;
+    private final AtomicInteger visits = new AtomicInteger();
+
+    private final ConcurrentMap<Long, MctsNode> children = new ConcurrentHashMap<Long, MctsNode>();
+
+    /**
+     * Creates a node for the given state, using the given machine to find
+     * out whether it is terminal and what the legal moves are.
+     */
+    public MctsNode(StateMachine machine, MachineState state) throws MoveDefinitionException, GoalDefinitionException
+    {
+        this.state = state;
+        List<Role> roles = machine.getRoles();
+        StateSummary summary = machine.getStateSummary(state);
+        this.terminal = summary.isTerminal();
+        this.goals = new int[roles.size()];
+        this.moves = new Move[roles.size()][];
+        this.offsets = new int[roles.size()];
+        int numStats = 0;
+        for (int r = 0; r < roles.size(); r++) {
+            if (terminal) {
+                goals[r] = summary.getGoal(roles.get(r));
+                moves[r] = new Move[0];
+            } else {
+                List<Move> legals = summary.getLegalMoves(roles.get(r));
+                moves[r] = legals.toArray(new Move[legals.size()]);
+            }
+            offsets[r] = numStats;
+            numStats += moves[r].length;
+        }
+        this.moveVisits = new AtomicIntegerArray(numStats);
+        this.moveUtilities = new AtomicLongArray(numStats);
+    }
+
+    public MachineState getState() {
+        return state;
+    }
+
+    public boolean isTerminal() {
+        return terminal;
+    }
+
+    /**
+     * Returns the goal value of each role, in role order. Only meaningful for
+     * terminal nodes; the returned array must not be modified.
+     */
+    public int[] getGoals() {
+        return goals;
+    }
+
+    public int getNumRoles() {
+        return moves.length;
+    }
+
+    public int getNumMoves(int role) {
+        return moves[role].length;
+    }
+
+    public Move getMove(int role, int move) {
+        return moves[role][move];
+    }
+
+    /**
+     * Returns the index of the given move among the legal moves of the role,
+     * or -1 if it is not legal here.
+     */
+    public int indexOf(int role, Move move) {
+        for (int i = 0; i < moves[role].length; i++) {
+            if (moves[role][i].equals(move)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of times the search has passed through this node,
+     * including visits whose playouts are still in progress.
+     */
+    public int getVisits() {
+        return visits.get();
+    }
+
+    public int getVisits(int role, int move) {
+        return moveVisits.get(offsets[role] + move);
+    }
+
+    /**
+     * Returns the sum of the goal values the role received in the playouts
+     * that went through the given move.
+     */
+    public long getUtilitySum(int role, int move) {
+        return moveUtilities.get(offsets[role] + move);
+    }
+
+    /**
+     * Returns the average goal value for the role of the given move, between
+     * 0 and 100, or 0 if the move has not been visited.
+     */
+    public double getMeanUtility(int role, int move) {
+        int n = getVisits(role, move);
+        return n == 0 ? 0 : (double) getUtilitySum(role, move) / n;
+    }
+
+    /**
+     * Returns the move of the role that has been visited the most, which is
+     * the move the search is most confident about.
+     */
+    public Move getBestMove(int role) {
+        int best = 0;
+        for (int i = 1; i < moves[role].length; i++) {
+            int v = getVisits(role, i);
+            int bestV = getVisits(role, best);
+            if (v > bestV || (v == bestV && getMeanUtility(role, i) > getMeanUtility(role, best))) {
+                best = i;
+            }
+        }
+        return moves[role][best];
+    }
+
+    /**
+     * Returns the joint move made of the given move index for each role.
+     */
+    public List<Move> getJointMove(int[] moveIndices) {
+        List<Move> jointMove = new ArrayList<Move>(moves.length);
+        for (int r = 0; r < moves.length; r++) {
+            jointMove.add(moves[r][moveIndices[r]]);
+        }
+        return jointMove;
+    }
+
+    /**
+     * Returns a key that identifies the given joint move among the joint
+     * moves of this node.
+     */
+    public long getJointMoveKey(int[] moveIndices) {
+        long key = 0;
+        for (int r = 0; r < moves.length; r++) {
+            key = key * moves[r].length + moveIndices[r];
+        }
+        return key;
+    }
+
+    /**
+     * Returns the child for the joint move with the given key, or null if it
+     * has not been expanded.
+     */
+    public MctsNode getChild(long jointMoveKey) {
+        return children.get(jointMoveKey);
+    }
+
+    public Collection<MctsNode> getChildren() {
+        return children.values();
+    }
+
+    Set<Map.Entry<Long, MctsNode>> getChildEntries() {
+        return children.entrySet();
+    }
+
+    void removeChild(long jointMoveKey) {
+        children.remove(jointMoveKey);
+    }
+
+    /**
+     * Returns a rough estimate of the memory used by this node on a 64-bit
+     * JVM, including its entry in the parent's child map but not the game
+     * state, which may be shared.
+     */
+    public long getEstimatedBytes() {
+        return 320 + 8L * moves.length + 20L * moveVisits.length();
+    }
+
+    /**
+     * Adds a child for the joint move with the given key, unless another
+     * thread got there first. Returns the child that ended up in the tree.
+     */
+    MctsNode addChild(long jointMoveKey, MctsNode child) {
+        MctsNode existing = children.putIfAbsent(jointMoveKey, child);
+        return existing == null ? child : existing;
+    }
+
+    /**
+     * Records a visit through the given joint move, before its playout.
+     */
+    void addVisit(int[] moveIndices) {
+        visits.incrementAndGet();
+        for (int r = 0; r < moves.length; r++) {
+            moveVisits.incrementAndGet(offsets[r] + moveIndices[r]);
+        }
+    }
+
+    /**
+     * Records the result of a playout that went through the given joint move.
+     */
+    void addUtility(int[] moveIndices, int[] playoutGoals) {
+        for (int r = 0; r < moves.length; r++) {
+            moveUtilities.addAndGet(offsets[r] + moveIndices[r], playoutGoals[r]);
+        }
+    }
+
+    /**
+     * Adds the move statistics of another node for the same state into this
+     * one, matching moves by equality. Used to combine the roots of separate
+     * trees.
+     */
+    void merge(MctsNode other) {
+        visits.addAndGet(other.getVisits());
+        for (int r = 0; r < moves.length; r++) {
+            for (int i = 0; i < other.getNumMoves(r); i++) {
+                int j = indexOf(r, other.getMove(r, i));
+                if (j >= 0) {
+                    moveVisits.addAndGet(offsets[r] + j, other.getVisits(r, i));
+                    moveUtilities.addAndGet(offsets[r] + j, other.getUtilitySum(r, i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the nodes in the trees of an {@link MctsSearch}, and keeps
+ * them within a memory budget.
+ *
+ * Between searches, {@link #retain} recounts the trees that are kept for the
+ * next search. Everything that is no longer reachable from them is dropped
+ * all at once. If the kept trees still take more than half the budget, the
+ * least-visited subtrees are evicted until they fit, so that the next search
+ * has room to grow. During a search, nodes are only added while there is room
+ * in the budget; after that, iterations keep running playouts without
+ * growing the tree.
+ *
+ * The sizes are estimates (see {@link MctsNode#getEstimatedBytes()}); the
+ * memory itself is reclaimed by the garbage collector.
+ */
+public final class MctsNodePool
+{
+    private final long budgetBytes;
+
+    private final AtomicLong nodeCount = new AtomicLong();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private long nodesFreed;
+    private long nodesEvicted;
+
+    public MctsNodePool(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getNodeCount() {
+        return nodeCount.get();
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    /**
+     * Returns the total number of nodes dropped because they were not under
+     * the state actually reached in the game.
+     */
+    public long getNodesFreed() {
+        return nodesFreed;
+    }
+
+    /**
+     * Returns the total number of nodes evicted to stay within the budget.
+     */
+    public long getNodesEvicted() {
+        return nodesEvicted;
+    }
+
+    /**
+     * Returns whether a new node can be added without going over the budget.
+     */
+    public boolean hasRoom() {
+        return estimatedBytes.get() < budgetBytes;
+    }
+
+    /**
+     * Accounts for a node that has just been added to a tree, including a
+     * new root.
+     */
+    public void add(MctsNode node) {
+        nodeCount.incrementAndGet();
+        estimatedBytes.addAndGet(node.getEstimatedBytes());
+    }
+
+    /**
+     * Recounts the nodes under the given roots, which become the only ones
+     * kept, and evicts the least-visited subtrees if they take more than half
+     * the budget. Must not be called while a search is running.
+     */
+    public void retain(Collection<MctsNode> roots) {
+        final List<MctsNode> nodes = new ArrayList<MctsNode>();
+        final List<MctsNode> parents = new ArrayList<MctsNode>();
+        final List<Long> keys = new ArrayList<Long>();
+        long count = 0;
+        long bytes = 0;
+        for (MctsNode root : roots) {
+            nodes.add(root);
+            parents.add(null);
+            keys.add(null);
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            MctsNode node = nodes.get(i);
+            count++;
+            bytes += node.getEstimatedBytes();
+            for (Map.Entry<Long, MctsNode> entry : node.getChildEntries()) {
+                nodes.add(entry.getValue());
+                parents.add(node);
+                keys.add(entry.getKey());
+            }
+        }
+        nodesFreed += Math.max(0, nodeCount.get() - count);
+
+        long target = budgetBytes / 2;
+        if (bytes > target) {
+            List<Integer> order = new ArrayList<Integer>();
+            for (int i = roots.size(); i < nodes.size(); i++) {
+                order.add(i);
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Integer.compare(nodes.get(a).getVisits(), nodes.get(b).getVisits());
+                }
+            });
+            Set<MctsNode> evicted = Collections.newSetFromMap(new IdentityHashMap<MctsNode, Boolean>());
+            for (int i : order) {
+                if (bytes <= target) {
+                    break;
+                }
+                MctsNode node = nodes.get(i);
+                if (evicted.contains(node)) {
+                    continue;
+                }
+                parents.get(i).removeChild(keys.get(i));
+                List<MctsNode> subtree = new ArrayList<MctsNode>();
+                subtree.add(node);
+                for (int j = 0; j < subtree.size(); j++) {
+                    MctsNode n = subtree.get(j);
+                    evicted.add(n);
+                    count--;
+                    bytes -= n.getEstimatedBytes();
+                    nodesEvicted++;
+                    subtree.addAll(n.getChildren());
+                }
+            }
+        }
+        nodeCount.set(count);
+        estimatedBytes.set(bytes);
+    }
+}
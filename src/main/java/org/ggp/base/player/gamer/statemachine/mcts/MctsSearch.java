@@ -0,0 +1,300 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A multi-threaded Monte Carlo tree search over any StateMachine.
+ *
+ * The search is given one state machine per thread, all initialized with the
+ * same game. Machines are never shared between threads, so any StateMachine
+ * works as long as a separate instance can be made for each thread (for
+ * compiled propnets, see CompiledPropNetStateMachine.createView()). The
+ * calling thread does the work of the first machine, and a pool of threads
+ * is kept for the others.
+ *
+ * Two kinds of parallelism are supported:
+ * <ul>
+ * <li>{@link Parallelism#TREE}: all threads grow a single shared tree. Node
+ *     statistics are updated atomically, and in-flight visits count as losses
+ *     (see {@link MctsNode}) so that threads spread out over the tree.</li>
+ * <li>{@link Parallelism#ROOT}: each thread grows its own tree from the same
+ *     state, and the statistics of the roots are added up at the end. There is
+ *     no contention between threads, but no sharing of knowledge either.</li>
+ * </ul>
+ *
+ * Each iteration selects moves down the tree with the {@link SelectionPolicy},
+ * asks the {@link ExpansionPolicy} whether to add the state it reaches, and
+ * evaluates that state with the {@link PlayoutPolicy}. The goal values from the
+ * playout are then added to every node on the way.
+ *
+ * The trees are kept from one search to the next. When a search starts from
+ * a state that is in a kept tree (usually a child or grandchild of the
+ * previous root, reached by the moves actually played), that subtree becomes
+ * the new root and the rest of the tree is dropped. The size of the trees is
+ * bounded by the {@link MctsNodePool}.
+ */
+public final class MctsSearch
+{
+    public static enum Parallelism { ROOT, TREE }
+
+    private final List<? extends StateMachine> machines;
+    private final Parallelism parallelism;
+    private final SelectionPolicy selectionPolicy;
+    private final ExpansionPolicy expansionPolicy;
+    private final PlayoutPolicy playoutPolicy;
+    private final Random[] randoms;
+    private final ExecutorService executor;
+    private MctsNodePool pool;
+
+    /** The roots of the last search, one per thread (all the same in tree mode). */
+    private MctsNode[] roots;
+
+    private final AtomicLong iterations = new AtomicLong();
+
+    /**
+     * Creates a search that runs one thread per state machine given.
+     */
+    public MctsSearch(List<? extends StateMachine> machines, Parallelism parallelism,
+            SelectionPolicy selectionPolicy, ExpansionPolicy expansionPolicy, PlayoutPolicy playoutPolicy) {
+        if (machines.isEmpty()) {
+            throw new IllegalArgumentException("MctsSearch needs at least one state machine");
+        }
+        this.machines = new ArrayList<StateMachine>(machines);
+        this.parallelism = parallelism;
+        this.selectionPolicy = selectionPolicy;
+        this.expansionPolicy = expansionPolicy;
+        this.playoutPolicy = playoutPolicy;
+        this.randoms = new Random[machines.size()];
+        for (int i = 0; i < randoms.length; i++) {
+            randoms[i] = new Random();
+        }
+        if (machines.size() > 1) {
+            this.executor = Executors.newFixedThreadPool(machines.size() - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "MctsSearch worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            this.executor = null;
+        }
+        this.pool = new MctsNodePool(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Creates a search with UCT selection, one new node per iteration and
+     * random playouts.
+     */
+    public MctsSearch(List<? extends StateMachine> machines, Parallelism parallelism) {
+        this(machines, parallelism, new UctSelectionPolicy(), new VisitThresholdExpansionPolicy(), new RandomPlayoutPolicy());
+    }
+
+    public Parallelism getParallelism() {
+        return parallelism;
+    }
+
+    public int getNumThreads() {
+        return machines.size();
+    }
+
+    /**
+     * Returns the number of iterations run so far, over all calls to
+     * {@link #search}.
+     */
+    public long getIterations() {
+        return iterations.get();
+    }
+
+    public MctsNodePool getNodePool() {
+        return pool;
+    }
+
+    /**
+     * Replaces the node pool with one with the given budget, in bytes. By
+     * default, a quarter of the maximum heap size is used.
+     */
+    public void setMemoryBudget(long budgetBytes) {
+        pool = new MctsNodePool(budgetBytes);
+        roots = null;
+    }
+
+    /**
+     * Searches from the given state until the given time (in milliseconds
+     * since the epoch), and returns the root of the resulting tree. In root
+     * parallel mode, the returned node holds the combined statistics of the
+     * roots of all the trees, but no children.
+     */
+    public MctsNode search(MachineState state, final long finishBy) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        final MctsNode[] roots = new MctsNode[machines.size()];
+        List<MctsNode> distinctRoots = new ArrayList<MctsNode>();
+        for (int i = 0; i < roots.length; i++) {
+            if (parallelism == Parallelism.TREE && i > 0) {
+                roots[i] = roots[0];
+            } else {
+                roots[i] = findOrCreateRoot(this.roots == null ? null : this.roots[i], machines.get(i), state);
+                distinctRoots.add(roots[i]);
+            }
+        }
+        this.roots = roots;
+        pool.retain(distinctRoots);
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 1; i < roots.length; i++) {
+            final int worker = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    runIterations(worker, roots[worker], finishBy);
+                    return null;
+                }
+            }));
+        }
+        Exception failure = null;
+        try {
+            runIterations(0, roots[0], finishBy);
+        } catch (TransitionDefinitionException | MoveDefinitionException | GoalDefinitionException | RuntimeException e) {
+            failure = e;
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (failure != null) {
+            rethrow(failure);
+        }
+
+        if (parallelism == Parallelism.ROOT) {
+            MctsNode combined = new MctsNode(machines.get(0), state);
+            for (MctsNode root : roots) {
+                combined.merge(root);
+            }
+            return combined;
+        }
+        return roots[0];
+    }
+
+    /**
+     * Returns the node for the given state if it is the old root or within
+     * two moves below it, or a new node, counted by the pool, otherwise.
+     */
+    private MctsNode findOrCreateRoot(MctsNode oldRoot, StateMachine machine, MachineState state) throws MoveDefinitionException, GoalDefinitionException {
+        if (oldRoot != null) {
+            if (oldRoot.getState().equals(state)) {
+                return oldRoot;
+            }
+            for (MctsNode child : oldRoot.getChildren()) {
+                if (child.getState().equals(state)) {
+                    return child;
+                }
+            }
+            for (MctsNode child : oldRoot.getChildren()) {
+                for (MctsNode grandchild : child.getChildren()) {
+                    if (grandchild.getState().equals(state)) {
+                        return grandchild;
+                    }
+                }
+            }
+        }
+        MctsNode root = new MctsNode(machine, state);
+        pool.add(root);
+        return root;
+    }
+
+    /**
+     * Stops the worker threads. The search can't be used afterwards.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runIterations(int worker, MctsNode root, long finishBy) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        StateMachine machine = machines.get(worker);
+        Random random = randoms[worker];
+        List<MctsNode> path = new ArrayList<MctsNode>();
+        List<int[]> choices = new ArrayList<int[]>();
+        while (System.currentTimeMillis() < finishBy && !root.isTerminal()) {
+            path.clear();
+            choices.clear();
+            iterate(machine, random, root, path, choices);
+            iterations.incrementAndGet();
+        }
+    }
+
+    private void iterate(StateMachine machine, Random random, MctsNode root, List<MctsNode> path, List<int[]> choices) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        MctsNode node = root;
+        int[] goals;
+        while (true) {
+            if (node.isTerminal()) {
+                goals = node.getGoals();
+                break;
+            }
+            int[] choice = new int[node.getNumRoles()];
+            for (int r = 0; r < choice.length; r++) {
+                choice[r] = selectionPolicy.select(node, r, random);
+            }
+            node.addVisit(choice);
+            path.add(node);
+            choices.add(choice);
+
+            long key = node.getJointMoveKey(choice);
+            MctsNode child = node.getChild(key);
+            if (child == null) {
+                MachineState next = machine.getNextState(node.getState(), node.getJointMove(choice));
+                if (pool.hasRoom() && expansionPolicy.shouldExpand(node, choice)) {
+                    MctsNode newChild = new MctsNode(machine, next);
+                    child = node.addChild(key, newChild);
+                    if (child == newChild) {
+                        pool.add(child);
+                    }
+                    goals = child.isTerminal() ? child.getGoals() : playoutPolicy.playout(machine, child.getState(), random);
+                } else {
+                    goals = playoutPolicy.playout(machine, next, random);
+                }
+                break;
+            }
+            node = child;
+        }
+        for (int i = 0; i < path.size(); i++) {
+            path.get(i).addUtility(choices.get(i), goals);
+        }
+    }
+
+    private static void rethrow(Exception e) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        if (e instanceof TransitionDefinitionException) {
+            throw (TransitionDefinitionException) e;
+        } else if (e instanceof MoveDefinitionException) {
+            throw (MoveDefinitionException) e;
+        } else if (e instanceof GoalDefinitionException) {
+            throw (GoalDefinitionException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new RuntimeException(e);
+    }
+}
@@ -0,0 +1,26 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.Random;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * Estimates the value of a state that is not in the tree (yet), usually by
+ * playing the game out to the end.
+ *
+ * Implementations are shared by all the search threads, so they must be
+ * thread-safe; the machine and the Random passed in belong to the calling
+ * thread.
+ */
+public interface PlayoutPolicy
+{
+    /**
+     * Returns the value of the state for each role, in role order, on the
+     * same 0 to 100 scale as goal values.
+     */
+    int[] playout(StateMachine machine, MachineState state, Random random) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException;
+}
@@ -0,0 +1,31 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.Random;
+
+import org.ggp.base.util.statemachine.DepthChargeResults;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * Plays the game out to the end with uniformly random moves for every role,
+ * with {@link StateMachine#performDepthCharges}, drawing from the Random of
+ * the calling thread instead of creating one per move. State machines that
+ * play depth charges out without building states along the way, such as the
+ * compiled propnet, do so here as well.
+ */
+public final class RandomPlayoutPolicy implements PlayoutPolicy
+{
+    @Override
+    public int[] playout(StateMachine machine, MachineState state, Random random) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        DepthChargeResults results = new DepthChargeResults(machine.getRoles().size());
+        machine.performDepthCharges(state, null, null, 1, Long.MAX_VALUE, random, results);
+        int[] goals = new int[machine.getRoles().size()];
+        for (int r = 0; r < goals.length; r++) {
+            goals[r] = (int) results.getGoalSum(r);
+        }
+        return goals;
+    }
+}
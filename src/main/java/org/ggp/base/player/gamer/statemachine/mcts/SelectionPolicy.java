@@ -0,0 +1,18 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.Random;
+
+/**
+ * Chooses which move each role makes when the search passes through a node
+ * that is already in the tree.
+ *
+ * Implementations are shared by all the search threads, so they must be
+ * thread-safe; the Random passed in belongs to the calling thread.
+ */
+public interface SelectionPolicy
+{
+    /**
+     * Returns the index of the move the given role should make in the node.
+     */
+    int select(MctsNode node, int role, Random random);
+}
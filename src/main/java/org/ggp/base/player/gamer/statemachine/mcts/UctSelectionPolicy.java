@@ -0,0 +1,54 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.Random;
+
+/**
+ * Selects moves with UCB1 (the UCT algorithm), applied to each role
+ * independently: every role maximizes its own average goal value plus an
+ * exploration bonus. Unvisited moves are always tried first, starting from a
+ * random one so that concurrent threads tend to try different moves.
+ */
+public final class UctSelectionPolicy implements SelectionPolicy
+{
+    private final double exploration;
+
+    /**
+     * Creates a policy with the given exploration constant, on a scale where
+     * goal values are between 0 and 1.
+     */
+    public UctSelectionPolicy(double exploration) {
+        this.exploration = exploration;
+    }
+
+    public UctSelectionPolicy() {
+        this(0.4);
+    }
+
+    @Override
+    public int select(MctsNode node, int role, Random random) {
+        int n = node.getNumMoves(role);
+        if (n == 1) {
+            return 0;
+        }
+        int start = random.nextInt(n);
+        for (int k = 0; k < n; k++) {
+            int i = (start + k) % n;
+            if (node.getVisits(role, i) == 0) {
+                return i;
+            }
+        }
+        double logVisits = Math.log(node.getVisits());
+        int best = 0;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            int visits = node.getVisits(role, i);
+            double value = node.getUtilitySum(role, i) / (100.0 * visits)
+                    + exploration * Math.sqrt(logVisits / visits);
+            if (value > bestValue) {
+                bestValue = value;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,25 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+/**
+ * Expands a joint move once its parent has been visited a given number of
+ * times. With a threshold of zero, every iteration adds one node to the tree;
+ * higher thresholds keep the tree smaller at the cost of less precise
+ * statistics near the leaves.
+ */
+public final class VisitThresholdExpansionPolicy implements ExpansionPolicy
+{
+    private final int minParentVisits;
+
+    public VisitThresholdExpansionPolicy(int minParentVisits) {
+        this.minParentVisits = minParentVisits;
+    }
+
+    public VisitThresholdExpansionPolicy() {
+        this(0);
+    }
+
+    @Override
+    public boolean shouldExpand(MctsNode parent, int[] moveIndices) {
+        return parent.getVisits() >= minParentVisits;
+    }
+}
@@ -1,15 +1,28 @@
 package org.ggp.base.player.gamer.statemachine.sample;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.ggp.base.apps.player.detail.DetailPanel;
 import org.ggp.base.apps.player.detail.SimpleDetailPanel;
 import org.ggp.base.player.gamer.exception.GamePreviewException;
 import org.ggp.base.player.gamer.statemachine.StateMachineGamer;
 import org.ggp.base.util.game.Game;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.cache.CachedStateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
 import org.ggp.base.util.statemachine.implementation.propnet.SamplePropNetStateMachine;
 
 /**
@@ -24,6 +37,9 @@ import org.ggp.base.util.statemachine.implementation.propnet.SamplePropNetStateM
 
 public abstract class SampleGamer extends StateMachineGamer
 {
+    /** How long before a timeout to stop work and get ready to reply. */
+    private static final long TIMEOUT_MARGIN = 1000;
+
     @Override
     public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
     {
@@ -48,6 +64,74 @@ public abstract class SampleGamer extends StateMachineGamer
     	return new CachedStateMachine(new SamplePropNetStateMachine());
     }
 
+    /**
+     * Returns up to the given number of state machines for the current
+     * match, for gamers that search on several threads. The first is the
+     * gamer's own state machine. A compiled propnet is shared with views of
+     * it, and any other state machine is initialized again from the rules,
+     * one at a time, for as long as the metagame timeout allows: once the
+     * next one could not be ready in time, the machines built so far are
+     * returned.
+     */
+    protected List<StateMachine> createThreadStateMachines(int count, long timeout) {
+        List<StateMachine> machines = new ArrayList<StateMachine>();
+        machines.add(getStateMachine());
+        if (getStateMachine() instanceof CompiledPropNetStateMachine) {
+            for (int i = 1; i < count; i++) {
+                machines.add(((CompiledPropNetStateMachine) getStateMachine()).createView());
+            }
+            return machines;
+        }
+
+        // Each machine is built on another thread, so that one that is still
+        // being built at the deadline can be abandoned
+        ExecutorService builder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SampleGamer state machine builder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            long finishBy = timeout - TIMEOUT_MARGIN;
+            long lastBuildTime = 0;
+            while (machines.size() < count) {
+                long start = System.currentTimeMillis();
+                if (start + lastBuildTime > finishBy) {
+                    break;
+                }
+                Future<StateMachine> future = builder.submit(new Callable<StateMachine>() {
+                    @Override
+                    public StateMachine call() {
+                        StateMachine machine = getInitialStateMachine();
+                        machine.initialize(getMatch().getGame().getRules());
+                        return machine;
+                    }
+                });
+                try {
+                    machines.add(future.get(Math.max(0, finishBy - start), TimeUnit.MILLISECONDS));
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    break;
+                } catch (ExecutionException e) {
+                    GamerLogger.logStackTrace("GamePlayer", e);
+                    break;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                lastBuildTime = System.currentTimeMillis() - start;
+            }
+        } finally {
+            builder.shutdownNow();
+        }
+        if (machines.size() < count) {
+            GamerLogger.log("GamePlayer", "Built " + machines.size() + " of " + count + " state machines before the metagame timeout");
+        }
+        return machines;
+    }
+
     // This is the default Sample Panel
     @Override
     public DetailPanel getDetailPanel() {
@@ -0,0 +1,86 @@
+package org.ggp.base.player.gamer.statemachine.sample;
+
+import java.util.List;
+
+import org.ggp.base.player.gamer.event.GamerSearchTreeEvent;
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.mcts.MctsNode;
+import org.ggp.base.player.gamer.statemachine.mcts.MctsNodePool;
+import org.ggp.base.player.gamer.statemachine.mcts.MctsSearch;
+import org.ggp.base.util.propnet.cache.PropNetCache;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+
+/**
+ * SampleMctsGamer is a simple Monte Carlo tree search gamer that delegates
+ * all of its search to {@link MctsSearch}, using one thread per available
+ * processor and a single shared tree.
+ *
+ * It plays on a compiled propnet, so the propnet is built once and each
+ * search thread gets its own view of it. The propnet is kept in the default
+ * {@link PropNetCache}, so a game played before doesn't need it built again
+ * at the start of the match. Gamers that prefer another state
+ * machine can override getInitialStateMachine(); a separate instance of it
+ * is then initialized for each thread.
+ *
+ * The tree is kept from move to move, and its size is reported with a
+ * {@link GamerSearchTreeEvent} after each move.
+ */
+public final class SampleMctsGamer extends SampleGamer
+{
+    private MctsSearch search;
+
+    @Override
+    public StateMachine getInitialStateMachine() {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine(CompiledPropNetStateMachine.PropagationMode.DIFFERENTIAL);
+        machine.setPropNetCache(PropNetCache.getDefaultCache());
+        return machine;
+    }
+
+    @Override
+    public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        List<StateMachine> machines = createThreadStateMachines(Runtime.getRuntime().availableProcessors(), timeout);
+        search = new MctsSearch(machines, MctsSearch.Parallelism.TREE);
+    }
+
+    @Override
+    public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        long start = System.currentTimeMillis();
+        List<Move> moves = getStateMachine().getLegalMoves(getCurrentState(), getRole());
+
+        Move selection = moves.get(0);
+        if (moves.size() > 1) {
+            MctsNode root = search.search(getCurrentState(), timeout - 1000);
+            selection = root.getBestMove(getStateMachine().getRoleIndices().get(getRole()));
+        }
+
+        long stop = System.currentTimeMillis();
+        MctsNodePool pool = search.getNodePool();
+        notifyObservers(new GamerSearchTreeEvent(pool.getNodeCount(), pool.getEstimatedBytes(), pool.getNodesFreed(), pool.getNodesEvicted()));
+        notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start));
+        return selection;
+    }
+
+    @Override
+    public void stateMachineStop() {
+        shutdownSearch();
+    }
+
+    @Override
+    public void stateMachineAbort() {
+        shutdownSearch();
+    }
+
+    private void shutdownSearch() {
+        if (search != null) {
+            search.shutdown();
+            search = null;
+        }
+    }
+}
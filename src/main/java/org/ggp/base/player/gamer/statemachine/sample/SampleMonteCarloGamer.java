@@ -3,7 +3,8 @@ package org.ggp.base.player.gamer.statemachine.sample;
 import java.util.List;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
-import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.DepthChargePool;
+import org.ggp.base.util.statemachine.DepthChargeResults;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
@@ -17,14 +18,29 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
  * more challenging than the RandomGamer, while still playing reasonably fast.
  *
  * However, right now it isn't challenging at all. It's extremely mediocre, and
- * doesn't even block obvious one-move wins. This is partially due to the speed
- * of the default state machine (which is slow) and mostly due to the algorithm
- * assuming that the opponent plays completely randomly, which is inaccurate.
+ * doesn't even block obvious one-move wins. This is mostly due to the
+ * algorithm assuming that the opponent plays completely randomly, which is
+ * inaccurate.
+ *
+ * The simulations are run with a {@link DepthChargePool} on up to one thread
+ * per available processor, each with its own state machine, using as many
+ * state machines as can be built before the metagame timeout.
  *
  * @author Sam Schreiber
  */
 public final class SampleMonteCarloGamer extends SampleGamer
 {
+    /** The number of depth charges to run per thread for a move at a time. */
+    private static final int CHARGES_PER_THREAD = 16;
+
+    private DepthChargePool pool;
+
+    @Override
+    public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        pool = new DepthChargePool(createThreadStateMachines(Runtime.getRuntime().availableProcessors(), timeout));
+    }
+
     /**
      * Employs a simple sample "Monte Carlo" algorithm.
      */
@@ -39,32 +55,29 @@ public final class SampleMonteCarloGamer extends SampleGamer
 
         Move selection = moves.get(0);
         if (moves.size() > 1) {
-            int[] moveTotalPoints = new int[moves.size()];
-            int[] moveTotalAttempts = new int[moves.size()];
+            int role = theMachine.getRoleIndices().get(getRole());
+            DepthChargeResults[] moveResults = new DepthChargeResults[moves.size()];
+            for (int i = 0; i < moves.size(); i++) {
+                moveResults[i] = new DepthChargeResults(theMachine.getRoles().size());
+            }
 
-            // Perform depth charges for each candidate move, and keep track
-            // of the total score and total attempts accumulated for each move.
+            // Perform a batch of depth charges for each candidate move in
+            // turn, and keep track of the total score and total attempts
+            // accumulated for each move.
+            int batch = CHARGES_PER_THREAD * pool.getNumThreads();
             for (int i = 0; true; i = (i+1) % moves.size()) {
                 if (System.currentTimeMillis() > finishBy)
                     break;
 
-                int theScore = performDepthChargeFromMove(getCurrentState(), moves.get(i));
-                moveTotalPoints[i] += theScore;
-                moveTotalAttempts[i] += 1;
-            }
-
-            // Compute the expected score for each move.
-            double[] moveExpectedPoints = new double[moves.size()];
-            for (int i = 0; i < moves.size(); i++) {
-                moveExpectedPoints[i] = (double)moveTotalPoints[i] / moveTotalAttempts[i];
+                moveResults[i].add(pool.performDepthCharges(getCurrentState(), getRole(), moves.get(i), batch, finishBy));
             }
 
             // Find the move with the best expected score.
             int bestMove = 0;
-            double bestMoveScore = moveExpectedPoints[0];
+            double bestMoveScore = moveResults[0].getAverageGoal(role);
             for (int i = 1; i < moves.size(); i++) {
-                if (moveExpectedPoints[i] > bestMoveScore) {
-                    bestMoveScore = moveExpectedPoints[i];
+                if (moveResults[i].getAverageGoal(role) > bestMoveScore) {
+                    bestMoveScore = moveResults[i].getAverageGoal(role);
                     bestMove = i;
                 }
             }
@@ -77,15 +90,20 @@ public final class SampleMonteCarloGamer extends SampleGamer
         return selection;
     }
 
-    private int[] depth = new int[1];
-    int performDepthChargeFromMove(MachineState theState, Move myMove) {
-        StateMachine theMachine = getStateMachine();
-        try {
-            MachineState finalState = theMachine.performDepthCharge(theMachine.getRandomNextState(theState, getRole(), myMove), depth);
-            return theMachine.findReward(getRole(), finalState);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return 0;
+    @Override
+    public void stateMachineStop() {
+        shutdownPool();
+    }
+
+    @Override
+    public void stateMachineAbort() {
+        shutdownPool();
+    }
+
+    private void shutdownPool() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
         }
     }
-}
\ No newline at end of file
+}
@@ -380,6 +380,7 @@ public final class ProxyGamePlayer extends Thread implements Subject
                     theClientManager.start();
 
                     theDefaultGamer = new RandomGamer();
+                    GamerLogger.log("Proxy", "[PROXY] GDL pool before draining: " + GdlPool.getStatistics());
                     GdlPool.drainPool();
                     SymbolPool.drainPool();
 
@@ -1,8 +1,6 @@
 package org.ggp.base.server;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -17,6 +15,7 @@ import org.ggp.base.server.event.ServerMatchUpdatedEvent;
 import org.ggp.base.server.event.ServerNewGameStateEvent;
 import org.ggp.base.server.event.ServerNewMatchEvent;
 import org.ggp.base.server.event.ServerNewMovesEvent;
+import org.ggp.base.server.event.ServerRequestLatencyEvent;
 import org.ggp.base.server.event.ServerTimeEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
 import org.ggp.base.server.threads.AbortRequestThread;
@@ -25,8 +24,10 @@ import org.ggp.base.server.threads.PreviewRequestThread;
 import org.ggp.base.server.threads.RandomPlayRequestThread;
 import org.ggp.base.server.threads.StartRequestThread;
 import org.ggp.base.server.threads.StopRequestThread;
+import org.ggp.base.util.http.RequestLatency;
+import org.ggp.base.util.match.AsyncMatchPublisher;
 import org.ggp.base.util.match.Match;
-import org.ggp.base.util.match.MatchPublisher;
+import org.ggp.base.util.match.MatchJournal;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
 import org.ggp.base.util.observer.Subject;
@@ -51,15 +52,26 @@ public final class GameServer extends Thread implements Subject
 
     private final List<Observer> observers;
     private List<Move> previousMoves;
+    private List<RequestLatency> previousLatencies;
 
     private Map<Role,String> mostRecentErrors;
 
     private String saveToFilename;
-    private String spectatorServerURL;
-    private String spectatorServerKey;
+    private MatchJournal journal;
+    private volatile AsyncMatchPublisher spectatorPublisher;
     private boolean forceUsingEntireClock;
+    private long minimumRoundTime;
 
     public GameServer(Match match, List<String> hosts, List<Integer> ports) {
+        this(match, hosts, ports, createProverStateMachine(match));
+    }
+
+    /**
+     * Creates a game server that runs the match on the given state machine,
+     * which must already be initialized with the match's game, and must not
+     * be used by anything else while the match is running.
+     */
+    public GameServer(Match match, List<String> hosts, List<Integer> ports, StateMachine stateMachine) {
         this.match = match;
 
         this.hosts = hosts;
@@ -68,8 +80,7 @@ public final class GameServer extends Thread implements Subject
         playerGetsUnlimitedTime = new boolean[hosts.size()];
         playerPlaysRandomly = new boolean[hosts.size()];
 
-        stateMachine = new ProverStateMachine();
-        stateMachine.initialize(match.getGame().getRules());
+        this.stateMachine = stateMachine;
         currentState = stateMachine.getInitialState();
         previousMoves = null;
 
@@ -79,17 +90,38 @@ public final class GameServer extends Thread implements Subject
 
         observers = new ArrayList<Observer>();
 
-        spectatorServerURL = null;
+        spectatorPublisher = null;
         forceUsingEntireClock = false;
+        minimumRoundTime = 0;
+    }
+
+    private static StateMachine createProverStateMachine(Match match) {
+        StateMachine stateMachine = new ProverStateMachine();
+        stateMachine.initialize(match.getGame().getRules());
+        return stateMachine;
     }
 
     public void startSavingToFilename(String theFilename) {
         saveToFilename = theFilename;
+        journal = new MatchJournal(MatchJournal.getJournalFile(new File(theFilename)));
     }
 
     public String startPublishingToSpectatorServer(String theURL) {
-        spectatorServerURL = theURL;
-        return publishWhenNecessary();
+        return startPublishingToSpectatorServer(theURL, false);
+    }
+
+    /**
+     * Publishes the match to the spectator server right away, and returns the
+     * key it was given, or null if that failed. Later updates are published
+     * in the background, as deltas if the server understands them, so that
+     * the spectator server never holds up the match.
+     */
+    public String startPublishingToSpectatorServer(String theURL, boolean publishDeltas) {
+        AsyncMatchPublisher publisher = new AsyncMatchPublisher(theURL);
+        publisher.setPublishingDeltas(publishDeltas);
+        String theKey = publisher.publishNow(match);
+        spectatorPublisher = publisher;
+        return theKey;
     }
 
     @Override
@@ -162,13 +194,14 @@ public final class GameServer extends Thread implements Subject
                 saveWhenNecessary();
                 notifyObservers(new ServerNewGameStateEvent(currentState));
                 notifyObservers(new ServerTimeEvent(match.getPlayClock() * 1000));
-                notifyObservers(new ServerMatchUpdatedEvent(match, spectatorServerKey, saveToFilename));
+                notifyObservers(new ServerMatchUpdatedEvent(match, getSpectatorServerKey(), saveToFilename));
                 previousMoves = sendPlayRequests();
 
                 notifyObservers(new ServerNewMovesEvent(previousMoves));
                 currentState = stateMachine.getNextState(currentState, previousMoves);
 
                 match.appendMoves2(previousMoves);
+                match.appendLatencies(previousLatencies);
                 match.appendState(currentState.getContents());
                 appendErrorsToMatchDescription();
 
@@ -181,7 +214,7 @@ public final class GameServer extends Thread implements Subject
             saveWhenNecessary();
             notifyObservers(new ServerNewGameStateEvent(currentState));
             notifyObservers(new ServerCompletedMatchEvent(getGoals()));
-            notifyObservers(new ServerMatchUpdatedEvent(match, spectatorServerKey, saveToFilename));
+            notifyObservers(new ServerMatchUpdatedEvent(match, getSpectatorServerKey(), saveToFilename));
             sendStopRequests(previousMoves);
         } catch (InterruptedException ie) {
             if (match.isAborted()) {
@@ -201,54 +234,60 @@ public final class GameServer extends Thread implements Subject
             saveWhenNecessary();
             publishWhenNecessary();
             notifyObservers(new ServerAbortedMatchEvent());
-            notifyObservers(new ServerMatchUpdatedEvent(match, spectatorServerKey, saveToFilename));
+            notifyObservers(new ServerMatchUpdatedEvent(match, getSpectatorServerKey(), saveToFilename));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    // While the match is being played, it is saved by appending each move to
+    // a journal next to the file. Once it is over, the journal is compacted
+    // into the match JSON.
     private void saveWhenNecessary() {
-        if (saveToFilename == null) {
+        if (journal == null) {
             return;
         }
 
         try {
             File file = new File(saveToFilename);
-            if (!file.exists()) {
-                file.createNewFile();
+            if (match.isCompleted() || match.isAborted()) {
+                journal.finish(match, file);
+            } else {
+                journal.update(match);
             }
-            FileWriter fw = new FileWriter(file);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write(match.toJSON().toString());
-            bw.close();
-            fw.close();
         } catch (IOException ie) {
             ie.printStackTrace();
+        } catch (IllegalStateException e) {
+            // The match was aborted and its journal finished while this
+            // thread was still playing it; there is nothing left to save.
         }
     }
 
-    private String publishWhenNecessary() {
-        if (spectatorServerURL == null) {
-            return null;
+    // Queues the latest state of the match for the spectator server without
+    // waiting for it to be sent. Once the match is over, the publisher sends
+    // whatever it still has queued and then stops.
+    private void publishWhenNecessary() {
+        AsyncMatchPublisher publisher = spectatorPublisher;
+        if (publisher == null) {
+            return;
         }
 
-        int nAttempt = 0;
-        while (true) {
-            try {
-                spectatorServerKey = MatchPublisher.publishToSpectatorServer(spectatorServerURL, match);
-                return spectatorServerKey;
-            } catch (IOException e) {
-                if (nAttempt > 9) {
-                    e.printStackTrace();
-                    return null;
-                }
-            }
-            nAttempt++;
+        try {
+            publisher.publish(match);
+        } catch (IllegalStateException e) {
+            // The match was aborted and the publisher shut down while this
+            // thread was still playing it; there is nothing left to publish.
+            return;
+        }
+        if (match.isCompleted() || match.isAborted()) {
+            publisher.forget(match);
+            publisher.shutdown();
         }
     }
 
     public String getSpectatorServerKey() {
-        return spectatorServerKey;
+        AsyncMatchPublisher publisher = spectatorPublisher;
+        return (publisher == null) ? null : publisher.getSpectatorServerKey(match);
     }
 
     private synchronized List<Move> sendPlayRequests() throws InterruptedException, MoveDefinitionException {
@@ -261,19 +300,26 @@ public final class GameServer extends Thread implements Subject
                 threads.add(new PlayRequestThread(this, match, previousMoves, legalMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i), playerGetsUnlimitedTime[i]));
             }
         }
+        long roundStart = System.currentTimeMillis();
         for (PlayRequestThread thread : threads) {
             thread.start();
         }
 
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getPlayClock() * 1000);
-        }
-
         List<Move> moves = new ArrayList<Move>();
-        for (PlayRequestThread thread : threads) {
+        List<RequestLatency> latencies = new ArrayList<RequestLatency>();
+        for (int i = 0; i < threads.size(); i++) {
+            PlayRequestThread thread = threads.get(i);
             thread.join();
             moves.add(thread.getMove());
+            if (playerPlaysRandomly[i]) {
+                latencies.add(null);
+            } else {
+                latencies.add(thread.getLatency());
+                notifyObservers(new ServerRequestLatencyEvent(stateMachine.getRoles().get(i), thread.getLatency()));
+            }
         }
+        previousLatencies = latencies;
+        waitForPacing(roundStart, match.getPlayClock());
 
         return moves;
     }
@@ -285,15 +331,14 @@ public final class GameServer extends Thread implements Subject
                 threads.add(new PreviewRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
             }
         }
+        long roundStart = System.currentTimeMillis();
         for (PreviewRequestThread thread : threads) {
             thread.start();
         }
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getStartClock() * 1000);
-        }
         for (PreviewRequestThread thread : threads) {
             thread.join();
         }
+        waitForPacing(roundStart, match.getPreviewClock());
     }
 
     private synchronized void sendStartRequests() throws InterruptedException {
@@ -303,15 +348,14 @@ public final class GameServer extends Thread implements Subject
                 threads.add(new StartRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
             }
         }
+        long roundStart = System.currentTimeMillis();
         for (StartRequestThread thread : threads) {
             thread.start();
         }
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getStartClock() * 1000);
-        }
         for (StartRequestThread thread : threads) {
             thread.join();
         }
+        waitForPacing(roundStart, match.getStartClock());
     }
 
     private synchronized void sendStopRequests(List<Move> previousMoves) throws InterruptedException {
@@ -360,6 +404,22 @@ public final class GameServer extends Thread implements Subject
         forceUsingEntireClock = true;
     }
 
+    // A gentler form of rate-limiting: every round lasts at least the given
+    // number of milliseconds, rather than the entire clock.
+    public void setMinimumRoundTime(long minimumRoundTime) {
+        this.minimumRoundTime = minimumRoundTime;
+    }
+
+    // Rounds end as soon as every player has responded, unless pacing is on,
+    // in which case the rest of the minimum round time is waited out here.
+    private void waitForPacing(long roundStart, int clock) throws InterruptedException {
+        long minimum = forceUsingEntireClock ? clock * 1000L : minimumRoundTime;
+        long remaining = roundStart + minimum - System.currentTimeMillis();
+        if (remaining > 0) {
+            Thread.sleep(remaining);
+        }
+    }
+
     public Match getMatch() {
         return match;
     }
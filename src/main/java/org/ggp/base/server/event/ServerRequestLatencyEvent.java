@@ -0,0 +1,33 @@
+package org.ggp.base.server.event;
+
+import java.io.Serializable;
+
+import org.ggp.base.util.http.RequestLatency;
+import org.ggp.base.util.observer.Event;
+import org.ggp.base.util.statemachine.Role;
+
+
+@SuppressWarnings("serial")
+public final class ServerRequestLatencyEvent extends Event implements Serializable
+{
+
+    private final Role role;
+    private final RequestLatency latency;
+
+    public ServerRequestLatencyEvent(Role role, RequestLatency latency)
+    {
+        this.role = role;
+        this.latency = latency;
+    }
+
+    public Role getRole()
+    {
+        return role;
+    }
+
+    public RequestLatency getLatency()
+    {
+        return latency;
+    }
+
+}
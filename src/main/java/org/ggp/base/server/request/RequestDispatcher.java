@@ -0,0 +1,64 @@
+package org.ggp.base.server.request;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.util.http.HttpConnectionPool;
+
+
+/**
+ * RequestDispatcher runs the requests that game servers send to players on a
+ * shared pool of threads, over a shared pool of connections. All of the game
+ * servers in a process use the same dispatcher, so running many matches at
+ * once doesn't mean starting a thread and opening a connection for every
+ * request of every round.
+ *
+ * Requests block while the players think, so the pool grows to as many
+ * threads as there are requests in flight, and keeps them around for a while
+ * once they are idle rather than letting a queued request miss its deadline.
+ */
+public final class RequestDispatcher
+{
+    private static RequestDispatcher sharedDispatcher;
+
+    private final ExecutorService executor;
+    private final HttpConnectionPool connectionPool;
+
+    public RequestDispatcher(HttpConnectionPool connectionPool)
+    {
+        this.connectionPool = connectionPool;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "RequestDispatcher worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the dispatcher shared by all of the game servers in this
+     * process.
+     */
+    public static synchronized RequestDispatcher getSharedDispatcher()
+    {
+        if (sharedDispatcher == null) {
+            sharedDispatcher = new RequestDispatcher(new HttpConnectionPool());
+        }
+        return sharedDispatcher;
+    }
+
+    public Future<?> submit(Runnable request)
+    {
+        return executor.submit(request);
+    }
+
+    public HttpConnectionPool getConnectionPool()
+    {
+        return connectionPool;
+    }
+}
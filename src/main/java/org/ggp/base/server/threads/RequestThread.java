@@ -3,11 +3,14 @@ package org.ggp.base.server.threads;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.ggp.base.server.GameServer;
 import org.ggp.base.server.event.ServerConnectionErrorEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
-import org.ggp.base.util.http.HttpRequest;
+import org.ggp.base.server.request.RequestDispatcher;
+import org.ggp.base.util.http.RequestLatency;
 import org.ggp.base.util.statemachine.Role;
 
 
@@ -20,9 +23,15 @@ import org.ggp.base.util.statemachine.Role;
  * that the concrete RequestThread subclasses can focus on request-specific
  * business logic.
  *
+ * Despite the name, requests no longer run on threads of their own: start()
+ * hands them to the shared {@link RequestDispatcher}, and join() waits for
+ * them to finish. The timeout is a deadline counted from start(), so time
+ * spent waiting for a connection counts against the player's clock in the
+ * same way as time spent waiting for the response.
+ *
  * @author schreib
  */
-public abstract class RequestThread extends Thread
+public abstract class RequestThread implements Runnable
 {
     private final GameServer gameServer;
     private final String host;
@@ -31,6 +40,10 @@ public abstract class RequestThread extends Thread
     private final int timeout;
     private final Role role;
     private final String request;
+    private final RequestLatency latency = new RequestLatency();
+
+    private long deadline;
+    private Future<?> future;
 
     public RequestThread(GameServer gameServer, Role role, String host, int port, String playerName, int timeout, String request)
     {
@@ -45,11 +58,45 @@ public abstract class RequestThread extends Thread
 
     protected abstract void handleResponse(String response);
 
+    /**
+     * Returns where the time of the request went, once it has finished.
+     */
+    public RequestLatency getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Sends the request on the shared dispatcher, and returns immediately.
+     */
+    public final void start()
+    {
+        deadline = (timeout < 0) ? -1 : System.currentTimeMillis() + timeout;
+        future = RequestDispatcher.getSharedDispatcher().submit(this);
+    }
+
+    /**
+     * Waits for the request to be answered or to time out, and for its
+     * response to be handled.
+     */
+    public final void join() throws InterruptedException
+    {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
     @Override
     public void run()
     {
         try {
-            String response = HttpRequest.issueRequest(host, port, playerName, request, timeout);
+            int remaining = (deadline < 0) ? -1 : (int) (deadline - System.currentTimeMillis());
+            if (deadline >= 0 && remaining <= 0) {
+                throw new SocketTimeoutException("Request deadline passed before it could be sent");
+            }
+            String response = RequestDispatcher.getSharedDispatcher().getConnectionPool().issueRequest(host, port, playerName, request, remaining, null, latency);
             handleResponse(response);
         } catch (SocketTimeoutException e) {
             gameServer.notifyObservers(new ServerTimeoutEvent(role));
@@ -1,14 +1,13 @@
 package org.ggp.base.util.game;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.GdlReader;
 import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
 import org.ggp.base.util.gdl.grammar.Gdl;
-import org.ggp.base.util.symbol.factory.SymbolFactory;
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
-import org.ggp.base.util.symbol.grammar.SymbolList;
 
 import external.JSON.JSONObject;
 
@@ -142,10 +141,11 @@ public final class Game {
     public List<Gdl> getRules() {
         try {
             List<Gdl> rules = new ArrayList<Gdl>();
-            SymbolList list = (SymbolList) SymbolFactory.create(theRulesheet);
-            for (int i = 0; i < list.size(); i++)
+            GdlReader reader = new GdlReader(theRulesheet);
+            reader.enterList();
+            for (Gdl gdl = reader.read(); gdl != null; gdl = reader.read())
             {
-                rules.add(GdlFactory.create(list.get(i)));
+                rules.add(gdl);
             }
             return rules;
         } catch (GdlFormatException e) {
@@ -154,6 +154,9 @@ public final class Game {
         } catch (SymbolFormatException e) {
             e.printStackTrace();
             return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         }
     }
 
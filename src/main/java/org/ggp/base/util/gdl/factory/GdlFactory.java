@@ -1,5 +1,6 @@
 package org.ggp.base.util.gdl.factory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,7 +31,21 @@ public final class GdlFactory
 
     public static Gdl create(String string) throws GdlFormatException, SymbolFormatException
     {
-        return create(SymbolFactory.create(string));
+        Gdl gdl;
+        try
+        {
+            gdl = new GdlReader(string).read();
+        }
+        catch (IOException e)
+        {
+            // Reading from a String never actually throws this
+            throw new SymbolFormatException(string);
+        }
+        if (gdl == null)
+        {
+            throw new SymbolFormatException(string);
+        }
+        return gdl;
     }
 
     public static Gdl create(Symbol symbol) throws GdlFormatException
@@ -0,0 +1,248 @@
+package org.ggp.base.util.gdl.factory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.symbol.factory.SymbolTokenizer;
+import org.ggp.base.util.symbol.factory.SymbolTokenizer.Token;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+import org.ggp.base.util.symbol.grammar.SymbolAtom;
+
+/**
+ * Reads GDL straight from text, one expression at a time, building pooled
+ * Gdl objects without first building the Symbols that {@link GdlFactory}
+ * works from. Expressions are interpreted the same way GdlFactory does.
+ *
+ * To read the rules of a rulesheet, which are wrapped in an outer pair of
+ * parentheses, call {@link #enterList()} first:
+ *
+ * <pre>
+ * GdlReader reader = new GdlReader(rulesheet);
+ * reader.enterList();
+ * for (Gdl gdl = reader.read(); gdl != null; gdl = reader.read()) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class GdlReader
+{
+    private final SymbolTokenizer tokens;
+    private boolean inList = false;
+    private boolean finished = false;
+
+    public GdlReader(SymbolTokenizer tokens)
+    {
+        this.tokens = tokens;
+    }
+
+    public GdlReader(CharSequence chars)
+    {
+        this(new SymbolTokenizer(chars));
+    }
+
+    public GdlReader(Reader reader)
+    {
+        this(new SymbolTokenizer(reader));
+    }
+
+    /**
+     * Steps into the list that comes next in the input. After this,
+     * {@link #read()} returns the elements of the list, and null once the
+     * list is closed.
+     */
+    public void enterList() throws SymbolFormatException, IOException
+    {
+        Token token = tokens.next();
+        if (token != Token.OPEN)
+        {
+            throw tokens.getUnexpectedTokenException(token);
+        }
+        inList = true;
+    }
+
+    /**
+     * Reads the next rule or sentence, or returns null when there are none
+     * left.
+     */
+    public Gdl read() throws GdlFormatException, SymbolFormatException, IOException
+    {
+        if (finished)
+        {
+            return null;
+        }
+        Token token = tokens.next();
+        if (token == (inList ? Token.CLOSE : Token.END))
+        {
+            finished = true;
+            return null;
+        }
+        return readGdl(token);
+    }
+
+    private Gdl readGdl(Token token) throws GdlFormatException, SymbolFormatException, IOException
+    {
+        if (token == Token.OPEN)
+        {
+            SymbolAtom type = readName();
+            if (type.getValue().equals("<="))
+            {
+                return readRule();
+            }
+            return readRelation(type);
+        }
+        return readSentence(token);
+    }
+
+    private Gdl readRule() throws GdlFormatException, SymbolFormatException, IOException
+    {
+        GdlSentence head = readSentence(tokens.next());
+
+        List<GdlLiteral> body = new ArrayList<GdlLiteral>();
+        for (Token token = tokens.next(); token != Token.CLOSE; token = tokens.next())
+        {
+            body.add(readLiteral(token));
+        }
+
+        return GdlPool.getRule(head, body);
+    }
+
+    private GdlSentence readSentence(Token token) throws GdlFormatException, SymbolFormatException, IOException
+    {
+        if (token == Token.ATOM)
+        {
+            return GdlPool.getProposition(createConstant(tokens.getAtom()));
+        }
+        else if (token == Token.OPEN)
+        {
+            return readRelation(readName());
+        }
+        throw tokens.getUnexpectedTokenException(token);
+    }
+
+    private GdlSentence readRelation(SymbolAtom name) throws GdlFormatException, SymbolFormatException, IOException
+    {
+        return GdlPool.getRelation(createConstant(name), readTerms());
+    }
+
+    private GdlLiteral readLiteral(Token token) throws GdlFormatException, SymbolFormatException, IOException
+    {
+        if (token != Token.OPEN)
+        {
+            return readSentence(token);
+        }
+
+        SymbolAtom type = readName();
+        String value = type.getValue();
+        if (value.equalsIgnoreCase("distinct"))
+        {
+            GdlTerm arg1 = readTerm(tokens.next());
+            GdlTerm arg2 = readTerm(tokens.next());
+            skipRestOfList();
+            return GdlPool.getDistinct(arg1, arg2);
+        }
+        else if (value.equalsIgnoreCase("not"))
+        {
+            GdlLiteral body = readLiteral(tokens.next());
+            skipRestOfList();
+            return GdlPool.getNot(body);
+        }
+        else if (value.equalsIgnoreCase("or"))
+        {
+            List<GdlLiteral> disjuncts = new ArrayList<GdlLiteral>();
+            for (Token next = tokens.next(); next != Token.CLOSE; next = tokens.next())
+            {
+                disjuncts.add(readLiteral(next));
+            }
+            return GdlPool.getOr(disjuncts);
+        }
+        return readRelation(type);
+    }
+
+    private GdlTerm readTerm(Token token) throws GdlFormatException, SymbolFormatException, IOException
+    {
+        if (token == Token.ATOM)
+        {
+            String value = tokens.getAtom().getValue();
+            if (value.charAt(0) == '?')
+            {
+                return GdlPool.getVariable(value);
+            }
+            return GdlPool.getConstant(value);
+        }
+        else if (token == Token.OPEN)
+        {
+            return GdlPool.getFunction(createConstant(readName()), readTerms());
+        }
+        throw tokens.getUnexpectedTokenException(token);
+    }
+
+    private List<GdlTerm> readTerms() throws GdlFormatException, SymbolFormatException, IOException
+    {
+        List<GdlTerm> terms = new ArrayList<GdlTerm>();
+        for (Token token = tokens.next(); token != Token.CLOSE; token = tokens.next())
+        {
+            terms.add(readTerm(token));
+        }
+        return terms;
+    }
+
+    /**
+     * Reads the atom at the start of a list, which names what the list is.
+     */
+    private SymbolAtom readName() throws GdlFormatException, SymbolFormatException, IOException
+    {
+        Token token = tokens.next();
+        if (token == Token.OPEN)
+        {
+            throw new GdlFormatException("Expected a name at character " + tokens.getPosition());
+        }
+        else if (token != Token.ATOM)
+        {
+            throw tokens.getUnexpectedTokenException(token);
+        }
+        return tokens.getAtom();
+    }
+
+    /**
+     * GdlFactory ignores any extra arguments to distinct and not, so skip
+     * past them to the end of the list.
+     */
+    private void skipRestOfList() throws SymbolFormatException, IOException
+    {
+        int depth = 0;
+        while (true)
+        {
+            Token token = tokens.next();
+            if (token == Token.END)
+            {
+                throw tokens.getUnexpectedTokenException(token);
+            }
+            else if (token == Token.OPEN)
+            {
+                depth++;
+            }
+            else if (token == Token.CLOSE)
+            {
+                if (depth == 0)
+                {
+                    return;
+                }
+                depth--;
+            }
+        }
+    }
+
+    private static GdlConstant createConstant(SymbolAtom atom)
+    {
+        return GdlPool.getConstant(atom.getValue());
+    }
+}
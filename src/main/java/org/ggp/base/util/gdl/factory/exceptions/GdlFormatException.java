@@ -7,10 +7,22 @@ public final class GdlFormatException extends Exception
 {
 
     private final Symbol source;
+    private final String description;
 
     public GdlFormatException(Symbol source)
     {
         this.source = source;
+        this.description = String.valueOf(source);
+    }
+
+    /**
+     * For errors found while reading GDL straight from text, where there is
+     * no Symbol to report as the source.
+     */
+    public GdlFormatException(String description)
+    {
+        this.source = null;
+        this.description = description;
     }
 
     public Symbol getSource()
@@ -21,7 +33,7 @@ public final class GdlFormatException extends Exception
     @Override
     public String toString()
     {
-        return "Improperly formatted gdl expression: " + source;
+        return "Improperly formatted gdl expression: " + description;
     }
 
 }
@@ -7,6 +7,32 @@ import java.io.Serializable;
 public abstract class Gdl implements Serializable
 {
 
+    private final transient int id;
+
+    Gdl()
+    {
+        this.id = GdlPool.allocateId();
+    }
+
+    /**
+     * Returns a small integer that identifies this object among the Gdl
+     * objects in the GdlPool. Since pooled objects are canonical, this can
+     * index arrays and primitive maps instead of hashing the object; see
+     * {@link GdlIdMap}.
+     *
+     * The ids of objects that have been garbage collected are reused, which
+     * keeps the ids in use about as dense as the pool itself. An id only
+     * identifies an object for as long as the object is alive.
+     *
+     * The id isn't serialized. A deserialized object never has to have one,
+     * since {@link #readResolve()} replaces it with the pooled object, which
+     * does.
+     */
+    public final int getId()
+    {
+        return id;
+    }
+
     public abstract boolean isGround();
 
     @Override
@@ -15,7 +41,9 @@ public abstract class Gdl implements Serializable
     /**
      * This method is used by deserialization to ensure that Gdl objects
      * loaded from an ObjectInputStream or a remote method invocation
-     * are the versions that exist in the GdlPool.
+     * are the versions that exist in the GdlPool. The object read from the
+     * stream has no id of its own, so it must never escape in place of the
+     * pooled one.
      */
     protected Object readResolve() throws ObjectStreamException {
         return GdlPool.immerse(this);
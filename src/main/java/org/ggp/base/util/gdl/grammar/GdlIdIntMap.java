@@ -0,0 +1,110 @@
+package org.ggp.base.util.gdl.grammar;
+
+/**
+ * A map from Gdl objects to non-negative ints, found by their {@link Gdl#getId()
+ * ids} in the same way as in a {@link GdlIdMap}. The values are kept in an
+ * int[], so looking one up doesn't unbox anything; this is meant for mapping
+ * sentences to indices, such as the index of a base proposition in a state.
+ *
+ * Entries can't be removed. Like GdlIdMap, this is not thread-safe, though
+ * once it is filled in it may be read by any number of threads.
+ */
+public final class GdlIdIntMap<K extends Gdl>
+{
+    private Gdl[] keys;
+    private int[] values;
+    private int size = 0;
+
+    /**
+     * Creates a map that can hold the given number of entries without
+     * growing.
+     */
+    public GdlIdIntMap(int expectedSize)
+    {
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+        {
+            capacity *= 2;
+        }
+        keys = new Gdl[capacity];
+        values = new int[capacity];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the value for the given key, or -1 if it has none.
+     */
+    public int get(Gdl key)
+    {
+        int mask = keys.length - 1;
+        int index = key.getId() & mask;
+        Gdl slot;
+        while ((slot = keys[index]) != null)
+        {
+            if (slot == key)
+            {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the value for the given key, which must not be negative.
+     */
+    public void put(K key, int value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("Values must not be negative: " + value);
+        }
+        int mask = keys.length - 1;
+        int index = key.getId() & mask;
+        Gdl slot;
+        while ((slot = keys[index]) != null)
+        {
+            if (slot == key)
+            {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        size++;
+        if (size * 2 > keys.length)
+        {
+            resize(keys.length * 2);
+        }
+    }
+
+    private void resize(int capacity)
+    {
+        Gdl[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Gdl[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            Gdl key = oldKeys[i];
+            if (key != null)
+            {
+                int index = key.getId() & mask;
+                while (keys[index] != null)
+                {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package org.ggp.base.util.gdl.grammar;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from Gdl objects to values that finds keys by their {@link Gdl#getId()
+ * ids} rather than by hashing them. Since Gdl objects are pooled, two keys are
+ * the same if and only if they are the same object, and since their ids are
+ * small and dense they can be used to pick a slot directly.
+ *
+ * Keys are stored in an open-addressed table, so a lookup is an array index
+ * and an identity check, without the entry objects, boxing and identity hash
+ * lookups of a HashMap. This matters in the hot paths of the state machines,
+ * which map sentences to propositions and to indices into their states.
+ *
+ * Like HashMap, this is not thread-safe, and its iteration order is not
+ * specified. Null keys are not permitted.
+ */
+public final class GdlIdMap<K extends Gdl, V> extends AbstractMap<K, V>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Gdl[] keys;
+    private Object[] values;
+    private int size = 0;
+    private int modCount = 0;
+
+    public GdlIdMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a map that can hold the given number of entries without
+     * growing.
+     */
+    public GdlIdMap(int expectedSize)
+    {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2)
+        {
+            capacity *= 2;
+        }
+        keys = new Gdl[capacity];
+        values = new Object[capacity];
+    }
+
+    public GdlIdMap(Map<? extends K, ? extends V> map)
+    {
+        this(map.size());
+        putAll(map);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key)
+    {
+        int index = indexOf(key);
+        return (index >= 0) ? (V) values[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V put(K key, V value)
+    {
+        if (key == null)
+        {
+            throw new NullPointerException();
+        }
+        int mask = keys.length - 1;
+        int index = key.getId() & mask;
+        Gdl slot;
+        while ((slot = keys[index]) != null)
+        {
+            if (slot == key)
+            {
+                V oldValue = (V) values[index];
+                values[index] = value;
+                return oldValue;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        size++;
+        modCount++;
+        if (size * 2 > keys.length)
+        {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key)
+    {
+        int index = indexOf(key);
+        if (index < 0)
+        {
+            return null;
+        }
+        V oldValue = (V) values[index];
+        removeAt(index);
+        return oldValue;
+    }
+
+    @Override
+    public void clear()
+    {
+        if (size > 0)
+        {
+            for (int i = 0; i < keys.length; i++)
+            {
+                keys[i] = null;
+                values[i] = null;
+            }
+            size = 0;
+            modCount++;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+
+            @Override
+            public void clear()
+            {
+                GdlIdMap.this.clear();
+            }
+        };
+    }
+
+    private int indexOf(Object key)
+    {
+        if (!(key instanceof Gdl))
+        {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int index = ((Gdl) key).getId() & mask;
+        Gdl slot;
+        while ((slot = keys[index]) != null)
+        {
+            if (slot == key)
+            {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Empties the slot at the given index, then moves any later entries in
+     * the same run back into the gap if their own slot is at or before it, so
+     * lookups never stop early at the gap.
+     */
+    private void removeAt(int index)
+    {
+        int mask = keys.length - 1;
+        int gap = index;
+        int next = (gap + 1) & mask;
+        Gdl key;
+        while ((key = keys[next]) != null)
+        {
+            int home = key.getId() & mask;
+            // Whether home is cyclically outside the range (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask))
+            {
+                keys[gap] = key;
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = null;
+        values[gap] = null;
+        size--;
+        modCount++;
+    }
+
+    private void resize(int capacity)
+    {
+        Gdl[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new Gdl[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            Gdl key = oldKeys[i];
+            if (key != null)
+            {
+                int index = key.getId() & mask;
+                while (keys[index] != null)
+                {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private final class Entry implements Map.Entry<K, V>
+    {
+        private final K key;
+        private V value;
+
+        public Entry(K key, V value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public V getValue()
+        {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value)
+        {
+            this.value = value;
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+            {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return key == other.getKey()
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString()
+        {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Iterates over the table from the end to the start. Removing an entry
+     * shifts later entries back, and the only ones that can move from a slot
+     * not yet visited into one already visited are those at the start of the
+     * table that wrap around past the end; those are set aside and returned
+     * once the table itself has been visited.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>>
+    {
+        private int index = keys.length;
+        private int lastIndex = -1;
+        private Gdl lastWrappedKey = null;
+        private int expectedModCount = modCount;
+        private Gdl[] wrappedKeys = null;
+        private Object[] wrappedValues = null;
+        private int numWrapped = 0;
+
+        @Override
+        public boolean hasNext()
+        {
+            return findNext() >= 0 || numWrapped > 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Map.Entry<K, V> next()
+        {
+            if (modCount != expectedModCount)
+            {
+                throw new ConcurrentModificationException();
+            }
+            int next = findNext();
+            if (next >= 0)
+            {
+                index = next;
+                lastIndex = next;
+                return new Entry((K) keys[next], (V) values[next]);
+            }
+            if (numWrapped > 0)
+            {
+                numWrapped--;
+                lastIndex = -1;
+                lastWrappedKey = wrappedKeys[numWrapped];
+                return new Entry((K) lastWrappedKey, (V) wrappedValues[numWrapped]);
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove()
+        {
+            if (modCount != expectedModCount)
+            {
+                throw new ConcurrentModificationException();
+            }
+            if (lastIndex >= 0)
+            {
+                removeFromTable(lastIndex);
+                lastIndex = -1;
+            }
+            else if (lastWrappedKey != null)
+            {
+                // The whole table has been visited by now, so shifting
+                // entries around can't cause any to be skipped
+                GdlIdMap.this.remove(lastWrappedKey);
+                lastWrappedKey = null;
+            }
+            else
+            {
+                throw new IllegalStateException();
+            }
+            expectedModCount = modCount;
+        }
+
+        private int findNext()
+        {
+            int next = index - 1;
+            while (next >= 0 && keys[next] == null)
+            {
+                next--;
+            }
+            return next;
+        }
+
+        /**
+         * Like {@link GdlIdMap#removeAt(int)}, but sets aside the entries
+         * that it moves from the unvisited start of the table into the
+         * visited end.
+         */
+        private void removeFromTable(int removed)
+        {
+            int mask = keys.length - 1;
+            int gap = removed;
+            int next = (gap + 1) & mask;
+            Gdl key;
+            while ((key = keys[next]) != null)
+            {
+                int home = key.getId() & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask))
+                {
+                    if (next < removed && gap >= removed)
+                    {
+                        addWrapped(key, values[next]);
+                    }
+                    keys[gap] = key;
+                    values[gap] = values[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[gap] = null;
+            values[gap] = null;
+            size--;
+            modCount++;
+        }
+
+        private void addWrapped(Gdl key, Object value)
+        {
+            if (wrappedKeys == null)
+            {
+                wrappedKeys = new Gdl[4];
+                wrappedValues = new Object[4];
+            }
+            else if (numWrapped == wrappedKeys.length)
+            {
+                wrappedKeys = Arrays.copyOf(wrappedKeys, numWrapped * 2);
+                wrappedValues = Arrays.copyOf(wrappedValues, numWrapped * 2);
+            }
+            wrappedKeys[numWrapped] = key;
+            wrappedValues[numWrapped] = value;
+            numWrapped++;
+        }
+    }
+}
@@ -4,15 +4,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.ggp.base.util.gdl.grammar.GdlPoolStatistics.PoolStatistics;
+
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.MapMaker;
 
 /**
  * The GdlPool manages the creation of {@link Gdl} objects. It is the only way Gdl
@@ -21,22 +23,59 @@ import com.google.common.collect.MapMaker;
  * objects may be checked for equality with an instance-equality check (==) rather
  * than a more expensive recursive equality check.
  * <p>
- * A long-lived game player may accumulate lots of objects in its pool. To remove
- * them, it may call {@link #drainPool()} in between games. Note that if this
- * method is called while references to Gdl objects other than keyword constants
- * are held elsewhere, bad things will happen.
+ * The pool only holds soft references to the objects in it (weak references, for
+ * constants and variables), so once nothing else refers to an object, for example
+ * once the state machine of a finished match is discarded, it can be garbage
+ * collected. This is safe because no one is left to compare it against whatever
+ * object replaces it if it is created again. Keyword constants are held by the
+ * fields below, so they are never collected.
+ * <p>
+ * A player may still call {@link #drainPool()} in between games to clear the pool
+ * immediately. Note that if this method is called while references to Gdl objects
+ * other than keyword constants are held elsewhere, bad things will happen.
+ * {@link #getStatistics()} reports how large the pool is and how well it is used.
  */
 public final class GdlPool
 {
-    private static final ConcurrentMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>> distinctPool = new ConcurrentHashMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>>();
-    private static final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>> functionPool = new ConcurrentHashMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>>();
-    private static final ConcurrentMap<GdlLiteral, GdlNot> notPool = new ConcurrentHashMap<GdlLiteral, GdlNot>();
-    private static final ConcurrentMap<List<GdlLiteral>, GdlOr> orPool = new ConcurrentHashMap<List<GdlLiteral>, GdlOr>();
-    private static final ConcurrentMap<GdlConstant, GdlProposition> propositionPool = new ConcurrentHashMap<GdlConstant, GdlProposition>();
-    private static final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>> relationPool = new ConcurrentHashMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>>();
-    private static final ConcurrentMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>> rulePool = new ConcurrentHashMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>>();
-    private static final ConcurrentMap<String, GdlVariable> variablePool = new ConcurrentHashMap<String, GdlVariable>();
-    private static final ConcurrentMap<String, GdlConstant> constantPool = new ConcurrentHashMap<String, GdlConstant>();
+    // Ids for pooled objects. These are declared before anything that creates Gdl
+    // objects during class initialization. Access to them should be synchronized
+    // using the idLock.
+    private static final Object idLock = new Object();
+    private static int nextId = 0;
+    private static int[] freeIds = new int[256];
+    private static int numFreeIds = 0;
+
+    // Constants and variables are only weakly referenced, since any live sentence or
+    // rule refers to them strongly anyway. Everything else is softly referenced:
+    // provers build the same sentences and renamed rules over and over while
+    // answering queries, usually without holding on to them in between, so these
+    // are kept until the memory is actually needed rather than rebuilt after every
+    // garbage collection.
+    //
+    // Relations and functions are bucketed by the value of their names rather than
+    // by the name constants, so that the buckets don't keep the constants alive.
+    // Rules and distincts are pooled under a list of all of their parts, for the
+    // same reason.
+    private static final ReferencePool<List<GdlTerm>, GdlDistinct> distinctPool = ReferencePool.soft();
+    private static final ConcurrentMap<String, ReferencePool<List<GdlTerm>, GdlFunction>> functionPool = new ConcurrentHashMap<String, ReferencePool<List<GdlTerm>, GdlFunction>>();
+    private static final ReferencePool<GdlLiteral, GdlNot> notPool = ReferencePool.soft();
+    private static final ReferencePool<List<GdlLiteral>, GdlOr> orPool = ReferencePool.soft();
+    private static final ReferencePool<GdlConstant, GdlProposition> propositionPool = ReferencePool.soft();
+    private static final ConcurrentMap<String, ReferencePool<List<GdlTerm>, GdlRelation>> relationPool = new ConcurrentHashMap<String, ReferencePool<List<GdlTerm>, GdlRelation>>();
+    private static final ReferencePool<List<Gdl>, GdlRule> rulePool = ReferencePool.soft();
+    private static final ReferencePool<String, GdlVariable> variablePool = ReferencePool.weak();
+    private static final ReferencePool<String, GdlConstant> constantPool = ReferencePool.weak();
+
+    private static final InterningCounter distinctCounter = new InterningCounter();
+    private static final InterningCounter functionCounter = new InterningCounter();
+    private static final InterningCounter notCounter = new InterningCounter();
+    private static final InterningCounter orCounter = new InterningCounter();
+    private static final InterningCounter propositionCounter = new InterningCounter();
+    private static final InterningCounter relationCounter = new InterningCounter();
+    private static final InterningCounter ruleCounter = new InterningCounter();
+    private static final InterningCounter variableCounter = new InterningCounter();
+    private static final InterningCounter constantCounter = new InterningCounter();
+
     //Access to constantCases and variableCases should be synchronized using their monitor locks.
     private static final Map<String,String> constantCases = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
     private static final Map<String,String> variableCases = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
@@ -73,6 +112,62 @@ public final class GdlPool
         // Not instantiable
     }
 
+    /**
+     * Returns an id for a new Gdl object, reusing the id of a collected one
+     * if there is one.
+     */
+    static int allocateId() {
+        synchronized (idLock) {
+            if (numFreeIds > 0) {
+                return freeIds[--numFreeIds];
+            }
+            return nextId++;
+        }
+    }
+
+    /**
+     * Makes the id of a Gdl object available for reuse. This must only be
+     * called once the object is unreachable, or was never pooled.
+     */
+    static void releaseId(int id) {
+        synchronized (idLock) {
+            if (numFreeIds == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+            }
+            freeIds[numFreeIds++] = id;
+        }
+    }
+
+    /**
+     * Returns the current size of each pool, along with how often looking up
+     * an object in it has found an existing one.
+     */
+    public static GdlPoolStatistics getStatistics() {
+        Map<String, PoolStatistics> pools = new LinkedHashMap<String, PoolStatistics>();
+        pools.put("constant", getStatistics(constantPool.size(), constantCounter));
+        pools.put("variable", getStatistics(variablePool.size(), variableCounter));
+        pools.put("function", getStatistics(getBucketPoolSize(functionPool), functionCounter));
+        pools.put("proposition", getStatistics(propositionPool.size(), propositionCounter));
+        pools.put("relation", getStatistics(getBucketPoolSize(relationPool), relationCounter));
+        pools.put("distinct", getStatistics(distinctPool.size(), distinctCounter));
+        pools.put("not", getStatistics(notPool.size(), notCounter));
+        pools.put("or", getStatistics(orPool.size(), orCounter));
+        pools.put("rule", getStatistics(rulePool.size(), ruleCounter));
+        return new GdlPoolStatistics(pools);
+    }
+
+    private static PoolStatistics getStatistics(long size, InterningCounter counter) {
+        return new PoolStatistics(size, counter.getHits(), counter.getMisses());
+    }
+
+    private static long getBucketPoolSize(ConcurrentMap<?, ? extends ReferencePool<?, ?>> pool) {
+        long size = 0;
+        for (ReferencePool<?, ?> bucket : pool.values()) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
     /**
      * Drains the contents of the GdlPool. Useful to control memory usage
      * once you have finished playing a large game.
@@ -110,7 +205,7 @@ public final class GdlPool
             constantCases.clear();
             for (Map.Entry<String,GdlConstant> keywordEntry : keywordConstants.entrySet()) {
                 constantCases.put(keywordEntry.getKey(), keywordEntry.getKey());
-                constantPool.put(keywordEntry.getKey(), keywordEntry.getValue());
+                constantPool.add(keywordEntry.getKey(), keywordEntry.getValue());
             }
         }
     }
@@ -135,6 +230,15 @@ public final class GdlPool
 
     public static GdlConstant getConstant(String value)
     {
+        // Keywords are always pooled in lower case, so if the value is
+        // already in the pool as given, no normalization is needed.
+        if (caseSensitive) {
+            GdlConstant ret = constantPool.get(value);
+            if (ret != null) {
+                constantCounter.hit();
+                return ret;
+            }
+        }
         if (KEYWORDS.contains(value.toLowerCase())) {
             value = value.toLowerCase();
         }
@@ -149,8 +253,12 @@ public final class GdlPool
         }
 
         GdlConstant ret = constantPool.get(value);
-        if(ret == null)
-            ret = addToPool(value, new GdlConstant(value), constantPool);
+        if(ret == null) {
+            constantCounter.miss();
+            ret = constantPool.add(value, new GdlConstant(value));
+        } else {
+            constantCounter.hit();
+        }
         return ret;
     }
 
@@ -167,20 +275,25 @@ public final class GdlPool
         }
 
         GdlVariable ret = variablePool.get(name);
-        if(ret == null)
-            ret = addToPool(name, new GdlVariable(name), variablePool);
+        if(ret == null) {
+            variableCounter.miss();
+            ret = variablePool.add(name, new GdlVariable(name));
+        } else {
+            variableCounter.hit();
+        }
         return ret;
     }
 
     public static GdlDistinct getDistinct(GdlTerm arg1, GdlTerm arg2)
     {
-        ConcurrentMap<GdlTerm, GdlDistinct> bucket = distinctPool.get(arg1);
-        if(bucket == null)
-            bucket = addToPool(arg1, new ConcurrentHashMap<GdlTerm, GdlDistinct>(), distinctPool);
-
-        GdlDistinct ret = bucket.get(arg2);
-        if(ret == null)
-            ret = addToPool(arg2, new GdlDistinct(arg1, arg2), bucket);
+        List<GdlTerm> key = ImmutableList.of(arg1, arg2);
+        GdlDistinct ret = distinctPool.get(key);
+        if(ret == null) {
+            distinctCounter.miss();
+            ret = distinctPool.add(key, new GdlDistinct(arg1, arg2));
+        } else {
+            distinctCounter.hit();
+        }
 
         return ret;
     }
@@ -198,16 +311,17 @@ public final class GdlPool
 
     public static GdlFunction getFunction(GdlConstant name, List<GdlTerm> body)
     {
-        ConcurrentMap<List<GdlTerm>, GdlFunction> bucket = functionPool.get(name);
-        if(bucket == null) {
-            ConcurrentMap<List<GdlTerm>, GdlFunction> newMap = new MapMaker().softValues().makeMap();
-            bucket = addToPool(name, newMap, functionPool);
-        }
+        ReferencePool<List<GdlTerm>, GdlFunction> bucket = functionPool.get(name.getValue());
+        if(bucket == null)
+            bucket = addToPool(name.getValue(), ReferencePool.<List<GdlTerm>, GdlFunction>soft(), functionPool);
 
         GdlFunction ret = bucket.get(body);
         if(ret == null) {
+            functionCounter.miss();
             ImmutableList<GdlTerm> immutableBody = ImmutableList.copyOf(body);
-            ret = addToPool(immutableBody, new GdlFunction(name, immutableBody), bucket);
+            ret = bucket.add(immutableBody, new GdlFunction(name, immutableBody));
+        } else {
+            functionCounter.hit();
         }
 
         return ret;
@@ -216,8 +330,12 @@ public final class GdlPool
     public static GdlNot getNot(GdlLiteral body)
     {
         GdlNot ret = notPool.get(body);
-        if(ret == null)
-            ret = addToPool(body, new GdlNot(body), notPool);
+        if(ret == null) {
+            notCounter.miss();
+            ret = notPool.add(body, new GdlNot(body));
+        } else {
+            notCounter.hit();
+        }
 
         return ret;
     }
@@ -231,8 +349,11 @@ public final class GdlPool
     {
         GdlOr ret = orPool.get(disjuncts);
         if(ret == null) {
+            orCounter.miss();
             ImmutableList<GdlLiteral> immutableDisjuncts = ImmutableList.copyOf(disjuncts);
-            ret = addToPool(immutableDisjuncts, new GdlOr(immutableDisjuncts), orPool);
+            ret = orPool.add(immutableDisjuncts, new GdlOr(immutableDisjuncts));
+        } else {
+            orCounter.hit();
         }
 
         return ret;
@@ -241,8 +362,12 @@ public final class GdlPool
     public static GdlProposition getProposition(GdlConstant name)
     {
         GdlProposition ret = propositionPool.get(name);
-        if(ret == null)
-            ret = addToPool(name, new GdlProposition(name), propositionPool);
+        if(ret == null) {
+            propositionCounter.miss();
+            ret = propositionPool.add(name, new GdlProposition(name));
+        } else {
+            propositionCounter.hit();
+        }
 
         return ret;
     }
@@ -260,16 +385,17 @@ public final class GdlPool
 
     public static GdlRelation getRelation(GdlConstant name, List<GdlTerm> body)
     {
-        ConcurrentMap<List<GdlTerm>, GdlRelation> bucket = relationPool.get(name);
-        if(bucket == null) {
-            ConcurrentMap<List<GdlTerm>, GdlRelation> newMap = new MapMaker().softValues().makeMap();
-            bucket = addToPool(name, newMap, relationPool);
-        }
+        ReferencePool<List<GdlTerm>, GdlRelation> bucket = relationPool.get(name.getValue());
+        if(bucket == null)
+            bucket = addToPool(name.getValue(), ReferencePool.<List<GdlTerm>, GdlRelation>soft(), relationPool);
 
         GdlRelation ret = bucket.get(body);
         if(ret == null) {
+            relationCounter.miss();
             ImmutableList<GdlTerm> immutableBody = ImmutableList.copyOf(body);
-            ret = addToPool(immutableBody, new GdlRelation(name, immutableBody), bucket);
+            ret = bucket.add(immutableBody, new GdlRelation(name, immutableBody));
+        } else {
+            relationCounter.hit();
         }
 
         return ret;
@@ -288,14 +414,15 @@ public final class GdlPool
 
     public static GdlRule getRule(GdlSentence head, List<GdlLiteral> body)
     {
-        ConcurrentMap<List<GdlLiteral>, GdlRule> bucket = rulePool.get(head);
-        if(bucket == null)
-            bucket = addToPool(head, new ConcurrentHashMap<List<GdlLiteral>, GdlRule>(), rulePool);
-
-        GdlRule ret = bucket.get(body);
+        List<Gdl> key = new ArrayList<Gdl>(body.size() + 1);
+        key.add(head);
+        key.addAll(body);
+        GdlRule ret = rulePool.get(key);
         if(ret == null) {
-            ImmutableList<GdlLiteral> immutableBody = ImmutableList.copyOf(body);
-            ret = addToPool(immutableBody, new GdlRule(head, immutableBody), bucket);
+            ruleCounter.miss();
+            ret = rulePool.add(key, new GdlRule(head, ImmutableList.copyOf(body)));
+        } else {
+            ruleCounter.hit();
         }
 
         return ret;
@@ -0,0 +1,100 @@
+package org.ggp.base.util.gdl.grammar;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A snapshot of how many objects each of the {@link GdlPool}'s pools holds,
+ * and how often looking up an object in it found one that already existed.
+ * Hit and miss counts accumulate over the life of the process and are not
+ * reset when the pool is drained.
+ *
+ * Sizes are approximate: objects that have been garbage collected may still
+ * be counted until the pool notices they are gone.
+ */
+public final class GdlPoolStatistics
+{
+    public static final class PoolStatistics
+    {
+        private final long size;
+        private final long hits;
+        private final long misses;
+
+        public PoolStatistics(long size, long hits, long misses)
+        {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getHits()
+        {
+            return hits;
+        }
+
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        /**
+         * Returns the fraction of lookups that found an existing object, or
+         * zero if there haven't been any lookups.
+         */
+        public double getHitRate()
+        {
+            long lookups = hits + misses;
+            return (lookups == 0) ? 0.0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString()
+        {
+            return size + " (" + String.format("%.1f", 100 * getHitRate()) + "% hits)";
+        }
+    }
+
+    private final ImmutableMap<String, PoolStatistics> pools;
+
+    public GdlPoolStatistics(Map<String, PoolStatistics> pools)
+    {
+        this.pools = ImmutableMap.copyOf(pools);
+    }
+
+    /**
+     * Returns the statistics of each pool, keyed by the kind of Gdl object
+     * it holds, such as "constant" or "relation".
+     */
+    public ImmutableMap<String, PoolStatistics> getPools()
+    {
+        return pools;
+    }
+
+    public long getTotalSize()
+    {
+        long total = 0;
+        for (PoolStatistics pool : pools.values())
+        {
+            total += pool.getSize();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getTotalSize()).append(" objects");
+        for (Map.Entry<String, PoolStatistics> entry : pools.entrySet())
+        {
+            sb.append(", ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+}
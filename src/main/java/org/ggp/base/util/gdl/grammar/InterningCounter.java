@@ -0,0 +1,46 @@
+package org.ggp.base.util.gdl.grammar;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the hits and misses of one of the GdlPool's pools. Lookups happen
+ * constantly and from many threads at once, so hits are spread over a few
+ * counters chosen by thread, each on its own cache line, rather than all
+ * going to a single contended one. Misses are rare enough to share one.
+ */
+final class InterningCounter
+{
+    private static final int STRIPES = 16;
+    // 16 longs is 128 bytes, which keeps stripes off each other's cache lines
+    private static final int PADDING = 16;
+
+    private final AtomicLongArray hits = new AtomicLongArray(STRIPES * PADDING);
+    private final AtomicLong misses = new AtomicLong();
+
+    public void hit()
+    {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        hits.incrementAndGet(stripe * PADDING);
+    }
+
+    public void miss()
+    {
+        misses.incrementAndGet();
+    }
+
+    public long getHits()
+    {
+        long total = 0;
+        for (int i = 0; i < STRIPES; i++)
+        {
+            total += hits.get(i * PADDING);
+        }
+        return total;
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+}
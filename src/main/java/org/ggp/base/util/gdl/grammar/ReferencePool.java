@@ -0,0 +1,183 @@
+package org.ggp.base.util.gdl.grammar;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent map from keys to pooled objects that only holds soft or weak
+ * references to the objects, so they can be garbage collected once nothing
+ * else refers to them. This is what lets the {@link GdlPool} give memory back
+ * without being drained.
+ *
+ * Lookups are a plain ConcurrentHashMap lookup plus a dereference, since they
+ * are by far the most common operation. Entries whose objects have been
+ * collected are removed when objects are added, and the ids of those objects
+ * are given back to the GdlPool for reuse.
+ */
+final class ReferencePool<K, V extends Gdl>
+{
+    private interface Entry<K>
+    {
+        K getKey();
+
+        /** The id of the object, which is still known after it's collected. */
+        int getId();
+    }
+
+    private static final class SoftEntry<K, V extends Gdl> extends SoftReference<V> implements Entry<K>
+    {
+        private final K key;
+        private final int id;
+
+        public SoftEntry(K key, V value, ReferenceQueue<V> queue)
+        {
+            super(value, queue);
+            this.key = key;
+            this.id = value.getId();
+        }
+
+        @Override
+        public K getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public int getId()
+        {
+            return id;
+        }
+    }
+
+    private static final class WeakEntry<K, V extends Gdl> extends WeakReference<V> implements Entry<K>
+    {
+        private final K key;
+        private final int id;
+
+        public WeakEntry(K key, V value, ReferenceQueue<V> queue)
+        {
+            super(value, queue);
+            this.key = key;
+            this.id = value.getId();
+        }
+
+        @Override
+        public K getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public int getId()
+        {
+            return id;
+        }
+    }
+
+    private final ConcurrentMap<K, Reference<V>> entries = new ConcurrentHashMap<K, Reference<V>>();
+    private final ReferenceQueue<V> queue = new ReferenceQueue<V>();
+    private final boolean soft;
+
+    private ReferencePool(boolean soft)
+    {
+        this.soft = soft;
+    }
+
+    /**
+     * Creates a pool whose objects are kept until the memory is needed.
+     */
+    public static <K, V extends Gdl> ReferencePool<K, V> soft()
+    {
+        return new ReferencePool<K, V>(true);
+    }
+
+    /**
+     * Creates a pool whose objects are released as soon as they're garbage.
+     */
+    public static <K, V extends Gdl> ReferencePool<K, V> weak()
+    {
+        return new ReferencePool<K, V>(false);
+    }
+
+    /**
+     * Returns the object pooled under the given key, or null if there is none.
+     */
+    public V get(Object key)
+    {
+        Reference<V> entry = entries.get(key);
+        return (entry == null) ? null : entry.get();
+    }
+
+    /**
+     * If the pool does not have an object for the given key, adds the given
+     * one under it.
+     *
+     * Even if the pool didn't have an object for the key when last checked,
+     * don't assume this actually adds the given one, since the pool is
+     * accessed by multiple threads simultaneously. If it doesn't, the given
+     * object must not be used; its id is released for reuse.
+     *
+     * @return the object pooled under the key
+     */
+    public V add(K key, V value)
+    {
+        expungeStaleEntries();
+        Reference<V> newEntry = soft ? new SoftEntry<K, V>(key, value, queue) : new WeakEntry<K, V>(key, value, queue);
+        while (true)
+        {
+            Reference<V> entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null)
+            {
+                return value;
+            }
+            V pooledValue = entry.get();
+            if (pooledValue != null)
+            {
+                GdlPool.releaseId(value.getId());
+                return pooledValue;
+            }
+            // The previous object was collected, but its entry isn't gone yet
+            if (entries.replace(key, entry, newEntry))
+            {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in the pool. Some of these may be for
+     * objects that have just been collected.
+     */
+    public int size()
+    {
+        expungeStaleEntries();
+        return entries.size();
+    }
+
+    /**
+     * Removes every entry. The ids of the objects in them are not reused,
+     * since the objects may still be referred to elsewhere.
+     */
+    public void clear()
+    {
+        entries.clear();
+        expungeStaleEntries();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expungeStaleEntries()
+    {
+        Reference<? extends V> reference;
+        while ((reference = queue.poll()) != null)
+        {
+            Entry<K> entry = (Entry<K>) reference;
+            // The entry may already have been replaced by a new object's
+            entries.remove(entry.getKey(), reference);
+            GdlPool.releaseId(entry.getId());
+        }
+    }
+}
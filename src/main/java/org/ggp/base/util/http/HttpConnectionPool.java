@@ -0,0 +1,308 @@
+package org.ggp.base.util.http;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HttpConnectionPool issues requests to players in the same way as
+ * {@link HttpRequest}, but keeps connections open between requests to the
+ * same host and port when the player allows it.
+ *
+ * Every request asks for the connection to be kept alive. A player that
+ * answers with "Connection: keep-alive" and a Content-Length header gets the
+ * connection back for its next request; any other player has its connection
+ * closed after each response, exactly as HttpRequest does. Idle connections
+ * are checked before being reused, since the player may have closed them in
+ * the meantime, and are dropped once they have been idle for too long. A
+ * player can still close one just as it is reused, so a request that fails
+ * that way is sent again on a new connection.
+ *
+ * The pool is thread-safe, and a connection is only ever used by one request
+ * at a time.
+ */
+public final class HttpConnectionPool
+{
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final int maxIdlePerHost;
+    private final long maxIdleTime;
+
+    private final Map<String, Deque<Connection>> idleConnections = new HashMap<String, Deque<Connection>>();
+    private long numConnectionsOpened;
+    private long numConnectionsReused;
+
+    public HttpConnectionPool() {
+        this(4, 30000);
+    }
+
+    /**
+     * Creates a pool that keeps at most the given number of idle connections
+     * to each host and port, for at most the given number of milliseconds.
+     */
+    public HttpConnectionPool(int maxIdlePerHost, long maxIdleTime) {
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Issues the request and returns the response. The timeout covers
+     * connecting, sending and waiting for the response; if it is negative,
+     * there is no limit on waiting for the response. Throws a
+     * SocketTimeoutException if the timeout passes first. If latency is not
+     * null, it is filled in with the time spent in each phase of the
+     * request, whether or not it succeeds.
+     *
+     * If the player closes a reused connection before anything of the
+     * response arrives, most likely because it dropped the connection just
+     * as the request was sent, the request is sent again once on a new
+     * connection, within what is left of the timeout.
+     */
+    public String issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock, Map<String, String> extraHeaders, RequestLatency latency) throws IOException {
+        if (latency == null) {
+            latency = new RequestLatency();
+        }
+        long start = System.currentTimeMillis();
+        long deadline = (timeoutClock < 0) ? Long.MAX_VALUE : start + timeoutClock;
+        String key = targetHost + ":" + targetPort;
+        Map<String, String> headers = new HashMap<String, String>();
+        if (extraHeaders != null) {
+            headers.putAll(extraHeaders);
+        }
+        headers.put("Connection", "keep-alive");
+
+        Connection connection = takeIdleConnection(key);
+        if (connection != null) {
+            latency.setConnectTime(System.currentTimeMillis() - start, true);
+            try {
+                return issueRequest(key, connection, true, forPlayerName, requestContent, headers, deadline, latency);
+            } catch (StaleConnectionException e) {
+                // Says nothing about the player, so try a new connection
+            }
+        }
+
+        // After a failed reuse, the time lost on it counts as connecting
+        try {
+            connection = connect(targetHost, targetPort, deadline);
+        } finally {
+            latency.setConnectTime(System.currentTimeMillis() - start, false);
+        }
+        return issueRequest(key, connection, false, forPlayerName, requestContent, headers, deadline, latency);
+    }
+
+    public String issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock, Map<String, String> extraHeaders) throws IOException {
+        return issueRequest(targetHost, targetPort, forPlayerName, requestContent, timeoutClock, extraHeaders, null);
+    }
+
+    public String issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock) throws IOException {
+        return issueRequest(targetHost, targetPort, forPlayerName, requestContent, timeoutClock, null, null);
+    }
+
+    /**
+     * Issues the request on the given connection, which is then returned to
+     * the pool or closed. Throws a StaleConnectionException if the connection
+     * was reused and failed before any of the response arrived.
+     */
+    private String issueRequest(String key, Connection connection, boolean reused, String forPlayerName, String requestContent, Map<String, String> headers, long deadline, RequestLatency latency) throws IOException {
+        boolean keepAlive = false;
+        int phase = 0;
+        long phaseStart = System.currentTimeMillis();
+        try {
+            HttpWriter.writeAsClient(connection.socket, connection.hostName, requestContent, forPlayerName, headers);
+            latency.setSendTime(System.currentTimeMillis() - phaseStart);
+
+            phase++;
+            phaseStart = System.currentTimeMillis();
+            connection.socket.setSoTimeout(getRemainingTime(deadline));
+            connection.reader.mark(1);
+            if (connection.reader.read() < 0 && reused) {
+                throw new EOFException("The player closed the connection without responding");
+            }
+            connection.reader.reset();
+            latency.setThinkTime(System.currentTimeMillis() - phaseStart);
+
+            phase++;
+            phaseStart = System.currentTimeMillis();
+            Map<String, String> responseHeaders = new HashMap<String, String>();
+            String response = HttpReader.readAsClient(connection.reader, responseHeaders);
+            latency.setReceiveTime(System.currentTimeMillis() - phaseStart);
+            phase++;
+
+            keepAlive = "keep-alive".equalsIgnoreCase(responseHeaders.get("connection")) && responseHeaders.containsKey("content-length");
+            return response;
+        } catch (IOException e) {
+            if (reused && phase < 2 && !(e instanceof SocketTimeoutException)) {
+                throw new StaleConnectionException(e);
+            }
+            throw e;
+        } finally {
+            long failedPhaseTime = System.currentTimeMillis() - phaseStart;
+            if (phase == 0) {
+                latency.setSendTime(failedPhaseTime);
+            } else if (phase == 1) {
+                latency.setThinkTime(failedPhaseTime);
+            } else if (phase == 2) {
+                latency.setReceiveTime(failedPhaseTime);
+            }
+            if (keepAlive) {
+                returnIdleConnection(key, connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    public synchronized long getNumConnectionsOpened() {
+        return numConnectionsOpened;
+    }
+
+    public synchronized long getNumConnectionsReused() {
+        return numConnectionsReused;
+    }
+
+    /**
+     * Closes all of the idle connections. Connections in use are closed
+     * once their requests are done.
+     */
+    public void closeIdleConnections() {
+        Deque<Connection> toClose = new ArrayDeque<Connection>();
+        synchronized (this) {
+            for (Deque<Connection> connections : idleConnections.values()) {
+                toClose.addAll(connections);
+            }
+            idleConnections.clear();
+        }
+        for (Connection connection : toClose) {
+            connection.close();
+        }
+    }
+
+    private Connection connect(String targetHost, int targetPort, long deadline) throws IOException {
+        InetAddress theHost = InetAddress.getByName(targetHost);
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(theHost.getHostAddress(), targetPort), (int) Math.min(CONNECT_TIMEOUT, Math.max(1, deadline - System.currentTimeMillis())));
+            Connection connection = new Connection(socket, theHost.getHostName());
+            synchronized (this) {
+                numConnectionsOpened++;
+            }
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a live idle connection to the given host and port, or null if
+     * there isn't one.
+     */
+    private Connection takeIdleConnection(String key) {
+        while (true) {
+            Connection connection;
+            synchronized (this) {
+                Deque<Connection> connections = idleConnections.get(key);
+                if (connections == null || connections.isEmpty()) {
+                    return null;
+                }
+                connection = connections.pollLast();
+            }
+            if (System.currentTimeMillis() - connection.idleSince < maxIdleTime && connection.isAlive()) {
+                synchronized (this) {
+                    numConnectionsReused++;
+                }
+                return connection;
+            }
+            connection.close();
+        }
+    }
+
+    private void returnIdleConnection(String key, Connection connection) {
+        connection.idleSince = System.currentTimeMillis();
+        synchronized (this) {
+            Deque<Connection> connections = idleConnections.get(key);
+            if (connections == null) {
+                connections = new ArrayDeque<Connection>();
+                idleConnections.put(key, connections);
+            }
+            if (connections.size() < maxIdlePerHost) {
+                connections.addLast(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    private static int getRemainingTime(long deadline) throws SocketTimeoutException {
+        if (deadline == Long.MAX_VALUE) {
+            return 0;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Request deadline passed before the response was read");
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Thrown when a reused connection turns out to have been closed by the
+     * player before it answered.
+     */
+    @SuppressWarnings("serial")
+    private static final class StaleConnectionException extends IOException {
+        StaleConnectionException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    private static final class Connection {
+        final Socket socket;
+        final String hostName;
+        final BufferedReader reader;
+        long idleSince;
+
+        Connection(Socket socket, String hostName) throws IOException {
+            this.socket = socket;
+            this.hostName = hostName;
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
+
+        /**
+         * Checks that the player hasn't closed the connection, or sent
+         * something unexpected on it, while it was idle.
+         */
+        boolean isAlive() {
+            try {
+                if (socket.isClosed() || reader.ready()) {
+                    return false;
+                }
+                socket.setSoTimeout(1);
+                // Nothing is buffered, so this only returns if the player
+                // closed the connection or sent something unexpected
+                socket.getInputStream().read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                ;
+            }
+        }
+    }
+}
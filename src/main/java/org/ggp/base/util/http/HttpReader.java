@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
+import java.util.Map;
 
 public final class HttpReader
 {
@@ -30,7 +31,18 @@ public final class HttpReader
     public static String readAsClient(Socket socket) throws IOException
     {
         BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        return readContentFromPOST(br);
+        return readContentFromPOST(br, null);
+    }
+
+    /**
+     * Reads an HTTP response from a connection that will be used for later
+     * responses as well, and so must always be read through the same reader.
+     * The headers of the response are put in the given map, under their
+     * lower-case names.
+     */
+    public static String readAsClient(BufferedReader br, Map<String, String> headers) throws IOException
+    {
+        return readContentFromPOST(br, headers);
     }
 
     public static String readAsServer(Socket socket) throws IOException
@@ -48,7 +60,7 @@ public final class HttpReader
             message = URLDecoder.decode(message, "UTF-8");
             message = message.replace((char)13, ' ');
         } else if (requestLine.toUpperCase().startsWith("POST ")) {
-            message = readContentFromPOST(br);
+            message = readContentFromPOST(br, null);
         } else if (requestLine.toUpperCase().startsWith("OPTIONS ")) {
             // Web browsers can send an OPTIONS request in advance of sending
             // real XHR requests, to discover whether they should have permission
@@ -67,11 +79,14 @@ public final class HttpReader
         return message;
     }
 
-    private static String readContentFromPOST(BufferedReader br) throws IOException {
+    private static String readContentFromPOST(BufferedReader br, Map<String, String> headers) throws IOException {
         String line;
         int theContentLength = -1;
         StringBuilder theContent = new StringBuilder();
         while ((line = br.readLine()) != null) {
+            if (headers != null && line.indexOf(':') > 0) {
+                headers.put(line.substring(0, line.indexOf(':')).trim().toLowerCase(), line.substring(line.indexOf(':') + 1).trim());
+            }
             if (line.toLowerCase().startsWith("content-length:")) {
                 try {
                     theContentLength = Integer.parseInt(line.toLowerCase().replace("content-length:", "").trim());
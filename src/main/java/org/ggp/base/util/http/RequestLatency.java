@@ -0,0 +1,110 @@
+package org.ggp.base.util.http;
+
+import java.io.Serializable;
+
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * RequestLatency breaks down where the time of a request to a player went:
+ * connecting to the player (zero when a kept-alive connection was reused),
+ * sending the request, waiting for the first byte of the response, which is
+ * the time the player spent thinking plus the round trip, and reading the
+ * rest of the response. All times are in milliseconds.
+ *
+ * When a request fails or times out, the phase it failed in gets the time
+ * spent in it, and the later phases get zero.
+ */
+@SuppressWarnings("serial")
+public final class RequestLatency implements Serializable
+{
+    private long connectTime;
+    private long sendTime;
+    private long thinkTime;
+    private long receiveTime;
+    private boolean reusedConnection;
+
+    public RequestLatency() {
+    }
+
+    public RequestLatency(long connectTime, long sendTime, long thinkTime, long receiveTime, boolean reusedConnection) {
+        this.connectTime = connectTime;
+        this.sendTime = sendTime;
+        this.thinkTime = thinkTime;
+        this.receiveTime = receiveTime;
+        this.reusedConnection = reusedConnection;
+    }
+
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    public long getThinkTime() {
+        return thinkTime;
+    }
+
+    public long getReceiveTime() {
+        return receiveTime;
+    }
+
+    /**
+     * Returns the time from starting the request to having the whole
+     * response, or to the request failing.
+     */
+    public long getTotalTime() {
+        return connectTime + sendTime + thinkTime + receiveTime;
+    }
+
+    /**
+     * Returns the time spent on everything but the player's thinking.
+     */
+    public long getOverheadTime() {
+        return connectTime + sendTime + receiveTime;
+    }
+
+    public boolean isReusedConnection() {
+        return reusedConnection;
+    }
+
+    void setConnectTime(long connectTime, boolean reusedConnection) {
+        this.connectTime = connectTime;
+        this.reusedConnection = reusedConnection;
+    }
+
+    void setSendTime(long sendTime) {
+        this.sendTime = sendTime;
+    }
+
+    void setThinkTime(long thinkTime) {
+        this.thinkTime = thinkTime;
+    }
+
+    void setReceiveTime(long receiveTime) {
+        this.receiveTime = receiveTime;
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject theJSON = new JSONObject();
+        theJSON.put("connect", connectTime);
+        theJSON.put("send", sendTime);
+        theJSON.put("think", thinkTime);
+        theJSON.put("receive", receiveTime);
+        if (reusedConnection) {
+            theJSON.put("reused", true);
+        }
+        return theJSON;
+    }
+
+    public static RequestLatency loadFromJSON(JSONObject theJSON) throws JSONException {
+        return new RequestLatency(theJSON.getLong("connect"), theJSON.getLong("send"), theJSON.getLong("think"), theJSON.getLong("receive"), theJSON.optBoolean("reused"));
+    }
+
+    @Override
+    public String toString() {
+        return "connect " + connectTime + "ms, send " + sendTime + "ms, think " + thinkTime + "ms, receive " + receiveTime + "ms";
+    }
+}
@@ -0,0 +1,530 @@
+package org.ggp.base.util.match;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * AsyncMatchPublisher publishes matches to a spectator server from a
+ * background thread, so that a slow or unreachable spectator server never
+ * holds up the match itself.
+ *
+ * {@link #publish(Match)} takes a snapshot of the match on the calling
+ * thread and queues it. A full update is only rendered as JSON by the
+ * background thread, from a {@link Match#snapshot()} of the match, so
+ * publishing never renders the whole match on the calling thread. If the
+ * match already has an update waiting, the new one is merged into it rather
+ * than queued behind it, so only the latest version of each match is ever
+ * sent. The queue holds at most a fixed number of matches; updates for
+ * further matches are dropped, and those matches are sent in full the next
+ * time they are published. Failed posts are retried with exponential
+ * backoff, merging in any updates that arrive in the meantime, until they
+ * have failed too many times in a row.
+ *
+ * By default every update is the whole match JSON, as sent by
+ * {@link MatchPublisher}. With {@link #setPublishingDeltas(boolean)}, only
+ * the first update of a match is sent in full, and later ones are posted as
+ * a DELTA field instead of DATA, with just the states added since the last
+ * update, in the same format as the records of a {@link MatchJournal}:
+ * <pre>
+ * {"matchId": ..., "randomToken": ..., "states": [state records],
+ *  "end": end record (once the match is over)}
+ * </pre>
+ * This needs a spectator server that understands deltas. After an update
+ * is dropped or given up on, the match is sent in full again.
+ *
+ * One publisher can serve any number of matches at once, and all of its
+ * methods are thread-safe.
+ */
+public final class AsyncMatchPublisher
+{
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final int HTTP_TIMEOUT = 30000;
+
+    private final String spectatorURL;
+    private final int queueCapacity;
+
+    private boolean publishingDeltas;
+    private long initialBackoff = 500;
+    private long maxBackoff = 30000;
+    private int maxAttempts = 10;
+
+    // Everything below is guarded by the publisher's lock.
+
+    /** The ids of the matches that have updates waiting, in order. */
+    private final Deque<String> queue = new ArrayDeque<String>();
+    private final Map<String, Update> pending = new HashMap<String, Update>();
+    private final Map<String, MatchProgress> progress = new HashMap<String, MatchProgress>();
+    /** The id of the match being sent by the worker, if any. */
+    private String inFlight;
+    private boolean shuttingDown;
+    private Thread worker;
+
+    private long numPublished;
+    private long numCoalesced;
+    private long numDropped;
+    private long numFailures;
+
+    public AsyncMatchPublisher(String spectatorURL) {
+        this(spectatorURL, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a publisher that holds updates for at most the given number of
+     * matches at once.
+     */
+    public AsyncMatchPublisher(String spectatorURL, int queueCapacity) {
+        this.spectatorURL = spectatorURL;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public String getSpectatorURL() {
+        return spectatorURL;
+    }
+
+    /**
+     * Sets whether updates after the first are sent as deltas. Off by
+     * default.
+     */
+    public synchronized void setPublishingDeltas(boolean publishingDeltas) {
+        this.publishingDeltas = publishingDeltas;
+    }
+
+    /**
+     * Sets how long to wait before retrying a failed update, which doubles
+     * after each further failure up to the given maximum, and how many times
+     * in a row an update may fail before it is given up on.
+     */
+    public synchronized void setBackoff(long initialBackoff, long maxBackoff, int maxAttempts) {
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Publishes the whole match on the calling thread, and returns the key
+     * that the spectator server gave it, or null if publishing failed. Later
+     * updates are sent relative to this one.
+     */
+    public String publishNow(Match match) {
+        MatchProgress matchProgress;
+        Update update;
+        synchronized (this) {
+            matchProgress = getProgress(match);
+            matchProgress.needsFullUpdate = true;
+            update = snapshot(match, matchProgress);
+            matchProgress.fullUpdatesOutstanding++;
+        }
+        try {
+            String key = send(match, update);
+            synchronized (this) {
+                matchProgress.key = key;
+                numPublished++;
+            }
+            return key;
+        } catch (IOException e) {
+            synchronized (this) {
+                matchProgress.needsFullUpdate = true;
+                numFailures++;
+            }
+            return null;
+        } finally {
+            synchronized (this) {
+                matchProgress.fullUpdatesOutstanding--;
+            }
+        }
+    }
+
+    /**
+     * Queues an update of the match, and returns immediately. Returns false
+     * if the queue was full and the update had to be dropped.
+     */
+    public synchronized boolean publish(Match match) {
+        if (shuttingDown) {
+            throw new IllegalStateException("AsyncMatchPublisher has been shut down");
+        }
+        MatchProgress matchProgress = getProgress(match);
+        String matchId = match.getMatchId();
+        Update existing = pending.get(matchId);
+        if (existing == null && queue.size() >= queueCapacity) {
+            numDropped++;
+            matchProgress.needsFullUpdate = true;
+            return false;
+        }
+        Update update = snapshot(match, matchProgress);
+        if (update.fullMatch != null) {
+            matchProgress.fullUpdatesOutstanding++;
+        }
+        if (existing != null) {
+            pending.put(matchId, merge(matchProgress, existing, update));
+            numCoalesced++;
+        } else {
+            pending.put(matchId, update);
+            queue.addLast(matchId);
+        }
+        if (worker == null) {
+            worker = new Thread(new Worker(), "AsyncMatchPublisher " + spectatorURL);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Returns the key the spectator server gave the match, or null if it
+     * hasn't been published successfully yet.
+     */
+    public synchronized String getSpectatorServerKey(Match match) {
+        MatchProgress matchProgress = progress.get(match.getMatchId());
+        return (matchProgress == null) ? null : matchProgress.key;
+    }
+
+    /**
+     * Waits until every queued update has been sent or given up on, or until
+     * the timeout in milliseconds has passed, and returns whether the queue
+     * was emptied.
+     */
+    public synchronized boolean flush(long timeout) throws InterruptedException {
+        long finishBy = System.currentTimeMillis() + timeout;
+        while (!queue.isEmpty() || inFlight != null) {
+            long remaining = finishBy - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets about a match that won't be published again. Any update of it
+     * that is still waiting is sent first.
+     */
+    public synchronized void forget(Match match) {
+        MatchProgress matchProgress = progress.get(match.getMatchId());
+        if (matchProgress != null) {
+            matchProgress.forgotten = true;
+            if (!pending.containsKey(match.getMatchId()) && !match.getMatchId().equals(inFlight)) {
+                progress.remove(match.getMatchId());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting updates. The updates already queued are still sent,
+     * after which the background thread exits.
+     */
+    public synchronized void shutdown() {
+        shuttingDown = true;
+        notifyAll();
+    }
+
+    public synchronized long getNumPublished() {
+        return numPublished;
+    }
+
+    /**
+     * Returns the number of updates that were merged into one that was
+     * already waiting.
+     */
+    public synchronized long getNumCoalesced() {
+        return numCoalesced;
+    }
+
+    /**
+     * Returns the number of updates dropped because the queue was full, or
+     * given up on after failing too many times.
+     */
+    public synchronized long getNumDropped() {
+        return numDropped;
+    }
+
+    /**
+     * Returns the number of posts to the spectator server that failed.
+     */
+    public synchronized long getNumFailures() {
+        return numFailures;
+    }
+
+    private MatchProgress getProgress(Match match) {
+        MatchProgress matchProgress = progress.get(match.getMatchId());
+        if (matchProgress == null) {
+            matchProgress = new MatchProgress(match);
+            progress.put(match.getMatchId(), matchProgress);
+        }
+        return matchProgress;
+    }
+
+    private boolean needsFullUpdate(MatchProgress matchProgress) {
+        // While a full update is waiting or being sent, later updates are
+        // full as well, so that they can replace it if it fails
+        return !publishingDeltas || matchProgress.needsFullUpdate || matchProgress.fullUpdatesOutstanding > 0;
+    }
+
+    /**
+     * Takes a snapshot of the match for its next update, and moves its
+     * progress on to the end of the snapshot. The update is a delta when
+     * possible; a full one is left for the worker to render.
+     */
+    private Update snapshot(Match match, MatchProgress matchProgress) {
+        boolean finished = match.isCompleted() || match.isAborted();
+        int end = MatchJournal.getNumCompleteStates(match, finished);
+        Update update;
+        if (needsFullUpdate(matchProgress)) {
+            update = new Update(match.snapshot(), null, null);
+        } else {
+            try {
+                JSONArray states = new JSONArray();
+                for (int i = matchProgress.statesSent; i < end; i++) {
+                    states.put(MatchJournal.renderStateRecord(match, i, matchProgress.lastStateSent));
+                    matchProgress.lastStateSent = match.getStateHistory().get(i);
+                }
+                update = new Update(null, states, finished ? MatchJournal.renderEndRecord(match) : null);
+            } catch (JSONException e) {
+                update = new Update(match.snapshot(), null, null);
+            }
+        }
+        if (update.fullMatch != null) {
+            matchProgress.lastStateSent = (end == 0) ? null : match.getStateHistory().get(end - 1);
+        }
+        matchProgress.statesSent = end;
+        matchProgress.needsFullUpdate = false;
+        return update;
+    }
+
+    private String send(Match match, Update update) throws IOException {
+        if (update.fullMatch != null) {
+            if (match.getGameRepositoryURL() == null || match.getGameRepositoryURL().isEmpty()) {
+                throw new IOException("Match doesn't have appropriate metadata for publication to a spectator server: " + match.getMatchId());
+            }
+            return MatchPublisher.performPOST(spectatorURL, match.getSpectatorAuthToken(), "DATA", update.fullMatch.toJSON(), HTTP_TIMEOUT);
+        }
+        JSONObject delta = new JSONObject();
+        try {
+            delta.put("matchId", match.getMatchId());
+            delta.put("randomToken", match.getRandomToken());
+            delta.put("states", update.states);
+            if (update.end != null) {
+                delta.put("end", update.end);
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        return MatchPublisher.performPOST(spectatorURL, match.getSpectatorAuthToken(), "DELTA", delta.toString(), HTTP_TIMEOUT);
+    }
+
+    /**
+     * Merges two updates of a match into one, keeping the count of full
+     * updates outstanding.
+     */
+    private static Update merge(MatchProgress matchProgress, Update earlier, Update later) {
+        Update merged = earlier.mergeWith(later);
+        if (earlier.fullMatch != null && later.fullMatch != null) {
+            matchProgress.fullUpdatesOutstanding--;
+        }
+        return merged;
+    }
+
+    /**
+     * Sends the queued updates one at a time until the publisher is shut
+     * down and the queue is empty. An update that fails goes back on the
+     * queue, to be retried once its backoff has passed, so that it doesn't
+     * hold up the other matches.
+     */
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    String matchId;
+                    Update update;
+                    Match match;
+                    synchronized (AsyncMatchPublisher.this) {
+                        while ((matchId = takeReadyMatch()) == null) {
+                            if (queue.isEmpty() && shuttingDown) {
+                                worker = null;
+                                AsyncMatchPublisher.this.notifyAll();
+                                return;
+                            }
+                            AsyncMatchPublisher.this.wait(getWaitTime());
+                        }
+                        update = pending.remove(matchId);
+                        match = progress.get(matchId).match;
+                        inFlight = matchId;
+                    }
+
+                    String key = null;
+                    boolean succeeded;
+                    try {
+                        key = send(match, update);
+                        succeeded = true;
+                    } catch (IOException e) {
+                        succeeded = false;
+                    }
+
+                    synchronized (AsyncMatchPublisher.this) {
+                        inFlight = null;
+                        MatchProgress matchProgress = progress.get(matchId);
+                        if (succeeded) {
+                            numPublished++;
+                            if (key != null) {
+                                matchProgress.key = key;
+                            }
+                            finishSending(matchId, matchProgress, update);
+                        } else {
+                            numFailures++;
+                            update.attempts++;
+                            if (update.attempts >= maxAttempts) {
+                                // The next update will make up for whatever was lost
+                                numDropped++;
+                                matchProgress.needsFullUpdate = true;
+                                finishSending(matchId, matchProgress, update);
+                            } else {
+                                retryLater(matchId, matchProgress, update);
+                            }
+                        }
+                        AsyncMatchPublisher.this.notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                synchronized (AsyncMatchPublisher.this) {
+                    worker = null;
+                    inFlight = null;
+                    AsyncMatchPublisher.this.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Removes and returns the first queued match whose update is ready
+         * to be sent, or returns null if there is none.
+         */
+        private String takeReadyMatch() {
+            long now = System.currentTimeMillis();
+            for (String matchId : queue) {
+                if (pending.get(matchId).notBefore <= now) {
+                    queue.remove(matchId);
+                    return matchId;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns how long to wait for an update to be ready, or zero to
+         * wait until one is queued.
+         */
+        private long getWaitTime() {
+            long earliest = Long.MAX_VALUE;
+            for (String matchId : queue) {
+                earliest = Math.min(earliest, pending.get(matchId).notBefore);
+            }
+            return (earliest == Long.MAX_VALUE) ? 0 : Math.max(1, earliest - System.currentTimeMillis());
+        }
+
+        private void retryLater(String matchId, MatchProgress matchProgress, Update update) {
+            long backoff = initialBackoff;
+            for (int i = 1; i < update.attempts && backoff < maxBackoff; i++) {
+                backoff *= 2;
+            }
+            Update newer = pending.get(matchId);
+            if (newer != null) {
+                // Send everything at once, as soon as the failed part may be
+                update = merge(matchProgress, update, newer);
+                queue.remove(matchId);
+                numCoalesced++;
+            }
+            update.notBefore = System.currentTimeMillis() + Math.min(backoff, maxBackoff);
+            pending.put(matchId, update);
+            queue.addLast(matchId);
+        }
+
+        private void finishSending(String matchId, MatchProgress matchProgress, Update update) {
+            if (update.fullMatch != null) {
+                matchProgress.fullUpdatesOutstanding--;
+            }
+            if (matchProgress.forgotten && !pending.containsKey(matchId)) {
+                progress.remove(matchId);
+            }
+        }
+    }
+
+    /**
+     * What has been sent of a match so far.
+     */
+    private static final class MatchProgress {
+        final Match match;
+        String key;
+        int statesSent;
+        Set<GdlSentence> lastStateSent;
+        /** Whether the next update has to be a full one, as the first is. */
+        boolean needsFullUpdate = true;
+        /** The number of full updates queued or being sent. */
+        int fullUpdatesOutstanding;
+        boolean forgotten;
+
+        MatchProgress(Match match) {
+            this.match = match;
+        }
+    }
+
+    /**
+     * An update waiting to be sent: either a snapshot of the whole match, or
+     * the states added since the previous update and, at the end, the
+     * outcome.
+     */
+    private static final class Update {
+        final Match fullMatch;
+        final JSONArray states;
+        final JSONObject end;
+        /** The number of times sending this update has failed. */
+        int attempts;
+        /** The earliest time this update may be sent. */
+        long notBefore;
+
+        Update(Match fullMatch, JSONArray states, JSONObject end) {
+            this.fullMatch = fullMatch;
+            this.states = states;
+            this.end = end;
+        }
+
+        /**
+         * Returns an update equivalent to sending this one and then the
+         * given later one. A full update is never followed by a delta.
+         */
+        Update mergeWith(Update later) {
+            Update merged;
+            if (later.fullMatch != null) {
+                merged = new Update(later.fullMatch, null, null);
+            } else if (fullMatch != null) {
+                throw new IllegalStateException("A delta can't follow a full update of the same match");
+            } else {
+                JSONArray mergedStates = new JSONArray();
+                try {
+                    for (int i = 0; i < states.length(); i++) {
+                        mergedStates.put(states.get(i));
+                    }
+                    for (int i = 0; i < later.states.length(); i++) {
+                        mergedStates.put(later.states.get(i));
+                    }
+                } catch (JSONException e) {
+                    throw new RuntimeException(e);
+                }
+                merged = new Update(null, mergedStates, (later.end != null) ? later.end : end);
+            }
+            merged.attempts = attempts;
+            merged.notBefore = notBefore;
+            return merged;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.scrambler.GdlScrambler;
 import org.ggp.base.util.gdl.scrambler.MappingGdlScrambler;
 import org.ggp.base.util.gdl.scrambler.NoOpGdlScrambler;
+import org.ggp.base.util.http.RequestLatency;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.symbol.factory.SymbolFactory;
@@ -64,6 +65,7 @@ public final class Match
     private final List<Set<GdlSentence>> stateHistory;
     private final List<List<String>> errorHistory;
     private final List<Date> stateTimeHistory;
+    private final List<List<RequestLatency>> latencyHistory;
     private boolean isCompleted;
     private boolean isAborted;
     private final List<Integer> goalValues;
@@ -96,6 +98,7 @@ public final class Match
         this.stateHistory = new ArrayList<Set<GdlSentence>>();
         this.stateTimeHistory = new ArrayList<Date>();
         this.errorHistory = new ArrayList<List<String>>();
+        this.latencyHistory = new ArrayList<List<RequestLatency>>();
 
         this.goalValues = new ArrayList<Integer>();
     }
@@ -142,6 +145,7 @@ public final class Match
         this.stateHistory = new ArrayList<Set<GdlSentence>>();
         this.stateTimeHistory = new ArrayList<Date>();
         this.errorHistory = new ArrayList<List<String>>();
+        this.latencyHistory = new ArrayList<List<RequestLatency>>();
 
         JSONArray theMoves = theMatchObject.getJSONArray("moves");
         for (int i = 0; i < theMoves.length(); i++) {
@@ -178,6 +182,12 @@ public final class Match
                 errorHistory.add(theMoveErrors);
             }
         }
+        if (theMatchObject.has("latencies")) {
+            JSONArray theLatencies = theMatchObject.getJSONArray("latencies");
+            for (int i = 0; i < theLatencies.length(); i++) {
+                latencyHistory.add(loadLatenciesFromJSON(theLatencies.getJSONArray(i)));
+            }
+        }
 
         this.goalValues = new ArrayList<Integer>();
         try {
@@ -206,6 +216,41 @@ public final class Match
         }
     }
 
+    /**
+     * Returns a copy of the match as it is now, which later changes to this
+     * match don't affect, so that it can be rendered on another thread. The
+     * copy shares the entries of the histories, which are never changed
+     * once they have been appended.
+     */
+    public Match snapshot() {
+        return new Match(this);
+    }
+
+    private Match(Match other) {
+        this.matchId = other.matchId;
+        this.randomToken = other.randomToken;
+        this.spectatorAuthToken = other.spectatorAuthToken;
+        this.tournamentNameFromHost = other.tournamentNameFromHost;
+        this.playClock = other.playClock;
+        this.startClock = other.startClock;
+        this.previewClock = other.previewClock;
+        this.startTime = other.startTime;
+        this.theGame = other.theGame;
+        this.moveHistory = new ArrayList<List<GdlTerm>>(other.moveHistory);
+        this.stateHistory = new ArrayList<Set<GdlSentence>>(other.stateHistory);
+        this.errorHistory = new ArrayList<List<String>>(other.errorHistory);
+        this.stateTimeHistory = new ArrayList<Date>(other.stateTimeHistory);
+        this.latencyHistory = new ArrayList<List<RequestLatency>>(other.latencyHistory);
+        this.isCompleted = other.isCompleted;
+        this.isAborted = other.isAborted;
+        this.goalValues = new ArrayList<Integer>(other.goalValues);
+        this.numRoles = other.numRoles;
+        this.theCryptographicKeys = other.theCryptographicKeys;
+        this.thePlayerNamesFromHost = other.thePlayerNamesFromHost;
+        this.isPlayerHuman = other.isPlayerHuman;
+        this.theGdlScrambler = other.theGdlScrambler;
+    }
+
     /* Mutators */
 
     public void setCryptographicKeys(EncodedKeyPair k) {
@@ -263,6 +308,14 @@ public final class Match
         errorHistory.add(theNoErrors);
     }
 
+    /**
+     * Records how long each player's request took in the latest round of
+     * moves, with null for players that weren't asked for a move.
+     */
+    public void appendLatencies(List<RequestLatency> latencies) {
+        latencyHistory.add(latencies);
+    }
+
     public void markCompleted(List<Integer> theGoalValues) {
         this.isCompleted = true;
         if (theGoalValues != null) {
@@ -292,6 +345,13 @@ public final class Match
             if (errorHistory.size() > 0) {
                 theJSON.put("errors", new JSONArray(renderArrayAsJSON(renderErrorHistory(errorHistory), false)));
             }
+            if (latencyHistory.size() > 0) {
+                JSONArray theLatencies = new JSONArray();
+                for (List<RequestLatency> latencies : latencyHistory) {
+                    theLatencies.put(renderLatenciesAsJSON(latencies));
+                }
+                theJSON.put("latencies", theLatencies);
+            }
             if (goalValues.size() > 0) {
                 theJSON.put("goalValues", goalValues);
             }
@@ -416,6 +476,14 @@ public final class Match
         return errorHistory;
     }
 
+    /**
+     * Returns the latencies of the players' requests in each round of moves,
+     * in the same order as the move history.
+     */
+    public List<List<RequestLatency>> getLatencyHistory() {
+        return latencyHistory;
+    }
+
     public int getPreviewClock() {
         return previewClock;
     }
@@ -444,6 +512,10 @@ public final class Match
         return isAborted;
     }
 
+    public List<Boolean> getWhichPlayersAreHuman() {
+        return isPlayerHuman;
+    }
+
     public List<Integer> getGoalValues() {
         return goalValues;
     }
@@ -509,6 +581,22 @@ public final class Match
         return renderedErrors;
     }
 
+    static final JSONArray renderLatenciesAsJSON(List<RequestLatency> latencies) throws JSONException {
+        JSONArray theLatencies = new JSONArray();
+        for (RequestLatency latency : latencies) {
+            theLatencies.put((latency == null) ? JSONObject.NULL : latency.toJSON());
+        }
+        return theLatencies;
+    }
+
+    static final List<RequestLatency> loadLatenciesFromJSON(JSONArray theLatencies) throws JSONException {
+        List<RequestLatency> latencies = new ArrayList<RequestLatency>();
+        for (int i = 0; i < theLatencies.length(); i++) {
+            latencies.add(theLatencies.isNull(i) ? null : RequestLatency.loadFromJSON(theLatencies.getJSONObject(i)));
+        }
+        return latencies;
+    }
+
     private static final String renderStateAsSymbolList(Set<GdlSentence> theState) {
         // Strip out the TRUE proposition, since those are implied for states.
         String s = "( ";
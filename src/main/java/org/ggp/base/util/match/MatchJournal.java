@@ -0,0 +1,410 @@
+package org.ggp.base.util.match;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * MatchJournal saves a match in progress by appending to a file, rather than
+ * rewriting the whole match after every move as {@link Match#toJSON()} does.
+ * Saving a move then costs the same at the end of a long match as at the
+ * start.
+ *
+ * The journal is a series of JSON records, one per line. The first is a
+ * header with the match's identifiers, clocks and game. After that there is
+ * one record per state of the match, holding the moves that led to it, the
+ * sentences added to and removed from the previous state, the time it was
+ * reached, the latencies of the players' requests for those moves, and the
+ * errors made by the players while it was current. When the match ends, a
+ * final record with its outcome is appended.
+ *
+ * Writes are flushed to the operating system after every update, but only
+ * forced to disk every so often (see {@link #setSyncInterval(int, long)}),
+ * since forcing them takes far longer than the writes themselves. Finishing
+ * the journal always forces it to disk, and then compacts it into the usual
+ * match JSON, written next to it under a temporary name and renamed.
+ *
+ * If the server dies during a match, {@link #recover(File)} rebuilds the
+ * Match from whatever made it into the journal. A partially written last
+ * line is ignored. The cryptographic keys are not journaled, so a recovered
+ * match is not signed.
+ */
+public final class MatchJournal
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    private int maxUnsyncedRecords = 16;
+    private long maxUnsyncedMillis = 1000;
+
+    private FileOutputStream out;
+    private Writer writer;
+    private boolean finished;
+    /** The number of states of the match that have been written. */
+    private int statesWritten;
+    private Set<GdlSentence> lastStateWritten;
+    private int unsyncedRecords;
+    private long lastSyncTime;
+
+    public MatchJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the file that the journal for a match saved to the given file
+     * is kept in while the match is being played.
+     */
+    public static File getJournalFile(File matchFile) {
+        return new File(matchFile.getPath() + ".journal");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Sets how often the journal is forced to disk: once the given number of
+     * records has been written since it last was, or the given number of
+     * milliseconds has passed, whichever comes first. Forcing it after every
+     * record is the safest setting and the slowest.
+     */
+    public synchronized void setSyncInterval(int maxUnsyncedRecords, long maxUnsyncedMillis) {
+        this.maxUnsyncedRecords = maxUnsyncedRecords;
+        this.maxUnsyncedMillis = maxUnsyncedMillis;
+    }
+
+    /**
+     * Appends the states of the match that haven't been written yet. The
+     * first update creates the journal, overwriting any existing file, and
+     * writes the header. A state is only written once the errors for it have
+     * been recorded, which is after the following move has been made.
+     */
+    public synchronized void update(Match match) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Match journal " + file + " has already been finished");
+        }
+        appendStates(match, false);
+    }
+
+    /**
+     * Appends the rest of the match and its outcome, forces the journal to
+     * disk, and then replaces it with the match's JSON in the given file.
+     * Calling this again rewrites the JSON, for instance if a match that has
+     * already finished is then aborted.
+     */
+    public synchronized void finish(Match match, File matchFile) throws IOException {
+        if (!finished) {
+            appendStates(match, true);
+            JSONObject end;
+            try {
+                end = renderEndRecord(match);
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+            append(end);
+            sync();
+            finished = true;
+        }
+
+        writeAtomically(match.toJSON(), matchFile);
+        close();
+        file.delete();
+    }
+
+    /**
+     * Closes the journal without finishing it, leaving it to be recovered.
+     */
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            out = null;
+        }
+    }
+
+    private void appendStates(Match match, boolean includeLastState) throws IOException {
+        if (writer == null) {
+            out = new FileOutputStream(file);
+            writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+            append(renderHeader(match));
+        }
+        int end = getNumCompleteStates(match, includeLastState);
+        while (statesWritten < end) {
+            try {
+                append(renderStateRecord(match, statesWritten, lastStateWritten));
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+            lastStateWritten = match.getStateHistory().get(statesWritten);
+            statesWritten++;
+        }
+        writer.flush();
+        if (unsyncedRecords >= maxUnsyncedRecords || System.currentTimeMillis() - lastSyncTime >= maxUnsyncedMillis) {
+            sync();
+        }
+    }
+
+    private void append(JSONObject record) throws IOException {
+        writer.write(record.toString());
+        writer.write('\n');
+        unsyncedRecords++;
+    }
+
+    private void sync() throws IOException {
+        writer.flush();
+        out.getFD().sync();
+        unsyncedRecords = 0;
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of states of the match whose records can be
+     * written: those whose errors are known, or all of them.
+     */
+    static int getNumCompleteStates(Match match, boolean includeLastState) {
+        int numStates = match.getStateHistory().size();
+        return includeLastState ? numStates : Math.min(numStates, match.getErrorHistory().size());
+    }
+
+    /**
+     * Renders the record for the state with the given index, relative to
+     * the previous state, or to nothing if previousState is null.
+     */
+    static JSONObject renderStateRecord(Match match, int i, Set<GdlSentence> previousState) throws JSONException {
+        Set<GdlSentence> state = match.getStateHistory().get(i);
+        List<List<GdlTerm>> moves = match.getMoveHistory();
+        List<List<String>> errors = match.getErrorHistory();
+        List<Date> stateTimes = match.getStateTimeHistory();
+        JSONObject record = new JSONObject();
+        record.put("type", "state");
+        record.put("index", i);
+        if (i > 0 && i <= moves.size()) {
+            record.put("moves", renderTerms(moves.get(i - 1)));
+        }
+        if (i > 0 && i <= match.getLatencyHistory().size()) {
+            record.put("latencies", Match.renderLatenciesAsJSON(match.getLatencyHistory().get(i - 1)));
+        }
+        record.put("added", renderDifference(state, previousState));
+        if (previousState != null) {
+            record.put("removed", renderDifference(previousState, state));
+        }
+        record.put("time", stateTimes.get(i).getTime());
+        if (i < errors.size()) {
+            record.put("errors", new JSONArray(errors.get(i)));
+        }
+        return record;
+    }
+
+    static JSONObject renderEndRecord(Match match) throws JSONException {
+        JSONObject end = new JSONObject();
+        end.put("type", "end");
+        end.put("isCompleted", match.isCompleted());
+        end.put("isAborted", match.isAborted());
+        if (match.getGoalValues().size() > 0) {
+            end.put("goalValues", match.getGoalValues());
+        }
+        return end;
+    }
+
+    private static JSONObject renderHeader(Match match) throws IOException {
+        JSONObject header = new JSONObject();
+        try {
+            header.put("type", "header");
+            header.put("version", VERSION);
+            header.put("matchId", match.getMatchId());
+            header.put("randomToken", match.getRandomToken());
+            header.put("spectatorAuthToken", match.getSpectatorAuthToken());
+            header.put("startTime", match.getStartTime().getTime());
+            header.put("previewClock", match.getPreviewClock());
+            header.put("startClock", match.getStartClock());
+            header.put("playClock", match.getPlayClock());
+            header.put("game", new JSONObject(match.getGame().serializeToJSON()));
+            header.put("scrambled", match.getGdlScrambler().scrambles());
+            if (match.getPlayerNamesFromHost() != null) {
+                header.put("playerNamesFromHost", match.getPlayerNamesFromHost());
+            }
+            if (match.getWhichPlayersAreHuman() != null) {
+                header.put("isPlayerHuman", match.getWhichPlayersAreHuman());
+            }
+            if (match.getTournamentNameFromHost() != null) {
+                header.put("tournamentNameFromHost", match.getTournamentNameFromHost());
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        return header;
+    }
+
+    private static JSONArray renderTerms(List<GdlTerm> terms) {
+        JSONArray rendered = new JSONArray();
+        for (GdlTerm term : terms) {
+            rendered.put(term.toString());
+        }
+        return rendered;
+    }
+
+    /**
+     * Renders the sentences of the state that aren't in the other state (if
+     * any), without their TRUE, as in the states of the match JSON.
+     */
+    private static JSONArray renderDifference(Set<GdlSentence> state, Set<GdlSentence> other) {
+        JSONArray rendered = new JSONArray();
+        for (GdlSentence sentence : state) {
+            if (other == null || !other.contains(sentence)) {
+                rendered.put(sentence.get(0).toString());
+            }
+        }
+        return rendered;
+    }
+
+    private static void writeAtomically(String contents, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(contents.getBytes(UTF_8));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                // Some platforms won't rename over an existing file
+                file.delete();
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Could not rename " + tempFile + " to " + file);
+                }
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Rebuilds a match from its journal, up to the last record that was
+     * written completely.
+     *
+     * @throws IOException if the journal can't be read or has no header
+     */
+    public static Match recover(File journalFile) throws IOException {
+        List<JSONObject> records = new ArrayList<JSONObject>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    records.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    // Only the last record can have been cut short
+                    if (reader.readLine() != null) {
+                        throw new IOException("Corrupt record in match journal " + journalFile + ": " + e);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (records.isEmpty() || !"header".equals(records.get(0).optString("type"))) {
+            throw new IOException("Match journal " + journalFile + " has no header");
+        }
+
+        try {
+            JSONObject header = records.get(0);
+            if (header.getInt("version") != VERSION) {
+                throw new IOException("Unsupported match journal version " + header.getInt("version"));
+            }
+            Game game = Game.loadFromJSON(header.getJSONObject("game").toString());
+
+            // Rebuild the match JSON, and let Match parse it
+            JSONObject matchJSON = new JSONObject();
+            for (String key : new String[] {"matchId", "randomToken", "startTime", "previewClock", "startClock", "playClock", "playerNamesFromHost", "isPlayerHuman", "tournamentNameFromHost"}) {
+                if (header.has(key)) {
+                    matchJSON.put(key, header.get(key));
+                }
+            }
+            JSONArray states = new JSONArray();
+            JSONArray moves = new JSONArray();
+            JSONArray stateTimes = new JSONArray();
+            JSONArray errors = new JSONArray();
+            JSONArray latencies = new JSONArray();
+            Set<String> state = new HashSet<String>();
+            boolean isCompleted = false;
+            boolean isAborted = false;
+            for (JSONObject record : records.subList(1, records.size())) {
+                String type = record.getString("type");
+                if (type.equals("state")) {
+                    if (record.has("moves")) {
+                        moves.put(record.getJSONArray("moves"));
+                    }
+                    if (record.has("latencies")) {
+                        latencies.put(record.getJSONArray("latencies"));
+                    }
+                    JSONArray removed = record.optJSONArray("removed");
+                    for (int i = 0; removed != null && i < removed.length(); i++) {
+                        state.remove(removed.getString(i));
+                    }
+                    JSONArray added = record.getJSONArray("added");
+                    for (int i = 0; i < added.length(); i++) {
+                        state.add(added.getString(i));
+                    }
+                    StringBuilder renderedState = new StringBuilder("( ");
+                    for (String sentence : state) {
+                        renderedState.append(sentence).append(' ');
+                    }
+                    states.put(renderedState.append(')').toString());
+                    stateTimes.put(record.getLong("time"));
+                    if (record.has("errors")) {
+                        errors.put(record.getJSONArray("errors"));
+                    }
+                } else if (type.equals("end")) {
+                    isCompleted = record.getBoolean("isCompleted");
+                    isAborted = record.getBoolean("isAborted");
+                    if (record.has("goalValues")) {
+                        matchJSON.put("goalValues", record.getJSONArray("goalValues"));
+                    }
+                }
+            }
+            matchJSON.put("states", states);
+            matchJSON.put("moves", moves);
+            matchJSON.put("stateTimes", stateTimes);
+            matchJSON.put("errors", errors);
+            if (latencies.length() > 0) {
+                matchJSON.put("latencies", latencies);
+            }
+            matchJSON.put("isCompleted", isCompleted);
+            matchJSON.put("isAborted", isAborted);
+
+            Match match = new Match(matchJSON.toString(), game, header.optString("spectatorAuthToken", null));
+            if (header.optBoolean("scrambled")) {
+                match.enableScrambling();
+            }
+            return match;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not recover match from journal " + journalFile, e);
+        }
+    }
+}
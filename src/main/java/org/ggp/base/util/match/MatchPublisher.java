@@ -19,6 +19,15 @@ public class MatchPublisher {
     }
 
     public static String performPOST(String theURL, String theAuth, String theData) throws IOException {
+        return performPOST(theURL, theAuth, "DATA", theData, 0);
+    }
+
+    /**
+     * Posts the given data to the spectator server under the given field
+     * name, with the given connect and read timeout in milliseconds, or
+     * none if it is zero. Returns the first line of the response.
+     */
+    public static String performPOST(String theURL, String theAuth, String theField, String theData, int timeout) throws IOException {
         String message = URLEncoder.encode(theData, "UTF-8");
 
         try {
@@ -26,9 +35,11 @@ public class MatchPublisher {
             HttpURLConnection connection = (HttpURLConnection) url.openConnection();
             connection.setDoOutput(true);
             connection.setRequestMethod("POST");
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
 
             OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream());
-            writer.write("AUTH=" + theAuth + "&DATA=" + message);
+            writer.write("AUTH=" + theAuth + "&" + theField + "=" + message);
             writer.close();
 
             if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
@@ -12,7 +12,7 @@ public class PlayerPresence {
     private String status;
     private long statusTime;
 
-    PlayerPresence(String host, int port) {
+    public PlayerPresence(String host, int port) {
         this.host = host;
         this.port = port;
         this.name = null;
@@ -0,0 +1,475 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+
+/**
+ * The CompiledPropNet class is a flattened, immutable copy of a {@link PropNet}
+ * that is laid out for fast evaluation rather than for easy manipulation.
+ *
+ * Every component is assigned a dense integer index, and the graph is stored
+ * as primitive arrays: one array of component types, and input/output edges in
+ * compressed sparse row form (the inputs of component i are
+ * <tt>inputs[inputOffsets[i]]</tt> through <tt>inputs[inputOffsets[i+1]-1]</tt>,
+ * and likewise for outputs).
+ *
+ * The indices are arranged so that evaluation only needs one pass:
+ * <ul>
+ * <li>[0, numBases) are the base propositions, so a state of the game is
+ *     exactly the first numBases bits of a value vector;</li>
+ * <li>[numBases, numBases + numInputs) are the input propositions;</li>
+ * <li>the remaining source components (the INIT proposition, constants, and
+ *     propositions with no inputs) follow, ending at {@link #getFirstGate()};</li>
+ * <li>every component from {@link #getFirstGate()} onwards appears after all
+ *     of its inputs, i.e. in topological order.</li>
+ * </ul>
+ *
+ * The only cycles in a propnet pass through transitions into base
+ * propositions, so the input of a base proposition is not treated as an edge
+ * for the purposes of the ordering. Instead, {@link #getTransition(int)} gives
+ * the component whose value is the next-state value of each base.
+ *
+ * This class holds no evaluation state, so a single instance can be shared by
+ * any number of evaluators.
+ */
+public final class CompiledPropNet
+{
+    public static final byte TYPE_BASE = 0;
+    public static final byte TYPE_INPUT = 1;
+    public static final byte TYPE_INIT = 2;
+    public static final byte TYPE_CONSTANT_FALSE = 3;
+    public static final byte TYPE_CONSTANT_TRUE = 4;
+    public static final byte TYPE_PROPOSITION = 5;
+    public static final byte TYPE_AND = 6;
+    public static final byte TYPE_OR = 7;
+    public static final byte TYPE_NOT = 8;
+    public static final byte TYPE_TRANSITION = 9;
+
+    private final List<Role> roles;
+
+    private final byte[] types;
+    private final int[] inputOffsets;
+    private final int[] inputs;
+    private final int[] outputOffsets;
+    private final int[] outputs;
+
+    private final int numBases;
+    private final int numInputs;
+    private final int firstGate;
+
+    /** For each base proposition, the index of its incoming transition (or -1). */
+    private final int[] transitions;
+    /** The base sentences, in the same order as the base propositions. */
+    private final BitSetMachineState.Universe baseUniverse;
+
+    private final int initIndex;
+    private final int terminalIndex;
+
+    /** Per role: the legal proposition indices and the moves they represent. */
+    private final int[][] legalIndices;
+    private final Move[][] legalMoves;
+    /** Per role: the input proposition index corresponding to each legal move, or -1. */
+    private final int[][] legalToInput;
+    /** Per role: a map from each move to its input proposition index. */
+    private final List<Map<Move, Integer>> inputIndices;
+
+    /** Per role: the goal proposition indices and the goal values they represent. */
+    private final int[][] goalIndices;
+    private final int[][] goalValues;
+
+    /**
+     * Flattens the given propnet. The propnet itself is not modified, and
+     * may be discarded afterwards.
+     *
+     * @throws IllegalArgumentException if the propnet contains a cycle that
+     * does not pass through a transition.
+     */
+    public CompiledPropNet(PropNet propNet)
+    {
+        this.roles = propNet.getRoles();
+
+        Set<Component> components = propNet.getComponents();
+        int n = components.size();
+        Map<Component, Integer> index = new HashMap<Component, Integer>(n * 2);
+        List<Component> order = new ArrayList<Component>(n);
+
+        // Base propositions come first, then inputs, then the other sources.
+        List<Proposition> bases = new ArrayList<Proposition>(propNet.getBasePropositions().values());
+        List<Proposition> inputProps = new ArrayList<Proposition>(propNet.getInputPropositions().values());
+        for (Proposition p : bases) {
+            add(p, order, index);
+        }
+        for (Proposition p : inputProps) {
+            add(p, order, index);
+        }
+        Proposition init = propNet.getInitProposition();
+        if (init != null) {
+            add(init, order, index);
+        }
+        for (Component c : components) {
+            if (c.getInputs().isEmpty() && !index.containsKey(c)) {
+                add(c, order, index);
+            }
+        }
+        this.numBases = bases.size();
+        this.numInputs = inputProps.size();
+        this.firstGate = order.size();
+
+        // Kahn's algorithm over everything else, ignoring the transition edges
+        // into base propositions.
+        Map<Component, Integer> remainingInputs = new HashMap<Component, Integer>(n * 2);
+        Queue<Component> ready = new ArrayDeque<Component>();
+        for (Component c : components) {
+            if (!index.containsKey(c)) {
+                remainingInputs.put(c, c.getInputs().size());
+            }
+        }
+        for (Component c : order) {
+            release(c, remainingInputs, ready);
+        }
+        while (!ready.isEmpty()) {
+            Component c = ready.remove();
+            add(c, order, index);
+            release(c, remainingInputs, ready);
+        }
+        if (order.size() != n) {
+            throw new IllegalArgumentException("PropNet has a cycle that does not pass through a transition; ordered " + order.size() + " of " + n + " components");
+        }
+
+        // Flatten the component types and the edges.
+        this.types = new byte[n];
+        this.inputOffsets = new int[n + 1];
+        this.outputOffsets = new int[n + 1];
+        int numInputEdges = 0;
+        int numOutputEdges = 0;
+        for (int i = 0; i < n; i++) {
+            Component c = order.get(i);
+            types[i] = getType(c, i, init);
+            inputOffsets[i] = numInputEdges;
+            outputOffsets[i] = numOutputEdges;
+            if (types[i] != TYPE_BASE) {
+                numInputEdges += c.getInputs().size();
+            }
+            for (Component out : c.getOutputs()) {
+                if (!(out instanceof Proposition && index.get(out) < numBases)) {
+                    numOutputEdges++;
+                }
+            }
+        }
+        inputOffsets[n] = numInputEdges;
+        outputOffsets[n] = numOutputEdges;
+        this.inputs = new int[numInputEdges];
+        this.outputs = new int[numOutputEdges];
+        for (int i = 0; i < n; i++) {
+            Component c = order.get(i);
+            int in = inputOffsets[i];
+            if (types[i] != TYPE_BASE) {
+                for (Component input : c.getInputs()) {
+                    inputs[in++] = index.get(input);
+                }
+            }
+            int out = outputOffsets[i];
+            for (Component output : c.getOutputs()) {
+                int outIndex = index.get(output);
+                if (!(output instanceof Proposition && outIndex < numBases)) {
+                    outputs[out++] = outIndex;
+                }
+            }
+        }
+
+        // Base propositions and their transitions.
+        this.transitions = new int[numBases];
+        List<GdlSentence> baseSentences = new ArrayList<GdlSentence>(numBases);
+        for (int i = 0; i < numBases; i++) {
+            Proposition base = bases.get(i);
+            baseSentences.add(base.getName());
+            transitions[i] = base.getInputs().isEmpty() ? -1 : index.get(base.getSingleInput());
+        }
+        this.baseUniverse = new BitSetMachineState.Universe(baseSentences);
+
+        this.initIndex = (init == null) ? -1 : index.get(init);
+        Proposition terminal = propNet.getTerminalProposition();
+        this.terminalIndex = (terminal == null) ? -1 : index.get(terminal);
+
+        // Per-role legal, input and goal lookups.
+        int numRoles = roles.size();
+        this.legalIndices = new int[numRoles][];
+        this.legalMoves = new Move[numRoles][];
+        this.legalToInput = new int[numRoles][];
+        this.inputIndices = new ArrayList<Map<Move, Integer>>(numRoles);
+        this.goalIndices = new int[numRoles][];
+        this.goalValues = new int[numRoles][];
+        Map<Proposition, Proposition> legalInputMap = propNet.getLegalInputMap();
+        for (int r = 0; r < numRoles; r++) {
+            Role role = roles.get(r);
+
+            Map<Move, Integer> roleInputs = new HashMap<Move, Integer>();
+            for (Proposition p : inputProps) {
+                GdlRelation does = (GdlRelation) p.getName();
+                if (does.get(0).equals(role.getName())) {
+                    roleInputs.put(new Move(does.get(1)), index.get(p));
+                }
+            }
+            inputIndices.add(roleInputs);
+
+            List<Proposition> legals = new ArrayList<Proposition>();
+            Set<Proposition> legalSet = propNet.getLegalPropositions().get(role);
+            if (legalSet != null) {
+                legals.addAll(legalSet);
+            }
+            legalIndices[r] = new int[legals.size()];
+            legalMoves[r] = new Move[legals.size()];
+            legalToInput[r] = new int[legals.size()];
+            for (int j = 0; j < legals.size(); j++) {
+                Proposition legal = legals.get(j);
+                legalIndices[r][j] = index.get(legal);
+                legalMoves[r][j] = new Move(legal.getName().get(1));
+                Proposition input = legalInputMap.get(legal);
+                legalToInput[r][j] = (input == null) ? -1 : index.get(input);
+            }
+
+            List<Proposition> goals = new ArrayList<Proposition>();
+            Set<Proposition> goalSet = propNet.getGoalPropositions().get(role);
+            if (goalSet != null) {
+                goals.addAll(goalSet);
+            }
+            goalIndices[r] = new int[goals.size()];
+            goalValues[r] = new int[goals.size()];
+            for (int j = 0; j < goals.size(); j++) {
+                Proposition goal = goals.get(j);
+                goalIndices[r][j] = index.get(goal);
+                GdlConstant value = (GdlConstant) ((GdlRelation) goal.getName()).get(1);
+                goalValues[r][j] = Integer.parseInt(value.getValue());
+            }
+        }
+    }
+
+    private static void add(Component c, List<Component> order, Map<Component, Integer> index)
+    {
+        index.put(c, order.size());
+        order.add(c);
+    }
+
+    private static void release(Component c, Map<Component, Integer> remainingInputs, Queue<Component> ready)
+    {
+        for (Component out : c.getOutputs()) {
+            Integer remaining = remainingInputs.get(out);
+            if (remaining == null) {
+                // Already placed: a base proposition fed by a transition.
+                continue;
+            }
+            if (remaining == 1) {
+                remainingInputs.remove(out);
+                ready.add(out);
+            } else {
+                remainingInputs.put(out, remaining - 1);
+            }
+        }
+    }
+
+    private byte getType(Component c, int i, Proposition init)
+    {
+        if (i < numBases) {
+            return TYPE_BASE;
+        } else if (i < numBases + numInputs) {
+            return TYPE_INPUT;
+        } else if (c == init) {
+            return TYPE_INIT;
+        } else if (c instanceof Constant) {
+            return c.getValue() ? TYPE_CONSTANT_TRUE : TYPE_CONSTANT_FALSE;
+        } else if (c instanceof And) {
+            return TYPE_AND;
+        } else if (c instanceof Or) {
+            return TYPE_OR;
+        } else if (c instanceof Not) {
+            return TYPE_NOT;
+        } else if (c instanceof Transition) {
+            return TYPE_TRANSITION;
+        } else {
+            return TYPE_PROPOSITION;
+        }
+    }
+
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    /**
+     * Returns the total number of components.
+     */
+    public int size()
+    {
+        return types.length;
+    }
+
+    public int getNumBases()
+    {
+        return numBases;
+    }
+
+    public int getNumInputs()
+    {
+        return numInputs;
+    }
+
+    /**
+     * Returns the index of the first component whose value is computed from
+     * its inputs. Components before this index are sources.
+     */
+    public int getFirstGate()
+    {
+        return firstGate;
+    }
+
+    public byte getType(int component)
+    {
+        return types[component];
+    }
+
+    /**
+     * Returns the component types, indexed by component. The returned array
+     * must not be modified.
+     */
+    public byte[] getTypes()
+    {
+        return types;
+    }
+
+    /**
+     * Returns the input offsets, of length size() + 1. The returned array
+     * must not be modified.
+     */
+    public int[] getInputOffsets()
+    {
+        return inputOffsets;
+    }
+
+    /**
+     * Returns the concatenated input lists. The returned array must not be
+     * modified.
+     */
+    public int[] getInputs()
+    {
+        return inputs;
+    }
+
+    /**
+     * Returns the output offsets, of length size() + 1. The returned array
+     * must not be modified.
+     */
+    public int[] getOutputOffsets()
+    {
+        return outputOffsets;
+    }
+
+    /**
+     * Returns the concatenated output lists. Edges from transitions into
+     * base propositions are not included. The returned array must not be
+     * modified.
+     */
+    public int[] getOutputs()
+    {
+        return outputs;
+    }
+
+    /**
+     * Returns the index of the component that determines the value of the
+     * given base proposition in the next state, or -1 if it is always false.
+     */
+    public int getTransition(int base)
+    {
+        return transitions[base];
+    }
+
+    public GdlSentence getBaseSentence(int base)
+    {
+        return baseUniverse.getSentence(base);
+    }
+
+    /**
+     * Returns the index of the base proposition for the given sentence, or
+     * -1 if the sentence is not a base proposition in this propnet.
+     */
+    public int getBaseIndex(GdlSentence sentence)
+    {
+        return baseUniverse.getIndex(sentence);
+    }
+
+    /**
+     * Returns the universe of base sentences, indexed the same way as the
+     * base propositions, for building {@link BitSetMachineState}s.
+     */
+    public BitSetMachineState.Universe getBaseUniverse()
+    {
+        return baseUniverse;
+    }
+
+    public int getInitIndex()
+    {
+        return initIndex;
+    }
+
+    public int getTerminalIndex()
+    {
+        return terminalIndex;
+    }
+
+    public int[] getLegalIndices(int role)
+    {
+        return legalIndices[role];
+    }
+
+    public Move[] getLegalMoves(int role)
+    {
+        return legalMoves[role];
+    }
+
+    /**
+     * Returns, for each legal proposition of the role, the index of the
+     * matching input proposition, or -1 if there is none.
+     */
+    public int[] getLegalToInput(int role)
+    {
+        return legalToInput[role];
+    }
+
+    /**
+     * Returns the index of the input proposition for the given role making
+     * the given move, or -1 if the propnet has no such input.
+     */
+    public int getInputIndex(int role, Move move)
+    {
+        Integer i = inputIndices.get(role).get(move);
+        return (i == null) ? -1 : i;
+    }
+
+    public int[] getGoalIndices(int role)
+    {
+        return goalIndices[role];
+    }
+
+    public int[] getGoalValues(int role)
+    {
+        return goalValues[role];
+    }
+}
@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlIdMap;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlProposition;
 import org.ggp.base.util.gdl.grammar.GdlRelation;
@@ -495,7 +496,7 @@ public final class PropNet
      */
 
     private Map<GdlSentence, Proposition> recordViewPropositions() {
-    	Map<GdlSentence, Proposition> viewPropositions = new HashMap<GdlSentence, Proposition>();
+    	Map<GdlSentence, Proposition> viewPropositions = new GdlIdMap<GdlSentence, Proposition>();
     	for (Component c : components) {
     		if (c instanceof Proposition) {
     			Proposition p = (Proposition) c;
@@ -531,7 +532,7 @@ public final class PropNet
      */
     private Map<GdlSentence, Proposition> recordBasePropositions()
     {
-        Map<GdlSentence, Proposition> basePropositions = new HashMap<GdlSentence, Proposition>();
+        Map<GdlSentence, Proposition> basePropositions = new GdlIdMap<GdlSentence, Proposition>();
         for (Proposition proposition : propositions) {
             // Skip all propositions without exactly one input.
             if (proposition.getInputs().size() != 1)
@@ -611,7 +612,7 @@ public final class PropNet
      */
     private Map<GdlSentence, Proposition> recordInputPropositions()
     {
-        Map<GdlSentence, Proposition> inputPropositions = new HashMap<GdlSentence, Proposition>();
+        Map<GdlSentence, Proposition> inputPropositions = new GdlIdMap<GdlSentence, Proposition>();
         for (Proposition proposition : propositions)
         {
             // Skip all propositions that aren't GdlFunctions.
@@ -0,0 +1,69 @@
+package org.ggp.base.util.propnet.bytecode;
+
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+
+/**
+ * Recomputes every gate of a {@link CompiledPropNet}, given the values of its
+ * sources. Values are kept one bit per component in a long[], indexed as in
+ * the compiled propnet, the same way that
+ * {@link org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine}
+ * keeps them.
+ *
+ * Implementations are generated at runtime by {@link PropNetEvaluatorGenerator},
+ * with the structure of one particular propnet written out as straight-line
+ * code. They hold no evaluation state of their own, so a single evaluator can
+ * be used by any number of threads at once, each with its own values.
+ */
+public abstract class PropNetEvaluator
+{
+    private final int[] inputOffsets;
+    private final int[] inputs;
+
+    protected PropNetEvaluator(CompiledPropNet net)
+    {
+        this.inputOffsets = net.getInputOffsets();
+        this.inputs = net.getInputs();
+    }
+
+    /**
+     * Sets the bit of every gate from the bits of its inputs, in topological
+     * order. The bits of the sources (bases, inputs, init and constants) are
+     * left as they are.
+     */
+    public abstract void propagate(long[] values);
+
+    /**
+     * Evaluates an AND gate by walking its inputs. Generated code uses this
+     * for gates with too many inputs to write out.
+     */
+    protected final boolean and(long[] values, int gate)
+    {
+        for (int j = inputOffsets[gate]; j < inputOffsets[gate + 1]; j++)
+        {
+            int in = inputs[j];
+            if ((values[in >>> 6] & (1L << in)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates an OR gate, transition or view proposition by walking its
+     * inputs. Generated code uses this for gates with too many inputs to
+     * write out.
+     */
+    protected final boolean or(long[] values, int gate)
+    {
+        for (int j = inputOffsets[gate]; j < inputOffsets[gate + 1]; j++)
+        {
+            int in = inputs[j];
+            if ((values[in >>> 6] & (1L << in)) != 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
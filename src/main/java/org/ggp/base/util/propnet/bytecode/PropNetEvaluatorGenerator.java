@@ -0,0 +1,322 @@
+package org.ggp.base.util.propnet.bytecode;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+
+/**
+ * Generates a {@link PropNetEvaluator} class for a particular
+ * {@link CompiledPropNet} at runtime, using javassist.
+ *
+ * The generated code walks the gates in the same order as the interpreted
+ * evaluation, but with each gate written out as a test of its inputs' bits
+ * against constant masks. There is no loop over the inputs and no switch on
+ * the gate type, and the bits of each word of values are built up in a local
+ * before being stored, so the JIT can keep them in registers.
+ *
+ * The gates are split across many small methods. Methods are kept well under
+ * the 8000 bytes of bytecode above which HotSpot won't compile them, which
+ * also keeps them under the 64KB limit on the size of any method. Gates with
+ * a great many inputs call back into a loop in {@link PropNetEvaluator}
+ * instead of being written out.
+ *
+ * Generation can fail, for instance if javassist can't run on the current
+ * JVM. {@link #generate(CompiledPropNet)} then logs the problem and returns
+ * null, and callers should carry on evaluating the propnet themselves.
+ */
+public final class PropNetEvaluatorGenerator
+{
+    /** HotSpot's HugeMethodLimit: larger methods are never compiled. */
+    private static final int JIT_METHOD_LIMIT = 8000;
+    /** The estimated bytecode size each method starts out allowed. */
+    private static final int DEFAULT_METHOD_BUDGET = 6000;
+    /** The smallest budget to try before giving up. */
+    private static final int MIN_METHOD_BUDGET = 500;
+    /** Gates with more inputs than this are evaluated with a loop. */
+    private static final int MAX_INLINE_INPUTS = 64;
+    /** The number of calls to put in each method that calls the others. */
+    private static final int CALLS_PER_METHOD = 1000;
+
+    private static final AtomicInteger nextClassId = new AtomicInteger();
+
+    private PropNetEvaluatorGenerator()
+    {
+        // Not instantiable
+    }
+
+    /**
+     * Generates an evaluator for the given propnet, or returns null if that
+     * isn't possible.
+     */
+    public static PropNetEvaluator generate(CompiledPropNet net)
+    {
+        long startTime = System.currentTimeMillis();
+        int budget = DEFAULT_METHOD_BUDGET;
+        while (true)
+        {
+            try
+            {
+                PropNetEvaluator evaluator = generate(net, budget);
+                GamerLogger.log("StateMachine", "Generated evaluator for " + (net.size() - net.getFirstGate()) + " gates in " + (System.currentTimeMillis() - startTime) + "ms");
+                return evaluator;
+            }
+            catch (CannotCompileException e)
+            {
+                if (budget / 2 < MIN_METHOD_BUDGET)
+                {
+                    GamerLogger.logError("StateMachine", "Could not generate propnet evaluator, falling back to interpreting the propnet: " + e);
+                    return null;
+                }
+                budget /= 2;
+            }
+            catch (Exception e)
+            {
+                GamerLogger.logError("StateMachine", "Could not generate propnet evaluator, falling back to interpreting the propnet: " + e);
+                return null;
+            }
+            catch (LinkageError e)
+            {
+                GamerLogger.logError("StateMachine", "Could not load generated propnet evaluator, falling back to interpreting the propnet: " + e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Generates an evaluator whose methods each hold about the given number
+     * of bytes of bytecode.
+     *
+     * @throws CannotCompileException if the generated code can't be compiled,
+     *         or a method ends up too large for the JIT
+     */
+    static PropNetEvaluator generate(CompiledPropNet net, int methodBudget) throws Exception
+    {
+        String name = PropNetEvaluator.class.getName() + "$Generated" + nextClassId.getAndIncrement();
+        ClassPool pool = new ClassPool(true);
+        pool.insertClassPath(new ClassClassPath(PropNetEvaluator.class));
+        CtClass generated = pool.makeClass(name);
+        generated.setSuperclass(pool.get(PropNetEvaluator.class.getName()));
+        generated.addConstructor(CtNewConstructor.make(
+                "public " + generated.getSimpleName() + "(" + CompiledPropNet.class.getName() + " net) { super($1); }", generated));
+
+        int numMethods = new GateWriter(net, methodBudget, generated).writeAll();
+
+        // Call the gate methods in order, through another layer of methods
+        // if there are too many of them to call from one
+        String prefix = "p";
+        while (numMethods > 1)
+        {
+            int numCallers = (numMethods + CALLS_PER_METHOD - 1) / CALLS_PER_METHOD;
+            for (int c = 0; c < numCallers; c++)
+            {
+                StringBuilder body = new StringBuilder("private void c").append(prefix).append(c).append("(long[] s) {");
+                for (int m = c * CALLS_PER_METHOD; m < Math.min(numMethods, (c + 1) * CALLS_PER_METHOD); m++)
+                {
+                    body.append(prefix).append(m).append("(s);");
+                }
+                addMethod(generated, body.append('}').toString());
+            }
+            prefix = "c" + prefix;
+            numMethods = numCallers;
+        }
+        String propagate = (numMethods == 0) ? "" : prefix + "0($1);";
+        addMethod(generated, "public void propagate(long[] s) {" + propagate + "}");
+
+        byte[] bytecode = generated.toBytecode();
+        Class<?> evaluatorClass = new GeneratedClassLoader().define(name, bytecode);
+        return (PropNetEvaluator) evaluatorClass.getConstructor(CompiledPropNet.class).newInstance(net);
+    }
+
+    private static void addMethod(CtClass generated, String source) throws CannotCompileException
+    {
+        CtMethod method = CtNewMethod.make(source, generated);
+        generated.addMethod(method);
+        int length = method.getMethodInfo().getCodeAttribute().getCodeLength();
+        if (length > JIT_METHOD_LIMIT)
+        {
+            throw new CannotCompileException("Generated method " + method.getName() + " has " + length + " bytes of bytecode");
+        }
+    }
+
+    /**
+     * Writes out the gates as a series of methods named p0, p1 and so on.
+     * Within a method, the word of values currently being computed is kept
+     * in the local v, and stored when the method moves on to the next word
+     * or returns.
+     */
+    private static final class GateWriter
+    {
+        private final CompiledPropNet net;
+        private final int methodBudget;
+        private final CtClass generated;
+        private final byte[] types;
+        private final int[] inputOffsets;
+        private final int[] inputs;
+
+        private StringBuilder body;
+        private int estimatedSize;
+        private int word;
+        private int numMethods;
+
+        GateWriter(CompiledPropNet net, int methodBudget, CtClass generated)
+        {
+            this.net = net;
+            this.methodBudget = methodBudget;
+            this.generated = generated;
+            this.types = net.getTypes();
+            this.inputOffsets = net.getInputOffsets();
+            this.inputs = net.getInputs();
+        }
+
+        /**
+         * Returns the number of methods written.
+         */
+        int writeAll() throws CannotCompileException
+        {
+            int firstGate = net.getFirstGate();
+            for (int i = firstGate; i < types.length; i++)
+            {
+                int w = i >>> 6;
+                if (body == null)
+                {
+                    body = new StringBuilder("private void p").append(numMethods).append("(long[] s) { long v;");
+                    estimatedSize = 0;
+                    startWord(w, i == firstGate || (i & 63) == 0);
+                }
+                else if (w != word)
+                {
+                    body.append("s[").append(word).append("] = v;");
+                    startWord(w, true);
+                }
+                writeGate(i);
+                if (estimatedSize >= methodBudget)
+                {
+                    finishMethod();
+                }
+            }
+            if (body != null)
+            {
+                finishMethod();
+            }
+            return numMethods;
+        }
+
+        /**
+         * Loads the given word into v. At the start of a word, the bits of
+         * its gates are cleared, so that only the true ones need to be set.
+         */
+        private void startWord(int w, boolean firstGateOfWord)
+        {
+            word = w;
+            if (!firstGateOfWord)
+            {
+                body.append("v = s[").append(w).append("];");
+                return;
+            }
+            int firstGate = net.getFirstGate();
+            if ((firstGate >>> 6) == w && (firstGate & 63) != 0)
+            {
+                // Keep the bits of the sources that share this word
+                body.append("v = s[").append(w).append("] & ").append(mask((1L << (firstGate & 63)) - 1)).append(';');
+            }
+            else
+            {
+                body.append("v = 0L;");
+            }
+        }
+
+        private void finishMethod() throws CannotCompileException
+        {
+            body.append("s[").append(word).append("] = v; }");
+            addMethod(generated, body.toString());
+            body = null;
+            numMethods++;
+        }
+
+        private void writeGate(int gate)
+        {
+            String bit = mask(1L << gate);
+            int start = inputOffsets[gate];
+            int end = inputOffsets[gate + 1];
+            byte type = types[gate];
+            estimatedSize += 8;
+            if (end - start > MAX_INLINE_INPUTS)
+            {
+                String method = (type == CompiledPropNet.TYPE_AND) ? "and" : "or";
+                body.append("s[").append(word).append("] = v; if (").append(method).append("(s, ").append(gate).append(")) v |= ").append(bit).append(';');
+                estimatedSize += 12;
+                return;
+            }
+
+            if (type == CompiledPropNet.TYPE_NOT)
+            {
+                body.append("if (").append(test(inputs[start], false)).append(") v |= ").append(bit).append(';');
+                estimatedSize += 14;
+                return;
+            }
+            boolean and = (type == CompiledPropNet.TYPE_AND);
+            if (start == end)
+            {
+                // An AND with no inputs is true, and anything else false
+                if (and)
+                {
+                    body.append("v |= ").append(bit).append(';');
+                }
+                return;
+            }
+            body.append("if (");
+            for (int j = start; j < end; j++)
+            {
+                if (j > start)
+                {
+                    body.append(and ? " && " : " || ");
+                }
+                body.append(test(inputs[j], true));
+                estimatedSize += 14;
+            }
+            body.append(") v |= ").append(bit).append(';');
+        }
+
+        /**
+         * Returns an expression that is true when the given component's bit
+         * is set to the given value.
+         */
+        private String test(int component, boolean value)
+        {
+            int w = component >>> 6;
+            String source = (w == word) ? "v" : "s[" + w + "]";
+            return "(" + source + " & " + mask(1L << component) + ") " + (value ? "!=" : "==") + " 0L";
+        }
+    }
+
+    private static String mask(long mask)
+    {
+        return "0x" + Long.toHexString(mask) + "L";
+    }
+
+    /**
+     * Loads a single generated class, so that it can be unloaded once its
+     * evaluator is no longer used.
+     */
+    private static final class GeneratedClassLoader extends ClassLoader
+    {
+        GeneratedClassLoader()
+        {
+            super(PropNetEvaluator.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytecode)
+        {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
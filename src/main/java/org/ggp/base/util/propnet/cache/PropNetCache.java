@@ -0,0 +1,153 @@
+package org.ggp.base.util.propnet.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.ggp.base.util.crypto.BaseHashing;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+
+/**
+ * A directory of propnets that have already been built by the
+ * {@link OptimizingPropNetFactory}, so that a game that has been played
+ * before doesn't need its propnet built again at the start of every match.
+ *
+ * Propnets are stored in the format written by {@link PropNetSerializer},
+ * one file per game, named after a hash of the game description and the
+ * versions of the factory and of the format. The hash is taken over the
+ * rendered rules, so two rulesheets that differ only in whitespace share a
+ * file, and a propnet built by an older {@link OptimizingPropNetFactory#VERSION}
+ * is never used. The propnets are stored as built, before any reduction, so
+ * changes to the reducer don't affect them. Files are written under a
+ * temporary name and then renamed, so several players sharing a cache never
+ * see a partial one.
+ *
+ * Nothing uses a cache unless it is given one, as with
+ * {@link org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine#setPropNetCache}.
+ * The SampleMctsGamer and the TournamentRunner use the default cache, which
+ * is kept in a directory in the user's home directory, next to the game
+ * cache of the {@link org.ggp.base.util.game.CloudGameRepository}.
+ */
+public final class PropNetCache
+{
+    private static final String EXTENSION = ".propnet";
+
+    private static PropNetCache defaultCache;
+
+    private final File directory;
+
+    public PropNetCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    public static synchronized PropNetCache getDefaultCache()
+    {
+        if (defaultCache == null)
+        {
+            defaultCache = new PropNetCache(new File(System.getProperty("user.home"), ".ggpserver-propnetcache"));
+        }
+        return defaultCache;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Returns the hash of the game description that its propnet is stored
+     * under.
+     */
+    public static String getGameHash(List<Gdl> description)
+    {
+        StringBuilder rules = new StringBuilder();
+        for (Gdl gdl : description)
+        {
+            rules.append(gdl).append('\n');
+        }
+        return BaseHashing.computeSHA1Hash(rules.toString());
+    }
+
+    /**
+     * Returns the file that the propnet for the given game is stored in,
+     * whether or not it exists yet.
+     */
+    public File getFile(List<Gdl> description)
+    {
+        return new File(directory, getGameHash(description) + "-" + OptimizingPropNetFactory.VERSION + "." + PropNetSerializer.VERSION + EXTENSION);
+    }
+
+    /**
+     * Returns the propnet for the given game, reading it from the cache if it
+     * is there. Otherwise, it is built and then added to the cache. Problems
+     * with the cache are logged, and never stop a propnet from being built.
+     */
+    public PropNet getPropNet(List<Gdl> description) throws InterruptedException
+    {
+        File file = getFile(description);
+        if (file.exists())
+        {
+            try
+            {
+                long startTime = System.currentTimeMillis();
+                PropNet propNet = PropNetSerializer.read(file);
+                GamerLogger.log("StateMachine", "Loaded propnet with " + propNet.getComponents().size() + " components from " + file + " in " + (System.currentTimeMillis() - startTime) + "ms");
+                return propNet;
+            }
+            catch (IOException e)
+            {
+                GamerLogger.logError("StateMachine", "Could not read cached propnet " + file + ", rebuilding it: " + e);
+            }
+        }
+
+        PropNet propNet = OptimizingPropNetFactory.create(description);
+        save(propNet, file);
+        return propNet;
+    }
+
+    private void save(PropNet propNet, File file)
+    {
+        File tempFile = null;
+        try
+        {
+            directory.mkdirs();
+            tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try
+            {
+                PropNetSerializer.write(propNet, out);
+                out.getFD().sync();
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!tempFile.renameTo(file))
+            {
+                // Some platforms won't rename over an existing file
+                file.delete();
+                if (!tempFile.renameTo(file))
+                {
+                    throw new IOException("Could not rename " + tempFile + " to " + file);
+                }
+            }
+            tempFile = null;
+        }
+        catch (IOException e)
+        {
+            GamerLogger.logError("StateMachine", "Could not save propnet to " + file + ": " + e);
+        }
+        finally
+        {
+            if (tempFile != null)
+            {
+                tempFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.ggp.base.util.propnet.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlReader;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.symbol.factory.SymbolTokenizer;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+
+/**
+ * Writes a {@link PropNet} in a compact binary format, and reads it back.
+ *
+ * The format is laid out so that it can be read straight out of a memory
+ * mapped file, without first being copied onto the heap:
+ *
+ * <pre>
+ * int     magic number, "GGPN"
+ * int     format version
+ * int     number of roles
+ * int     number of components
+ * int     number of edges
+ * int     length of the names, in bytes
+ * byte[]  the type of each component, padded to a multiple of four bytes
+ * int[]   for each component, the offset of its first input in the edges,
+ *         followed by the total number of edges
+ * int[]   the edges: for each component, the indices of its inputs
+ * byte[]  the names, in UTF-8: the names of the roles, then the GDL
+ *         sentence of each proposition, in component order
+ * </pre>
+ *
+ * Only the components, their connections and the names of the propositions
+ * are stored. The base, input, legal and goal propositions are all found by
+ * their names and connections, so the PropNet constructor works them out
+ * again when the propnet is read.
+ */
+public final class PropNetSerializer
+{
+    private static final int MAGIC = 0x4747504E;
+    static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_PROPOSITION = 0;
+    private static final byte TYPE_TRANSITION = 1;
+    private static final byte TYPE_AND = 2;
+    private static final byte TYPE_OR = 3;
+    private static final byte TYPE_NOT = 4;
+    private static final byte TYPE_CONSTANT_TRUE = 5;
+    private static final byte TYPE_CONSTANT_FALSE = 6;
+
+    private PropNetSerializer()
+    {
+        // Not instantiable
+    }
+
+    /**
+     * Writes the propnet to the given stream, which is left open.
+     */
+    public static void write(PropNet propNet, OutputStream out) throws IOException
+    {
+        List<Component> components = new ArrayList<Component>(propNet.getComponents());
+        Map<Component, Integer> indices = new HashMap<Component, Integer>(components.size() * 2);
+        for (int i = 0; i < components.size(); i++)
+        {
+            indices.put(components.get(i), i);
+        }
+
+        int numEdges = 0;
+        byte[] types = new byte[pad(components.size())];
+        StringBuilder names = new StringBuilder();
+        for (Role role : propNet.getRoles())
+        {
+            names.append(role.getName()).append('\n');
+        }
+        for (int i = 0; i < components.size(); i++)
+        {
+            Component component = components.get(i);
+            types[i] = getType(component);
+            numEdges += component.getInputs().size();
+            if (component instanceof Proposition)
+            {
+                names.append(((Proposition) component).getName()).append('\n');
+            }
+        }
+        byte[] nameBytes = names.toString().getBytes(UTF_8);
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(propNet.getRoles().size());
+        data.writeInt(components.size());
+        data.writeInt(numEdges);
+        data.writeInt(nameBytes.length);
+        data.write(types);
+        int offset = 0;
+        for (Component component : components)
+        {
+            data.writeInt(offset);
+            offset += component.getInputs().size();
+        }
+        data.writeInt(offset);
+        for (Component component : components)
+        {
+            for (Component input : component.getInputs())
+            {
+                data.writeInt(indices.get(input));
+            }
+        }
+        data.write(nameBytes);
+        data.flush();
+    }
+
+    /**
+     * Reads a propnet from the given bytes, starting at their current
+     * position. The position of the buffer is left alone.
+     *
+     * @throws IOException if the bytes are not a propnet in this format
+     */
+    public static PropNet read(ByteBuffer bytes) throws IOException
+    {
+        try
+        {
+            return readUnchecked(bytes.duplicate());
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException("Propnet data is truncated", e);
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw new IOException("Propnet data is corrupt", e);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException("Propnet data is corrupt", e);
+        }
+    }
+
+    /**
+     * Reads a propnet from the given file, by mapping it into memory.
+     *
+     * @throws IOException if the file can't be read, or is not a propnet in
+     *         this format
+     */
+    public static PropNet read(File file) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static PropNet readUnchecked(ByteBuffer bytes) throws IOException
+    {
+        if (bytes.getInt() != MAGIC)
+        {
+            throw new IOException("Not a serialized propnet");
+        }
+        int version = bytes.getInt();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported propnet format version " + version);
+        }
+        int numRoles = bytes.getInt();
+        int numComponents = bytes.getInt();
+        int numEdges = bytes.getInt();
+        int namesLength = bytes.getInt();
+        if (numRoles < 0 || numComponents < 0 || numEdges < 0 || namesLength < 0)
+        {
+            throw new IOException("Propnet data is corrupt");
+        }
+
+        int typesStart = bytes.position();
+        int offsetsStart = typesStart + pad(numComponents);
+        int edgesStart = offsetsStart + 4 * (numComponents + 1);
+        int namesStart = edgesStart + 4 * numEdges;
+        bytes.position(offsetsStart);
+        IntBuffer offsets = bytes.slice().asIntBuffer();
+        bytes.position(edgesStart);
+        IntBuffer edges = bytes.slice().asIntBuffer();
+        bytes.position(namesStart);
+        bytes.limit(namesStart + namesLength);
+        GdlReader names = new GdlReader(new SymbolTokenizer(bytes.slice(), UTF_8));
+
+        List<Role> roles = new ArrayList<Role>(numRoles);
+        for (int i = 0; i < numRoles; i++)
+        {
+            GdlSentence name = readName(names);
+            if (!(name instanceof GdlProposition))
+            {
+                throw new IOException("Propnet names are corrupt: expected a role, found " + name);
+            }
+            roles.add(new Role(name.getName()));
+        }
+
+        Component[] components = new Component[numComponents];
+        for (int i = 0; i < numComponents; i++)
+        {
+            byte type = bytes.get(typesStart + i);
+            switch (type)
+            {
+            case TYPE_PROPOSITION:
+                components[i] = new Proposition(readName(names));
+                break;
+            case TYPE_TRANSITION:
+                components[i] = new Transition();
+                break;
+            case TYPE_AND:
+                components[i] = new And();
+                break;
+            case TYPE_OR:
+                components[i] = new Or();
+                break;
+            case TYPE_NOT:
+                components[i] = new Not();
+                break;
+            case TYPE_CONSTANT_TRUE:
+                components[i] = new Constant(true);
+                break;
+            case TYPE_CONSTANT_FALSE:
+                components[i] = new Constant(false);
+                break;
+            default:
+                throw new IOException("Unknown component type " + type);
+            }
+        }
+
+        for (int i = 0; i < numComponents; i++)
+        {
+            Component component = components[i];
+            for (int e = offsets.get(i); e < offsets.get(i + 1); e++)
+            {
+                Component input = components[edges.get(e)];
+                component.addInput(input);
+                input.addOutput(component);
+            }
+        }
+
+        Set<Component> componentSet = new HashSet<Component>(numComponents * 2);
+        for (Component component : components)
+        {
+            componentSet.add(component);
+        }
+        return new PropNet(roles, componentSet);
+    }
+
+    private static GdlSentence readName(GdlReader names) throws IOException
+    {
+        Gdl name;
+        try
+        {
+            name = names.read();
+        }
+        catch (GdlFormatException e)
+        {
+            throw new IOException("Propnet names are corrupt", e);
+        }
+        catch (SymbolFormatException e)
+        {
+            throw new IOException("Propnet names are corrupt", e);
+        }
+        if (!(name instanceof GdlSentence))
+        {
+            throw new IOException("Propnet names are corrupt: expected a sentence, found " + name);
+        }
+        return (GdlSentence) name;
+    }
+
+    private static byte getType(Component component)
+    {
+        if (component instanceof Proposition)
+        {
+            return TYPE_PROPOSITION;
+        }
+        else if (component instanceof Transition)
+        {
+            return TYPE_TRANSITION;
+        }
+        else if (component instanceof And)
+        {
+            return TYPE_AND;
+        }
+        else if (component instanceof Or)
+        {
+            return TYPE_OR;
+        }
+        else if (component instanceof Not)
+        {
+            return TYPE_NOT;
+        }
+        else if (component instanceof Constant)
+        {
+            return component.getValue() ? TYPE_CONSTANT_TRUE : TYPE_CONSTANT_FALSE;
+        }
+        throw new IllegalArgumentException("Unknown type of component: " + component.getClass());
+    }
+
+    private static int pad(int length)
+    {
+        return (length + 3) & ~3;
+    }
+}
@@ -12,6 +12,11 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -19,6 +24,7 @@ import org.ggp.base.util.gdl.GdlUtils;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlIdMap;
 import org.ggp.base.util.gdl.grammar.GdlLiteral;
 import org.ggp.base.util.gdl.grammar.GdlNot;
 import org.ggp.base.util.gdl.grammar.GdlPool;
@@ -46,6 +52,7 @@ import org.ggp.base.util.gdl.transforms.DeORer;
 import org.ggp.base.util.gdl.transforms.GdlCleaner;
 import org.ggp.base.util.gdl.transforms.Relationizer;
 import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
 import org.ggp.base.util.propnet.architecture.components.And;
@@ -56,6 +63,7 @@ import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.statemachine.Role;
 
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -103,6 +111,14 @@ public class OptimizingPropNetFactory {
     static final private GdlConstant INPUT = GdlPool.getConstant("input");
     static final private GdlProposition TEMP = GdlPool.getProposition(GdlPool.getConstant("TEMP"));
 
+    /**
+     * The version of the propnets built by this factory. It is part of the
+     * name that {@link org.ggp.base.util.propnet.cache.PropNetCache} stores
+     * propnets under, so it must be bumped whenever a change here, or in the
+     * transformations run from here, changes the propnets that get built.
+     */
+    public static final int VERSION = 1;
+
     /**
      * Creates a PropNet for the game with the given description.
      *
@@ -114,6 +130,28 @@ public class OptimizingPropNetFactory {
     }
 
     public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+        return create(description, verbose, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a PropNet for the game with the given description, using up to
+     * numThreads threads.
+     *
+     * Once all the sentence forms that a form depends on have been added, the
+     * work for that form that only reads the model (computing the assignments
+     * for each of its rules, or the function info of a constant form) is
+     * started on a fork-join pool. Forms in the same layer of the dependency
+     * graph are thus prepared concurrently. The components are still wired
+     * up one form at a time in the topological ordering, because forms share
+     * gates with the forms they depend on, so the PropNet is the same for any
+     * number of threads.
+     *
+     * @throws InterruptedException if the thread is interrupted during
+     * PropNet creation.
+     */
+    public static PropNet create(List<Gdl> description, boolean verbose, int numThreads) throws InterruptedException {
+        if(numThreads < 1)
+            throw new IllegalArgumentException("numThreads must be positive, was " + numThreads);
         System.out.println("Building propnet...");
 
         long startTime = System.currentTimeMillis();
@@ -165,59 +203,73 @@ public class OptimizingPropNetFactory {
             System.out.println("done");
 
         List<Role> roles = Role.computeRoles(description);
-        Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
-        Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
+        Map<GdlSentence, Component> components = new GdlIdMap<GdlSentence, Component>();
+        Map<GdlSentence, Component> negations = new GdlIdMap<GdlSentence, Component>();
+        //Planning time is the time spent analyzing the game, plus the time
+        //spent waiting for plans; the rest of the build is wiring
+        long planningTime = System.currentTimeMillis() - startTime;
         Constant trueComponent = new Constant(true);
         Constant falseComponent = new Constant(false);
-        Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
-        Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-        for(SentenceForm form : topologicalOrdering) {
-            ConcurrencyUtils.checkForInterruption();
+        //These are read by the planner's worker threads while we fill them in
+        Map<SentenceForm, FunctionInfo> functionInfoMap = new ConcurrentHashMap<SentenceForm, FunctionInfo>();
+        Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new ConcurrentHashMap<SentenceForm, Collection<GdlSentence>>();
+        FormPlanner planner = new FormPlanner(topologicalOrdering, dependencyGraph, model, constantChecker, functionInfoMap, completedSentenceFormValues, numThreads);
+        try {
+            for(SentenceForm form : topologicalOrdering) {
+                ConcurrencyUtils.checkForInterruption();
+                long planStartTime = System.currentTimeMillis();
+                FormPlan plan = planner.getPlan(form);
+                planningTime += System.currentTimeMillis() - planStartTime;
 
-            if(verbose) {
-                System.out.print("Adding sentence form " + form);
-                System.out.flush();
-            }
-            if(constantChecker.isConstantForm(form)) {
-                if(verbose)
-                    System.out.println(" (constant)");
-                //Only add it if it's important
-                if(form.getName().equals(LEGAL)
-                        || form.getName().equals(GOAL)
-                        || form.getName().equals(INIT)
-                        || form.getName().equals(NEXT)
-                        || form.getName().equals(TERMINAL)) {
-                    //Add it
-                    for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-                        Proposition trueProp = new Proposition(trueSentence);
-                        trueProp.addInput(trueComponent);
-                        trueComponent.addOutput(trueProp);
-                        components.put(trueSentence, trueComponent);
-                    }
+                if(verbose) {
+                    System.out.print("Adding sentence form " + form);
+                    System.out.flush();
                 }
+                if(constantChecker.isConstantForm(form)) {
+                    if(verbose)
+                        System.out.println(" (constant)");
+                    //Only add it if it's important
+                    if(form.getName().equals(LEGAL)
+                            || form.getName().equals(GOAL)
+                            || form.getName().equals(INIT)
+                            || form.getName().equals(NEXT)
+                            || form.getName().equals(TERMINAL)) {
+                        //Add it
+                        for (GdlSentence trueSentence : plan.trueSentences) {
+                            Proposition trueProp = new Proposition(trueSentence);
+                            trueProp.addInput(trueComponent);
+                            trueComponent.addOutput(trueProp);
+                            components.put(trueSentence, trueComponent);
+                        }
+                    }
 
-                if(verbose)
-                    System.out.println("Checking whether " + form + " is a functional constant...");
-                addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-                addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+                    if(verbose)
+                        System.out.println("Checking whether " + form + " is a functional constant...");
+                    functionInfoMap.put(form, plan.functionInfo);
+                    completedSentenceFormValues.put(form, plan.trueSentences);
+                    planner.formCompleted(form);
 
-                continue;
+                    continue;
+                }
+                if(verbose)
+                    System.out.println();
+                //TODO: Adjust "recursive forms" appropriately
+                //Add a temporary sentence form thingy? ...
+                Map<GdlSentence, Component> temporaryComponents = new GdlIdMap<GdlSentence, Component>();
+                Map<GdlSentence, Component> temporaryNegations = new GdlIdMap<GdlSentence, Component>();
+                addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, plan.rulePlans, constantChecker);
+                //TODO: Pass these over groups of multiple sentence forms
+                if(verbose && !temporaryComponents.isEmpty())
+                    System.out.println("Processing temporary components...");
+                processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
+                addFormToCompletedValues(form, completedSentenceFormValues, components);
+                planner.formCompleted(form);
+                //if(verbose)
+                //TODO: Add this, but with the correct total number of components (not just Propositions)
+                //System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
             }
-            if(verbose)
-                System.out.println();
-            //TODO: Adjust "recursive forms" appropriately
-            //Add a temporary sentence form thingy? ...
-            Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-            Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-            addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-            //TODO: Pass these over groups of multiple sentence forms
-            if(verbose && !temporaryComponents.isEmpty())
-                System.out.println("Processing temporary components...");
-            processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-            addFormToCompletedValues(form, completedSentenceFormValues, components);
-            //if(verbose)
-            //TODO: Add this, but with the correct total number of components (not just Propositions)
-            //System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
+        } finally {
+            planner.shutdown();
         }
         //Connect "next" to "true"
         if(verbose)
@@ -243,8 +295,10 @@ public class OptimizingPropNetFactory {
         //how we want it to look
         normalizePropositions(componentSet);
         PropNet propnet = new PropNet(roles, componentSet);
+        long buildTime = System.currentTimeMillis() - startTime;
+        GamerLogger.log("StateMachine", "Built propnet with " + componentSet.size() + " components in " + buildTime + "ms (" + planningTime + "ms planning, " + (buildTime - planningTime) + "ms wiring) on " + numThreads + " threads");
         if(verbose) {
-            System.out.println("Done setting up propnet; took " + (System.currentTimeMillis() - startTime) + "ms, has " + componentSet.size() + " components and " + propnet.getNumLinks() + " links");
+            System.out.println("Done setting up propnet; took " + buildTime + "ms, has " + componentSet.size() + " components and " + propnet.getNumLinks() + " links");
             System.out.println("Propnet has " +propnet.getNumAnds()+" ands; "+propnet.getNumOrs()+" ors; "+propnet.getNumNots()+" nots");
         }
         //System.out.println(propnet);
@@ -295,17 +349,6 @@ public class OptimizingPropNetFactory {
         }
     }
 
-    private static void addFormToCompletedValues(
-            SentenceForm form,
-            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
-            ConstantChecker constantChecker) {
-        List<GdlSentence> sentences = new ArrayList<GdlSentence>();
-        sentences.addAll(constantChecker.getTrueSentences(form));
-
-        completedSentenceFormValues.put(form, sentences);
-    }
-
-
     private static void addFormToCompletedValues(
             SentenceForm form,
             Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
@@ -325,12 +368,6 @@ public class OptimizingPropNetFactory {
     }
 
 
-    private static void addConstantsToFunctionInfo(SentenceForm form,
-            ConstantChecker constantChecker, Map<SentenceForm, FunctionInfo> functionInfoMap) throws InterruptedException {
-        functionInfoMap.put(form, FunctionInfoImpl.create(form, constantChecker));
-    }
-
-
     private static void processTemporaryComponents(
             Map<GdlSentence, Component> temporaryComponents,
             Map<GdlSentence, Component> temporaryNegations,
@@ -830,6 +867,172 @@ public class OptimizingPropNetFactory {
         return ordering;
     }
 
+    /**
+     * The parts of adding a rule to the propnet that depend only on the model
+     * and on the sentence forms that have already been completed.
+     */
+    private static class RulePlan {
+        private final GdlRule rule;
+        private final Assignments assignments;
+        //Vars in live (non-constant, non-distinct) conjuncts, and in the head
+        private final Set<GdlVariable> varsInLiveConjuncts;
+        private final boolean preventDuplicatesFromConstants;
+
+        private RulePlan(GdlRule rule, SentenceDomainModel model, ConstantChecker constantChecker,
+                Map<SentenceForm, FunctionInfo> functionInfoMap,
+                Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) {
+            this.rule = rule;
+            this.assignments = AssignmentsFactory.getAssignmentsForRule(rule, model, functionInfoMap, completedSentenceFormValues);
+            this.varsInLiveConjuncts = getVarsInLiveConjuncts(rule, constantChecker.getConstantSentenceForms());
+            varsInLiveConjuncts.addAll(GdlUtils.getVariables(rule.getHead()));
+            Set<GdlVariable> varsInRule = new HashSet<GdlVariable>(GdlUtils.getVariables(rule));
+            this.preventDuplicatesFromConstants =
+                    (varsInRule.size() > varsInLiveConjuncts.size());
+        }
+    }
+
+    /**
+     * Everything needed to add a sentence form that can be computed without
+     * touching any components: the true sentences and function info of a
+     * constant form, or the rule plans of any other form.
+     */
+    private static class FormPlan {
+        private final List<GdlSentence> trueSentences;
+        private final FunctionInfo functionInfo;
+        private final List<RulePlan> rulePlans;
+
+        private FormPlan(List<GdlSentence> trueSentences, FunctionInfo functionInfo, List<RulePlan> rulePlans) {
+            this.trueSentences = trueSentences;
+            this.functionInfo = functionInfo;
+            this.rulePlans = rulePlans;
+        }
+    }
+
+    /**
+     * Computes the {@link FormPlan}s for the sentence forms in the topological
+     * ordering. With more than one thread, each plan is started on a fork-join
+     * pool as soon as the forms it reads from have been completed (reported
+     * through {@link #formCompleted(SentenceForm)}); constant forms can be
+     * planned right away. Otherwise each plan is computed when it is asked for.
+     */
+    private static class FormPlanner {
+        private final SentenceDomainModel model;
+        private final ConstantChecker constantChecker;
+        private final Map<SentenceForm, FunctionInfo> functionInfoMap;
+        private final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues;
+        private final ForkJoinPool pool;
+        private final Map<SentenceForm, Future<FormPlan>> plans = new HashMap<SentenceForm, Future<FormPlan>>();
+        private final Multimap<SentenceForm, SentenceForm> dependents = HashMultimap.create();
+        private final Multiset<SentenceForm> remainingDependencies = HashMultiset.create();
+        /** Forms whose plans have been started, or asked for. */
+        private final Set<SentenceForm> startedForms = new HashSet<SentenceForm>();
+
+        private FormPlanner(List<SentenceForm> topologicalOrdering,
+                Multimap<SentenceForm, SentenceForm> dependencyGraph,
+                SentenceDomainModel model, ConstantChecker constantChecker,
+                Map<SentenceForm, FunctionInfo> functionInfoMap,
+                Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+                int numThreads) {
+            this.model = model;
+            this.constantChecker = constantChecker;
+            this.functionInfoMap = functionInfoMap;
+            this.completedSentenceFormValues = completedSentenceFormValues;
+            if(numThreads == 1) {
+                this.pool = null;
+                return;
+            }
+            this.pool = new ForkJoinPool(numThreads);
+
+            Set<SentenceForm> forms = new HashSet<SentenceForm>(topologicalOrdering);
+            for(SentenceForm form : topologicalOrdering) {
+                if(!constantChecker.isConstantForm(form)) {
+                    //Forms outside the ordering are never completed; they are
+                    //missing from the completed values either way
+                    for(SentenceForm dependency : new HashSet<SentenceForm>(dependencyGraph.get(form))) {
+                        if(!dependency.equals(form) && forms.contains(dependency)) {
+                            dependents.put(dependency, form);
+                            remainingDependencies.add(form);
+                        }
+                    }
+                }
+                if(!remainingDependencies.contains(form)) {
+                    submit(form);
+                }
+            }
+        }
+
+        /**
+         * Returns the plan for the given form, waiting for it if it is being
+         * computed on another thread.
+         */
+        private FormPlan getPlan(SentenceForm form) throws InterruptedException {
+            startedForms.add(form);
+            Future<FormPlan> future = plans.remove(form);
+            if(future == null) {
+                return computePlan(form);
+            }
+            try {
+                return future.get();
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if(cause instanceof Error)
+                    throw (Error) cause;
+                if(cause instanceof InterruptedException)
+                    throw (InterruptedException) cause;
+                throw new RuntimeException(cause);
+            }
+        }
+
+        /**
+         * Records that the components for the given form have been added, and
+         * its values put in the completed sentence form values, and starts
+         * planning any forms that were only waiting for it.
+         */
+        private void formCompleted(SentenceForm form) {
+            if(pool == null)
+                return;
+            for(SentenceForm dependent : dependents.get(form)) {
+                remainingDependencies.remove(dependent);
+                if(!remainingDependencies.contains(dependent)) {
+                    submit(dependent);
+                }
+            }
+        }
+
+        private void shutdown() {
+            if(pool != null)
+                pool.shutdownNow();
+        }
+
+        private void submit(final SentenceForm form) {
+            //Forms that depend on each other can be asked for before all of
+            //their dependencies are completed; don't plan them a second time
+            if(!startedForms.add(form))
+                return;
+            plans.put(form, pool.submit(new Callable<FormPlan>() {
+                @Override
+                public FormPlan call() throws InterruptedException {
+                    return computePlan(form);
+                }
+            }));
+        }
+
+        private FormPlan computePlan(SentenceForm form) throws InterruptedException {
+            if(constantChecker.isConstantForm(form)) {
+                List<GdlSentence> trueSentences = new ArrayList<GdlSentence>(constantChecker.getTrueSentences(form));
+                return new FormPlan(trueSentences, FunctionInfoImpl.create(form, constantChecker), null);
+            }
+            List<RulePlan> rulePlans = new ArrayList<RulePlan>();
+            for(GdlRule rule : model.getRules(form)) {
+                ConcurrencyUtils.checkForInterruption();
+                rulePlans.add(new RulePlan(rule, model, constantChecker, functionInfoMap, completedSentenceFormValues));
+            }
+            return new FormPlan(null, null, rulePlans);
+        }
+    }
+
     private static void addSentenceForm(SentenceForm form, SentenceDomainModel model,
             Map<GdlSentence, Component> components,
             Map<GdlSentence, Component> negations,
@@ -837,8 +1040,7 @@ public class OptimizingPropNetFactory {
             boolean usingBase, boolean usingInput,
             Set<SentenceForm> recursionForms,
             Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
-            Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
-            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+            List<RulePlan> rulePlans, ConstantChecker constantChecker) throws InterruptedException {
         //This is the meat of it (along with the entire Assignments class).
         //We need to enumerate the possible propositions in the sentence form...
         //We also need to hook up the sentence form to the inputs that can make it true.
@@ -847,7 +1049,6 @@ public class OptimizingPropNetFactory {
         //true/false if it's a constant.
 
         Set<GdlSentence> alwaysTrueSentences = model.getSentencesListedAsTrue(form);
-        Set<GdlRule> rules = model.getRules(form);
 
         for(GdlSentence alwaysTrueSentence : alwaysTrueSentences) {
             //We add the sentence as a constant
@@ -888,16 +1089,12 @@ public class OptimizingPropNetFactory {
             return;
         }
 
-        Map<GdlSentence, Set<Component>> inputsToOr = new HashMap<GdlSentence, Set<Component>>();
-        for(GdlRule rule : rules) {
-            Assignments assignments = AssignmentsFactory.getAssignmentsForRule(rule, model, functionInfoMap, completedSentenceFormValues);
-
-            //Calculate vars in live (non-constant, non-distinct) conjuncts
-            Set<GdlVariable> varsInLiveConjuncts = getVarsInLiveConjuncts(rule, constantChecker.getConstantSentenceForms());
-            varsInLiveConjuncts.addAll(GdlUtils.getVariables(rule.getHead()));
-            Set<GdlVariable> varsInRule = new HashSet<GdlVariable>(GdlUtils.getVariables(rule));
-            boolean preventDuplicatesFromConstants =
-                    (varsInRule.size() > varsInLiveConjuncts.size());
+        Map<GdlSentence, Set<Component>> inputsToOr = new GdlIdMap<GdlSentence, Set<Component>>();
+        for(RulePlan rulePlan : rulePlans) {
+            GdlRule rule = rulePlan.rule;
+            Assignments assignments = rulePlan.assignments;
+            Set<GdlVariable> varsInLiveConjuncts = rulePlan.varsInLiveConjuncts;
+            boolean preventDuplicatesFromConstants = rulePlan.preventDuplicatesFromConstants;
 
             //Do we just pass those to the Assignments class in that case?
             for(AssignmentIterator asnItr = assignments.getIterator(); asnItr.hasNext(); ) {
@@ -0,0 +1,683 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.ggp.base.util.UnionFind;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+
+/**
+ * Finds structure in a propnet that a state machine can take advantage of,
+ * working from the shape of the network rather than by enumerating states
+ * or assignments. The {@link PropNetReducer} uses this to build a smaller
+ * propnet that behaves the same way.
+ *
+ * The analysis finds:
+ * <ul>
+ * <li><b>Latches</b>: base propositions that stay true once they become true,
+ *     because their next value is implied by their current value through
+ *     ORs, ANDs and views; or that stay false once they become false, because
+ *     their next value requires their current value through ANDs and ORs.</li>
+ * <li><b>Constant bases</b>: latches that already hold their latched value
+ *     in the initial state, and so hold it in every reachable state. Knowing
+ *     these can make the next values of other bases constant, so this is
+ *     repeated until nothing changes.</li>
+ * <li><b>Irrelevant bases and inputs</b>: ones that can never affect, even
+ *     indirectly over several turns, which moves are legal, whether the game
+ *     is over, or its goals.</li>
+ * <li><b>Factors</b>: groups of bases and inputs whose next values and
+ *     legality only depend on each other, as when a game is made of several
+ *     independent sub-games. Terminal and goal propositions may combine
+ *     factors without joining them.</li>
+ * </ul>
+ *
+ * All of these are sound: a proposition is only reported as latched, constant
+ * or irrelevant if that holds in every reachable state. They are not complete,
+ * since some of these properties can only be found by searching the game.
+ */
+public final class PropNetAnalysis
+{
+    /**
+     * A group of base and input propositions whose next values and legality
+     * only depend on each other.
+     */
+    public static final class Factor
+    {
+        private final Set<GdlSentence> bases;
+        private final Set<GdlSentence> inputs;
+
+        Factor(Set<GdlSentence> bases, Set<GdlSentence> inputs)
+        {
+            this.bases = Collections.unmodifiableSet(bases);
+            this.inputs = Collections.unmodifiableSet(inputs);
+        }
+
+        public Set<GdlSentence> getBases()
+        {
+            return bases;
+        }
+
+        public Set<GdlSentence> getInputs()
+        {
+            return inputs;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Factor with " + bases.size() + " bases and " + inputs.size() + " inputs";
+        }
+    }
+
+    private final Set<Proposition> bases;
+    private final Map<Component, Boolean> constants;
+    private final Map<Proposition, Boolean> constantBases;
+    private final Set<Proposition> trueLatches = new HashSet<Proposition>();
+    private final Set<Proposition> falseLatches = new HashSet<Proposition>();
+    private final Set<Proposition> irrelevantBases = new HashSet<Proposition>();
+    private final Set<Proposition> irrelevantInputs = new HashSet<Proposition>();
+    private final List<Factor> factors = new ArrayList<Factor>();
+
+    private PropNetAnalysis(PropNet propNet)
+    {
+        this.bases = new HashSet<Proposition>(propNet.getBasePropositions().values());
+        List<Component> ordering = getOrdering(propNet.getComponents(), bases);
+        Map<Proposition, Boolean> initialValues = computeInitialValues(propNet, ordering);
+
+        // Each round of constant bases can make the next values of more bases
+        // constant, so keep going until there are no new ones
+        constantBases = new HashMap<Proposition, Boolean>();
+        Map<Component, Boolean> currentConstants;
+        boolean changed;
+        do
+        {
+            changed = false;
+            currentConstants = computeConstants(ordering, constantBases);
+            for (Proposition base : bases)
+            {
+                if (constantBases.containsKey(base))
+                {
+                    continue;
+                }
+                Component next = getNext(base);
+                boolean initialValue = initialValues.get(base);
+                if (!initialValue && requires(next, base, currentConstants, new HashMap<Component, Boolean>()))
+                {
+                    constantBases.put(base, false);
+                    changed = true;
+                }
+                else if (initialValue && implies(base, next, currentConstants, new HashMap<Component, Boolean>()))
+                {
+                    constantBases.put(base, true);
+                    changed = true;
+                }
+            }
+        } while (changed);
+        this.constants = currentConstants;
+
+        for (Proposition base : bases)
+        {
+            Component next = getNext(base);
+            if (implies(base, next, constants, new HashMap<Component, Boolean>()))
+            {
+                trueLatches.add(base);
+            }
+            if (requires(next, base, constants, new HashMap<Component, Boolean>()))
+            {
+                falseLatches.add(base);
+            }
+        }
+
+        findIrrelevantPropositions(propNet);
+        findFactors(propNet);
+    }
+
+    /**
+     * Analyzes the given propnet, which is not modified.
+     */
+    public static PropNetAnalysis analyze(PropNet propNet)
+    {
+        return new PropNetAnalysis(propNet);
+    }
+
+    /**
+     * Returns the base propositions that have the same value in every
+     * reachable state, along with that value.
+     */
+    public Map<GdlSentence, Boolean> getConstantBases()
+    {
+        Map<GdlSentence, Boolean> result = new HashMap<GdlSentence, Boolean>();
+        for (Map.Entry<Proposition, Boolean> entry : constantBases.entrySet())
+        {
+            result.put(entry.getKey().getName(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the base propositions that stay true once they are true.
+     */
+    public Set<GdlSentence> getTrueLatches()
+    {
+        return getNames(trueLatches);
+    }
+
+    /**
+     * Returns the base propositions that stay false once they are false.
+     */
+    public Set<GdlSentence> getFalseLatches()
+    {
+        return getNames(falseLatches);
+    }
+
+    /**
+     * Returns the base propositions that are not constant, but can never
+     * affect legality, termination or goals.
+     */
+    public Set<GdlSentence> getIrrelevantBases()
+    {
+        return getNames(irrelevantBases);
+    }
+
+    /**
+     * Returns the input propositions that can never affect legality,
+     * termination or goals. Any legal move with one of these inputs is as
+     * good as any other.
+     */
+    public Set<GdlSentence> getIrrelevantInputs()
+    {
+        return getNames(irrelevantInputs);
+    }
+
+    /**
+     * Returns the independent parts of the game. A game that can't be split
+     * up has a single factor.
+     */
+    public List<Factor> getFactors()
+    {
+        return Collections.unmodifiableList(factors);
+    }
+
+    Map<Proposition, Boolean> getConstantBasePropositions()
+    {
+        return constantBases;
+    }
+
+    Set<Proposition> getIrrelevantBasePropositions()
+    {
+        return irrelevantBases;
+    }
+
+    Set<Proposition> getIrrelevantInputPropositions()
+    {
+        return irrelevantInputs;
+    }
+
+    /**
+     * Returns the components in an order where every component comes after
+     * its inputs, ignoring the transitions into base propositions.
+     *
+     * @throws IllegalArgumentException if there is a cycle that does not
+     * pass through a transition
+     */
+    static List<Component> getOrdering(Collection<Component> components, Set<? extends Component> bases)
+    {
+        List<Component> ordering = new ArrayList<Component>(components.size());
+        Map<Component, Integer> remainingInputs = new HashMap<Component, Integer>(components.size() * 2);
+        Queue<Component> ready = new ArrayDeque<Component>();
+        for (Component c : components)
+        {
+            int numInputs = bases.contains(c) ? 0 : c.getInputs().size();
+            remainingInputs.put(c, numInputs);
+            if (numInputs == 0)
+            {
+                ready.add(c);
+            }
+        }
+        while (!ready.isEmpty())
+        {
+            Component c = ready.remove();
+            ordering.add(c);
+            for (Component output : c.getOutputs())
+            {
+                Integer remaining = remainingInputs.get(output);
+                if (remaining != null && !bases.contains(output))
+                {
+                    remainingInputs.put(output, remaining - 1);
+                    if (remaining == 1)
+                    {
+                        ready.add(output);
+                    }
+                }
+            }
+        }
+        if (ordering.size() != components.size())
+        {
+            throw new IllegalArgumentException("PropNet has a cycle that does not pass through a transition");
+        }
+        return ordering;
+    }
+
+    /**
+     * Returns the component whose value becomes the value of the given base
+     * proposition in the next state, or null if it's always false.
+     */
+    static Component getNext(Proposition base)
+    {
+        Component transition = base.getSingleInput();
+        return transition.getInputs().isEmpty() ? null : transition.getSingleInput();
+    }
+
+    private boolean isView(Component c)
+    {
+        return c instanceof Proposition && !bases.contains(c) && c.getInputs().size() == 1;
+    }
+
+    /**
+     * Works out the value of each base proposition in the initial state, by
+     * evaluating the propnet with only the init proposition true.
+     */
+    private Map<Proposition, Boolean> computeInitialValues(PropNet propNet, List<Component> ordering)
+    {
+        Map<Component, Boolean> values = new HashMap<Component, Boolean>(ordering.size() * 2);
+        for (Component c : ordering)
+        {
+            boolean value;
+            if (c instanceof Constant)
+            {
+                value = c.getValue();
+            }
+            else if (c instanceof Proposition)
+            {
+                if (c == propNet.getInitProposition())
+                {
+                    value = true;
+                }
+                else
+                {
+                    value = isView(c) && values.get(c.getSingleInput());
+                }
+            }
+            else if (c instanceof Transition)
+            {
+                value = !c.getInputs().isEmpty() && values.get(c.getSingleInput());
+            }
+            else if (c instanceof Not)
+            {
+                value = !values.get(c.getSingleInput());
+            }
+            else if (c instanceof And)
+            {
+                value = true;
+                for (Component input : c.getInputs())
+                {
+                    value &= values.get(input);
+                }
+            }
+            else if (c instanceof Or)
+            {
+                value = false;
+                for (Component input : c.getInputs())
+                {
+                    value |= values.get(input);
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown type of component: " + c.getClass());
+            }
+            values.put(c, value);
+        }
+
+        Map<Proposition, Boolean> initialValues = new HashMap<Proposition, Boolean>();
+        for (Proposition base : bases)
+        {
+            initialValues.put(base, values.get(base.getSingleInput()));
+        }
+        return initialValues;
+    }
+
+    /**
+     * Works out which components have the same value in every reachable
+     * state, given the base propositions already known to.
+     */
+    private Map<Component, Boolean> computeConstants(List<Component> ordering, Map<Proposition, Boolean> constantBases)
+    {
+        Map<Component, Boolean> constants = new HashMap<Component, Boolean>();
+        for (Component c : ordering)
+        {
+            Boolean value = null;
+            if (c instanceof Constant)
+            {
+                value = c.getValue();
+            }
+            else if (bases.contains(c))
+            {
+                value = constantBases.get(c);
+            }
+            else if (isView(c) || c instanceof Transition)
+            {
+                value = c.getInputs().isEmpty() ? Boolean.FALSE : constants.get(c.getSingleInput());
+            }
+            else if (c instanceof Not)
+            {
+                Boolean input = constants.get(c.getSingleInput());
+                value = (input == null) ? null : !input;
+            }
+            else if (c instanceof And || c instanceof Or)
+            {
+                // A single input equal to this decides the gate; all of the
+                // inputs equal to the other value decide it the other way
+                boolean decider = (c instanceof Or);
+                boolean allOther = true;
+                for (Component input : c.getInputs())
+                {
+                    Boolean inputValue = constants.get(input);
+                    if (inputValue == null)
+                    {
+                        allOther = false;
+                    }
+                    else if (inputValue == decider)
+                    {
+                        value = decider;
+                        break;
+                    }
+                }
+                if (value == null && allOther)
+                {
+                    value = !decider;
+                }
+            }
+            if (value != null)
+            {
+                constants.put(c, value);
+            }
+        }
+        return constants;
+    }
+
+    /**
+     * Returns whether the component is true whenever the base proposition is.
+     */
+    private boolean implies(Proposition base, Component c, Map<Component, Boolean> constants, Map<Component, Boolean> memo)
+    {
+        if (c == base)
+        {
+            return true;
+        }
+        if (c == null)
+        {
+            return false;
+        }
+        Boolean constant = constants.get(c);
+        if (constant != null)
+        {
+            return constant;
+        }
+        Boolean known = memo.get(c);
+        if (known != null)
+        {
+            return known;
+        }
+
+        boolean result = false;
+        if (isView(c))
+        {
+            result = implies(base, c.getSingleInput(), constants, memo);
+        }
+        else if (c instanceof Or)
+        {
+            for (Component input : c.getInputs())
+            {
+                if (implies(base, input, constants, memo))
+                {
+                    result = true;
+                    break;
+                }
+            }
+        }
+        else if (c instanceof And)
+        {
+            result = true;
+            for (Component input : c.getInputs())
+            {
+                if (!implies(base, input, constants, memo))
+                {
+                    result = false;
+                    break;
+                }
+            }
+        }
+        memo.put(c, result);
+        return result;
+    }
+
+    /**
+     * Returns whether the component can only be true when the base
+     * proposition is.
+     */
+    private boolean requires(Component c, Proposition base, Map<Component, Boolean> constants, Map<Component, Boolean> memo)
+    {
+        if (c == base || c == null)
+        {
+            return true;
+        }
+        Boolean constant = constants.get(c);
+        if (constant != null)
+        {
+            return !constant;
+        }
+        Boolean known = memo.get(c);
+        if (known != null)
+        {
+            return known;
+        }
+
+        boolean result = false;
+        if (isView(c))
+        {
+            result = requires(c.getSingleInput(), base, constants, memo);
+        }
+        else if (c instanceof And)
+        {
+            for (Component input : c.getInputs())
+            {
+                if (requires(input, base, constants, memo))
+                {
+                    result = true;
+                    break;
+                }
+            }
+        }
+        else if (c instanceof Or)
+        {
+            result = true;
+            for (Component input : c.getInputs())
+            {
+                if (!requires(input, base, constants, memo))
+                {
+                    result = false;
+                    break;
+                }
+            }
+        }
+        memo.put(c, result);
+        return result;
+    }
+
+    /**
+     * Works backwards from the legal, goal and terminal propositions, and
+     * from the next values of every base proposition reached on the way.
+     */
+    private void findIrrelevantPropositions(PropNet propNet)
+    {
+        Set<Component> relevant = new HashSet<Component>();
+        Queue<Component> toVisit = new ArrayDeque<Component>();
+        for (Set<Proposition> legals : propNet.getLegalPropositions().values())
+        {
+            toVisit.addAll(legals);
+        }
+        for (Set<Proposition> goals : propNet.getGoalPropositions().values())
+        {
+            toVisit.addAll(goals);
+        }
+        if (propNet.getTerminalProposition() != null)
+        {
+            toVisit.add(propNet.getTerminalProposition());
+        }
+        while (!toVisit.isEmpty())
+        {
+            Component c = toVisit.remove();
+            if (!relevant.add(c) || constants.containsKey(c))
+            {
+                continue;
+            }
+            // For a base proposition, this is its transition
+            toVisit.addAll(c.getInputs());
+        }
+
+        for (Proposition base : bases)
+        {
+            if (!relevant.contains(base) && !constantBases.containsKey(base))
+            {
+                irrelevantBases.add(base);
+            }
+        }
+        for (Proposition input : propNet.getInputPropositions().values())
+        {
+            if (!relevant.contains(input))
+            {
+                irrelevantInputs.add(input);
+            }
+        }
+    }
+
+    /**
+     * Joins every component that the next value of a relevant base or the
+     * legality of a move depends on with its inputs, without passing through
+     * constants or the init proposition, and joins each legal proposition
+     * with its input proposition. Each resulting group with base propositions
+     * in it is a factor.
+     */
+    private void findFactors(PropNet propNet)
+    {
+        Proposition init = propNet.getInitProposition();
+        List<Component> roots = new ArrayList<Component>();
+        for (Proposition base : bases)
+        {
+            if (!constantBases.containsKey(base) && !irrelevantBases.contains(base))
+            {
+                roots.add(base);
+            }
+        }
+        for (Set<Proposition> legals : propNet.getLegalPropositions().values())
+        {
+            roots.addAll(legals);
+        }
+
+        Map<Component, Integer> indices = new HashMap<Component, Integer>();
+        List<Component> dynamic = new ArrayList<Component>();
+        Queue<Component> toVisit = new ArrayDeque<Component>(roots);
+        while (!toVisit.isEmpty())
+        {
+            Component c = toVisit.remove();
+            if (c == init || constants.containsKey(c) || indices.containsKey(c))
+            {
+                continue;
+            }
+            indices.put(c, dynamic.size());
+            dynamic.add(c);
+            toVisit.addAll(c.getInputs());
+        }
+
+        UnionFind groups = new UnionFind(dynamic.size());
+        for (int i = 0; i < dynamic.size(); i++)
+        {
+            for (Component input : dynamic.get(i).getInputs())
+            {
+                Integer j = indices.get(input);
+                if (j != null)
+                {
+                    groups.union(i, j);
+                }
+            }
+        }
+        Map<Proposition, Proposition> legalInputMap = propNet.getLegalInputMap();
+        for (Set<Proposition> legals : propNet.getLegalPropositions().values())
+        {
+            for (Proposition legal : legals)
+            {
+                Integer i = indices.get(legal);
+                Integer j = indices.get(legalInputMap.get(legal));
+                if (i != null && j != null)
+                {
+                    groups.union(i, j);
+                }
+            }
+        }
+
+        Set<Proposition> inputs = new HashSet<Proposition>(propNet.getInputPropositions().values());
+        Map<Integer, Set<GdlSentence>> factorBases = new HashMap<Integer, Set<GdlSentence>>();
+        Map<Integer, Set<GdlSentence>> factorInputs = new HashMap<Integer, Set<GdlSentence>>();
+        for (int i = 0; i < dynamic.size(); i++)
+        {
+            Component c = dynamic.get(i);
+            Map<Integer, Set<GdlSentence>> target;
+            if (bases.contains(c))
+            {
+                target = factorBases;
+            }
+            else if (inputs.contains(c))
+            {
+                target = factorInputs;
+            }
+            else
+            {
+                continue;
+            }
+            int group = groups.find(i);
+            Set<GdlSentence> names = target.get(group);
+            if (names == null)
+            {
+                names = new HashSet<GdlSentence>();
+                target.put(group, names);
+            }
+            names.add(((Proposition) c).getName());
+        }
+        for (Map.Entry<Integer, Set<GdlSentence>> entry : factorBases.entrySet())
+        {
+            Set<GdlSentence> factorInputNames = factorInputs.get(entry.getKey());
+            if (factorInputNames == null)
+            {
+                factorInputNames = new HashSet<GdlSentence>();
+            }
+            factors.add(new Factor(entry.getValue(), factorInputNames));
+        }
+    }
+
+    private static Set<GdlSentence> getNames(Set<Proposition> propositions)
+    {
+        Set<GdlSentence> names = new HashSet<GdlSentence>();
+        for (Proposition proposition : propositions)
+        {
+            names.add(proposition.getName());
+        }
+        return names;
+    }
+}
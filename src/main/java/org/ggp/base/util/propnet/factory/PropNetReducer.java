@@ -0,0 +1,383 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+
+/**
+ * Builds a smaller propnet that plays the same game as a given one, using
+ * what {@link PropNetAnalysis} finds out about it. The result is an ordinary
+ * {@link PropNet}, so it can be used by any propnet-based state machine.
+ *
+ * The reduction:
+ * <ul>
+ * <li>cuts every base proposition that has the same value in every reachable
+ *     state off from the logic it feeds, replacing it there with a constant;</li>
+ * <li>folds constants through the gates and views they feed, and replaces
+ *     gates left with a single input by that input;</li>
+ * <li>optionally removes the base propositions that can never affect
+ *     legality, termination or goals, along with their transitions, cuts
+ *     the inputs that can never affect them off from the logic they feed,
+ *     and removes the moves that can never be legal;</li>
+ * <li>removes all the logic that no longer leads to a legal, goal or
+ *     terminal proposition or to the next value of a base proposition.</li>
+ * </ul>
+ *
+ * The base, input, legal, goal, init and terminal propositions are kept, so
+ * states and moves mean the same thing in the reduced propnet as in the
+ * original, except for any irrelevant bases and never legal moves that were
+ * removed.
+ */
+public final class PropNetReducer
+{
+    private final Set<Component> components;
+    private final Set<Component> bases = new HashSet<Component>();
+    private final Set<Component> important = new HashSet<Component>();
+    private final Constant trueConstant = new Constant(true);
+    private final Constant falseConstant = new Constant(false);
+
+    private PropNetReducer(Set<Component> components)
+    {
+        this.components = components;
+        components.add(trueConstant);
+        components.add(falseConstant);
+    }
+
+    /**
+     * Returns a reduced copy of the given propnet, keeping every base
+     * proposition so that states of the two are interchangeable. The given
+     * propnet is not modified.
+     */
+    public static PropNet reduce(PropNet propNet)
+    {
+        return reduce(propNet, true);
+    }
+
+    /**
+     * Returns a reduced copy of the given propnet. If keepIrrelevantBases is
+     * false, base propositions that can never affect the outcome of the game
+     * are removed as well, which makes states smaller but means they no
+     * longer have the same contents as states of the original game. Moves
+     * whose inputs can never affect the outcome are then kept, since they
+     * may still be the only legal ones, but nothing reads their inputs any
+     * more, and moves that can never be legal are removed altogether.
+     */
+    public static PropNet reduce(PropNet propNet, boolean keepIrrelevantBases)
+    {
+        long startTime = System.currentTimeMillis();
+        int numRemovedMoves = 0;
+        PropNetAnalysis analysis = PropNetAnalysis.analyze(propNet);
+
+        Map<Component, Component> copies = copy(propNet.getComponents());
+        PropNetReducer reducer = new PropNetReducer(new HashSet<Component>(copies.values()));
+        for (Proposition base : propNet.getBasePropositions().values())
+        {
+            reducer.bases.add(copies.get(base));
+        }
+        reducer.important.addAll(reducer.bases);
+        for (Proposition input : propNet.getInputPropositions().values())
+        {
+            reducer.important.add(copies.get(input));
+        }
+        for (Set<Proposition> legals : propNet.getLegalPropositions().values())
+        {
+            for (Proposition legal : legals)
+            {
+                reducer.important.add(copies.get(legal));
+            }
+        }
+        for (Set<Proposition> goals : propNet.getGoalPropositions().values())
+        {
+            for (Proposition goal : goals)
+            {
+                reducer.important.add(copies.get(goal));
+            }
+        }
+        if (propNet.getInitProposition() != null)
+        {
+            reducer.important.add(copies.get(propNet.getInitProposition()));
+        }
+        if (propNet.getTerminalProposition() != null)
+        {
+            reducer.important.add(copies.get(propNet.getTerminalProposition()));
+        }
+
+        for (Map.Entry<Proposition, Boolean> entry : analysis.getConstantBasePropositions().entrySet())
+        {
+            reducer.makeConstant(copies.get(entry.getKey()), entry.getValue());
+        }
+        reducer.foldConstants();
+        if (!keepIrrelevantBases)
+        {
+            for (Proposition base : analysis.getIrrelevantBasePropositions())
+            {
+                reducer.removeBase(copies.get(base));
+            }
+            for (Proposition input : analysis.getIrrelevantInputPropositions())
+            {
+                reducer.cutOff(copies.get(input));
+            }
+            Map<Proposition, Proposition> legalInputMap = propNet.getLegalInputMap();
+            for (Set<Proposition> legals : propNet.getLegalPropositions().values())
+            {
+                for (Proposition legal : legals)
+                {
+                    Proposition input = legalInputMap.get(legal);
+                    if (input != null && copies.get(legal).getInputs().equals(Collections.singleton(reducer.falseConstant)))
+                    {
+                        reducer.removeMove(copies.get(legal), copies.get(input));
+                        numRemovedMoves++;
+                    }
+                }
+            }
+            // Cutting off inputs can leave more constants to fold
+            reducer.foldConstants();
+        }
+        reducer.removeDeadComponents();
+
+        PropNet reduced = new PropNet(propNet.getRoles(), reducer.components);
+        GamerLogger.log("StateMachine", "Reduced propnet from " + propNet.getComponents().size() + " to " + reduced.getComponents().size() + " components and from " + propNet.getBasePropositions().size() + " to " + reduced.getBasePropositions().size() + " bases in " + (System.currentTimeMillis() - startTime) + "ms, with " + analysis.getConstantBases().size() + " constant bases, " + analysis.getIrrelevantBases().size() + " irrelevant bases, " + analysis.getIrrelevantInputs().size() + " irrelevant inputs and " + analysis.getFactors().size() + " factors, removing " + numRemovedMoves + " never legal moves");
+        return reduced;
+    }
+
+    private static Map<Component, Component> copy(Set<Component> components)
+    {
+        Map<Component, Component> copies = new HashMap<Component, Component>(components.size() * 2);
+        for (Component c : components)
+        {
+            Component copy;
+            if (c instanceof Proposition)
+            {
+                copy = new Proposition(((Proposition) c).getName());
+            }
+            else if (c instanceof Transition)
+            {
+                copy = new Transition();
+            }
+            else if (c instanceof And)
+            {
+                copy = new And();
+            }
+            else if (c instanceof Or)
+            {
+                copy = new Or();
+            }
+            else if (c instanceof Not)
+            {
+                copy = new Not();
+            }
+            else if (c instanceof Constant)
+            {
+                copy = new Constant(c.getValue());
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown type of component: " + c.getClass());
+            }
+            copies.put(c, copy);
+        }
+        for (Component c : components)
+        {
+            Component copy = copies.get(c);
+            for (Component input : c.getInputs())
+            {
+                Component inputCopy = copies.get(input);
+                copy.addInput(inputCopy);
+                inputCopy.addOutput(copy);
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Feeds the given constant to everything that the base proposition and
+     * its transition read from, leaving the base itself to hold the same
+     * constant value in every state.
+     */
+    private void makeConstant(Component base, boolean value)
+    {
+        Constant constant = value ? trueConstant : falseConstant;
+        for (Component output : new ArrayList<Component>(base.getOutputs()))
+        {
+            replaceInput(output, base, constant);
+        }
+        Component transition = base.getSingleInput();
+        disconnectInputs(transition);
+        connect(constant, transition);
+    }
+
+    private void foldConstants()
+    {
+        for (Component c : PropNetAnalysis.getOrdering(new ArrayList<Component>(components), bases))
+        {
+            if (!components.contains(c) || important.contains(c) || c instanceof Constant || c instanceof Transition)
+            {
+                continue;
+            }
+
+            Component replacement = null;
+            if (c instanceof Not)
+            {
+                Component input = c.getSingleInput();
+                if (input instanceof Constant)
+                {
+                    replacement = input.getValue() ? falseConstant : trueConstant;
+                }
+            }
+            else if (c instanceof And || c instanceof Or)
+            {
+                // One input equal to this decides the gate, and inputs equal
+                // to the other value can be dropped
+                boolean decider = (c instanceof Or);
+                for (Component input : new ArrayList<Component>(c.getInputs()))
+                {
+                    if (input instanceof Constant)
+                    {
+                        if (input.getValue() == decider)
+                        {
+                            replacement = input;
+                            break;
+                        }
+                        c.removeInput(input);
+                        input.removeOutput(c);
+                    }
+                }
+                if (replacement == null)
+                {
+                    if (c.getInputs().isEmpty())
+                    {
+                        replacement = decider ? falseConstant : trueConstant;
+                    }
+                    else if (c.getInputs().size() == 1)
+                    {
+                        replacement = c.getSingleInput();
+                    }
+                }
+            }
+            else if (c instanceof Proposition && c.getInputs().size() == 1)
+            {
+                // A view that isn't needed by name can be skipped over
+                replacement = c.getSingleInput();
+            }
+
+            if (replacement != null)
+            {
+                for (Component output : new ArrayList<Component>(c.getOutputs()))
+                {
+                    replaceInput(output, c, replacement);
+                }
+                disconnectInputs(c);
+                components.remove(c);
+            }
+        }
+    }
+
+    /**
+     * Feeds false to everything that the given input proposition fed, so
+     * the logic it fed can be folded away.
+     */
+    private void cutOff(Component input)
+    {
+        for (Component output : new ArrayList<Component>(input.getOutputs()))
+        {
+            replaceInput(output, input, falseConstant);
+        }
+    }
+
+    private void removeMove(Component legal, Component input)
+    {
+        cutOff(input);
+        disconnectInputs(legal);
+        components.remove(legal);
+        components.remove(input);
+        important.remove(legal);
+        important.remove(input);
+    }
+
+    private void removeBase(Component base)
+    {
+        Component transition = base.getSingleInput();
+        disconnectInputs(transition);
+        disconnectInputs(base);
+        disconnectOutputs(base);
+        components.remove(transition);
+        components.remove(base);
+        bases.remove(base);
+        important.remove(base);
+    }
+
+    /**
+     * Removes everything that doesn't lead to a legal, goal or terminal
+     * proposition or a transition, other than the propositions that are
+     * needed by name.
+     */
+    private void removeDeadComponents()
+    {
+        Set<Component> live = new HashSet<Component>();
+        Queue<Component> toVisit = new ArrayDeque<Component>(important);
+        while (!toVisit.isEmpty())
+        {
+            Component c = toVisit.remove();
+            if (live.add(c))
+            {
+                toVisit.addAll(c.getInputs());
+            }
+        }
+        for (Component c : new ArrayList<Component>(components))
+        {
+            if (!live.contains(c))
+            {
+                disconnectInputs(c);
+                disconnectOutputs(c);
+                components.remove(c);
+            }
+        }
+    }
+
+    private static void connect(Component input, Component output)
+    {
+        output.addInput(input);
+        input.addOutput(output);
+    }
+
+    private static void replaceInput(Component c, Component oldInput, Component newInput)
+    {
+        c.removeInput(oldInput);
+        oldInput.removeOutput(c);
+        connect(newInput, c);
+    }
+
+    private static void disconnectInputs(Component c)
+    {
+        for (Component input : c.getInputs())
+        {
+            input.removeOutput(c);
+        }
+        c.removeAllInputs();
+    }
+
+    private static void disconnectOutputs(Component c)
+    {
+        for (Component output : c.getOutputs())
+        {
+            output.removeInput(c);
+        }
+        c.removeAllOutputs();
+    }
+}
@@ -1,5 +1,6 @@
 package org.ggp.base.util.prover;
 
+import java.util.List;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
@@ -7,6 +8,12 @@ import org.ggp.base.util.gdl.grammar.GdlSentence;
 public interface Prover
 {
     public abstract Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context);
+    /**
+     * Answers several queries in the same context, returning the answers to
+     * each in the same order as the queries. Provers can share the work of
+     * proving subgoals that the queries have in common.
+     */
+    public abstract List<Set<GdlSentence>> askAll(List<GdlSentence> queries, Set<GdlSentence> context);
     public abstract GdlSentence askOne(GdlSentence query, Set<GdlSentence> context);
     public abstract boolean prove(GdlSentence query, Set<GdlSentence> context);
 }
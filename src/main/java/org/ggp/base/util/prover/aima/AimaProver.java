@@ -2,6 +2,7 @@ package org.ggp.base.util.prover.aima;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -28,6 +29,7 @@ import org.ggp.base.util.prover.aima.substitution.Substitution;
 import org.ggp.base.util.prover.aima.unifier.Unifier;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
@@ -38,22 +40,86 @@ public final class AimaProver implements Prover
 
     private final KnowledgeBase knowledgeBase;
 
+    /*
+     * The names of the sentences that can depend on "does". Answers to the
+     * other subgoals only depend on the rest of the query context, so they
+     * can be shared between a state and the same state with moves added.
+     */
+    private final Set<GdlConstant> doesDependentNames;
+
     private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+    /*
+     * The last context each thread asked about, with the answers it found for
+     * state-dependent subgoals in that context. A state machine usually asks
+     * several queries about the same state in a row (terminal, legal moves
+     * for each role, goals, and then the next state for some moves), and they
+     * can all share these answers.
+     */
+    private final ThreadLocal<QueryContext> lastContext = new ThreadLocal<QueryContext>();
+
     public AimaProver(List<Gdl> description)
     {
         description = DistinctAndNotMover.run(description);
         knowledgeBase = new KnowledgeBase(Sets.newHashSet(description));
+        doesDependentNames = getDoesDependentNames(description);
+    }
+
+    private static Set<GdlConstant> getDoesDependentNames(List<Gdl> description)
+    {
+        Set<GdlConstant> names = Sets.newHashSet(GdlPool.DOES);
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (Gdl gdl : description)
+            {
+                if (gdl instanceof GdlRule)
+                {
+                    GdlRule rule = (GdlRule) gdl;
+                    if (!names.contains(rule.getHead().getName()) && dependsOnAny(rule.getBody(), names))
+                    {
+                        names.add(rule.getHead().getName());
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    private static boolean dependsOnAny(List<GdlLiteral> literals, Set<GdlConstant> names)
+    {
+        for (GdlLiteral literal : literals)
+        {
+            if (literal instanceof GdlSentence && names.contains(((GdlSentence) literal).getName()))
+            {
+                return true;
+            }
+            else if (literal instanceof GdlNot && dependsOnAny(Collections.singletonList(((GdlNot) literal).getBody()), names))
+            {
+                return true;
+            }
+            else if (literal instanceof GdlOr && dependsOnAny(((GdlOr) literal).getDisjuncts(), names))
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
     private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
+    {
+        return ask(query, getQueryContext(context), askOne);
+    }
+
+    private Set<GdlSentence> ask(GdlSentence query, QueryContext queryContext, boolean askOne)
     {
         LinkedList<GdlLiteral> goals = new LinkedList<GdlLiteral>();
         goals.add(query);
 
         Set<Substitution> answers = new HashSet<Substitution>();
-        ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(),
-                new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
+        ask(goals, queryContext, new Substitution(), new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
 
         Set<GdlSentence> results = new HashSet<GdlSentence>();
         for (Substitution theta : answers)
@@ -64,7 +130,37 @@ public final class AimaProver implements Prover
         return results;
     }
 
-    private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+    private QueryContext getQueryContext(Set<GdlSentence> context)
+    {
+        QueryContext lastQueryContext = lastContext.get();
+        if (lastQueryContext != null && lastQueryContext.context.equals(context))
+        {
+            return lastQueryContext;
+        }
+
+        Set<GdlSentence> stateSentences = new HashSet<GdlSentence>();
+        for (GdlSentence sentence : context)
+        {
+            if (sentence.getName() != GdlPool.DOES)
+            {
+                stateSentences.add(sentence);
+            }
+        }
+        ProverCache stateCache;
+        if (lastQueryContext != null && lastQueryContext.stateSentences.equals(stateSentences))
+        {
+            stateCache = lastQueryContext.stateCache;
+        }
+        else
+        {
+            stateCache = ProverCache.createSingleThreadedCache();
+        }
+        QueryContext queryContext = new QueryContext(context, stateSentences, stateCache);
+        lastContext.set(queryContext);
+        return queryContext;
+    }
+
+    private void ask(LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
     {
         if (goals.size() == 0)
         {
@@ -80,22 +176,22 @@ public final class AimaProver implements Prover
             if (qPrime instanceof GdlDistinct)
             {
                 GdlDistinct distinct = (GdlDistinct) qPrime;
-                askDistinct(distinct, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+                askDistinct(distinct, goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
             }
             else if (qPrime instanceof GdlNot)
             {
                 GdlNot not = (GdlNot) qPrime;
-                askNot(not, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+                askNot(not, goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
             }
             else if (qPrime instanceof GdlOr)
             {
                 GdlOr or = (GdlOr) qPrime;
-                askOr(or, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+                askOr(or, goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
             }
             else
             {
                 GdlSentence sentence = (GdlSentence) qPrime;
-                askSentence(sentence, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+                askSentence(sentence, goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
             }
 
             goals.addFirst(literal);
@@ -108,29 +204,42 @@ public final class AimaProver implements Prover
         return ask(query, context, false);
     }
 
-    private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+    @Override
+    public List<Set<GdlSentence>> askAll(List<GdlSentence> queries, Set<GdlSentence> context)
+    {
+        // All of the queries share the context's tables of answers
+        QueryContext queryContext = getQueryContext(context);
+        List<Set<GdlSentence>> results = new ArrayList<Set<GdlSentence>>(queries.size());
+        for (GdlSentence query : queries)
+        {
+            results.add(ask(query, queryContext, false));
+        }
+        return results;
+    }
+
+    private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
     {
         if (!distinct.getArg1().equals(distinct.getArg2()))
         {
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+            ask(goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
         } else {
             isConstant.value = true;
         }
     }
 
-    private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+    private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
     {
         LinkedList<GdlLiteral> notGoals = new LinkedList<GdlLiteral>();
         notGoals.add(not.getBody());
 
         Set<Substitution> notResults = new HashSet<Substitution>();
         boolean isConstant = true;
-        ask(notGoals, context, theta, cache, renamer, true, notResults, recursionHandler, isConstantRet);
+        ask(notGoals, context, theta, renamer, true, notResults, recursionHandler, isConstantRet);
         isConstant &= isConstantRet.value;
 
         if (notResults.size() == 0)
         {
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
+            ask(goals, context, theta, renamer, askOne, results, recursionHandler, isConstantRet);
             isConstant &= isConstantRet.value;
         }
         isConstantRet.value = isConstant;
@@ -143,13 +252,13 @@ public final class AimaProver implements Prover
         return (results.size() > 0) ? results.iterator().next() : null;
     }
 
-    private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+    private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
     {
         boolean isConstant = true;
         for (int i = 0; i < or.arity(); i++)
         {
             goals.addFirst(or.get(i));
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
+            ask(goals, context, theta, renamer, askOne, results, recursionHandler, isConstantRet);
             isConstant &= isConstantRet.value;
             goals.removeFirst();
 
@@ -161,15 +270,15 @@ public final class AimaProver implements Prover
         isConstantRet.value = isConstant;
     }
 
-    private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
+    private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
             IsConstant isConstantRet) {
         Collection<Substitution> sentenceResults = findSentenceResults(sentence,
-                context, theta, cache, renamer, recursionHandler, isConstantRet);
+                context, theta, renamer, recursionHandler, isConstantRet);
 
         boolean isConstant = isConstantRet.value;
         for (Substitution thetaPrime : sentenceResults)
         {
-            ask(goals, context, theta.compose(thetaPrime), cache, renamer, askOne, results, recursionHandler, isConstantRet);
+            ask(goals, context, theta.compose(thetaPrime), renamer, askOne, results, recursionHandler, isConstantRet);
             isConstant &= isConstantRet.value;
             if (askOne && (results.size() > 0))
             {
@@ -180,10 +289,11 @@ public final class AimaProver implements Prover
     }
 
     private Collection<Substitution> findSentenceResults(GdlSentence sentence,
-            KnowledgeBase context, Substitution theta,
-            ProverCache cache, VariableRenamer renamer, RecursionHandler recursionHandler,
+            QueryContext context, Substitution theta,
+            VariableRenamer renamer, RecursionHandler recursionHandler,
             IsConstant isConstantRet) {
         GdlSentence varRenamedSentence = new VariableRenamer().rename(sentence);
+        ProverCache cache = context.getCache(sentence);
         if (!fixedAnswerCache.contains(varRenamedSentence) && !cache.contains(varRenamedSentence))
         {
             if (recursionHandler.alreadyAsking.contains(varRenamedSentence)) {
@@ -200,7 +310,7 @@ public final class AimaProver implements Prover
             recursionHandler.alreadyAsking.add(varRenamedSentence);
             List<GdlRule> candidates = new ArrayList<GdlRule>();
             candidates.addAll(knowledgeBase.fetch(sentence));
-            candidates.addAll(context.fetch(sentence));
+            candidates.addAll(context.knowledgeBase.fetch(sentence));
             boolean isConstant = !isTrueOrDoesSentence(sentence);
 
             Set<Substitution> sentenceResults = new HashSet<Substitution>();
@@ -217,7 +327,7 @@ public final class AimaProver implements Prover
                         sentenceGoals.add(r.get(i));
                     }
 
-                    ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
+                    ask(sentenceGoals, context, theta.compose(thetaPrime), renamer, false, sentenceResults, recursionHandler, isConstantRet);
                     isConstant &= isConstantRet.value;
                 }
             }
@@ -242,7 +352,7 @@ public final class AimaProver implements Prover
                                 sentenceGoals.add(r.get(i));
                             }
 
-                            ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
+                            ask(sentenceGoals, context, theta.compose(thetaPrime), renamer, false, sentenceResults, recursionHandler, isConstantRet);
                             isConstant &= isConstantRet.value;
                         }
                     }
@@ -316,6 +426,35 @@ public final class AimaProver implements Prover
         public boolean value = true;
     }
 
+    /*
+     * A query context, along with everything that depends on it: its sentences
+     * indexed for fetching, and tables of the answers to every subgoal that
+     * has been fully evaluated in it. Answers are only tabled once a subgoal
+     * is complete (see RecursionHandler), so they can be reused by any later
+     * query with the same context. Answers to subgoals that can't depend on
+     * "does" go in the state table, which is shared by every context with the
+     * same sentences other than "does".
+     */
+    private class QueryContext {
+        public final Set<GdlSentence> context;
+        public final Set<GdlSentence> stateSentences;
+        public final KnowledgeBase knowledgeBase;
+        public final ProverCache stateCache;
+        public final ProverCache moveCache = ProverCache.createSingleThreadedCache();
+
+        public QueryContext(Set<GdlSentence> context, Set<GdlSentence> stateSentences, ProverCache stateCache) {
+            // Copied, in case the caller modifies the set after the query
+            this.context = ImmutableSet.copyOf(context);
+            this.stateSentences = stateSentences;
+            this.knowledgeBase = new KnowledgeBase(this.context);
+            this.stateCache = stateCache;
+        }
+
+        public ProverCache getCache(GdlSentence sentence) {
+            return doesDependentNames.contains(sentence.getName()) ? moveCache : stateCache;
+        }
+    }
+
     /*
      * Contains some mutable values used by the recursion implementation, to reduce
      * the number of arguments being passed around.
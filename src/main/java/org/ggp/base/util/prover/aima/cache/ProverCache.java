@@ -1,13 +1,13 @@
 package org.ggp.base.util.prover.aima.cache;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.ggp.base.util.gdl.grammar.GdlIdMap;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.prover.aima.substituter.Substituter;
 import org.ggp.base.util.prover.aima.substitution.Substitution;
@@ -24,7 +24,7 @@ public final class ProverCache
     }
 
     public static ProverCache createSingleThreadedCache() {
-        return new ProverCache(new HashMap<GdlSentence, Set<GdlSentence>>());
+        return new ProverCache(new GdlIdMap<GdlSentence, Set<GdlSentence>>());
     }
 
     public static ProverCache createMultiThreadedCache() {
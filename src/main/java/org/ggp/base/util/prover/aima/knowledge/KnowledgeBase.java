@@ -11,39 +11,186 @@ import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
+
+/**
+ * The rules of a game, or the sentences of a query context, indexed by the
+ * heads of the rules they can match.
+ *
+ * Rules are indexed by sentence name, then by the first argument of their
+ * heads when it is ground. Rules with ground heads are also indexed by the
+ * whole head, so a ground query only fetches the rules whose heads equal it,
+ * plus the ones whose heads are not ground. Like all pooled Gdl, the heads
+ * are compared by identity, so queries must be built from the GdlPool as it
+ * is now: a sentence kept from before the pool was last drained won't match.
+ *
+ * The knowledge base is immutable once built, so it can be read from any
+ * number of threads without locking.
+ */
 public final class KnowledgeBase
 {
-    private final Map<GdlConstant, List<GdlRule>> contents;
+    private final RuleIndex allRules;
+    private final RuleIndex nonGroundRules;
+    private final Map<GdlSentence, List<GdlRule>> groundRules;
 
     public KnowledgeBase(Set<? extends Gdl> description)
     {
-        contents = new HashMap<GdlConstant, List<GdlRule>>();
+        List<GdlRule> rules = new ArrayList<GdlRule>();
+        List<GdlRule> nonGround = new ArrayList<GdlRule>();
+        Map<GdlSentence, List<GdlRule>> ground = new HashMap<GdlSentence, List<GdlRule>>();
         for (Gdl gdl : description)
         {
             GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
-            GdlConstant key = rule.getHead().getName();
+            rules.add(rule);
+            if (rule.getHead().isGround())
+            {
+                if (!ground.containsKey(rule.getHead()))
+                {
+                    ground.put(rule.getHead(), new ArrayList<GdlRule>());
+                }
+                ground.get(rule.getHead()).add(rule);
+            }
+            else
+            {
+                nonGround.add(rule);
+            }
+        }
 
-            if (!contents.containsKey(key))
+        allRules = new RuleIndex(rules);
+        nonGroundRules = new RuleIndex(nonGround);
+        ImmutableMap.Builder<GdlSentence, List<GdlRule>> groundBuilder = ImmutableMap.builder();
+        for (Map.Entry<GdlSentence, List<GdlRule>> entry : ground.entrySet())
+        {
+            groundBuilder.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+        }
+        groundRules = groundBuilder.build();
+    }
+
+    /**
+     * Returns the rules whose heads might unify with the given sentence. This
+     * includes every rule whose head does unify with it, but may include some
+     * that don't.
+     */
+    public List<GdlRule> fetch(GdlSentence sentence)
+    {
+        if (sentence.isGround())
+        {
+            List<GdlRule> matchingGroundRules = groundRules.get(sentence);
+            List<GdlRule> matchingNonGroundRules = nonGroundRules.fetch(sentence);
+            if (matchingGroundRules == null)
+            {
+                return matchingNonGroundRules;
+            }
+            else if (matchingNonGroundRules.isEmpty())
             {
-                contents.put(key, new ArrayList<GdlRule>());
+                return matchingGroundRules;
             }
-            contents.get(key).add(rule);
+            List<GdlRule> results = new ArrayList<GdlRule>(matchingGroundRules.size() + matchingNonGroundRules.size());
+            results.addAll(matchingGroundRules);
+            results.addAll(matchingNonGroundRules);
+            return results;
         }
+        return allRules.fetch(sentence);
     }
 
-    public synchronized List<GdlRule> fetch(GdlSentence sentence)
+    /**
+     * Rules indexed by the name of their heads, and then by the first
+     * argument of their heads. Each list for a first argument also contains
+     * the rules whose heads' first arguments aren't ground, since those can
+     * match it too.
+     */
+    private static final class RuleIndex
     {
-        GdlConstant key = sentence.getName();
+        private final Map<GdlConstant, List<GdlRule>> byName;
+        private final Map<GdlConstant, Map<GdlTerm, List<GdlRule>>> byFirstArg;
+        private final Map<GdlConstant, List<GdlRule>> withNonGroundFirstArg;
 
-        if (contents.containsKey(key))
+        public RuleIndex(List<GdlRule> rules)
         {
-            return contents.get(key);
+            Map<GdlConstant, List<GdlRule>> names = new HashMap<GdlConstant, List<GdlRule>>();
+            for (GdlRule rule : rules)
+            {
+                GdlConstant key = rule.getHead().getName();
+                if (!names.containsKey(key))
+                {
+                    names.put(key, new ArrayList<GdlRule>());
+                }
+                names.get(key).add(rule);
+            }
+
+            ImmutableMap.Builder<GdlConstant, List<GdlRule>> byNameBuilder = ImmutableMap.builder();
+            ImmutableMap.Builder<GdlConstant, Map<GdlTerm, List<GdlRule>>> byFirstArgBuilder = ImmutableMap.builder();
+            ImmutableMap.Builder<GdlConstant, List<GdlRule>> nonGroundBuilder = ImmutableMap.builder();
+            for (Map.Entry<GdlConstant, List<GdlRule>> entry : names.entrySet())
+            {
+                byNameBuilder.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+
+                List<GdlRule> nonGround = new ArrayList<GdlRule>();
+                Map<GdlTerm, List<GdlRule>> firstArgs = new HashMap<GdlTerm, List<GdlRule>>();
+                for (GdlRule rule : entry.getValue())
+                {
+                    GdlTerm firstArg = getGroundFirstArg(rule.getHead());
+                    if (firstArg == null)
+                    {
+                        nonGround.add(rule);
+                    }
+                    else
+                    {
+                        if (!firstArgs.containsKey(firstArg))
+                        {
+                            firstArgs.put(firstArg, new ArrayList<GdlRule>());
+                        }
+                        firstArgs.get(firstArg).add(rule);
+                    }
+                }
+                ImmutableMap.Builder<GdlTerm, List<GdlRule>> firstArgBuilder = ImmutableMap.builder();
+                for (Map.Entry<GdlTerm, List<GdlRule>> firstArgEntry : firstArgs.entrySet())
+                {
+                    firstArgBuilder.put(firstArgEntry.getKey(), ImmutableList.<GdlRule>builder()
+                            .addAll(firstArgEntry.getValue())
+                            .addAll(nonGround)
+                            .build());
+                }
+                byFirstArgBuilder.put(entry.getKey(), firstArgBuilder.build());
+                nonGroundBuilder.put(entry.getKey(), ImmutableList.copyOf(nonGround));
+            }
+            byName = byNameBuilder.build();
+            byFirstArg = byFirstArgBuilder.build();
+            withNonGroundFirstArg = nonGroundBuilder.build();
+        }
+
+        public List<GdlRule> fetch(GdlSentence sentence)
+        {
+            GdlConstant key = sentence.getName();
+            if (!byName.containsKey(key))
+            {
+                return ImmutableList.of();
+            }
+
+            GdlTerm firstArg = getGroundFirstArg(sentence);
+            if (firstArg == null)
+            {
+                return byName.get(key);
+            }
+            List<GdlRule> results = byFirstArg.get(key).get(firstArg);
+            if (results == null)
+            {
+                return withNonGroundFirstArg.get(key);
+            }
+            return results;
         }
-        else
+
+        private static GdlTerm getGroundFirstArg(GdlSentence sentence)
         {
-            return new ArrayList<GdlRule>();
+            if (sentence.arity() == 0 || !sentence.get(0).isGround())
+            {
+                return null;
+            }
+            return sentence.get(0);
         }
     }
-}
\ No newline at end of file
+}
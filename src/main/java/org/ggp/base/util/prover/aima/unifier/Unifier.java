@@ -12,13 +12,18 @@ public final class Unifier
 
     public static Substitution unify(GdlSentence x, GdlSentence y)
     {
-        Substitution theta = new Substitution();
-        boolean isGood = unifyTerm(x.toTerm(), y.toTerm(), theta);
-
-        if(isGood)
-            return theta;
-        else
+        // Unify the sentences' parts directly; converting them with toTerm()
+        // would intern a new function in the GdlPool on every call
+        if (x.getName() != y.getName() || x.arity() != y.arity())
             return null;
+
+        Substitution theta = new Substitution();
+        for (int i = 0; i < x.arity(); i++)
+        {
+            if (!unifyTerm(x.get(i), y.get(i), theta))
+                return null;
+        }
+        return theta;
     }
 
     private static boolean unifyTerm(GdlTerm x, GdlTerm y, Substitution theta)
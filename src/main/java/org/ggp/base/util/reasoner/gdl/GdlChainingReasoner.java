@@ -4,6 +4,8 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
 import org.ggp.base.util.gdl.GdlUtils;
@@ -39,6 +41,13 @@ public class GdlChainingReasoner implements
                 DifferentialForwardChainingReasoner<GdlRule, GdlSentenceSet> {
     private final SentenceFormModel model;
     private final ImmutableMultimap<SentenceForm, GdlSentence> constants;
+    /**
+     * The forms of the sentences appearing in rule bodies. Variables are only
+     * ever replaced by constants, so these are also the forms of the
+     * sentences checked against them.
+     */
+    private final ConcurrentMap<GdlSentence, SentenceForm> literalForms =
+            new ConcurrentHashMap<GdlSentence, SentenceForm>();
 
     private GdlChainingReasoner(SentenceFormModel model, ImmutableMultimap<SentenceForm, GdlSentence> constants) {
         this.model = model;
@@ -120,8 +129,12 @@ public class GdlChainingReasoner implements
     private boolean satisfiesSentence(Map<GdlVariable, GdlConstant> assignment,
             GdlSentence sentence,
             SetMultimap<SentenceForm, GdlSentence> sentencesSoFar) {
+        SentenceForm form = literalForms.get(sentence);
+        if (form == null) {
+            form = model.getSentenceForm(sentence);
+            literalForms.put(sentence, form);
+        }
         sentence = CommonTransforms.replaceVariables(sentence, assignment);
-        SentenceForm form = model.getSentenceForm(sentence);
         return sentencesSoFar.get(form).contains(sentence);
     }
 
@@ -0,0 +1,225 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlIdIntMap;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * A MachineState backed by a long[] over an indexed universe of base
+ * sentences, for state machines that already think of states as bit
+ * vectors (such as the propnet-based ones).
+ *
+ * Compared to the default MachineState:
+ * <ul>
+ * <li>equals() between two states over the same universe compares the
+ *     bit vectors, in time proportional to the number of words;</li>
+ * <li>hashCode() is computed once, at construction, along with a 64-bit
+ *     Zobrist hash (see {@link ZobristHasher}); when the state is derived from
+ *     a previous one, both are updated from the bits that changed;</li>
+ * <li>the GdlSentence contents are only materialized if getContents() is
+ *     called, and are then cached.</li>
+ * </ul>
+ *
+ * It remains interchangeable with the default MachineState: the hash code
+ * is the same as the hash code of the equivalent set of sentences, and
+ * equality with any other kind of MachineState falls back to comparing
+ * contents. The set returned by getContents() is unmodifiable; clone()
+ * returns a default MachineState with a mutable copy of the contents, as
+ * callers of clone() expect to be able to modify the result.
+ */
+public final class BitSetMachineState extends MachineState {
+    /**
+     * An indexed set of base sentences that bit vectors refer to. States
+     * can only be compared bit-for-bit if they share the same universe.
+     */
+    public static final class Universe {
+        private final GdlSentence[] sentences;
+        private final int[] hashes;
+        private final long[] zobristKeys;
+        private final GdlIdIntMap<GdlSentence> indices;
+
+        public Universe(List<GdlSentence> sentences) {
+            this.sentences = sentences.toArray(new GdlSentence[sentences.size()]);
+            this.hashes = new int[this.sentences.length];
+            this.zobristKeys = new long[this.sentences.length];
+            this.indices = new GdlIdIntMap<GdlSentence>(this.sentences.length);
+            for (int i = 0; i < this.sentences.length; i++) {
+                hashes[i] = this.sentences[i].hashCode();
+                zobristKeys[i] = ZobristHasher.getKey(this.sentences[i]);
+                indices.put(this.sentences[i], i);
+            }
+        }
+
+        public int size() {
+            return sentences.length;
+        }
+
+        /**
+         * Returns the number of longs needed to hold a state.
+         */
+        public int getNumWords() {
+            return (sentences.length + 63) >>> 6;
+        }
+
+        public GdlSentence getSentence(int index) {
+            return sentences[index];
+        }
+
+        /**
+         * Returns the index of the given sentence, or -1 if the sentence
+         * is not part of this universe.
+         */
+        public int getIndex(GdlSentence sentence) {
+            return indices.get(sentence);
+        }
+
+        /**
+         * Converts a set of sentences into a state over this universe.
+         * Sentences that are not part of the universe are dropped.
+         */
+        public BitSetMachineState fromContents(Set<GdlSentence> contents) {
+            long[] words = new long[getNumWords()];
+            for (GdlSentence sentence : contents) {
+                int i = indices.get(sentence);
+                if (i >= 0) {
+                    words[i >>> 6] |= 1L << i;
+                }
+            }
+            return new BitSetMachineState(this, words);
+        }
+    }
+
+    private final Universe universe;
+    private final long[] words;
+    private final int hash;
+    private final long zobristHash;
+    private Set<GdlSentence> contents;
+
+    /**
+     * Creates a state from the given bit vector, which becomes owned by
+     * the state and must not be modified afterwards.
+     */
+    public BitSetMachineState(Universe universe, long[] words) {
+        this(universe, words, null);
+    }
+
+    /**
+     * Creates a state from the given bit vector, which becomes owned by
+     * the state and must not be modified afterwards. If a previous state
+     * over the same universe is given, the hashes are computed from the
+     * bits that differ from it, which is faster when few bits change.
+     */
+    public BitSetMachineState(Universe universe, long[] words, BitSetMachineState previous) {
+        this.universe = universe;
+        this.words = words;
+        int h = 0;
+        long z = 0;
+        if (previous != null && previous.universe == universe) {
+            h = previous.hash;
+            z = previous.zobristHash;
+            for (int w = 0; w < words.length; w++) {
+                long changed = words[w] ^ previous.words[w];
+                while (changed != 0) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(changed);
+                    h += ((words[w] & (changed & -changed)) != 0) ? universe.hashes[i] : -universe.hashes[i];
+                    z ^= universe.zobristKeys[i];
+                    changed &= changed - 1;
+                }
+            }
+        } else {
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                    h += universe.hashes[i];
+                    z ^= universe.zobristKeys[i];
+                    word &= word - 1;
+                }
+            }
+        }
+        this.hash = h;
+        this.zobristHash = z;
+    }
+
+    public Universe getUniverse() {
+        return universe;
+    }
+
+    /**
+     * Returns the 64-bit Zobrist hash of this state, which is the same as
+     * {@link ZobristHasher#hash} of an equal state of any other kind.
+     */
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    /**
+     * Returns whether the base sentence with the given index is true.
+     */
+    public boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Copies the bit vector into the start of the given array.
+     */
+    public void copyWordsTo(long[] dest) {
+        System.arraycopy(words, 0, dest, 0, words.length);
+    }
+
+    /**
+     * Returns the number of true base sentences.
+     */
+    public int size() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    @Override
+    public Set<GdlSentence> getContents() {
+        if (contents == null) {
+            Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    sentences.add(universe.getSentence((w << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+            contents = Collections.unmodifiableSet(sentences);
+        }
+        return contents;
+    }
+
+    @Override
+    public MachineState clone() {
+        return new MachineState(new HashSet<GdlSentence>(getContents()));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof BitSetMachineState) {
+            BitSetMachineState other = (BitSetMachineState) o;
+            if (other.universe == universe) {
+                return other.hash == hash && Arrays.equals(other.words, words);
+            }
+        }
+        return super.equals(o);
+    }
+}
@@ -0,0 +1,187 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * Runs batches of depth charges on several threads at once.
+ *
+ * The pool is given one state machine per thread, all initialized with the
+ * same game, in the same way as the MCTS search. Machines are never shared
+ * between threads, so any StateMachine works as long as a separate instance
+ * can be made for each thread (for compiled propnets, see
+ * CompiledPropNetStateMachine.createView()). The calling thread does the work
+ * of the first machine, and a pool of threads is kept for the others.
+ *
+ * Each thread runs its share of the depth charges with
+ * {@link StateMachine#performDepthCharges} and its own Random, and the
+ * results are added up at the end.
+ */
+public final class DepthChargePool
+{
+    private final List<StateMachine> machines;
+    private final Random[] randoms;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a pool that runs one thread per state machine given.
+     */
+    public DepthChargePool(List<? extends StateMachine> machines)
+    {
+        if (machines.isEmpty())
+        {
+            throw new IllegalArgumentException("DepthChargePool needs at least one state machine");
+        }
+        this.machines = new ArrayList<StateMachine>(machines);
+        this.randoms = new Random[machines.size()];
+        for (int i = 0; i < randoms.length; i++)
+        {
+            randoms[i] = new Random();
+        }
+        if (machines.size() > 1)
+        {
+            this.executor = Executors.newFixedThreadPool(machines.size() - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "DepthChargePool worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        else
+        {
+            this.executor = null;
+        }
+    }
+
+    public int getNumThreads()
+    {
+        return machines.size();
+    }
+
+    /**
+     * Runs up to the given number of depth charges from the given state,
+     * spread over all the threads, and returns their combined results.
+     * Threads stop early once finishBy (in milliseconds since the epoch) has
+     * passed. If role is not null, it makes the given move in the first step
+     * of every depth charge.
+     *
+     * @see StateMachine#performDepthCharges
+     */
+    public DepthChargeResults performDepthCharges(final MachineState state, final Role role, final Move move, int count, final long finishBy) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        int numRoles = machines.get(0).getRoles().size();
+        final DepthChargeResults[] results = new DepthChargeResults[machines.size()];
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < results.length; i++)
+        {
+            results[i] = new DepthChargeResults(numRoles);
+            final int worker = i;
+            final int share = count / results.length + (i < count % results.length ? 1 : 0);
+            if (i > 0 && share > 0)
+            {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        machines.get(worker).performDepthCharges(state, role, move, share, finishBy, randoms[worker], results[worker]);
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        Exception failure = null;
+        try
+        {
+            machines.get(0).performDepthCharges(state, role, move, count / results.length + (count % results.length > 0 ? 1 : 0), finishBy, randoms[0], results[0]);
+        }
+        catch (TransitionDefinitionException | MoveDefinitionException | GoalDefinitionException | RuntimeException e)
+        {
+            failure = e;
+        }
+        for (Future<Void> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                {
+                    failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+        if (failure != null)
+        {
+            rethrow(failure);
+        }
+
+        for (int i = 1; i < results.length; i++)
+        {
+            results[0].add(results[i]);
+        }
+        return results[0];
+    }
+
+    /**
+     * Runs depth charges from the given state on all the threads until
+     * finishBy (in milliseconds since the epoch), and returns their combined
+     * results.
+     */
+    public DepthChargeResults performDepthCharges(MachineState state, Role role, Move move, long finishBy) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        return performDepthCharges(state, role, move, Integer.MAX_VALUE, finishBy);
+    }
+
+    /**
+     * Stops the worker threads. The pool can't be used afterwards.
+     */
+    public void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void rethrow(Exception e) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        if (e instanceof TransitionDefinitionException)
+        {
+            throw (TransitionDefinitionException) e;
+        }
+        else if (e instanceof MoveDefinitionException)
+        {
+            throw (MoveDefinitionException) e;
+        }
+        else if (e instanceof GoalDefinitionException)
+        {
+            throw (GoalDefinitionException) e;
+        }
+        else if (e instanceof RuntimeException)
+        {
+            throw (RuntimeException) e;
+        }
+        throw new RuntimeException(e);
+    }
+}
@@ -0,0 +1,109 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Arrays;
+
+/**
+ * Totals over a batch of depth charges: how many were run, the sum of their
+ * depths, and the sum of the goal values each role reached. These are filled
+ * in by {@link StateMachine#performDepthCharges} and {@link DepthChargePool}.
+ *
+ * Roles are numbered as in {@link StateMachine#getRoleIndices()}. Results are
+ * not thread-safe; each thread should fill in its own, and they can then be
+ * combined with {@link #add(DepthChargeResults)}.
+ */
+public final class DepthChargeResults
+{
+    private final long[] goalSums;
+    private long depthSum;
+    private int numCharges;
+
+    public DepthChargeResults(int numRoles)
+    {
+        this.goalSums = new long[numRoles];
+    }
+
+    /**
+     * Records one depth charge that made the given number of moves and
+     * ended with the given goal value for each role.
+     */
+    public void addCharge(int depth, int[] goals)
+    {
+        numCharges++;
+        depthSum += depth;
+        for (int r = 0; r < goalSums.length; r++)
+        {
+            goalSums[r] += goals[r];
+        }
+    }
+
+    /**
+     * Adds the totals of the given results to these.
+     */
+    public void add(DepthChargeResults other)
+    {
+        if (other.goalSums.length != goalSums.length)
+        {
+            throw new IllegalArgumentException("Expected results for " + goalSums.length + " roles, not " + other.goalSums.length);
+        }
+        numCharges += other.numCharges;
+        depthSum += other.depthSum;
+        for (int r = 0; r < goalSums.length; r++)
+        {
+            goalSums[r] += other.goalSums[r];
+        }
+    }
+
+    public void clear()
+    {
+        numCharges = 0;
+        depthSum = 0;
+        Arrays.fill(goalSums, 0);
+    }
+
+    public int getNumCharges()
+    {
+        return numCharges;
+    }
+
+    public long getDepthSum()
+    {
+        return depthSum;
+    }
+
+    public long getGoalSum(int role)
+    {
+        return goalSums[role];
+    }
+
+    /**
+     * Returns a copy of the goal sums of every role.
+     */
+    public long[] getGoalSums()
+    {
+        return goalSums.clone();
+    }
+
+    /**
+     * Returns the average goal value of the given role, or 0 if there were
+     * no depth charges.
+     */
+    public double getAverageGoal(int role)
+    {
+        return (numCharges == 0) ? 0 : (double) goalSums[role] / numCharges;
+    }
+
+    /**
+     * Returns the average number of moves made, or 0 if there were no depth
+     * charges.
+     */
+    public double getAverageDepth()
+    {
+        return (numCharges == 0) ? 0 : (double) depthSum / numCharges;
+    }
+
+    @Override
+    public String toString()
+    {
+        return numCharges + " depth charges, average depth " + getAverageDepth() + ", goal sums " + Arrays.toString(goalSums);
+    }
+}
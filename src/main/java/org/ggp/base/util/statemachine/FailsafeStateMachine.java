@@ -1,6 +1,7 @@
 package org.ggp.base.util.statemachine;
 
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -333,6 +334,46 @@ public class FailsafeStateMachine extends StateMachine
         return getRoles();
     }
 
+    @Override
+    public StateSummary getStateSummary(MachineState state) {
+        if(theBackingMachine == null)
+            return null;
+
+        try {
+            return theBackingMachine.getStateSummary(state);
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return getStateSummary(state);
+    }
+
+    @Override
+    public StateSummary getStateSummary(MachineState state, List<List<Move>> jointMoves) {
+        if(theBackingMachine == null)
+            return null;
+
+        try {
+            return theBackingMachine.getStateSummary(state, jointMoves);
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return getStateSummary(state, jointMoves);
+    }
+
     @Override
     public boolean isTerminal(MachineState state) {
         if(theBackingMachine == null)
@@ -404,6 +445,35 @@ public class FailsafeStateMachine extends StateMachine
         getAverageDiscountedScoresFromRepeatedDepthCharges(state, avgScores, avgDepth, discountFactor, repetitions);
     }
 
+    @Override
+    public int performDepthCharges(MachineState state, Role role, Move move, int count, long finishBy, Random random, DepthChargeResults results) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        if(theBackingMachine == null)
+            return 0;
+
+        // Depth charges that completed before a failure stay in the results
+        int charges = results.getNumCharges();
+        try {
+            return theBackingMachine.performDepthCharges(state, role, move, count, finishBy, random, results);
+        } catch (TransitionDefinitionException te) {
+            throw te;
+        } catch (MoveDefinitionException me) {
+            throw me;
+        } catch (GoalDefinitionException ge) {
+            throw ge;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        charges = results.getNumCharges() - charges;
+        return charges + performDepthCharges(state, role, move, count - charges, finishBy, random, results);
+    }
+
     @Override
     public void updateRoot(MachineState theState) {
         if(theBackingMachine == null)
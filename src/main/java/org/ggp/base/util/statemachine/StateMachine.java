@@ -368,6 +368,71 @@ public abstract class StateMachine
         return theGoals;
     }
 
+    /**
+     * Returns whether the given state is terminal, along with the legal moves
+     * and goal value of every role in it, for callers that need several of
+     * these at once.
+     * <p>
+     * This implementation asks for each of them separately. State machines
+     * that can work them out together more cheaply than one at a time should
+     * override it.
+     */
+    public StateSummary getStateSummary(MachineState state) {
+        List<Role> roles = getRoles();
+        List<List<Move>> legalMoves = new ArrayList<List<Move>>(roles.size());
+        Integer[] goals = new Integer[roles.size()];
+        for (int i = 0; i < roles.size(); i++) {
+            try {
+                legalMoves.add(getLegalMoves(state, roles.get(i)));
+            } catch (MoveDefinitionException e) {
+                legalMoves.add(new ArrayList<Move>());
+            }
+            try {
+                goals[i] = getGoal(state, roles.get(i));
+            } catch (GoalDefinitionException e) {
+                goals[i] = null;
+            }
+        }
+        return new StateSummary(state, getRoleIndices(), isTerminal(state), legalMoves, goals);
+    }
+
+    /**
+     * Returns the same summary as {@link #getStateSummary(MachineState)},
+     * along with the next state for each of the given joint moves, for
+     * callers that are about to expand the state.
+     * <p>
+     * This implementation asks for the summary and then for each next state
+     * separately. State machines that can share work between them should
+     * override it.
+     */
+    public StateSummary getStateSummary(MachineState state, List<List<Move>> jointMoves) {
+        StateSummary summary = getStateSummary(state);
+        Map<List<Move>, MachineState> nextStates = new HashMap<List<Move>, MachineState>();
+        for (List<Move> jointMove : jointMoves) {
+            try {
+                nextStates.put(jointMove, getNextState(state, jointMove));
+            } catch (TransitionDefinitionException e) {
+                nextStates.put(jointMove, null);
+            }
+        }
+        List<List<Move>> legalMoves = new ArrayList<List<Move>>();
+        Integer[] goals = new Integer[getRoles().size()];
+        for (int i = 0; i < goals.length; i++) {
+            Role role = getRoles().get(i);
+            try {
+                legalMoves.add(summary.getLegalMoves(role));
+            } catch (MoveDefinitionException e) {
+                legalMoves.add(new ArrayList<Move>());
+            }
+            try {
+                goals[i] = summary.getGoal(role);
+            } catch (GoalDefinitionException e) {
+                goals[i] = null;
+            }
+        }
+        return new StateSummary(state, getRoleIndices(), summary.isTerminal(), legalMoves, goals, nextStates);
+    }
+
     /**
      * Returns a random joint move from among all the possible joint moves in
      * the given state.
@@ -459,6 +524,55 @@ public abstract class StateMachine
         return state;
     }
 
+    /**
+     * Plays up to the given number of games out to the end from the given
+     * state, with uniformly random moves for every role, and adds their
+     * depths and goal values to the results. Stops early once finishBy (in
+     * milliseconds since the epoch) has passed.
+     * <p>
+     * If role is not null, it makes the given move in the first step of every
+     * depth charge, so the state must not be terminal. Depths count the moves
+     * made from the given state, including that one.
+     * <p>
+     * To run depth charges on several threads at once, see
+     * {@link DepthChargePool}. State machines that can play games out without
+     * creating a MachineState and a list of moves at every step should
+     * override this.
+     *
+     * @return the number of depth charges run
+     */
+    public int performDepthCharges(MachineState state, Role role, Move move, int count, long finishBy, Random random, DepthChargeResults results) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        List<Role> roles = getRoles();
+        int[] goals = new int[roles.size()];
+        int charges = 0;
+        while (charges < count && System.currentTimeMillis() < finishBy) {
+            MachineState current = state;
+            int depth = 0;
+            boolean first = true;
+            while ((first && role != null) || !isTerminal(current)) {
+                List<Move> jointMove = new ArrayList<Move>(roles.size());
+                for (Role r : roles) {
+                    if (first && r.equals(role)) {
+                        jointMove.add(move);
+                    } else {
+                        List<Move> legals = getLegalMoves(current, r);
+                        jointMove.add(legals.get(random.nextInt(legals.size())));
+                    }
+                }
+                // The given state must be left alone
+                current = (depth == 0) ? getNextState(current, jointMove) : getNextStateDestructively(current, jointMove);
+                depth++;
+                first = false;
+            }
+            for (int r = 0; r < goals.length; r++) {
+                goals[r] = getGoal(current, roles.get(r));
+            }
+            results.addCharge(depth, goals);
+            charges++;
+        }
+        return charges;
+    }
+
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(final MachineState state, final double[] avgScores, final double[] avgDepth, final double discountFactor, final int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         avgDepth[0] = 0;
         for (int j = 0; j < avgScores.length; j++) {
@@ -0,0 +1,141 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Everything about a state that players usually ask for together: whether
+ * it is terminal, and the legal moves and goal value of each role in it.
+ * These are returned by {@link StateMachine#getStateSummary(MachineState)}.
+ * A summary from {@link StateMachine#getStateSummary(MachineState, List)}
+ * also holds the next states for the joint moves that were asked about.
+ *
+ * The game may not define legal moves or goal values for some roles in
+ * some states, typically legal moves in terminal states and goal values in
+ * non-terminal ones. Asking the summary for these throws the same
+ * exceptions that asking the state machine would.
+ */
+public final class StateSummary
+{
+    private final MachineState state;
+    private final Map<Role, Integer> roleIndices;
+    private final boolean terminal;
+    private final ImmutableList<ImmutableList<Move>> legalMoves;
+    private final Integer[] goals;
+    /** The next state for each joint move asked about, or null if undefined. */
+    private final Map<List<Move>, MachineState> nextStates;
+
+    /**
+     * @param roleIndices The index of each role, as returned by
+     * {@link StateMachine#getRoleIndices()}.
+     * @param legalMoves The legal moves of each role, in role order. A role
+     * with no legal moves in the state has an empty list.
+     * @param goals The goal value of each role, in role order. A role without
+     * exactly one goal value in the state has null.
+     */
+    public StateSummary(MachineState state, Map<Role, Integer> roleIndices, boolean terminal,
+            List<? extends List<Move>> legalMoves, Integer[] goals)
+    {
+        this(state, roleIndices, terminal, legalMoves, goals, Collections.<List<Move>, MachineState>emptyMap());
+    }
+
+    /**
+     * @param nextStates The next state for each of the joint moves asked
+     * about, or null for a joint move the game does not define a next state
+     * for.
+     */
+    public StateSummary(MachineState state, Map<Role, Integer> roleIndices, boolean terminal,
+            List<? extends List<Move>> legalMoves, Integer[] goals, Map<List<Move>, MachineState> nextStates)
+    {
+        if (legalMoves.size() != roleIndices.size() || goals.length != roleIndices.size())
+        {
+            throw new IllegalArgumentException("Expected legal moves and goals for " + roleIndices.size() + " roles");
+        }
+        this.state = state;
+        this.roleIndices = roleIndices;
+        this.terminal = terminal;
+        ImmutableList.Builder<ImmutableList<Move>> legalMovesBuilder = ImmutableList.builder();
+        for (List<Move> moves : legalMoves)
+        {
+            legalMovesBuilder.add(ImmutableList.copyOf(moves));
+        }
+        this.legalMoves = legalMovesBuilder.build();
+        this.goals = goals.clone();
+        this.nextStates = Collections.unmodifiableMap(new HashMap<List<Move>, MachineState>(nextStates));
+    }
+
+    public MachineState getState()
+    {
+        return state;
+    }
+
+    public boolean isTerminal()
+    {
+        return terminal;
+    }
+
+    /**
+     * Returns the legal moves of the given role, as
+     * {@link StateMachine#getLegalMoves(MachineState, Role)} would.
+     *
+     * @throws MoveDefinitionException if the role has no legal moves.
+     */
+    public List<Move> getLegalMoves(Role role) throws MoveDefinitionException
+    {
+        List<Move> moves = legalMoves.get(roleIndices.get(role));
+        if (moves.isEmpty())
+        {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    /**
+     * Returns the goal value of the given role, as
+     * {@link StateMachine#getGoal(MachineState, Role)} would.
+     *
+     * @throws GoalDefinitionException if the role does not have exactly one
+     * goal value.
+     */
+    public int getGoal(Role role) throws GoalDefinitionException
+    {
+        Integer goal = goals[roleIndices.get(role)];
+        if (goal == null)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    /**
+     * Returns the next state for the given joint move, as
+     * {@link StateMachine#getNextState(MachineState, List)} would. Only the
+     * joint moves the summary was asked for are available.
+     *
+     * @throws TransitionDefinitionException if the game does not define the
+     * next state for the joint move.
+     * @throws IllegalArgumentException if the summary was not asked for the
+     * joint move.
+     */
+    public MachineState getNextState(List<Move> jointMove) throws TransitionDefinitionException
+    {
+        if (!nextStates.containsKey(jointMove))
+        {
+            throw new IllegalArgumentException("The summary does not include the joint move " + jointMove);
+        }
+        MachineState nextState = nextStates.get(jointMove);
+        if (nextState == null)
+        {
+            throw new TransitionDefinitionException(state, jointMove);
+        }
+        return nextState;
+    }
+}
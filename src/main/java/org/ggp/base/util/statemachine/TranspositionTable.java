@@ -0,0 +1,172 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size transposition table for game-tree searches, keyed by the
+ * 64-bit Zobrist hashes of states (see {@link ZobristHasher}).
+ *
+ * The table is open-addressed: entries live in parallel primitive arrays,
+ * and a hash is looked for in a short run of consecutive slots starting at
+ * its home slot. Nothing is allocated after construction. When every slot of
+ * the run is taken by other states, the entry searched to the smallest depth
+ * (and then the one with the fewest visits) is replaced, so the table never
+ * grows and deep results are kept preferentially.
+ *
+ * Each entry holds a value, lower and upper bounds on the value (for
+ * alpha-beta style searches), the depth it was searched to, and a visit
+ * count (for Monte Carlo style searches). Searches are free to use any
+ * subset of these.
+ *
+ * Entries are addressed by slot index: {@link #find} returns the slot of a
+ * hash, and the getters read from it. Slots are only valid until the next
+ * call to {@link #store} or {@link #clear}.
+ *
+ * This class is not thread-safe.
+ */
+public final class TranspositionTable
+{
+    /** The number of consecutive slots searched for a hash. */
+    private static final int PROBE_LENGTH = 8;
+
+    private final int mask;
+    private final long[] keys;
+    private final double[] values;
+    private final double[] lowerBounds;
+    private final double[] upperBounds;
+    private final int[] depths;
+    private final int[] visits;
+
+    private int size;
+    private long hits;
+    private long misses;
+    private long replacements;
+
+    /**
+     * Creates a table with room for at least the given number of entries,
+     * rounded up to a power of two.
+     */
+    public TranspositionTable(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(PROBE_LENGTH, minCapacity - 1)) << 1;
+        this.mask = capacity - 1;
+        this.keys = new long[capacity];
+        this.values = new double[capacity];
+        this.lowerBounds = new double[capacity];
+        this.upperBounds = new double[capacity];
+        this.depths = new int[capacity];
+        this.visits = new int[capacity];
+    }
+
+    /**
+     * Zero marks an empty slot, so the (rare) zero hash is stored as another
+     * value.
+     */
+    private static long toKey(long hash) {
+        return hash == 0 ? 0x9e3779b97f4a7c15L : hash;
+    }
+
+    private int homeSlot(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * Returns the slot holding the given hash, or -1 if it is not in the
+     * table.
+     */
+    public int find(long hash) {
+        long key = toKey(hash);
+        int slot = homeSlot(key);
+        for (int i = 0; i < PROBE_LENGTH; i++, slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                hits++;
+                return slot;
+            }
+            if (keys[slot] == 0) {
+                break;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    /**
+     * Stores an entry for the given hash, overwriting the previous entry for
+     * the same hash if there is one. Returns the slot used.
+     */
+    public int store(long hash, double value, double lowerBound, double upperBound, int depth, int visitCount) {
+        long key = toKey(hash);
+        int slot = homeSlot(key);
+        int victim = -1;
+        for (int i = 0; i < PROBE_LENGTH; i++, slot = (slot + 1) & mask) {
+            if (keys[slot] == key || keys[slot] == 0) {
+                victim = slot;
+                break;
+            }
+            if (victim < 0 || depths[slot] < depths[victim]
+                    || (depths[slot] == depths[victim] && visits[slot] < visits[victim])) {
+                victim = slot;
+            }
+        }
+        if (keys[victim] == 0) {
+            size++;
+        } else if (keys[victim] != key) {
+            replacements++;
+        }
+        keys[victim] = key;
+        values[victim] = value;
+        lowerBounds[victim] = lowerBound;
+        upperBounds[victim] = upperBound;
+        depths[victim] = depth;
+        visits[victim] = visitCount;
+        return victim;
+    }
+
+    public double getValue(int slot) {
+        return values[slot];
+    }
+
+    public double getLowerBound(int slot) {
+        return lowerBounds[slot];
+    }
+
+    public double getUpperBound(int slot) {
+        return upperBounds[slot];
+    }
+
+    public int getDepth(int slot) {
+        return depths[slot];
+    }
+
+    public int getVisits(int slot) {
+        return visits[slot];
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries that were overwritten by a different
+     * state.
+     */
+    public long getReplacements() {
+        return replacements;
+    }
+}
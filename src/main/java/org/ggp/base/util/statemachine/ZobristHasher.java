@@ -0,0 +1,109 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+
+/**
+ * Computes 64-bit Zobrist hashes of MachineStates: every base sentence
+ * is given a pseudo-random 64-bit key, and the hash of a state is the XOR
+ * of the keys of its sentences. Because XOR is its own inverse, the hash
+ * of a successor state can be derived from the hash of its predecessor by
+ * XORing in only the sentences that changed, which is what
+ * {@link BitSetMachineState} does.
+ *
+ * Keys are derived from the text of the sentences rather than drawn from
+ * a random number generator, so the same state has the same hash in every
+ * state machine and in every run. Hashes are meant for indexing, e.g. in a
+ * {@link TranspositionTable}; distinct states may collide.
+ *
+ * Keys are computed each time they are asked for rather than kept in a
+ * table, so nothing here holds on to the sentences of past games. Callers
+ * that need the key of the same sentence often should keep it themselves,
+ * as {@link BitSetMachineState.Universe} does.
+ */
+public final class ZobristHasher
+{
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ZobristHasher() {
+    }
+
+    /**
+     * Returns the key of the given sentence.
+     */
+    public static long getKey(GdlSentence sentence) {
+        long h = FNV_OFFSET_BASIS;
+        if (sentence instanceof GdlProposition) {
+            h = hashText(h, sentence.getName().getValue());
+        } else {
+            h = hashCompound(h, sentence.getName().getValue(), sentence.getBody());
+        }
+        return finish(h);
+    }
+
+    /**
+     * Returns the Zobrist hash of the given state. This is free for
+     * BitSetMachineStates, and hashes every sentence otherwise.
+     */
+    public static long hash(MachineState state) {
+        if (state instanceof BitSetMachineState) {
+            return ((BitSetMachineState) state).getZobristHash();
+        }
+        long hash = 0;
+        for (GdlSentence sentence : state.getContents()) {
+            hash ^= getKey(sentence);
+        }
+        return hash;
+    }
+
+    /*
+     * The key is a 64-bit FNV-1a hash of the characters of the sentence's
+     * toString(), fed in while walking the sentence so that the string is
+     * never built, followed by the MurmurHash3 finalizer so that every bit
+     * of the result depends on every input bit.
+     */
+
+    private static long hashCompound(long h, String name, List<GdlTerm> body) {
+        h = hashText(h, "( ");
+        h = hashText(h, name);
+        h = hashChar(h, ' ');
+        for (GdlTerm term : body) {
+            h = hashTerm(h, term);
+            h = hashChar(h, ' ');
+        }
+        return hashChar(h, ')');
+    }
+
+    private static long hashTerm(long h, GdlTerm term) {
+        if (term instanceof GdlFunction) {
+            GdlFunction function = (GdlFunction) term;
+            return hashCompound(h, function.getName().getValue(), function.getBody());
+        }
+        return hashText(h, term.toString());
+    }
+
+    private static long hashText(long h, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            h = hashChar(h, text.charAt(i));
+        }
+        return h;
+    }
+
+    private static long hashChar(long h, char c) {
+        return (h ^ c) * FNV_PRIME;
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -9,6 +9,7 @@ import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateSummary;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
@@ -27,6 +28,7 @@ public final class CachedStateMachine extends StateMachine
         public Map<Role, List<Move>> moves;
         public Map<List<Move>, MachineState> nexts;
         public Boolean terminal;
+        public StateSummary summary;
 
         public Entry()
         {
@@ -35,6 +37,7 @@ public final class CachedStateMachine extends StateMachine
             moves = new HashMap<Role, List<Move>>();
             nexts = new HashMap<List<Move>, MachineState>();
             terminal = null;
+            summary = null;
         }
     }
 
@@ -130,6 +133,47 @@ public final class CachedStateMachine extends StateMachine
         }
     }
 
+    /**
+     * Caches the summary, along with the results it contains, so later calls
+     * to getLegalMoves, getGoal and isTerminal for the state don't reach the
+     * backing state machine.
+     */
+    @Override
+    public StateSummary getStateSummary(MachineState state)
+    {
+        Entry entry = getEntry(state);
+        synchronized (entry)
+        {
+            if (entry.summary == null)
+            {
+                StateSummary summary = backingStateMachine.getStateSummary(state);
+                entry.summary = summary;
+                entry.terminal = summary.isTerminal();
+                for (Role role : getRoles())
+                {
+                    try
+                    {
+                        entry.moves.put(role, summary.getLegalMoves(role));
+                    }
+                    catch (MoveDefinitionException e)
+                    {
+                        // Left for getLegalMoves to ask the backing machine about
+                    }
+                    try
+                    {
+                        entry.goals.put(role, summary.getGoal(role));
+                    }
+                    catch (GoalDefinitionException e)
+                    {
+                        // Likewise for getGoal
+                    }
+                }
+            }
+
+            return entry.summary;
+        }
+    }
+
     @Override
     public void doPerMoveWork()
     {
@@ -0,0 +1,226 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a concurrent, size-bounded cache that maps keys of type
+ * K to values of type V, for use by several threads at once.
+ *
+ * The cache is split into segments by key hash. Lookups do not
+ * take any locks: each segment keeps its entries in a
+ * ConcurrentHashMap, and a hit only sets the "referenced" bit of
+ * the entry. Insertions lock their segment. Once a segment is full,
+ * a new entry replaces one chosen by the CLOCK algorithm: a hand
+ * sweeps over the entries of the segment, clearing the referenced
+ * bits it finds set, and evicts the first entry whose bit is
+ * already clear. Entries that are used often thus survive, while
+ * the cost of bookkeeping on a hit stays constant.
+ *
+ * Unlike TtlCache, entries never need to be pruned explicitly, and
+ * the number of entries never exceeds the maximum.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public final class ClockCache<K, V>
+{
+    private static final class Node<K, V>
+    {
+        public final K key;
+        public final V value;
+        public volatile boolean referenced;
+
+        public Node(K key, V value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Segment<K, V>
+    {
+        public final ConcurrentHashMap<K, Node<K, V>> map;
+        public final Node<K, V>[] ring;
+        public int size;
+        public int hand;
+
+        public final AtomicLong hits = new AtomicLong();
+        public final AtomicLong misses = new AtomicLong();
+        public long evictions;
+
+        public Segment(int capacity)
+        {
+            map = new ConcurrentHashMap<K, Node<K, V>>(capacity * 4 / 3 + 1);
+            // Generic arrays can't be created directly; this one only ever
+            // holds nodes of the segment's own types
+            @SuppressWarnings("unchecked")
+            Node<K, V>[] ring = (Node<K, V>[]) new Node<?, ?>[capacity];
+            this.ring = ring;
+        }
+    }
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final int maxEntries;
+
+    /**
+     * @param maxEntries The maximum number of entries in the cache.
+     * @param concurrencyLevel The expected number of threads using
+     * the cache at once; it is split into at least that many segments.
+     */
+    public ClockCache(int maxEntries, int concurrencyLevel)
+    {
+        int numSegments = 1;
+        while (numSegments < concurrencyLevel && numSegments < maxEntries)
+        {
+            numSegments <<= 1;
+        }
+        int capacity = Math.max(1, maxEntries / numSegments);
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[numSegments];
+        this.segments = segments;
+        for (int i = 0; i < numSegments; i++)
+        {
+            segments[i] = new Segment<K, V>(capacity);
+        }
+        this.segmentMask = numSegments - 1;
+        this.maxEntries = capacity * numSegments;
+    }
+
+    private Segment<K, V> segmentFor(Object key)
+    {
+        int h = key.hashCode();
+        // Spread the bits: MachineState hash codes are plain sums of
+        // sentence hash codes, and only the low bits pick the segment.
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * Returns the value for the given key, or null if it is not in the
+     * cache. Counts as a hit or a miss.
+     */
+    public V get(K key)
+    {
+        Segment<K, V> segment = segmentFor(key);
+        Node<K, V> node = segment.map.get(key);
+        if (node == null)
+        {
+            segment.misses.incrementAndGet();
+            return null;
+        }
+        segment.hits.incrementAndGet();
+        if (!node.referenced)
+        {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * Adds the given value for the key, unless the key is already in the
+     * cache. Returns the value that ends up in the cache. Another entry of
+     * the same segment may be evicted to make room.
+     */
+    public V putIfAbsent(K key, V value)
+    {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            Node<K, V> existing = segment.map.get(key);
+            if (existing != null)
+            {
+                return existing.value;
+            }
+            Node<K, V> node = new Node<K, V>(key, value);
+            if (segment.size < segment.ring.length)
+            {
+                segment.ring[segment.size++] = node;
+            }
+            else
+            {
+                Node<K, V>[] ring = segment.ring;
+                while (ring[segment.hand].referenced)
+                {
+                    ring[segment.hand].referenced = false;
+                    segment.hand = (segment.hand + 1) % ring.length;
+                }
+                segment.map.remove(ring[segment.hand].key);
+                segment.evictions++;
+                ring[segment.hand] = node;
+                segment.hand = (segment.hand + 1) % ring.length;
+            }
+            segment.map.put(key, node);
+            return value;
+        }
+    }
+
+    /**
+     * Removes all the entries. The counters are kept.
+     */
+    public void clear()
+    {
+        for (Segment<K, V> segment : segments)
+        {
+            synchronized (segment)
+            {
+                segment.map.clear();
+                Arrays.fill(segment.ring, null);
+                segment.size = 0;
+                segment.hand = 0;
+            }
+        }
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Segment<K, V> segment : segments)
+        {
+            size += segment.map.size();
+        }
+        return size;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getHits()
+    {
+        long hits = 0;
+        for (Segment<K, V> segment : segments)
+        {
+            hits += segment.hits.get();
+        }
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        long misses = 0;
+        for (Segment<K, V> segment : segments)
+        {
+            misses += segment.misses.get();
+        }
+        return misses;
+    }
+
+    public long getEvictions()
+    {
+        long evictions = 0;
+        for (Segment<K, V> segment : segments)
+        {
+            synchronized (segment)
+            {
+                evictions += segment.evictions;
+            }
+        }
+        return evictions;
+    }
+}
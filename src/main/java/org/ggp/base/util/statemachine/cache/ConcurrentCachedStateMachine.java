@@ -0,0 +1,285 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateSummary;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A thread-safe alternative to CachedStateMachine, backed by a
+ * size-bounded {@link ClockCache} instead of a TtlCache.
+ *
+ * The cache never holds more than a fixed number of states, whether
+ * or not doPerMoveWork() is called, and keeps hit, miss and eviction
+ * counts. Cached results are read without locking; when two threads
+ * miss on the same result at once, both compute it and the results
+ * are interchangeable.
+ *
+ * One instance may be used by several threads if the backing state
+ * machine is itself thread-safe. For state machines that are not,
+ * such as propnet views, give each thread its own backing machine
+ * and use {@link #share(StateMachine)} to put a wrapper around it
+ * that uses the same cache.
+ */
+public final class ConcurrentCachedStateMachine extends StateMachine
+{
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private static final int NO_GOAL = Integer.MIN_VALUE;
+
+    private final StateMachine backingStateMachine;
+    private final ClockCache<MachineState, Entry> cache;
+    private final ConcurrentMap<Role, List<Move>> actions;
+
+    private static final class Entry
+    {
+        public final AtomicIntegerArray goals;
+        public final AtomicReferenceArray<List<Move>> moves;
+        public volatile ConcurrentMap<List<Move>, MachineState> nexts;
+        public volatile Boolean terminal;
+        public volatile StateSummary summary;
+
+        public Entry(int numRoles)
+        {
+            goals = new AtomicIntegerArray(numRoles);
+            for (int i = 0; i < numRoles; i++)
+            {
+                goals.set(i, NO_GOAL);
+            }
+            moves = new AtomicReferenceArray<List<Move>>(numRoles);
+        }
+
+        public ConcurrentMap<List<Move>, MachineState> getNexts()
+        {
+            ConcurrentMap<List<Move>, MachineState> map = nexts;
+            if (map == null)
+            {
+                synchronized (this)
+                {
+                    map = nexts;
+                    if (map == null)
+                    {
+                        map = new ConcurrentHashMap<List<Move>, MachineState>(4, 0.75f, 1);
+                        nexts = map;
+                    }
+                }
+            }
+            return map;
+        }
+    }
+
+    public ConcurrentCachedStateMachine(StateMachine backingStateMachine)
+    {
+        this(backingStateMachine, DEFAULT_MAX_ENTRIES);
+    }
+
+    public ConcurrentCachedStateMachine(StateMachine backingStateMachine, int maxEntries)
+    {
+        this(backingStateMachine,
+                new ClockCache<MachineState, Entry>(maxEntries, 4 * Runtime.getRuntime().availableProcessors()),
+                new ConcurrentHashMap<Role, List<Move>>());
+    }
+
+    private ConcurrentCachedStateMachine(StateMachine backingStateMachine, ClockCache<MachineState, Entry> cache, ConcurrentMap<Role, List<Move>> actions)
+    {
+        this.backingStateMachine = backingStateMachine;
+        this.cache = cache;
+        this.actions = actions;
+    }
+
+    /**
+     * Returns a state machine backed by the given machine, which must be
+     * initialized with the same game, that shares the cache of this one.
+     */
+    public ConcurrentCachedStateMachine share(StateMachine otherBackingStateMachine)
+    {
+        return new ConcurrentCachedStateMachine(otherBackingStateMachine, cache, actions);
+    }
+
+    private Entry getEntry(MachineState state)
+    {
+        Entry entry = cache.get(state);
+        if (entry == null)
+        {
+            entry = cache.putIfAbsent(state, new Entry(getRoles().size()));
+        }
+        return entry;
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        Entry entry = getEntry(state);
+        int r = getRoleIndices().get(role);
+        int goal = entry.goals.get(r);
+        if (goal == NO_GOAL)
+        {
+            goal = backingStateMachine.getGoal(state, role);
+            entry.goals.set(r, goal);
+        }
+        return goal;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        List<Move> roleActions = actions.get(role);
+        if (roleActions == null)
+        {
+            roleActions = ImmutableList.copyOf(backingStateMachine.findActions(role));
+            actions.putIfAbsent(role, roleActions);
+        }
+        return roleActions;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        Entry entry = getEntry(state);
+        int r = getRoleIndices().get(role);
+        List<Move> legalMoves = entry.moves.get(r);
+        if (legalMoves == null)
+        {
+            legalMoves = ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role));
+            entry.moves.set(r, legalMoves);
+        }
+        return legalMoves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        ConcurrentMap<List<Move>, MachineState> nexts = getEntry(state).getNexts();
+        MachineState next = nexts.get(moves);
+        if (next == null)
+        {
+            next = backingStateMachine.getNextState(state, moves);
+            // Callers may reuse their move lists, so keep a copy as the key.
+            nexts.putIfAbsent(ImmutableList.copyOf(moves), next);
+        }
+        return next;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        Entry entry = getEntry(state);
+        Boolean terminal = entry.terminal;
+        if (terminal == null)
+        {
+            terminal = backingStateMachine.isTerminal(state);
+            entry.terminal = terminal;
+        }
+        return terminal;
+    }
+
+    /**
+     * Caches the summary, along with the results it contains, so later calls
+     * to getLegalMoves, getGoal and isTerminal for the state don't reach the
+     * backing state machine.
+     */
+    @Override
+    public StateSummary getStateSummary(MachineState state)
+    {
+        Entry entry = getEntry(state);
+        StateSummary summary = entry.summary;
+        if (summary == null)
+        {
+            summary = backingStateMachine.getStateSummary(state);
+            List<Role> roles = getRoles();
+            for (int r = 0; r < roles.size(); r++)
+            {
+                try
+                {
+                    entry.moves.set(r, summary.getLegalMoves(roles.get(r)));
+                }
+                catch (MoveDefinitionException e)
+                {
+                    // Left for getLegalMoves to ask the backing machine about
+                }
+                try
+                {
+                    entry.goals.set(r, summary.getGoal(roles.get(r)));
+                }
+                catch (GoalDefinitionException e)
+                {
+                    // Likewise for getGoal
+                }
+            }
+            entry.terminal = summary.isTerminal();
+            entry.summary = summary;
+        }
+        return summary;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        backingStateMachine.initialize(description);
+        cache.clear();
+        actions.clear();
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return backingStateMachine.getRoles();
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return backingStateMachine.getInitialState();
+    }
+
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList)
+    {
+        return backingStateMachine.getMachineStateFromSentenceList(sentenceList);
+    }
+
+    public StateMachine getBackedMachine()
+    {
+        return backingStateMachine;
+    }
+
+    public int getMaxEntries()
+    {
+        return cache.getMaxEntries();
+    }
+
+    public int getNumEntries()
+    {
+        return cache.size();
+    }
+
+    public long getHits()
+    {
+        return cache.getHits();
+    }
+
+    public long getMisses()
+    {
+        return cache.getMisses();
+    }
+
+    public long getEvictions()
+    {
+        return cache.getEvictions();
+    }
+}
@@ -0,0 +1,684 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.bytecode.PropNetEvaluator;
+import org.ggp.base.util.propnet.bytecode.PropNetEvaluatorGenerator;
+import org.ggp.base.util.propnet.cache.PropNetCache;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetReducer;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.DepthChargeResults;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+
+/**
+ * A propnet-based state machine that evaluates a {@link CompiledPropNet}
+ * instead of walking the Component object graph.
+ *
+ * The value of every component is kept as one bit of a long[]. No objects
+ * are allocated during evaluation; the only allocations are the lists and
+ * states returned to the caller. Two propagation modes are available:
+ * <ul>
+ * <li>{@link PropagationMode#FULL}: whenever a new state is presented, the
+ *     base bits are loaded and every gate is recomputed in a single pass over
+ *     the topological ordering.</li>
+ * <li>{@link PropagationMode#DIFFERENTIAL}: the incoming base and input bits
+ *     are diffed against the ones currently marked, and only the changes are
+ *     pushed forward through the outputs. Each gate keeps a count of its true
+ *     inputs, so a changed input updates it in constant time, and gates are
+ *     re-evaluated at most once per update, in topological order. The cost of
+ *     an update scales with the number of propositions that change rather than
+ *     with the size of the propnet, which suits depth charges where
+ *     consecutive states differ in only a few bases.</li>
+ * </ul>
+ *
+ * In both modes, the result of the last evaluation is reused when
+ * consecutive calls are made on the same MachineState instance, which is the
+ * common pattern in depth charges (isTerminal, then getLegalMoves for each
+ * role, then getNextState).
+ *
+ * Full passes can optionally be made by an evaluator generated for the
+ * particular propnet as JVM bytecode, rather than by the interpreted loop;
+ * see {@link #setGenerateEvaluator(boolean)}.
+ *
+ * States are produced as {@link BitSetMachineState}s over the base
+ * propositions of the compiled propnet, which can be loaded by copying their
+ * words instead of looking up each sentence. Other MachineStates are accepted
+ * as well, and converted on the way in.
+ *
+ * This state machine is not thread-safe. To run simulations on several
+ * threads, give each thread its own view from {@link #createView()}: views
+ * share the compiled propnet, which is immutable, and only allocate their
+ * own value arrays, so the propnet only needs to be built once.
+ */
+public class CompiledPropNetStateMachine extends StateMachine {
+    public static enum PropagationMode { FULL, DIFFERENTIAL }
+
+    private PropagationMode mode;
+    private PropNetCache propNetCache;
+    private boolean generateEvaluator;
+
+    private CompiledPropNet net;
+    /** Generated code for full passes, or null to interpret the propnet. */
+    private PropNetEvaluator evaluator;
+    private List<Role> roles;
+    private MachineState initialState;
+
+    /** One bit per component, indexed as in the compiled propnet. */
+    private long[] values;
+    /** Scratch space for the base and input bits about to be marked. */
+    private long[] nextSources;
+    /** The number of words of values that hold base and input bits. */
+    private int sourceWords;
+    /** Masks off the bits of the last source word that are not sources. */
+    private long lastSourceWordMask;
+
+    /** Differential mode: the number of true inputs of each gate. */
+    private int[] trueInputs;
+    /** Differential mode: the gates whose true input count has changed. */
+    private long[] dirty;
+    /** Differential mode: whether trueInputs agrees with values. */
+    private boolean countsValid;
+
+    /** The state currently loaded into the base bits. */
+    private MachineState loadedState;
+
+    // metrics, in the same spirit as the ones in SamplePropNetStateMachine
+    private long totalCalls;
+    private long callsAvoided;
+    private long totalMarkPropositions;
+    private long markPropositionsAvoided;
+
+    public CompiledPropNetStateMachine() {
+        this(PropagationMode.FULL);
+    }
+
+    public CompiledPropNetStateMachine(PropagationMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Builds the propnet with {@link OptimizingPropNetFactory}, or reads it
+     * from the propnet cache if there is one and the game has been seen
+     * before, strips out the constant and unused logic with
+     * {@link PropNetReducer}, and flattens it into a {@link CompiledPropNet}.
+     */
+    @Override
+    public void initialize(List<Gdl> description) {
+        try {
+            PropNet propNet;
+            if (propNetCache != null) {
+                propNet = propNetCache.getPropNet(description);
+            } else {
+                propNet = OptimizingPropNetFactory.create(description);
+            }
+            initialize(new CompiledPropNet(PropNetReducer.reduce(propNet)));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Initializes this state machine around an already-compiled propnet.
+     */
+    public void initialize(CompiledPropNet compiledNet) {
+        net = compiledNet;
+        roles = net.getRoles();
+        evaluator = generateEvaluator ? PropNetEvaluatorGenerator.generate(net) : null;
+        int words = (net.size() + 63) >>> 6;
+        values = new long[words];
+        dirty = new long[words];
+        trueInputs = new int[net.size()];
+        int numSourceBits = net.getNumBases() + net.getNumInputs();
+        sourceWords = (numSourceBits + 63) >>> 6;
+        nextSources = new long[sourceWords];
+        lastSourceWordMask = ((numSourceBits & 63) == 0) ? -1L : ~(-1L << numSourceBits);
+        for (int i = numSourceBits; i < net.getFirstGate(); i++) {
+            if (net.getType(i) == CompiledPropNet.TYPE_CONSTANT_TRUE) {
+                set(i);
+            }
+        }
+        initialState = computeInitialState();
+    }
+
+    public CompiledPropNet getCompiledPropNet() {
+        return net;
+    }
+
+    /**
+     * Returns a new state machine over the same compiled propnet, with its
+     * own evaluation state and the current propagation mode. The view and
+     * this machine can be used concurrently from different threads, and the
+     * states they produce can be passed freely between them.
+     */
+    public CompiledPropNetStateMachine createView() {
+        CompiledPropNetStateMachine view = new CompiledPropNetStateMachine(mode);
+        view.initialize(net);
+        view.generateEvaluator = generateEvaluator;
+        view.evaluator = evaluator;
+        return view;
+    }
+
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+        return net.getBaseUniverse().fromContents(sentenceList);
+    }
+
+    public PropagationMode getPropagationMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the cache that propnets are read from and added to when this
+     * state machine is initialized, such as
+     * {@link PropNetCache#getDefaultCache()}, or null to always build them.
+     * By default, there is no cache.
+     */
+    public void setPropNetCache(PropNetCache propNetCache) {
+        this.propNetCache = propNetCache;
+    }
+
+    /**
+     * Sets whether to generate bytecode for full passes over the propnet,
+     * the next time this state machine is initialized. If generation fails,
+     * the propnet is interpreted as usual. Views share the evaluator of the
+     * machine they were created from. Off by default.
+     */
+    public void setGenerateEvaluator(boolean generateEvaluator) {
+        this.generateEvaluator = generateEvaluator;
+    }
+
+    /**
+     * Returns whether full passes over the propnet are being made by a
+     * generated evaluator.
+     */
+    public boolean isUsingGeneratedEvaluator() {
+        return evaluator != null;
+    }
+
+    /**
+     * Switches between full and differential propagation. This can be done
+     * at any time; the next evaluation after switching is a full one.
+     */
+    public void setPropagationMode(PropagationMode mode) {
+        this.mode = mode;
+        countsValid = false;
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        load(state);
+        int terminal = net.getTerminalIndex();
+        return terminal >= 0 && get(terminal);
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+        load(state);
+        int r = getRoleIndices().get(role);
+        int[] goals = net.getGoalIndices(r);
+        for (int i = 0; i < goals.length; i++) {
+            if (get(goals[i])) {
+                return net.getGoalValues(r)[i];
+            }
+        }
+        throw new GoalDefinitionException(state, role);
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException {
+        Move[] moves = net.getLegalMoves(getRoleIndices().get(role));
+        if (moves.length == 0) {
+            throw new MoveDefinitionException(initialState, role);
+        }
+        return Arrays.asList(moves);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+        load(state);
+        int r = getRoleIndices().get(role);
+        int[] legals = net.getLegalIndices(r);
+        Move[] moves = net.getLegalMoves(r);
+        List<Move> legalMoves = new ArrayList<Move>();
+        for (int i = 0; i < legals.length; i++) {
+            if (get(legals[i])) {
+                legalMoves.add(moves[i]);
+            }
+        }
+        if (legalMoves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return legalMoves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        totalCalls++;
+        stageBases(state);
+        for (int r = 0; r < moves.size(); r++) {
+            int input = net.getInputIndex(r, moves.get(r));
+            if (input >= 0) {
+                nextSources[input >>> 6] |= 1L << input;
+            }
+        }
+        evaluate();
+        // Legal, goal and terminal propositions cannot depend on inputs in
+        // valid GDL, so the evaluation is still good for this state.
+        loadedState = state;
+        return computeNextState(state);
+    }
+
+    /**
+     * Plays the depth charges out directly on the bits of the propnet,
+     * without building a state or a list of moves at each step. Throws an
+     * IllegalStateException if the propnet has no terminal proposition,
+     * since no depth charge could ever end.
+     */
+    @Override
+    public int performDepthCharges(MachineState state, Role role, Move move, int count, long finishBy, Random random, DepthChargeResults results) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        int numRoles = roles.size();
+        int fixedRole = (role == null) ? -1 : getRoleIndices().get(role);
+        int fixedInput = (role == null) ? -1 : net.getInputIndex(fixedRole, move);
+        int terminal = net.getTerminalIndex();
+        if (terminal < 0) {
+            throw new IllegalStateException("The propnet has no terminal proposition, so depth charges would never end");
+        }
+        int[] goals = new int[numRoles];
+        int charges = 0;
+        try {
+            while (charges < count && System.currentTimeMillis() < finishBy) {
+                totalCalls++;
+                stageBases(state);
+                evaluate();
+                int depth = 0;
+                while ((depth == 0 && role != null) || !get(terminal)) {
+                    for (int r = 0; r < numRoles; r++) {
+                        int input = (r == fixedRole && depth == 0) ? fixedInput : chooseRandomInput(r, random);
+                        if (input >= 0) {
+                            nextSources[input >>> 6] |= 1L << input;
+                        }
+                    }
+                    evaluate();
+                    Arrays.fill(nextSources, 0L);
+                    for (int base = 0; base < net.getNumBases(); base++) {
+                        int transition = net.getTransition(base);
+                        if (transition >= 0 && get(transition)) {
+                            nextSources[base >>> 6] |= 1L << base;
+                        }
+                    }
+                    totalCalls++;
+                    evaluate();
+                    depth++;
+                }
+                for (int r = 0; r < numRoles; r++) {
+                    goals[r] = readGoal(r);
+                }
+                results.addCharge(depth, goals);
+                charges++;
+            }
+        } finally {
+            // The values no longer match any state that was passed in
+            loadedState = null;
+        }
+        return charges;
+    }
+
+    /**
+     * Picks one of the role's legal moves in the current values uniformly
+     * at random, and returns its input proposition, or -1 if it has none.
+     */
+    private int chooseRandomInput(int r, Random random) throws MoveDefinitionException {
+        int[] legals = net.getLegalIndices(r);
+        int numLegal = 0;
+        for (int i = 0; i < legals.length; i++) {
+            if (get(legals[i])) {
+                numLegal++;
+            }
+        }
+        if (numLegal == 0) {
+            throw new MoveDefinitionException(getCurrentState(), roles.get(r));
+        }
+        int chosen = random.nextInt(numLegal);
+        for (int i = 0; ; i++) {
+            if (get(legals[i]) && chosen-- == 0) {
+                return net.getLegalToInput(r)[i];
+            }
+        }
+    }
+
+    private int readGoal(int r) throws GoalDefinitionException {
+        int[] goals = net.getGoalIndices(r);
+        for (int i = 0; i < goals.length; i++) {
+            if (get(goals[i])) {
+                return net.getGoalValues(r)[i];
+            }
+        }
+        throw new GoalDefinitionException(getCurrentState(), roles.get(r));
+    }
+
+    /**
+     * Builds a state from the base bits currently marked, for reporting
+     * errors.
+     */
+    private MachineState getCurrentState() {
+        long[] words = new long[net.getBaseUniverse().getNumWords()];
+        for (int base = 0; base < net.getNumBases(); base++) {
+            if (get(base)) {
+                words[base >>> 6] |= 1L << base;
+            }
+        }
+        return new BitSetMachineState(net.getBaseUniverse(), words, null);
+    }
+
+    private MachineState computeInitialState() {
+        int init = net.getInitIndex();
+        Arrays.fill(nextSources, 0L);
+        copySources();
+        if (init >= 0) {
+            set(init);
+        }
+        propagateAll();
+        MachineState state = computeNextState(null);
+        if (init >= 0) {
+            clear(init);
+        }
+        countsValid = false;
+        loadedState = null;
+        return state;
+    }
+
+    /**
+     * Loads the given state into the base bits and re-evaluates the gates,
+     * unless it is already loaded.
+     */
+    private void load(MachineState state) {
+        totalCalls++;
+        if (state == loadedState || (state instanceof BitSetMachineState && state.equals(loadedState))) {
+            callsAvoided++;
+            return;
+        }
+        stageBases(state);
+        evaluate();
+        loadedState = state;
+    }
+
+    /**
+     * Sets nextSources to the base bits of the given state, with no inputs.
+     */
+    private void stageBases(MachineState state) {
+        Arrays.fill(nextSources, 0L);
+        if (state instanceof BitSetMachineState
+                && ((BitSetMachineState) state).getUniverse() == net.getBaseUniverse()) {
+            ((BitSetMachineState) state).copyWordsTo(nextSources);
+            return;
+        }
+        for (GdlSentence sentence : state.getContents()) {
+            int base = net.getBaseIndex(sentence);
+            if (base >= 0) {
+                nextSources[base >>> 6] |= 1L << base;
+            }
+        }
+    }
+
+    /**
+     * Marks the sources staged in nextSources and brings every gate up to
+     * date, using the current propagation mode.
+     */
+    private void evaluate() {
+        int numGates = net.size() - net.getFirstGate();
+        totalMarkPropositions += numGates;
+        if (mode == PropagationMode.DIFFERENTIAL) {
+            if (countsValid) {
+                markPropositionsAvoided += numGates - propagateChanges();
+                return;
+            }
+            copySources();
+            propagateAll();
+            countTrueInputs();
+            countsValid = true;
+        } else {
+            copySources();
+            propagateAll();
+        }
+    }
+
+    private void copySources() {
+        int last = sourceWords - 1;
+        for (int w = 0; w < last; w++) {
+            values[w] = nextSources[w];
+        }
+        if (last >= 0) {
+            values[last] = (values[last] & ~lastSourceWordMask) | nextSources[last];
+        }
+    }
+
+    /**
+     * Recomputes every gate in topological order.
+     */
+    private void propagateAll() {
+        if (evaluator != null) {
+            evaluator.propagate(values);
+            return;
+        }
+        final byte[] types = net.getTypes();
+        final int[] inputOffsets = net.getInputOffsets();
+        final int[] inputs = net.getInputs();
+        final long[] values = this.values;
+        final int n = types.length;
+        for (int i = net.getFirstGate(); i < n; i++) {
+            int start = inputOffsets[i];
+            int end = inputOffsets[i + 1];
+            boolean value;
+            switch (types[i]) {
+            case CompiledPropNet.TYPE_AND:
+                value = true;
+                for (int j = start; j < end; j++) {
+                    int in = inputs[j];
+                    if ((values[in >>> 6] & (1L << in)) == 0) {
+                        value = false;
+                        break;
+                    }
+                }
+                break;
+            case CompiledPropNet.TYPE_NOT:
+                int in = inputs[start];
+                value = (values[in >>> 6] & (1L << in)) == 0;
+                break;
+            default:
+                // Or gates, transitions and view propositions.
+                value = false;
+                for (int j = start; j < end; j++) {
+                    int or = inputs[j];
+                    if ((values[or >>> 6] & (1L << or)) != 0) {
+                        value = true;
+                        break;
+                    }
+                }
+                break;
+            }
+            if (value) {
+                values[i >>> 6] |= 1L << i;
+            } else {
+                values[i >>> 6] &= ~(1L << i);
+            }
+        }
+    }
+
+    /**
+     * Sets the true input count of every gate from the current values.
+     */
+    private void countTrueInputs() {
+        final int[] inputOffsets = net.getInputOffsets();
+        final int[] inputs = net.getInputs();
+        for (int i = net.getFirstGate(); i < trueInputs.length; i++) {
+            int count = 0;
+            for (int j = inputOffsets[i]; j < inputOffsets[i + 1]; j++) {
+                if (get(inputs[j])) {
+                    count++;
+                }
+            }
+            trueInputs[i] = count;
+        }
+        Arrays.fill(dirty, 0L);
+    }
+
+    /**
+     * Flips the sources that differ between values and nextSources, and
+     * pushes the changes forward.
+     *
+     * @return the number of gates that were re-evaluated
+     */
+    private int propagateChanges() {
+        final long[] values = this.values;
+        final long[] dirty = this.dirty;
+        int last = sourceWords - 1;
+        for (int w = 0; w <= last; w++) {
+            long diff = values[w] ^ nextSources[w];
+            if (w == last) {
+                diff &= lastSourceWordMask;
+            }
+            while (diff != 0) {
+                int bit = Long.numberOfTrailingZeros(diff);
+                diff &= diff - 1;
+                int i = (w << 6) + bit;
+                values[w] ^= 1L << bit;
+                pushChange(i, (values[w] & (1L << bit)) != 0);
+            }
+        }
+
+        // Outputs always have higher indices than their inputs, so a single
+        // forward scan over the dirty gates visits each one after all of its
+        // inputs have settled.
+        final byte[] types = net.getTypes();
+        final int[] inputOffsets = net.getInputOffsets();
+        int evaluated = 0;
+        for (int w = net.getFirstGate() >>> 6; w < dirty.length; w++) {
+            while (dirty[w] != 0) {
+                int bit = Long.numberOfTrailingZeros(dirty[w]);
+                dirty[w] &= ~(1L << bit);
+                int i = (w << 6) + bit;
+                evaluated++;
+                int count = trueInputs[i];
+                boolean value;
+                switch (types[i]) {
+                case CompiledPropNet.TYPE_AND:
+                    value = count == inputOffsets[i + 1] - inputOffsets[i];
+                    break;
+                case CompiledPropNet.TYPE_NOT:
+                    value = count == 0;
+                    break;
+                default:
+                    value = count > 0;
+                    break;
+                }
+                if (value != ((values[w] & (1L << bit)) != 0)) {
+                    values[w] ^= 1L << bit;
+                    pushChange(i, value);
+                }
+            }
+        }
+        return evaluated;
+    }
+
+    /**
+     * Updates the true input counts of the outputs of a component whose
+     * value has just changed, and marks them dirty.
+     */
+    private void pushChange(int component, boolean newValue) {
+        final int[] outputOffsets = net.getOutputOffsets();
+        final int[] outputs = net.getOutputs();
+        int delta = newValue ? 1 : -1;
+        for (int j = outputOffsets[component]; j < outputOffsets[component + 1]; j++) {
+            int out = outputs[j];
+            trueInputs[out] += delta;
+            dirty[out >>> 6] |= 1L << out;
+        }
+    }
+
+    /**
+     * Builds the state given by the transition bits. If the previous state
+     * is a BitSetMachineState, its hashes are updated from the differences
+     * instead of being recomputed.
+     */
+    private MachineState computeNextState(MachineState previous) {
+        BitSetMachineState.Universe universe = net.getBaseUniverse();
+        long[] words = new long[universe.getNumWords()];
+        for (int base = 0; base < net.getNumBases(); base++) {
+            int transition = net.getTransition(base);
+            if (transition >= 0 && get(transition)) {
+                words[base >>> 6] |= 1L << base;
+            }
+        }
+        return new BitSetMachineState(universe, words,
+                (previous instanceof BitSetMachineState) ? (BitSetMachineState) previous : null);
+    }
+
+    private boolean get(int i) {
+        return (values[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void set(int i) {
+        values[i >>> 6] |= 1L << i;
+    }
+
+    private void clear(int i) {
+        values[i >>> 6] &= ~(1L << i);
+    }
+
+    /**
+     * Returns the number of evaluations requested of the propnet.
+     */
+    public long getTotalCalls() {
+        return totalCalls;
+    }
+
+    /**
+     * Returns the number of evaluations skipped because the requested
+     * state was already loaded.
+     */
+    public long getCallsAvoided() {
+        return callsAvoided;
+    }
+
+    /**
+     * Returns the number of gate evaluations a full propagation would have
+     * done over all of the evaluations performed so far.
+     */
+    public long getTotalMarkPropositions() {
+        return totalMarkPropositions;
+    }
+
+    /**
+     * Returns the number of gate evaluations that differential propagation
+     * was able to skip. This is always zero in full propagation mode.
+     */
+    public long getMarkPropositionsAvoided() {
+        return markPropositionsAvoided;
+    }
+}
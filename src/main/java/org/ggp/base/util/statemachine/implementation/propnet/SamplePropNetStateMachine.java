@@ -1,16 +1,11 @@
 package org.ggp.base.util.statemachine.implementation.propnet;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
-import org.ggp.base.util.UnionFind;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlRelation;
@@ -42,11 +37,6 @@ public class SamplePropNetStateMachine extends StateMachine {
     private List<Component> ordering;
     /** The player roles */
     private List<Role> roles;
-    /** Components organized into disjoint sets of factors */
-    private List<Set<Component>> factors;
-
-    private Map<Proposition, Boolean> latches;
-
     private boolean stateIsCorrect;
 
     private MachineState lastMachineState; // checks using .equals to see if this was last one marked
@@ -65,125 +55,17 @@ public class SamplePropNetStateMachine extends StateMachine {
     @Override
     public void initialize(List<Gdl> description) {
         try {
-        	latches = new HashMap<Proposition, Boolean>();
             propNet = OptimizingPropNetFactory.create(description);
             roles = propNet.getRoles();
-            //if(roles.size() == 1) ordering = getOrdering(factorPropnet());
-            //else ordering = getOrdering(new ArrayList<Component>(propNet.getComponents()));
-            //factorPropnet();
             ordering = getOrdering(new ArrayList<Component>(propNet.getComponents()));
             System.out.println(ordering.size());
 
-            //computeLatches();
-            //removeLatchesFromOrdering();
-
             propNet = OptimizingPropNetFactory.create(description);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public void removeLatchesFromOrdering() {
-    	for (Proposition p : latches.keySet()) {
-    		ordering.remove(p);
-    		p.setIsCorrect(true);
-    		p.setValue(latches.get(p));
-    	}
-    }
-
-    public void computeLatches() {
-    	System.out.println("Beginning latch computation.");
-    	for(Component c : ordering) {
-    		if (c instanceof Proposition) {
-        		Proposition p = (Proposition) c;
-
-        		if(c.getInputs().size() == 1 && !(c.getSingleInput() instanceof Transition)) {
-    	        	isLatch(p);
-        		}
-    		}
-    	}
-    	System.out.println("Latch computation complete. There are " + latches.size() + " latches.");
-    }
-
-    public void isLatch(Proposition p) {
-    	//System.out.println("Checking if " + p + " is a latch.");
-    	List<Component> dependencies = new LinkedList<Component>();
-
-    	Queue<Component> toCheck = new LinkedList<Component>();
-
-    	toCheck.add(p);
-
-    	while(toCheck.size() != 0) {
-    		Component cur = toCheck.remove();
-    		if(cur.getType() == "base" || cur.getType() == "input") {
-    			dependencies.add(cur);
-    		}
-    		else if(cur.getType() == "or") {
-    			toCheck.add(cur.getSingleInput());
-    		}
-    		else {
-        		for(Component dependency : cur.getInputs()) {
-        			toCheck.add(dependency);
-        		}
-    		}
-    	}
-
-    	boolean true_latch = true;
-    	boolean false_latch = true;
-
-    	//Check if true
-    	for(int i = 0; i < Math.pow(2, dependencies.size() - 1); i++){
-        	clearPropnet();
-
-    		setBooleans(dependencies, i);
-
-    		boolean value = markProposition(p);
-
-    		if(!value) {
-    			//System.out.println(p + " is not a true latch.");
-    			true_latch = false;
-    			break;
-    		}
-    	}
-    	//Check if false
-    	for(int i = 0; i < Math.pow(2, dependencies.size() - 1); i++){
-        	clearPropnet();
-
-    		setBooleans(dependencies, i);
-
-    		boolean value = markProposition(p);
-
-    		if(value) {
-    			//System.out.println(p + " is not a false latch.");
-    			false_latch = false;
-    			break;
-    		}
-    	}
-
-    	if(true_latch) {
-    		latches.put(p, true);
-    		//System.out.println(p + " is a true latch.");
-    	}
-    	if(false_latch) {
-    		latches.put(p, false);
-    		//System.out.println(p + " is a false latch.");
-    	}
-
-    	//System.out.println("There were " + dependencies.size() + " dependencies for this proposition.");
-
-    	clearPropnet();
-    }
-
-    public void setBooleans(List<Component> to_set, int bits) {
-    	for(int i = 0; i < to_set.size(); i++){
-    		Boolean value;
-    		if(((bits >> i) & 1) == 0) value = false;
-    		else value = true;
-
-    		to_set.get(i).setVal(value);
-    	}
-    }
-
     /**
      * Computes if the state is terminal. Should return the value
      * of the terminal proposition for the state.
@@ -345,145 +227,6 @@ public class SamplePropNetStateMachine extends StateMachine {
         return nextState;*/
     }
 
-    /**
-     * Here we check if the terminal component is connected to an
-     * 'or' or 'and' component. If it is connected to an 'or' or
-     * 'and' component then we do not include those in the disjoint
-     * set forest. For 'or' components, we choose the smallest
-     * branch to make our new toplogical order. For 'and' components,
-     * we choose both branches to be part of our topological order.
-     *
-     * @return nothing, should update Component list to reflect factored
-     * game.
-     */
-    private List<Component> factorPropnet() {
-    	Component terminal = propNet.getTerminalProposition();
-    	Component[] propNet_comps = propNet.getComponentsArray();
-    	Set<Component> exclude = new HashSet<Component>();
-    	Component joint_or_component = null;
-    	Component joint_and_component = null;
-    	int num_ors = 0;
-    	int num_ands = 0;
-
-    	for(Component c : terminal.getInputs()) {
-    		if(c.getType() == "or") {
-    			//exclude.add(c);
-    			joint_or_component = c;
-    			num_ors++;
-    		}
-    		if(c.getType() == "and") {
-    			//exclude.add(c);
-    			joint_and_component = c;
-    			num_ands++;
-    		}
-    	}
-    	for(Component c : propNet_comps) {
-    		if(c.getType() == "goal") {
-    			exclude.add(c);
-    			for(Component dependent : c.getInputs()) {
-    				exclude.add(dependent);
-    			}
-    		}
-    	}
-
-    	UnionFind groups = new UnionFind(propNet_comps.length);
-    	ArrayList<Component> constant_comps = new ArrayList<Component>();
-
-    	for(int i = 0; i < propNet_comps.length; i++) {
-    		Component cur = propNet_comps[i];
-
-    		if(cur.getType() == "constant") {
-    			System.out.println("Found a constant");
-    			constant_comps.add(cur);
-    			for(int j = 0; j < cur.getOutputs().size(); j++) {
-    				groups.union(i, Arrays.asList(propNet_comps).indexOf(cur.getOutputs().toArray()[j]));
-    			}
-    		}
-    		if(exclude.contains(cur)) {
-    			//pass
-    		}
-    		else if(cur.getInputs().size() == 1) {
-    			groups.union(i, Arrays.asList(propNet_comps).indexOf(cur.getSingleInput()));
-    		}
-    		else if(cur.getInputs().size() >= 1) {
-    			for(int j = 0; j < cur.getInputs().size(); j++) {
-    				groups.union(i, Arrays.asList(propNet_comps).indexOf(cur.getInputs().toArray()[j]));
-    			}
-    		}
-    	}
-
-    	List<Component> result = new ArrayList<Component>();
-
-    	int terminal_index = Arrays.asList(propNet_comps).indexOf(terminal);
-    	int init_index = Arrays.asList(propNet_comps).indexOf(propNet.getInitProposition());
-
-    	if(num_ands == 1) {
-    		for(int j = 0; j < terminal.getInputs().size(); j++) {
-				groups.union(terminal_index, Arrays.asList(propNet_comps).indexOf(terminal.getInputs().toArray()[j]));
-			}
-    	}
-
-    	else if(num_ors == 1) {
-    		groups.print_num_groups();
-
-			groups.union(init_index, terminal_index);
-    		groups.print_num_groups();
-			System.out.println(groups.find(init_index) + " " + groups.find(terminal_index));
-
-			for(int j = 0; j < terminal.getInputs().size(); j++) {
-    			if(groups.find(Arrays.asList(propNet_comps).indexOf(terminal.getInputs().toArray()[j])) != groups.find(init_index)) {
-    				groups.union(init_index, Arrays.asList(propNet_comps).indexOf(terminal.getInputs().toArray()[j]));
-    				break;
-    			}
-    		}
-    	}
-
-    	System.out.println("Excluded: " + exclude);
-
-    	//Adding in constant components
-    	for(int i = 0; i < constant_comps.size(); i++) {
-    		groups.union(Arrays.asList(propNet_comps).indexOf(constant_comps.get(i)), Arrays.asList(propNet_comps).indexOf(terminal));
-    	}
-
-    	for(int i = 0; i < propNet_comps.length; i++) {
-    		if(groups.find(i) == groups.find(terminal_index)) {
-    			result.add(propNet_comps[i]);
-    		}
-    	}
-
-    	groups.print_num_groups();
-
-    	System.out.println("Result size before adding excluded: " + result.size());
-
-    	//Adding in excluded
-    	for(Component excluded : exclude) {
-    		result.add(excluded);
-    	}
-
-    	System.out.println("Non Factored: ");
-
-    	for(int i = 0; i < propNet_comps.length; i++) {
-    		System.out.print(propNet_comps[i].getType() + ", ");
-    	}
-
-    	System.out.println("\nFactored: ");
-
-    	for(int i = 0; i < result.size(); i++) {
-    		System.out.print(result.get(i).getType() + ", ");
-    	}
-
-    	System.out.println(groups.toString());
-    	//propNet.renderToFile("bestbal");
-    	propNet = new PropNet(getRoles(), new HashSet<Component>(result));
-    	System.out.println("Result size: " + result.size());
-
-    	result = new ArrayList<Component>(new HashSet<Component>(result));
-    	System.out.println("Result size: " + result.size());
-    	System.out.println("Components size: " + propNet_comps.length);
-    	//System.exit(0);
-    	return result;
-    }
-
     /**
      * This should compute the topological ordering of propositions.
      * Each component is either a proposition, logical gate, or transition.
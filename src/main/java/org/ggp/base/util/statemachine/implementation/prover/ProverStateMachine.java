@@ -1,7 +1,10 @@
 package org.ggp.base.util.statemachine.implementation.prover;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -15,6 +18,7 @@ import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateSummary;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
@@ -112,18 +116,123 @@ public class ProverStateMachine extends StateMachine
     public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
     {
         Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getNextQuery(), ProverQueryBuilder.getContext(state, getRoles(), moves));
+        MachineState nextState = toNextState(results);
+        if (nextState == null)
+        {
+            throw new TransitionDefinitionException(state, moves);
+        }
+        return nextState;
+    }
 
+    /**
+     * Returns the state made of the given next results, or null if any of
+     * them isn't ground.
+     */
+    private static MachineState toNextState(Set<GdlSentence> results)
+    {
         for (GdlSentence sentence : results)
         {
             if (!sentence.isGround())
             {
-                throw new TransitionDefinitionException(state, moves);
+                return null;
             }
         }
 
         return new ProverResultParser().toState(results);
     }
 
+    /**
+     * Answers the terminal, legal and goal queries for the state in one
+     * batch, which shares the proofs of their common subgoals, and asks for
+     * the legal moves and goals of all roles at once rather than one role at
+     * a time. Later calls to getNextState for the same state can also reuse
+     * the subgoals proved here that don't depend on the moves.
+     */
+    @Override
+    public StateSummary getStateSummary(MachineState state)
+    {
+        return getStateSummary(state, ImmutableList.<List<Move>>of());
+    }
+
+    /**
+     * Like {@link #getStateSummary(MachineState)}, and then answers the next
+     * query for each joint move right away. Each joint move needs its own
+     * context, but the prover keeps the answers for the state's subgoals
+     * between contexts that differ only in their moves, so the next queries
+     * reuse what the summary queries proved.
+     */
+    @Override
+    public StateSummary getStateSummary(MachineState state, List<List<Move>> jointMoves)
+    {
+        List<Set<GdlSentence>> results = prover.askAll(ImmutableList.<GdlSentence>of(
+                ProverQueryBuilder.getTerminalQuery(),
+                ProverQueryBuilder.getLegalQuery(),
+                ProverQueryBuilder.getGoalQuery()),
+                ProverQueryBuilder.getContext(state));
+        boolean terminal = !results.get(0).isEmpty();
+
+        Map<Role, Integer> roleIndices = getRoleIndices();
+        List<List<Move>> legalMoves = new ArrayList<List<Move>>(roles.size());
+        for (int i = 0; i < roles.size(); i++)
+        {
+            legalMoves.add(new ArrayList<Move>());
+        }
+        for (GdlSentence legal : results.get(1))
+        {
+            Integer index = getRoleIndex(roleIndices, legal);
+            if (index != null)
+            {
+                legalMoves.get(index).add(new Move(legal.get(1)));
+            }
+        }
+
+        Integer[] goals = new Integer[roles.size()];
+        int[] numGoals = new int[roles.size()];
+        boolean[] invalid = new boolean[roles.size()];
+        for (GdlSentence goal : results.get(2))
+        {
+            Integer index = getRoleIndex(roleIndices, goal);
+            if (index != null)
+            {
+                numGoals[index]++;
+                try
+                {
+                    goals[index] = Integer.parseInt(goal.get(1).toString());
+                }
+                catch (NumberFormatException e)
+                {
+                    invalid[index] = true;
+                }
+            }
+        }
+        for (int i = 0; i < roles.size(); i++)
+        {
+            // Like getGoal, only accept exactly one goal value per role,
+            // and only if it is a number
+            if (numGoals[i] != 1 || invalid[i])
+            {
+                goals[i] = null;
+            }
+        }
+
+        Map<List<Move>, MachineState> nextStates = new HashMap<List<Move>, MachineState>();
+        for (List<Move> jointMove : jointMoves)
+        {
+            nextStates.put(jointMove, toNextState(prover.askAll(ProverQueryBuilder.getNextQuery(), ProverQueryBuilder.getContext(state, roles, jointMove))));
+        }
+
+        return new StateSummary(state, roleIndices, terminal, legalMoves, goals, nextStates);
+    }
+
+    private static Integer getRoleIndex(Map<Role, Integer> roleIndices, GdlSentence sentence)
+    {
+        if (!(sentence.get(0) instanceof GdlConstant))
+        {
+            return null;
+        }
+        return roleIndices.get(new Role((GdlConstant) sentence.get(0)));
+    }
+
     @Override
     public List<Role> getRoles()
     {
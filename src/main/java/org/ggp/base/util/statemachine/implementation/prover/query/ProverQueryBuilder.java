@@ -10,7 +10,6 @@ import org.ggp.base.util.gdl.grammar.GdlProposition;
 import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
-import org.ggp.base.util.gdl.grammar.GdlVariable;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -19,15 +18,12 @@ import org.ggp.base.util.statemachine.Role;
 public final class ProverQueryBuilder
 {
 
-    private final static GdlConstant DOES = GdlPool.getConstant("does");
-    private final static GdlConstant GOAL = GdlPool.getConstant("goal");
-    private final static GdlRelation INIT_QUERY = GdlPool.getRelation(GdlPool.getConstant("init"), new GdlTerm[] { GdlPool.getVariable("?x") });
-    private final static GdlConstant INPUT = GdlPool.getConstant("input");
-    private final static GdlConstant LEGAL = GdlPool.getConstant("legal");
-    private final static GdlRelation NEXT_QUERY = GdlPool.getRelation(GdlPool.getConstant("next"), new GdlTerm[] { GdlPool.getVariable("?x") });
-    private final static GdlRelation ROLE_QUERY = GdlPool.getRelation(GdlPool.getConstant("role"), new GdlTerm[] { GdlPool.getVariable("?x") });
-    private final static GdlProposition TERMINAL_QUERY = GdlPool.getProposition(GdlPool.getConstant("terminal"));
-    private final static GdlVariable VARIABLE = GdlPool.getVariable("?x");
+    // Only keyword constants are kept here. Other Gdl would go stale if the
+    // GdlPool were drained, so queries are looked up in the pool every time.
+    private final static GdlConstant DOES = GdlPool.DOES;
+    private final static GdlConstant GOAL = GdlPool.GOAL;
+    private final static GdlConstant INPUT = GdlPool.INPUT;
+    private final static GdlConstant LEGAL = GdlPool.LEGAL;
 
     public static Set<GdlSentence> getContext(MachineState state)
     {
@@ -46,37 +42,53 @@ public final class ProverQueryBuilder
 
     public static GdlRelation getGoalQuery(Role role)
     {
-        return GdlPool.getRelation(GOAL, new GdlTerm[] { role.getName(), VARIABLE });
+        return GdlPool.getRelation(GOAL, new GdlTerm[] { role.getName(), GdlPool.getVariable("?x") });
+    }
+
+    /**
+     * Returns a query for the goal values of every role.
+     */
+    public static GdlRelation getGoalQuery()
+    {
+        return GdlPool.getRelation(GOAL, new GdlTerm[] { GdlPool.getVariable("?r"), GdlPool.getVariable("?x") });
     }
 
     public static GdlRelation getInitQuery()
     {
-        return INIT_QUERY;
+        return GdlPool.getRelation(GdlPool.INIT, new GdlTerm[] { GdlPool.getVariable("?x") });
     }
 
     public static GdlRelation getInputQuery(Role role)
     {
-        return GdlPool.getRelation(INPUT, new GdlTerm[] { role.getName(), VARIABLE });
+        return GdlPool.getRelation(INPUT, new GdlTerm[] { role.getName(), GdlPool.getVariable("?x") });
     }
 
     public static GdlRelation getLegalQuery(Role role)
     {
-        return GdlPool.getRelation(LEGAL, new GdlTerm[] { role.getName(), VARIABLE });
+        return GdlPool.getRelation(LEGAL, new GdlTerm[] { role.getName(), GdlPool.getVariable("?x") });
+    }
+
+    /**
+     * Returns a query for the legal moves of every role.
+     */
+    public static GdlRelation getLegalQuery()
+    {
+        return GdlPool.getRelation(LEGAL, new GdlTerm[] { GdlPool.getVariable("?r"), GdlPool.getVariable("?x") });
     }
 
     public static GdlRelation getNextQuery()
     {
-        return NEXT_QUERY;
+        return GdlPool.getRelation(GdlPool.NEXT, new GdlTerm[] { GdlPool.getVariable("?x") });
     }
 
     public static GdlRelation getRoleQuery()
     {
-        return ROLE_QUERY;
+        return GdlPool.getRelation(GdlPool.ROLE, new GdlTerm[] { GdlPool.getVariable("?x") });
     }
 
     public static GdlProposition getTerminalQuery()
     {
-        return TERMINAL_QUERY;
+        return GdlPool.getProposition(GdlPool.TERMINAL);
     }
 
     public static GdlRelation toDoes(Role role, Move move)
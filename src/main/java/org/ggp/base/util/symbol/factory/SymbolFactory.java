@@ -1,12 +1,12 @@
 package org.ggp.base.util.symbol.factory;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
+import org.ggp.base.util.symbol.factory.SymbolTokenizer.Token;
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
 import org.ggp.base.util.symbol.grammar.Symbol;
-import org.ggp.base.util.symbol.grammar.SymbolAtom;
 import org.ggp.base.util.symbol.grammar.SymbolList;
 import org.ggp.base.util.symbol.grammar.SymbolPool;
 
@@ -17,9 +17,12 @@ public final class SymbolFactory
     {
         try
         {
-            String preprocessed = preprocess(string);
-            List<String> tokens = lex(preprocessed);
-            return convert(new LinkedList<String>(tokens));
+            Symbol symbol = create(new SymbolTokenizer(string));
+            if (symbol == null)
+            {
+                throw new SymbolFormatException(string);
+            }
+            return symbol;
         }
         catch (Exception e)
         {
@@ -27,58 +30,46 @@ public final class SymbolFactory
         }
     }
 
-    /* Private, implementation-specific methods below here */
-
-    private static Symbol convert(LinkedList<String> tokens)
+    /**
+     * Reads the next symbol from the tokenizer, or returns null if there are
+     * no more symbols in its input.
+     */
+    public static Symbol create(SymbolTokenizer tokens) throws SymbolFormatException, IOException
     {
-        if (tokens.getFirst().equals("("))
-        {
-            return convertList(tokens);
-        }
-        else
+        Token token = tokens.next();
+        if (token == Token.END)
         {
-            return convertAtom(tokens);
+            return null;
         }
+        return convert(tokens, token);
     }
 
-    private static SymbolAtom convertAtom(LinkedList<String> tokens)
-    {
-        return SymbolPool.getAtom(tokens.removeFirst());
-    }
+    /* Private, implementation-specific methods below here */
 
-    private static SymbolList convertList(LinkedList<String> tokens)
+    private static Symbol convert(SymbolTokenizer tokens, Token token) throws SymbolFormatException, IOException
     {
-        List<Symbol> contents = new ArrayList<Symbol>();
-
-        tokens.removeFirst();
-        while (!tokens.getFirst().equals(")"))
+        if (token == Token.ATOM)
         {
-            contents.add(convert(tokens));
+            return tokens.getAtom();
         }
-        tokens.removeFirst();
-
-        return SymbolPool.getList(contents);
-    }
-
-    private static List<String> lex(String string)
-    {
-        List<String> tokens = new ArrayList<String>();
-        for (String token : string.split(" "))
+        else if (token == Token.OPEN)
         {
-            tokens.add(token);
+            return convertList(tokens);
         }
-
-        return tokens;
+        throw tokens.getUnexpectedTokenException(token);
     }
 
-    private static String preprocess(String string)
+    private static SymbolList convertList(SymbolTokenizer tokens) throws SymbolFormatException, IOException
     {
-        string = string.replaceAll("\\(", " ( ");
-        string = string.replaceAll("\\)", " ) ");
+        List<Symbol> contents = new ArrayList<Symbol>();
 
-        string = string.replaceAll("\\s+", " ");
-        string = string.trim();
+        Token token = tokens.next();
+        while (token != Token.CLOSE)
+        {
+            contents.add(convert(tokens, token));
+            token = tokens.next();
+        }
 
-        return string;
+        return SymbolPool.getList(contents);
     }
 }
\ No newline at end of file
@@ -0,0 +1,318 @@
+package org.ggp.base.util.symbol.factory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+import org.ggp.base.util.symbol.grammar.SymbolAtom;
+import org.ggp.base.util.symbol.grammar.SymbolPool;
+
+/**
+ * Splits symbolic expressions into parentheses and atoms in a single pass,
+ * reading directly from a CharSequence, a Reader or a ByteBuffer.
+ *
+ * Atoms are returned as pooled {@link SymbolAtom}s. The tokenizer keeps its
+ * own table of the atoms it has seen, looked up by their characters, so an
+ * atom that appears many times only has a String made for it once. As in
+ * {@link SymbolFactory}, an atom is any run of characters other than
+ * whitespace and parentheses.
+ *
+ * A tokenizer is meant to be used by a single thread.
+ */
+public final class SymbolTokenizer
+{
+    public enum Token {
+        OPEN,
+        CLOSE,
+        ATOM,
+        END
+    }
+
+    private final Source source;
+    private int lookahead = -2;
+    private long position = 0;
+
+    private char[] atomChars = new char[64];
+    private int atomLength = 0;
+    private SymbolAtom atom = null;
+
+    private SymbolAtom[] atomTable = new SymbolAtom[256];
+    private int numAtoms = 0;
+
+    public SymbolTokenizer(CharSequence chars)
+    {
+        this.source = new CharSequenceSource(chars);
+    }
+
+    public SymbolTokenizer(Reader reader)
+    {
+        this.source = new ReaderSource(reader);
+    }
+
+    public SymbolTokenizer(ByteBuffer bytes, Charset charset)
+    {
+        this.source = new ByteBufferSource(bytes, charset);
+    }
+
+    /**
+     * Reads the next token. After an {@link Token#ATOM}, the atom read is
+     * returned by {@link #getAtom()}.
+     */
+    public Token next() throws IOException
+    {
+        int c = read();
+        while (isWhitespace(c))
+        {
+            c = read();
+        }
+
+        if (c == -1)
+        {
+            return Token.END;
+        }
+        else if (c == '(')
+        {
+            return Token.OPEN;
+        }
+        else if (c == ')')
+        {
+            return Token.CLOSE;
+        }
+
+        atomLength = 0;
+        while (c != -1 && c != '(' && c != ')' && !isWhitespace(c))
+        {
+            if (atomLength == atomChars.length)
+            {
+                char[] newChars = new char[atomChars.length * 2];
+                System.arraycopy(atomChars, 0, newChars, 0, atomLength);
+                atomChars = newChars;
+            }
+            atomChars[atomLength++] = (char) c;
+            c = read();
+        }
+        // Whatever ended the atom is the start of the next token
+        lookahead = c;
+        atom = lookUpAtom();
+        return Token.ATOM;
+    }
+
+    /**
+     * Returns the atom most recently read by {@link #next()}.
+     */
+    public SymbolAtom getAtom()
+    {
+        return atom;
+    }
+
+    /**
+     * Returns the number of characters read so far.
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Returns an exception describing an unexpected token at the current
+     * position in the input.
+     */
+    public SymbolFormatException getUnexpectedTokenException(Token token)
+    {
+        String found = (token == Token.ATOM) ? atom.getValue() : token.toString();
+        return new SymbolFormatException("Unexpected " + found + " at character " + position);
+    }
+
+    private int read() throws IOException
+    {
+        int c;
+        if (lookahead != -2)
+        {
+            c = lookahead;
+            lookahead = -2;
+        }
+        else
+        {
+            c = source.read();
+            if (c != -1)
+            {
+                position++;
+            }
+        }
+        return c;
+    }
+
+    // Matches the \s character class that SymbolFactory has always split on
+    private static boolean isWhitespace(int c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+    }
+
+    private SymbolAtom lookUpAtom()
+    {
+        // Same hash as String.hashCode, so it can be checked against entries
+        int hash = 0;
+        for (int i = 0; i < atomLength; i++)
+        {
+            hash = 31 * hash + atomChars[i];
+        }
+
+        int mask = atomTable.length - 1;
+        int index = mix(hash) & mask;
+        SymbolAtom entry;
+        while ((entry = atomTable[index]) != null)
+        {
+            String value = entry.getValue();
+            if (value.hashCode() == hash && matchesAtomChars(value))
+            {
+                return entry;
+            }
+            index = (index + 1) & mask;
+        }
+
+        SymbolAtom newAtom = SymbolPool.getAtom(new String(atomChars, 0, atomLength));
+        atomTable[index] = newAtom;
+        numAtoms++;
+        if (numAtoms * 2 > atomTable.length)
+        {
+            growAtomTable();
+        }
+        return newAtom;
+    }
+
+    private boolean matchesAtomChars(String value)
+    {
+        if (value.length() != atomLength)
+        {
+            return false;
+        }
+        for (int i = 0; i < atomLength; i++)
+        {
+            if (value.charAt(i) != atomChars[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growAtomTable()
+    {
+        SymbolAtom[] oldTable = atomTable;
+        atomTable = new SymbolAtom[oldTable.length * 2];
+        int mask = atomTable.length - 1;
+        for (SymbolAtom entry : oldTable)
+        {
+            if (entry != null)
+            {
+                int index = mix(entry.getValue().hashCode()) & mask;
+                while (atomTable[index] != null)
+                {
+                    index = (index + 1) & mask;
+                }
+                atomTable[index] = entry;
+            }
+        }
+    }
+
+    private static int mix(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static abstract class Source
+    {
+        /** Returns the next character, or -1 at the end of the input. */
+        public abstract int read() throws IOException;
+    }
+
+    private static final class CharSequenceSource extends Source
+    {
+        private final CharSequence chars;
+        private int index = 0;
+
+        public CharSequenceSource(CharSequence chars)
+        {
+            this.chars = chars;
+        }
+
+        @Override
+        public int read()
+        {
+            return (index < chars.length()) ? chars.charAt(index++) : -1;
+        }
+    }
+
+    private static final class ReaderSource extends Source
+    {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int index = 0;
+        private int length = 0;
+
+        public ReaderSource(Reader reader)
+        {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            while (index == length)
+            {
+                length = reader.read(buffer);
+                index = 0;
+                if (length == -1)
+                {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[index++];
+        }
+    }
+
+    private static final class ByteBufferSource extends Source
+    {
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+        private boolean flushed = false;
+
+        public ByteBufferSource(ByteBuffer bytes, Charset charset)
+        {
+            // Read from a view, so the caller's position is left alone
+            this.bytes = bytes.duplicate();
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            chars.flip();
+        }
+
+        @Override
+        public int read()
+        {
+            while (!chars.hasRemaining())
+            {
+                if (flushed)
+                {
+                    return -1;
+                }
+                chars.clear();
+                decoder.decode(bytes, chars, true);
+                if (!bytes.hasRemaining())
+                {
+                    decoder.flush(chars);
+                    flushed = true;
+                }
+                chars.flip();
+            }
+            return chars.get();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.ggp.base.apps.server.scheduling;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.player.GamePlayer;
+import org.ggp.base.player.event.PlayerReceivedMessageEvent;
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.observer.Event;
+import org.ggp.base.util.observer.Observer;
+import org.ggp.base.util.presence.PlayerPresence;
+import org.ggp.base.util.propnet.cache.PropNetCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import external.JSON.JSONObject;
+
+public class TournamentRunnerTest extends Assert {
+    private final List<GamePlayer> gamePlayers = new ArrayList<GamePlayer>();
+    private final List<PlayerPresence> players = new ArrayList<PlayerPresence>();
+    private final List<MatchTracker> trackers = new ArrayList<MatchTracker>();
+    private File resultsFile;
+    private File propNetCacheDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            GamePlayer gamePlayer = new GamePlayer(9350 + 10 * i, new RandomGamer());
+            MatchTracker tracker = new MatchTracker();
+            gamePlayer.addObserver(tracker);
+            gamePlayer.start();
+            gamePlayers.add(gamePlayer);
+            trackers.add(tracker);
+            players.add(new PlayerPresence("127.0.0.1", gamePlayer.getGamerPort()));
+        }
+        resultsFile = File.createTempFile("tournament", ".results");
+        propNetCacheDirectory = Files.createTempDirectory("propnetcache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (GamePlayer gamePlayer : gamePlayers) {
+            gamePlayer.shutdown();
+        }
+        resultsFile.delete();
+        File[] cached = propNetCacheDirectory.listFiles();
+        if (cached != null) {
+            for (File file : cached) {
+                file.delete();
+            }
+        }
+        propNetCacheDirectory.delete();
+    }
+
+    @Test
+    public void testRunsMatchesConcurrently() throws Exception {
+        TournamentRunner runner = new TournamentRunner(2, resultsFile);
+        runner.setPropNetCache(new PropNetCache(propNetCacheDirectory));
+        int[][] pairings = {{0, 1}, {2, 3}, {0, 2}, {1, 3}, {0, 3}, {1, 2}};
+        List<PendingMatch> specs = new ArrayList<PendingMatch>();
+        for (int[] pairing : pairings) {
+            specs.add(newMatch(pairing[0], pairing[1]));
+        }
+        runner.runAll(specs);
+        runner.shutdown();
+
+        assertEquals(6, runner.getNumCompleted());
+        assertEquals(0, runner.getNumFailed());
+        for (MatchTracker tracker : trackers) {
+            assertEquals(3, tracker.getNumMatches());
+            assertEquals(1, tracker.getMaxConcurrentMatches());
+        }
+
+        List<String> lines = Files.readAllLines(resultsFile.toPath(), Charset.forName("UTF-8"));
+        assertEquals(6, lines.size());
+        Set<String> matchIds = new HashSet<String>();
+        for (String line : lines) {
+            JSONObject result = new JSONObject(line);
+            matchIds.add(result.getString("matchId"));
+            assertTrue(result.getBoolean("isCompleted"));
+            assertEquals(2, result.getJSONArray("goalValues").length());
+            assertEquals(2, result.getJSONArray("players").length());
+            assertEquals(Arrays.asList(0, 0), Arrays.asList(result.getJSONArray("errorCounts").getInt(0), result.getJSONArray("errorCounts").getInt(1)));
+        }
+        assertEquals(6, matchIds.size());
+
+        // The propnet was built once and kept for later tournaments
+        PropNetCache cache = new PropNetCache(propNetCacheDirectory);
+        assertTrue(cache.getFile(new TestGameRepository().getGame("ticTacToe").getRules()).exists());
+    }
+
+    @Test
+    public void testWaitsForUnavailablePlayers() throws Exception {
+        TournamentRunner runner = new TournamentRunner(2, resultsFile);
+        runner.setPropNetCache(new PropNetCache(propNetCacheDirectory));
+        runner.setPlayerAvailable(players.get(3), false);
+        runner.addPendingMatch(newMatch(2, 3));
+        runner.addPendingMatch(newMatch(0, 1));
+
+        // The second match goes ahead of the first, which has to wait
+        long giveUpAt = System.currentTimeMillis() + 30000;
+        while (runner.getNumCompleted() < 1 && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, runner.getNumCompleted());
+        assertEquals(1, runner.getNumQueued());
+        assertEquals(0, trackers.get(3).getNumMatches());
+
+        runner.setPlayerAvailable(players.get(3), true);
+        runner.awaitCompletion();
+        runner.shutdown();
+        assertEquals(2, runner.getNumCompleted());
+        assertEquals(1, trackers.get(3).getNumMatches());
+    }
+
+    @Test
+    public void testRejectsMatchThatCanNeverRun() throws Exception {
+        TournamentRunner runner = new TournamentRunner(2, null);
+        try {
+            runner.addPendingMatch(newMatch(0, 0));
+            fail("Expected a player in two roles to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        runner.shutdown();
+    }
+
+    private PendingMatch newMatch(int first, int second) {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        return new PendingMatch("Test", game, Arrays.asList(players.get(first), players.get(second)), -1, 3, 2, false, true, false, false, false);
+    }
+
+    /**
+     * Counts the matches a player is asked to play, and how many it is in
+     * at once, from the messages it receives.
+     */
+    private static final class MatchTracker implements Observer {
+        private final Set<String> activeMatches = new HashSet<String>();
+        private int numMatches;
+        private int maxConcurrentMatches;
+
+        @Override
+        public synchronized void observe(Event event) {
+            if (!(event instanceof PlayerReceivedMessageEvent)) {
+                return;
+            }
+            String[] message = ((PlayerReceivedMessageEvent) event).getMessage().replace("(", " ").trim().split("\\s+");
+            String type = message[0].toUpperCase();
+            if (type.equals("START")) {
+                activeMatches.add(message[1]);
+                numMatches++;
+                maxConcurrentMatches = Math.max(maxConcurrentMatches, activeMatches.size());
+            } else if (type.equals("STOP") || type.equals("ABORT")) {
+                activeMatches.remove(message[1]);
+            }
+        }
+
+        synchronized int getNumMatches() {
+            return numMatches;
+        }
+
+        synchronized int getMaxConcurrentMatches() {
+            return maxConcurrentMatches;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MctsSearchTest extends Assert {
+
+    private final List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+
+    @Test
+    public void testTreeParallelFindsWinningMove() throws Exception {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine();
+        machine.initialize(rules);
+        List<StateMachine> machines = new ArrayList<StateMachine>();
+        machines.add(machine);
+        machines.add(machine.createView());
+        machines.add(machine.createView());
+        assertFindsWinningMove(new MctsSearch(machines, MctsSearch.Parallelism.TREE));
+    }
+
+    @Test
+    public void testRootParallelFindsWinningMove() throws Exception {
+        List<StateMachine> machines = new ArrayList<StateMachine>();
+        for (int i = 0; i < 2; i++) {
+            StateMachine machine = new ProverStateMachine();
+            machine.initialize(rules);
+            machines.add(machine);
+        }
+        assertFindsWinningMove(new MctsSearch(machines, MctsSearch.Parallelism.ROOT));
+    }
+
+    @Test
+    public void testReusesSubtreeOfPlayedMove() throws Exception {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine();
+        machine.initialize(rules);
+        MctsSearch search = new MctsSearch(Arrays.asList(machine), MctsSearch.Parallelism.TREE);
+        MctsNode root = search.search(machine.getInitialState(), System.currentTimeMillis() + 300);
+        long nodesBefore = search.getNodePool().getNodeCount();
+        // The root is counted along with the nodes added under it
+        assertEquals(countNodes(root), nodesBefore);
+
+        MctsNode played = null;
+        for (MctsNode child : root.getChildren()) {
+            if (played == null || child.getVisits() > played.getVisits()) {
+                played = child;
+            }
+        }
+        int visitsBefore = played.getVisits();
+        long nodesKept = countNodes(played);
+        MctsNode newRoot = search.search(played.getState(), System.currentTimeMillis() + 100);
+        assertSame(played, newRoot);
+        assertTrue(newRoot.getVisits() > visitsBefore);
+        assertEquals(nodesBefore - nodesKept, search.getNodePool().getNodesFreed());
+        assertEquals(0, search.getNodePool().getNodesEvicted());
+        search.shutdown();
+    }
+
+    @Test
+    public void testStaysWithinMemoryBudget() throws Exception {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine();
+        machine.initialize(new TestGameRepository().getGame("connectFour").getRules());
+        MctsSearch search = new MctsSearch(Arrays.asList(machine), MctsSearch.Parallelism.TREE);
+        long budget = 100000;
+        search.setMemoryBudget(budget);
+        MctsNodePool pool = search.getNodePool();
+
+        search.search(machine.getInitialState(), System.currentTimeMillis() + 300);
+        long slack = 1000;
+        assertTrue(pool.getEstimatedBytes() >= budget);
+        assertTrue(pool.getEstimatedBytes() < budget + slack);
+        long iterations = search.getIterations();
+
+        MctsNode root = search.search(machine.getInitialState(), System.currentTimeMillis() + 300);
+        assertTrue(pool.getNodesEvicted() > 0);
+        assertTrue(pool.getEstimatedBytes() < budget + slack);
+        assertTrue(search.getIterations() > iterations);
+        assertEquals(search.getIterations(), root.getVisits());
+        search.shutdown();
+    }
+
+    private void assertFindsWinningMove(MctsSearch search) throws Exception {
+        try {
+            // X has two in the top row, and O has two in the middle row.
+            StateMachine machine = new ProverStateMachine();
+            machine.initialize(rules);
+            Move noop = Move.create("noop");
+            MachineState state = machine.getInitialState();
+            state = machine.getNextState(state, Arrays.asList(Move.create("( mark 1 1 )"), noop));
+            state = machine.getNextState(state, Arrays.asList(noop, Move.create("( mark 2 1 )")));
+            state = machine.getNextState(state, Arrays.asList(Move.create("( mark 1 2 )"), noop));
+            state = machine.getNextState(state, Arrays.asList(noop, Move.create("( mark 2 2 )")));
+
+            MctsNode root = search.search(state, System.currentTimeMillis() + 1000);
+            assertEquals(Move.create("( mark 1 3 )"), root.getBestMove(0));
+            assertTrue(root.getVisits() > 0);
+            assertEquals(search.getIterations(), root.getVisits());
+            int winningMove = root.indexOf(0, Move.create("( mark 1 3 )"));
+            assertEquals(100.0, root.getMeanUtility(0, winningMove), 0.0);
+        } finally {
+            search.shutdown();
+        }
+    }
+
+    private static long countNodes(MctsNode node) {
+        long count = 1;
+        for (MctsNode child : node.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,45 @@
+package org.ggp.base.player.gamer.statemachine.sample;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SampleGamerTest extends Assert {
+    private static final class ThreadedGamer extends SampleGamer {
+        @Override
+        public StateMachine getInitialStateMachine() {
+            return new CachedStateMachine(new ProverStateMachine());
+        }
+
+        @Override
+        public Move stateMachineSelectMove(long timeout) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testBuildsThreadStateMachinesWithinTimeout() throws Exception {
+        ThreadedGamer gamer = new ThreadedGamer();
+        gamer.setMatch(new Match("", -1, 1000, 1000, new TestGameRepository().getGame("ticTacToe"), ""));
+        gamer.setRoleName(GdlPool.getConstant("xplayer"));
+        gamer.metaGame(System.currentTimeMillis() + 10000);
+
+        List<StateMachine> machines = gamer.createThreadStateMachines(3, System.currentTimeMillis() + 10000);
+        assertEquals(3, machines.size());
+        assertSame(gamer.getStateMachine(), machines.get(0));
+        assertNotSame(machines.get(1), machines.get(2));
+
+        // With no time left, the gamer makes do with its own machine
+        machines = gamer.createThreadStateMachines(3, System.currentTimeMillis());
+        assertEquals(1, machines.size());
+        assertSame(gamer.getStateMachine(), machines.get(0));
+    }
+}
@@ -1,47 +1,85 @@
 package org.ggp.base.test;
 
 import org.ggp.base.apps.logging.LogSummarizerTest;
+import org.ggp.base.apps.server.scheduling.TournamentRunnerTest;
 import org.ggp.base.apps.tiltyard.TiltyardRequestFarmTest;
 import org.ggp.base.player.gamer.clojure.ClojureGamerTest;
 import org.ggp.base.player.gamer.python.PythonGamerTest;
+import org.ggp.base.player.gamer.statemachine.mcts.MctsSearchTest;
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamerTest;
 import org.ggp.base.util.crypto.BaseCryptographyTest;
 import org.ggp.base.util.crypto.BaseHashingTest;
 import org.ggp.base.util.crypto.CanonicalJSONTest;
 import org.ggp.base.util.crypto.SignableJSONTest;
 import org.ggp.base.util.game.GameParsingTest;
+import org.ggp.base.util.gdl.factory.GdlReaderTest;
+import org.ggp.base.util.gdl.grammar.GdlIdMapTest;
+import org.ggp.base.util.gdl.grammar.GdlPoolTest;
 import org.ggp.base.util.gdl.model.DependencyGraphsTest;
 import org.ggp.base.util.gdl.model.SimpleSentenceFormTest;
 import org.ggp.base.util.gdl.scrambler.GdlRendererTest;
 import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
+import org.ggp.base.util.http.HttpConnectionPoolTest;
 import org.ggp.base.util.http.HttpTest;
+import org.ggp.base.util.match.AsyncMatchPublisherTest;
+import org.ggp.base.util.match.MatchJournalTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.propnet.bytecode.PropNetEvaluatorGeneratorTest;
+import org.ggp.base.util.propnet.cache.PropNetCacheTest;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactoryTest;
+import org.ggp.base.util.propnet.factory.PropNetReducerTest;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBaseTest;
+import org.ggp.base.util.statemachine.DepthChargePoolTest;
+import org.ggp.base.util.statemachine.TranspositionTableTest;
+import org.ggp.base.util.statemachine.cache.ConcurrentCachedStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachineTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
+import org.ggp.base.util.symbol.factory.SymbolFactoryTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    AsyncMatchPublisherTest.class,
     BaseCryptographyTest.class,
     BaseHashingTest.class,
     CanonicalJSONTest.class,
     ClojureGamerTest.class,
+    CompiledPropNetStateMachineTest.class,
+    ConcurrentCachedStateMachineTest.class,
     DependencyGraphsTest.class,
+    DepthChargePoolTest.class,
     GameParsingTest.class,
     GdlCleanerTest.class,
+    GdlIdMapTest.class,
+    GdlPoolTest.class,
+    GdlReaderTest.class,
     GdlRendererTest.class,
     GdlScramblerTest.class,
+    HttpConnectionPoolTest.class,
     HttpTest.class,
     InfoResponseTest.class,
+    KnowledgeBaseTest.class,
     LogSummarizerTest.class,
+    MatchJournalTest.class,
+    MctsSearchTest.class,
     NoTabsInRulesheetsTest.class,
+    OptimizingPropNetFactoryTest.class,
+    PropNetCacheTest.class,
+    PropNetEvaluatorGeneratorTest.class,
+    PropNetReducerTest.class,
     ProverStateMachineTest.class,
     PythonGamerTest.class,
+    SampleGamerTest.class,
     SignableJSONTest.class,
     SimpleSentenceFormTest.class,
     StaticValidationTest.class,
+    SymbolFactoryTest.class,
     TiltyardRequestFarmTest.class,
+    TournamentRunnerTest.class,
+    TranspositionTableTest.class,
 })
 public class AllTests {
 
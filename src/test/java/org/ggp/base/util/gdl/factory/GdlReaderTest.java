@@ -0,0 +1,62 @@
+package org.ggp.base.util.gdl.factory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.ggp.base.util.symbol.grammar.SymbolList;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GdlReaderTest extends Assert {
+    @Test
+    public void testMatchesGdlFactoryOnAllGames() throws Exception {
+        GameRepository repo = new TestGameRepository();
+        for (String gameKey : repo.getGameKeys()) {
+            Game game = repo.getGame(gameKey);
+            SymbolList symbols = (SymbolList) SymbolFactory.create(game.getRulesheet());
+            List<Gdl> expected = new ArrayList<Gdl>();
+            for (int i = 0; i < symbols.size(); i++) {
+                expected.add(GdlFactory.create(symbols.get(i)));
+            }
+            assertEquals(gameKey, expected, game.getRules());
+        }
+    }
+
+    @Test
+    public void testMatchesGdlFactoryOnKeywords() throws Exception {
+        String[] gdls = {
+                "(<= (next (cell ?x ?y b)) (TRUE (cell ?x ?y b)) (not (does ?p (mark ?x ?y))))",
+                "(<= terminal (OR (line x) (Line o) open) (DISTINCT ?x (f ?y)))",
+                "(<= (foo) (not bar extra) (distinct a b (c d)))",
+                "(role (<= a))",
+                "stop",
+                "(init (control xplayer))",
+        };
+        for (String gdl : gdls) {
+            Gdl read = new GdlReader(gdl).read();
+            assertSame(GdlFactory.create(SymbolFactory.create(gdl)), read);
+        }
+    }
+
+    @Test
+    public void testReadsOneRuleAtATime() throws Exception {
+        GdlReader reader = new GdlReader("((role x) (role o) (<= (legal ?r noop) (role ?r)))");
+        reader.enterList();
+        assertSame(GdlFactory.create("(role x)"), reader.read());
+        assertSame(GdlFactory.create("(role o)"), reader.read());
+        assertSame(GdlFactory.create("(<= (legal ?r noop) (role ?r))"), reader.read());
+        assertNull(reader.read());
+        assertNull(reader.read());
+    }
+
+    @Test(expected=GdlFormatException.class)
+    public void testListsMustBeNamed() throws Exception {
+        new GdlReader("((a) b)").read();
+    }
+}
@@ -0,0 +1,167 @@
+package org.ggp.base.util.gdl.grammar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GdlIdMapTest extends Assert {
+    private static List<GdlSentence> makeSentences(int count) {
+        List<GdlSentence> sentences = new ArrayList<GdlSentence>();
+        GdlConstant name = GdlPool.getConstant("gdlIdMapTest");
+        for (int i = 0; i < count; i++) {
+            sentences.add(GdlPool.getRelation(name, new GdlTerm[] {GdlPool.getConstant(Integer.toString(i))}));
+        }
+        return sentences;
+    }
+
+    @Test
+    public void testLiveObjectsHaveDistinctIds() throws Exception {
+        List<GdlSentence> sentences = makeSentences(1000);
+        Set<Integer> ids = new HashSet<Integer>();
+        for (GdlSentence sentence : sentences) {
+            assertTrue(ids.add(sentence.getId()));
+            assertTrue(ids.add(sentence.getBody().get(0).getId()));
+        }
+        assertEquals(sentences.get(5).getId(), makeSentences(6).get(5).getId());
+    }
+
+    @Test
+    public void testDeserializedObjectsKeepTheirIds() throws Exception {
+        List<GdlSentence> sentences = makeSentences(100);
+        GdlIdMap<GdlSentence, Integer> map = new GdlIdMap<GdlSentence, Integer>();
+        for (int i = 0; i < sentences.size(); i++) {
+            map.put(sentences.get(i), i);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new ArrayList<GdlSentence>(sentences));
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        @SuppressWarnings("unchecked")
+        List<GdlSentence> copies = (List<GdlSentence>) in.readObject();
+
+        // Deserialization hands back the pooled objects, ids and all
+        for (int i = 0; i < sentences.size(); i++) {
+            assertSame(sentences.get(i), copies.get(i));
+            assertEquals(Integer.valueOf(i), map.get(copies.get(i)));
+        }
+    }
+
+    @Test
+    public void testMatchesHashMap() throws Exception {
+        List<GdlSentence> sentences = makeSentences(500);
+        Random random = new Random(0);
+        Map<GdlSentence, Integer> expected = new HashMap<GdlSentence, Integer>();
+        GdlIdMap<GdlSentence, Integer> map = new GdlIdMap<GdlSentence, Integer>();
+        for (int i = 0; i < 20000; i++) {
+            GdlSentence sentence = sentences.get(random.nextInt(sentences.size()));
+            switch (random.nextInt(3)) {
+            case 0:
+                assertEquals(expected.put(sentence, i), map.put(sentence, i));
+                break;
+            case 1:
+                assertEquals(expected.remove(sentence), map.remove(sentence));
+                break;
+            default:
+                assertEquals(expected.get(sentence), map.get(sentence));
+                assertEquals(expected.containsKey(sentence), map.containsKey(sentence));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertNull(map.get("not a sentence"));
+    }
+
+    @Test
+    public void testRemovingWhileIterating() throws Exception {
+        List<GdlSentence> sentences = makeSentences(300);
+        Random random = new Random(1);
+        for (int trial = 0; trial < 50; trial++) {
+            GdlIdMap<GdlSentence, Integer> map = new GdlIdMap<GdlSentence, Integer>();
+            for (int i = 0; i < sentences.size(); i++) {
+                if (random.nextBoolean()) {
+                    map.put(sentences.get(i), i);
+                }
+            }
+            Map<GdlSentence, Integer> expected = new HashMap<GdlSentence, Integer>(map);
+            Set<GdlSentence> keys = new HashSet<GdlSentence>(expected.keySet());
+            Set<GdlSentence> seen = new HashSet<GdlSentence>();
+            Iterator<Map.Entry<GdlSentence, Integer>> iterator = map.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<GdlSentence, Integer> entry = iterator.next();
+                assertTrue(seen.add(entry.getKey()));
+                assertEquals(expected.get(entry.getKey()), entry.getValue());
+                if (random.nextBoolean()) {
+                    iterator.remove();
+                    expected.remove(entry.getKey());
+                }
+            }
+            assertEquals(keys, seen);
+            assertEquals(expected, map);
+        }
+    }
+
+    @Test
+    public void testRemovingWhileIteratingAcrossTheEndOfTheTable() throws Exception {
+        // Pick sentences whose ids all want the last or first few slots of a
+        // 64-slot table, so they collide and wrap around its end
+        List<GdlSentence> sentences = makeSentences(5000);
+        List<GdlSentence> clustered = new ArrayList<GdlSentence>();
+        for (GdlSentence sentence : sentences) {
+            int slot = sentence.getId() & 63;
+            if ((slot >= 60 || slot < 2) && clustered.size() < 24) {
+                clustered.add(sentence);
+            }
+        }
+        Random random = new Random(2);
+        for (int trial = 0; trial < 200; trial++) {
+            GdlIdMap<GdlSentence, Integer> map = new GdlIdMap<GdlSentence, Integer>(24);
+            for (int i = 0; i < clustered.size(); i++) {
+                map.put(clustered.get(i), i);
+            }
+            Set<GdlSentence> remaining = new HashSet<GdlSentence>(clustered);
+            Set<GdlSentence> seen = new HashSet<GdlSentence>();
+            Iterator<GdlSentence> iterator = map.keySet().iterator();
+            while (iterator.hasNext()) {
+                GdlSentence key = iterator.next();
+                assertTrue(seen.add(key));
+                if (random.nextInt(3) > 0) {
+                    iterator.remove();
+                    remaining.remove(key);
+                }
+            }
+            assertEquals(clustered.size(), seen.size());
+            assertEquals(remaining, map.keySet());
+            for (GdlSentence sentence : clustered) {
+                assertEquals(remaining.contains(sentence), map.containsKey(sentence));
+            }
+        }
+    }
+
+    @Test
+    public void testIntMap() throws Exception {
+        List<GdlSentence> sentences = makeSentences(100);
+        GdlIdIntMap<GdlSentence> map = new GdlIdIntMap<GdlSentence>(0);
+        for (int i = 0; i < sentences.size(); i += 2) {
+            map.put(sentences.get(i), i);
+        }
+        assertEquals(50, map.size());
+        for (int i = 0; i < sentences.size(); i++) {
+            assertEquals(i % 2 == 0 ? i : -1, map.get(sentences.get(i)));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.ggp.base.util.gdl.grammar;
+
+import java.lang.ref.WeakReference;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GdlPoolTest extends Assert {
+    @Test
+    public void testUnreferencedConstantsAndVariablesAreCollected() throws Exception {
+        // Sentences and rules are softly referenced by the pool, so they may
+        // stay around until memory runs low, but constants and variables go
+        // as soon as they are garbage.
+        WeakReference<GdlConstant> constant = new WeakReference<GdlConstant>(
+                GdlPool.getConstant("gdlPoolTestConstant"));
+        WeakReference<GdlVariable> variable = new WeakReference<GdlVariable>(
+                GdlPool.getVariable("?gdlPoolTestVariable"));
+        for (int i = 0; i < 50 && (constant.get() != null || variable.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(constant.get());
+        assertNull(variable.get());
+    }
+
+    @Test
+    public void testReferencedGdlIsKept() throws Exception {
+        Gdl rule = GdlFactory.create("(<= (gdlPoolTestKept ?x) (true (gdlPoolTestKept ?x)))");
+        int identity = System.identityHashCode(rule);
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Gdl sameRule = GdlFactory.create("(<= (gdlPoolTestKept ?x) (true (gdlPoolTestKept ?x)))");
+        assertSame(rule, sameRule);
+        assertEquals(identity, System.identityHashCode(sameRule));
+    }
+
+    @Test
+    public void testKeywordsSurviveCollection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        assertSame(GdlPool.TRUE, GdlPool.getConstant("true"));
+        assertSame(GdlPool.TRUE, GdlPool.getConstant("TRUE"));
+        assertSame(GdlPool.DOES, GdlPool.getConstant("does"));
+        assertSame(GdlPool.UNDERSCORE, GdlPool.getConstant("_"));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        GdlPoolStatistics.PoolStatistics before = GdlPool.getStatistics().getPools().get("relation");
+        GdlConstant name = GdlPool.getConstant("gdlPoolTestStatistics");
+        GdlRelation relation = GdlPool.getRelation(name, new GdlTerm[] {name});
+        for (int i = 0; i < 10; i++) {
+            assertSame(relation, GdlPool.getRelation(name, new GdlTerm[] {name}));
+        }
+        GdlPoolStatistics statistics = GdlPool.getStatistics();
+        GdlPoolStatistics.PoolStatistics after = statistics.getPools().get("relation");
+        // Other threads may be using the pool too, so only lower bounds hold
+        assertTrue(after.getHits() >= before.getHits() + 10);
+        assertTrue(after.getHits() + after.getMisses() >= before.getHits() + before.getMisses() + 11);
+        assertTrue(after.getSize() > 0);
+        assertTrue(after.getHitRate() > 0.0);
+        assertTrue(statistics.getTotalSize() >= after.getSize());
+        assertTrue(statistics.toString().contains("relation: "));
+    }
+}
@@ -0,0 +1,216 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpConnectionPoolTest extends Assert {
+    private EchoPlayer player;
+
+    @After
+    public void tearDown() throws IOException {
+        if (player != null) {
+            player.shutdown();
+        }
+    }
+
+    @Test
+    public void testReusesKeepAliveConnections() throws IOException {
+        player = new EchoPlayer(true, false);
+        HttpConnectionPool pool = new HttpConnectionPool();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("ping " + i, pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "ping " + i, 5000));
+        }
+        assertEquals(1, player.getNumConnections());
+        assertEquals(1, pool.getNumConnectionsOpened());
+        assertEquals(4, pool.getNumConnectionsReused());
+        pool.closeIdleConnections();
+    }
+
+    @Test
+    public void testClosesConnectionsWithoutKeepAlive() throws IOException {
+        player = new EchoPlayer(false, true);
+        HttpConnectionPool pool = new HttpConnectionPool();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("ping " + i, pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "ping " + i, 5000));
+        }
+        assertEquals(3, player.getNumConnections());
+        assertEquals(0, pool.getNumConnectionsReused());
+    }
+
+    @Test
+    public void testReconnectsAfterPlayerClosesIdleConnection() throws Exception {
+        // Claims to keep the connection alive, but closes it anyway
+        player = new EchoPlayer(true, true);
+        HttpConnectionPool pool = new HttpConnectionPool();
+        assertEquals("first", pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "first", 5000));
+        Thread.sleep(100);
+        assertEquals("second", pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "second", 5000));
+        assertEquals(2, player.getNumConnections());
+        assertEquals(0, pool.getNumConnectionsReused());
+    }
+
+    @Test
+    public void testRetriesWhenPlayerClosesReusedConnection() throws Exception {
+        // Takes the second request on each connection, then closes it
+        // without answering, as if it had timed the connection out just
+        // as the request arrived
+        player = new EchoPlayer(true, false);
+        player.setMaxResponsesPerConnection(1);
+        HttpConnectionPool pool = new HttpConnectionPool();
+        assertEquals("first", pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "first", 5000));
+        RequestLatency latency = new RequestLatency();
+        assertEquals("second", pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "second", 5000, null, latency));
+        assertFalse(latency.isReusedConnection());
+        assertEquals(2, player.getNumConnections());
+        assertEquals(2, pool.getNumConnectionsOpened());
+        assertEquals(1, pool.getNumConnectionsReused());
+        pool.closeIdleConnections();
+    }
+
+    @Test
+    public void testMeasuresLatency() throws IOException {
+        player = new EchoPlayer(true, false);
+        player.setThinkTime(200);
+        HttpConnectionPool pool = new HttpConnectionPool();
+        RequestLatency first = new RequestLatency();
+        assertEquals("first", pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "first", 5000, null, first));
+        assertFalse(first.isReusedConnection());
+        assertTrue(first.getThinkTime() >= 150);
+        assertTrue(first.getOverheadTime() < first.getThinkTime());
+
+        RequestLatency second = new RequestLatency();
+        assertEquals("second", pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "second", 5000, null, second));
+        assertTrue(second.isReusedConnection());
+        assertEquals(second.getConnectTime() + second.getSendTime() + second.getThinkTime() + second.getReceiveTime(), second.getTotalTime());
+        pool.closeIdleConnections();
+
+        // A timed out request spent all of its time waiting for the player
+        RequestLatency timedOut = new RequestLatency();
+        try {
+            pool.issueRequest("127.0.0.1", player.getPort(), "SamplePlayer", "third", 100, null, timedOut);
+            fail("Expected the request to time out");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        assertTrue(timedOut.getThinkTime() >= 50);
+        assertEquals(0, timedOut.getReceiveTime());
+    }
+
+    @Test
+    public void testTimesOutAtDeadline() throws IOException {
+        ServerSocket silentPlayer = new ServerSocket(0);
+        try {
+            HttpConnectionPool pool = new HttpConnectionPool();
+            long start = System.currentTimeMillis();
+            try {
+                pool.issueRequest("127.0.0.1", silentPlayer.getLocalPort(), "SamplePlayer", "ping", 200);
+                fail("Expected the request to time out");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(elapsed >= 150);
+            assertTrue(elapsed < 3000);
+        } finally {
+            silentPlayer.close();
+        }
+    }
+
+    /**
+     * A player that echoes every request back, on as many connections at
+     * once as it is given, and counts the connections.
+     */
+    private static final class EchoPlayer implements Runnable {
+        private final ServerSocket listener;
+        private final boolean keepAlive;
+        private final boolean closeAfterResponse;
+        private final AtomicInteger numConnections = new AtomicInteger();
+        private volatile long thinkTime;
+        private volatile int maxResponsesPerConnection = Integer.MAX_VALUE;
+
+        EchoPlayer(boolean keepAlive, boolean closeAfterResponse) throws IOException {
+            this.listener = new ServerSocket(0);
+            this.keepAlive = keepAlive;
+            this.closeAfterResponse = closeAfterResponse;
+            Thread thread = new Thread(this, "EchoPlayer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return listener.getLocalPort();
+        }
+
+        void setThinkTime(long thinkTime) {
+            this.thinkTime = thinkTime;
+        }
+
+        /**
+         * Makes the player close each connection, unanswered, when it gets
+         * one more request on it than the given number.
+         */
+        void setMaxResponsesPerConnection(int maxResponsesPerConnection) {
+            this.maxResponsesPerConnection = maxResponsesPerConnection;
+        }
+
+        int getNumConnections() {
+            return numConnections.get();
+        }
+
+        void shutdown() throws IOException {
+            listener.close();
+        }
+
+        @Override
+        public void run() {
+            while (!listener.isClosed()) {
+                try {
+                    final Socket connection = listener.accept();
+                    numConnections.incrementAndGet();
+                    Thread handler = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(connection);
+                        }
+                    }, "EchoPlayer connection");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket connection) {
+            try {
+                int numResponses = 0;
+                do {
+                    String in = HttpReader.readAsServer(connection);
+                    if (numResponses++ == maxResponsesPerConnection) {
+                        break;
+                    }
+                    if (thinkTime > 0) {
+                        Thread.sleep(thinkTime);
+                    }
+                    HttpWriter.writeAsServer(connection, in, keepAlive ? Collections.singletonMap("Connection", "keep-alive") : null);
+                } while (!closeAfterResponse);
+            } catch (IOException | InterruptedException e) {
+                // The server closed the connection
+            } finally {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    ;
+                }
+            }
+        }
+    }
+}
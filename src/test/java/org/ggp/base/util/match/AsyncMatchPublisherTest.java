@@ -0,0 +1,371 @@
+package org.ggp.base.util.match;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONObject;
+
+public class AsyncMatchPublisherTest extends Assert {
+    private HttpServer server;
+    private StubSpectatorServer stub;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new StubSpectatorServer();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", stub);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void tearDown() {
+        stub.release();
+        server.stop(0);
+    }
+
+    @Test
+    public void testPublishesFullMatch() throws Exception {
+        AsyncMatchPublisher publisher = new AsyncMatchPublisher(url);
+        Match match = newMatch();
+        MatchPlayer player = new MatchPlayer(match);
+        assertEquals("matchKey", publisher.publishNow(match));
+        assertEquals("matchKey", publisher.getSpectatorServerKey(match));
+
+        while (player.step()) {
+            assertTrue(publisher.publish(match));
+            assertTrue(publisher.flush(10000));
+        }
+        assertTrue(match.isCompleted());
+        assertTrue(publisher.publish(match));
+        publisher.shutdown();
+        assertTrue(publisher.flush(10000));
+
+        List<String[]> posts = stub.getPosts();
+        for (String[] post : posts) {
+            assertEquals("DATA", post[0]);
+        }
+        assertEquals(match.toJSON(), posts.get(posts.size() - 1)[1]);
+        assertEquals(posts.size(), publisher.getNumPublished());
+        assertEquals(0, publisher.getNumFailures());
+    }
+
+    @Test
+    public void testCoalescesWhileServerIsSlow() throws Exception {
+        AsyncMatchPublisher publisher = new AsyncMatchPublisher(url);
+        Match match = newMatch();
+        MatchPlayer player = new MatchPlayer(match);
+        stub.hold();
+        assertTrue(publisher.publish(match));
+        stub.awaitRequest();
+
+        // Publishing never waits for the server, and only the latest
+        // version of the match is kept while the first one is being sent
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3 && player.step(); i++) {
+            assertTrue(publisher.publish(match));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(2, publisher.getNumCoalesced());
+
+        stub.release();
+        assertTrue(publisher.flush(10000));
+        List<String[]> posts = stub.getPosts();
+        assertEquals(2, posts.size());
+        assertEquals(match.toJSON(), posts.get(1)[1]);
+    }
+
+    @Test
+    public void testSendsMatchAsItWasWhenPublished() throws Exception {
+        AsyncMatchPublisher publisher = new AsyncMatchPublisher(url);
+        Match match = newMatch();
+        MatchPlayer player = new MatchPlayer(match);
+        stub.hold();
+        assertTrue(publisher.publish(match));
+        stub.awaitRequest();
+
+        // The queued update is rendered by the worker once the first one
+        // has been sent, after the match has moved on
+        assertTrue(player.step());
+        assertTrue(publisher.publish(match));
+        String published = match.toJSON();
+        assertTrue(player.step());
+
+        stub.release();
+        assertTrue(publisher.flush(10000));
+        List<String[]> posts = stub.getPosts();
+        assertEquals(2, posts.size());
+        assertEquals(published, posts.get(1)[1]);
+    }
+
+    @Test
+    public void testRetriesWithBackoff() throws Exception {
+        AsyncMatchPublisher publisher = new AsyncMatchPublisher(url);
+        publisher.setBackoff(20, 40, 5);
+        Match match = newMatch();
+        stub.failNext(3);
+        long start = System.currentTimeMillis();
+        assertTrue(publisher.publish(match));
+        assertTrue(publisher.flush(10000));
+
+        // Waited 20, 40 and 40 milliseconds between the attempts
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertEquals(3, publisher.getNumFailures());
+        assertEquals(1, publisher.getNumPublished());
+        assertEquals(0, publisher.getNumDropped());
+        assertEquals("matchKey", publisher.getSpectatorServerKey(match));
+
+        // Once an update is given up on, the match is sent in full again
+        publisher.setBackoff(1, 1, 2);
+        publisher.setPublishingDeltas(true);
+        stub.failNext(2);
+        new MatchPlayer(match).step();
+        assertTrue(publisher.publish(match));
+        assertTrue(publisher.flush(10000));
+        assertEquals(1, publisher.getNumDropped());
+        assertTrue(publisher.publish(match));
+        assertTrue(publisher.flush(10000));
+        List<String[]> posts = stub.getPosts();
+        assertEquals("DATA", posts.get(posts.size() - 1)[0]);
+        assertEquals(match.toJSON(), posts.get(posts.size() - 1)[1]);
+    }
+
+    @Test
+    public void testPublishesDeltas() throws Exception {
+        AsyncMatchPublisher publisher = new AsyncMatchPublisher(url);
+        publisher.setPublishingDeltas(true);
+        Match match = newMatch();
+        MatchPlayer player = new MatchPlayer(match);
+        assertEquals("matchKey", publisher.publishNow(match));
+
+        while (player.step()) {
+            assertTrue(publisher.publish(match));
+            assertTrue(publisher.flush(10000));
+        }
+        assertTrue(publisher.publish(match));
+        publisher.forget(match);
+        publisher.shutdown();
+        assertTrue(publisher.flush(10000));
+
+        List<String[]> posts = stub.getPosts();
+        assertEquals("DATA", posts.get(0)[0]);
+        int nextIndex = new JSONObject(posts.get(0)[1]).getJSONArray("states").length();
+        JSONObject end = null;
+        for (String[] post : posts.subList(1, posts.size())) {
+            assertEquals("DELTA", post[0]);
+            JSONObject delta = new JSONObject(post[1]);
+            assertEquals(match.getMatchId(), delta.getString("matchId"));
+            assertEquals(match.getRandomToken(), delta.getString("randomToken"));
+            JSONArray states = delta.getJSONArray("states");
+            for (int i = 0; i < states.length(); i++) {
+                assertEquals(nextIndex++, states.getJSONObject(i).getInt("index"));
+            }
+            if (delta.has("end")) {
+                end = delta.getJSONObject("end");
+            }
+        }
+        assertEquals(match.getStateHistory().size(), nextIndex);
+        assertNotNull(end);
+        assertTrue(end.getBoolean("isCompleted"));
+    }
+
+    @Test
+    public void testFirstQueuedUpdateIsFull() throws Exception {
+        AsyncMatchPublisher publisher = new AsyncMatchPublisher(url);
+        publisher.setPublishingDeltas(true);
+        Match match = newMatch();
+        MatchPlayer player = new MatchPlayer(match);
+        assertTrue(publisher.publish(match));
+        assertTrue(publisher.flush(10000));
+        player.step();
+        assertTrue(publisher.publish(match));
+        publisher.shutdown();
+        assertTrue(publisher.flush(10000));
+
+        List<String[]> posts = stub.getPosts();
+        assertEquals(2, posts.size());
+        assertEquals("DATA", posts.get(0)[0]);
+        assertEquals("DELTA", posts.get(1)[0]);
+    }
+
+    @Test
+    public void testDropsUpdatesWhenQueueIsFull() throws Exception {
+        AsyncMatchPublisher publisher = new AsyncMatchPublisher(url, 1);
+        Match first = newMatch();
+        Match second = newMatch();
+        Match third = newMatch();
+        stub.hold();
+        assertTrue(publisher.publish(first));
+        stub.awaitRequest();
+        assertTrue(publisher.publish(second));
+        assertFalse(publisher.publish(third));
+        assertEquals(1, publisher.getNumDropped());
+
+        // Shutting down still sends whatever is queued
+        publisher.shutdown();
+        try {
+            publisher.publish(first);
+            fail("Expected publishing after shutdown to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        stub.release();
+        assertTrue(publisher.flush(10000));
+        assertEquals(2, stub.getPosts().size());
+        assertEquals(second.toJSON(), stub.getPosts().get(1)[1]);
+        assertNull(publisher.getSpectatorServerKey(third));
+    }
+
+    private static Match newMatch() throws Exception {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        JSONObject gameJSON = new JSONObject(game.serializeToJSON());
+        gameJSON.put("theRepositoryURL", "http://games.ggp.org/base/games/ticTacToe/");
+        return new Match("publisherTest." + System.nanoTime(), -1, 10, 5, Game.loadFromJSON(gameJSON.toString()), null);
+    }
+
+    /**
+     * Plays random moves in the same order that the GameServer records
+     * them, one move per step.
+     */
+    private static final class MatchPlayer {
+        private final Match match;
+        private final StateMachine sm;
+        private final Random random = new Random(0);
+        private MachineState state;
+
+        MatchPlayer(Match match) throws Exception {
+            this.match = match;
+            sm = new ProverStateMachine();
+            sm.initialize(match.getGame().getRules());
+            state = sm.getInitialState();
+            if (match.getStateHistory().isEmpty()) {
+                match.appendState(state.getContents());
+                match.appendNoErrors();
+            }
+        }
+
+        /**
+         * Plays one move, and returns false if the match was already over.
+         */
+        boolean step() throws Exception {
+            if (sm.isTerminal(state)) {
+                if (!match.isCompleted()) {
+                    match.markCompleted(sm.getGoals(state));
+                }
+                return false;
+            }
+            List<Move> moves = new ArrayList<Move>();
+            for (Role role : sm.getRoles()) {
+                List<Move> legals = sm.getLegalMoves(state, role);
+                moves.add(legals.get(random.nextInt(legals.size())));
+            }
+            state = sm.getNextState(state, moves);
+            match.appendMoves2(moves);
+            match.appendState(state.getContents());
+            match.appendNoErrors();
+            return true;
+        }
+    }
+
+    /**
+     * Records the field name and decoded contents of every post that it
+     * accepts. It can be told to fail requests, or to hold them until
+     * released.
+     */
+    private static final class StubSpectatorServer implements HttpHandler {
+        private final List<String[]> posts = Collections.synchronizedList(new ArrayList<String[]>());
+        private final AtomicInteger failuresLeft = new AtomicInteger();
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private volatile CountDownLatch received = new CountDownLatch(1);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String body = readFully(exchange.getRequestBody());
+            received.countDown();
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            int status;
+            byte[] response;
+            if (failuresLeft.getAndDecrement() > 0) {
+                status = 500;
+                response = "unavailable\n".getBytes("UTF-8");
+            } else {
+                String[] fields = body.split("&", 2);
+                String[] data = fields[1].split("=", 2);
+                posts.add(new String[] { data[0], URLDecoder.decode(data[1], "UTF-8") });
+                status = 200;
+                response = "matchKey\n".getBytes("UTF-8");
+            }
+            exchange.sendResponseHeaders(status, response.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(response);
+            out.close();
+        }
+
+        List<String[]> getPosts() {
+            synchronized (posts) {
+                return new ArrayList<String[]>(posts);
+            }
+        }
+
+        void failNext(int count) {
+            failuresLeft.set(count);
+        }
+
+        void hold() {
+            received = new CountDownLatch(1);
+            gate = new CountDownLatch(1);
+        }
+
+        void awaitRequest() throws InterruptedException {
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        private static String readFully(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.ggp.base.util.match;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.http.RequestLatency;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MatchJournalTest extends Assert {
+    @Test
+    public void testRecoverMatchInProgress() throws Exception {
+        File directory = Files.createTempDirectory("matchjournal").toFile();
+        try {
+            File matchFile = new File(directory, "match.json");
+            MatchJournal journal = new MatchJournal(MatchJournal.getJournalFile(matchFile));
+            Match match = newMatch();
+            match.setPlayerNamesFromHost(Arrays.asList("alice", "bob"));
+            playMatch(match, journal, 4);
+            journal.update(match);
+            journal.close();
+
+            Match recovered = MatchJournal.recover(journal.getFile());
+            assertSameMatch(match, recovered);
+            assertFalse(recovered.isCompleted());
+            assertEquals(Arrays.asList("alice", "bob"), recovered.getPlayerNamesFromHost());
+            assertEquals(match.getErrorHistory(), recovered.getErrorHistory());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testFinishCompactsToMatchJSON() throws Exception {
+        File directory = Files.createTempDirectory("matchjournal").toFile();
+        try {
+            File matchFile = new File(directory, "match.json");
+            MatchJournal journal = new MatchJournal(MatchJournal.getJournalFile(matchFile));
+            Match match = newMatch();
+            playMatch(match, journal, Integer.MAX_VALUE);
+            assertTrue(match.isCompleted());
+            journal.finish(match, matchFile);
+
+            assertFalse(journal.getFile().exists());
+            assertEquals(1, directory.listFiles().length);
+            String json = new String(Files.readAllBytes(matchFile.toPath()), Charset.forName("UTF-8"));
+            assertEquals(match.toJSON(), json);
+            Match reloaded = new Match(json, match.getGame(), null);
+            assertSameMatch(match, reloaded);
+            assertTrue(reloaded.isCompleted());
+            assertEquals(match.getGoalValues(), reloaded.getGoalValues());
+
+            // Finishing again, as when a completed match is aborted, rewrites the JSON
+            match.markAborted();
+            journal.finish(match, matchFile);
+            assertTrue(new Match(new String(Files.readAllBytes(matchFile.toPath()), Charset.forName("UTF-8")), match.getGame(), null).isAborted());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testRecoverWithTruncatedRecord() throws Exception {
+        File directory = Files.createTempDirectory("matchjournal").toFile();
+        try {
+            File journalFile = new File(directory, "match.json.journal");
+            MatchJournal journal = new MatchJournal(journalFile);
+            journal.setSyncInterval(1, 0);
+            Match match = newMatch();
+            playMatch(match, journal, Integer.MAX_VALUE);
+            journal.update(match);
+            journal.close();
+
+            // A record cut short by a crash is ignored
+            FileOutputStream out = new FileOutputStream(journalFile, true);
+            out.write("{\"type\":\"state\",\"ind".getBytes("UTF-8"));
+            out.close();
+            Match recovered = MatchJournal.recover(journalFile);
+            assertSameMatch(match, recovered);
+            // It crashed before the outcome was written
+            assertFalse(recovered.isCompleted());
+
+            byte[] corrupt = "{\"type\":\"header\"}\nnot json\n{}\n".getBytes("UTF-8");
+            Files.write(journalFile.toPath(), corrupt);
+            try {
+                MatchJournal.recover(journalFile);
+                fail("Expected a corrupt journal to be rejected");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static Match newMatch() {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        return new Match("journalTest." + System.nanoTime(), -1, 10, 5, game, null);
+    }
+
+    /**
+     * Plays random moves in the same order that the GameServer records
+     * them, updating the journal after each move, and marks the match
+     * completed if it gets to the end.
+     */
+    private static void playMatch(Match match, MatchJournal journal, int maxMoves) throws Exception {
+        StateMachine sm = new ProverStateMachine();
+        sm.initialize(match.getGame().getRules());
+        MachineState state = sm.getInitialState();
+        match.appendState(state.getContents());
+        match.appendNoErrors();
+        Random random = new Random(0);
+        for (int i = 0; i < maxMoves && !sm.isTerminal(state); i++) {
+            journal.update(match);
+            List<Move> moves = new ArrayList<Move>();
+            for (Role role : sm.getRoles()) {
+                List<Move> legals = sm.getLegalMoves(state, role);
+                moves.add(legals.get(random.nextInt(legals.size())));
+            }
+            state = sm.getNextState(state, moves);
+            match.appendMoves2(moves);
+            match.appendLatencies(Arrays.asList(new RequestLatency(1, 0, 20 + i, 2, i > 0), null));
+            match.appendState(state.getContents());
+            match.appendErrors(Arrays.asList(i == 1 ? "TO" : "", ""));
+        }
+        if (sm.isTerminal(state)) {
+            match.markCompleted(sm.getGoals(state));
+        }
+    }
+
+    private static void assertSameMatch(Match expected, Match actual) {
+        assertEquals(expected.getMatchId(), actual.getMatchId());
+        assertEquals(expected.getRandomToken(), actual.getRandomToken());
+        assertEquals(expected.getStartTime(), actual.getStartTime());
+        assertEquals(expected.getStartClock(), actual.getStartClock());
+        assertEquals(expected.getPlayClock(), actual.getPlayClock());
+        assertEquals(expected.getStateHistory(), actual.getStateHistory());
+        assertEquals(expected.getMoveHistory(), actual.getMoveHistory());
+        assertEquals(expected.getStateTimeHistory(), actual.getStateTimeHistory());
+        assertEquals(expected.getErrorHistory(), actual.getErrorHistory());
+        assertEquals(expected.getLatencyHistory().toString(), actual.getLatencyHistory().toString());
+    }
+
+    private static void deleteDirectory(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+}
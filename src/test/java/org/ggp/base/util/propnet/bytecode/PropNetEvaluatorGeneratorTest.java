@@ -0,0 +1,194 @@
+package org.ggp.base.util.propnet.bytecode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetEvaluatorGeneratorTest extends Assert {
+    @Test
+    public void testMatchesInterpretedEvaluationOnGames() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "test_case_3d", "simpleMutex"}) {
+            CompiledPropNet net = new CompiledPropNet(OptimizingPropNetFactory.create(getRules(game)));
+            assertMatchesInterpretedEvaluation(net, PropNetEvaluatorGenerator.generate(net));
+        }
+    }
+
+    @Test
+    public void testMethodsCanBeSplitAnywhere() throws Exception {
+        CompiledPropNet net = new CompiledPropNet(OptimizingPropNetFactory.create(getRules("connectFour")));
+        for (int budget : new int[] {1, 50, 300}) {
+            assertMatchesInterpretedEvaluation(net, PropNetEvaluatorGenerator.generate(net, budget));
+        }
+    }
+
+    @Test
+    public void testLargeGatesAndManyMethods() throws Exception {
+        // Enough gates that with one gate per method, they have to be called
+        // through more than one layer of methods
+        CompiledPropNet net = new CompiledPropNet(makeRandomPropNet(new Random(0), 100, 2500));
+        assertMatchesInterpretedEvaluation(net, PropNetEvaluatorGenerator.generate(net));
+        assertMatchesInterpretedEvaluation(net, PropNetEvaluatorGenerator.generate(net, 1));
+    }
+
+    @Test
+    public void testStateMachineWithGeneratedEvaluator() throws Exception {
+        List<Gdl> rules = getRules("connectFour");
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.setGenerateEvaluator(true);
+        sm.initialize(rules);
+        assertTrue(sm.isUsingGeneratedEvaluator());
+        assertTrue(sm.createView().isUsingGeneratedEvaluator());
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(prover, sm, 500));
+    }
+
+    /**
+     * Checks the evaluator against a straightforward evaluation of the
+     * propnet from many random settings of its sources, reachable or not.
+     */
+    private static void assertMatchesInterpretedEvaluation(CompiledPropNet net, PropNetEvaluator evaluator) {
+        assertNotNull(evaluator);
+        Random random = new Random(1);
+        int words = (net.size() + 63) >>> 6;
+        for (int trial = 0; trial < 200; trial++) {
+            long[] expected = new long[words];
+            for (int i = 0; i < net.getFirstGate(); i++) {
+                boolean value;
+                if (net.getType(i) == CompiledPropNet.TYPE_CONSTANT_TRUE) {
+                    value = true;
+                } else if (net.getType(i) == CompiledPropNet.TYPE_CONSTANT_FALSE) {
+                    value = false;
+                } else {
+                    value = random.nextBoolean();
+                }
+                if (value) {
+                    expected[i >>> 6] |= 1L << i;
+                }
+            }
+            long[] actual = expected.clone();
+            // Stale bits for the gates must not make any difference
+            for (int i = net.getFirstGate(); i < net.size(); i++) {
+                if (random.nextBoolean()) {
+                    actual[i >>> 6] |= 1L << i;
+                }
+            }
+            propagate(net, expected);
+            evaluator.propagate(actual);
+            for (int i = 0; i < net.size(); i++) {
+                assertEquals("component " + i, get(expected, i), get(actual, i));
+            }
+        }
+    }
+
+    private static void propagate(CompiledPropNet net, long[] values) {
+        int[] inputOffsets = net.getInputOffsets();
+        int[] inputs = net.getInputs();
+        for (int i = net.getFirstGate(); i < net.size(); i++) {
+            boolean value;
+            if (net.getType(i) == CompiledPropNet.TYPE_NOT) {
+                value = !get(values, inputs[inputOffsets[i]]);
+            } else {
+                boolean and = (net.getType(i) == CompiledPropNet.TYPE_AND);
+                value = and;
+                for (int j = inputOffsets[i]; j < inputOffsets[i + 1]; j++) {
+                    if (get(values, inputs[j]) != and) {
+                        value = !and;
+                    }
+                }
+            }
+            if (value) {
+                values[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    private static boolean get(long[] values, int i) {
+        return (values[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Makes a propnet of random gates over the given number of bases, some
+     * of them with more inputs than are written out inline, for a single
+     * role with a single move.
+     */
+    private static PropNet makeRandomPropNet(Random random, int numBases, int numGates) throws Exception {
+        Set<Component> components = new HashSet<Component>();
+        List<Component> available = new ArrayList<Component>();
+        List<Transition> transitions = new ArrayList<Transition>();
+        for (int i = 0; i < numBases; i++) {
+            Proposition base = new Proposition((GdlSentence) GdlFactory.create("(true (evaluatorTestBase " + i + "))"));
+            Transition transition = new Transition();
+            connect(transition, base);
+            components.add(base);
+            components.add(transition);
+            available.add(base);
+            transitions.add(transition);
+        }
+        for (int i = 0; i < numGates; i++) {
+            Component gate;
+            int numInputs;
+            switch (random.nextInt(3)) {
+            case 0:
+                gate = new Not();
+                numInputs = 1;
+                break;
+            case 1:
+                gate = new And();
+                numInputs = (i % 100 == 0) ? 100 : 1 + random.nextInt(4);
+                break;
+            default:
+                gate = new Or();
+                numInputs = (i % 100 == 50) ? 100 : 1 + random.nextInt(4);
+                break;
+            }
+            for (int j = 0; j < numInputs; j++) {
+                connect(available.get(random.nextInt(available.size())), gate);
+            }
+            components.add(gate);
+            available.add(gate);
+        }
+        for (Transition transition : transitions) {
+            connect(available.get(numBases + random.nextInt(numGates)), transition);
+        }
+        for (String name : new String[] {"terminal", "(legal evaluatorTestRole noop)"}) {
+            Proposition proposition = new Proposition((GdlSentence) GdlFactory.create(name));
+            connect(available.get(numBases + random.nextInt(numGates)), proposition);
+            components.add(proposition);
+        }
+        return new PropNet(Collections.singletonList(Role.create("evaluatorTestRole")), components);
+    }
+
+    private static void connect(Component input, Component output) {
+        output.addInput(input);
+        input.addOutput(output);
+    }
+
+    private static List<Gdl> getRules(String gameKey) {
+        return new TestGameRepository().getGame(gameKey).getRules();
+    }
+}
@@ -0,0 +1,159 @@
+package org.ggp.base.util.propnet.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetCacheTest extends Assert {
+    @Test
+    public void testRoundTripTicTacToe() throws Exception {
+        assertRoundTrips("ticTacToe");
+    }
+
+    @Test
+    public void testRoundTripConnectFour() throws Exception {
+        assertRoundTrips("connectFour");
+    }
+
+    @Test
+    public void testRoundTripCase1A() throws Exception {
+        assertRoundTrips("test_case_1a");
+    }
+
+    @Test
+    public void testCacheStoresAndLoadsPropNets() throws Exception {
+        File directory = Files.createTempDirectory("propnetcache").toFile();
+        try {
+            List<Gdl> rules = getRules("ticTacToe");
+            PropNetCache cache = new PropNetCache(directory);
+            File file = cache.getFile(rules);
+            assertFalse(file.exists());
+
+            PropNet built = cache.getPropNet(rules);
+            assertTrue(file.exists());
+            PropNet loaded = cache.getPropNet(rules);
+            assertNotSame(built, loaded);
+            assertEquivalent(built, loaded);
+
+            // Only the finished file is left behind
+            assertEquals(1, directory.listFiles().length);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCorruptFilesAreRebuilt() throws Exception {
+        File directory = Files.createTempDirectory("propnetcache").toFile();
+        try {
+            List<Gdl> rules = getRules("ticTacToe");
+            PropNetCache cache = new PropNetCache(directory);
+            File file = cache.getFile(rules);
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[] {'G', 'G', 'P', 'N', 0, 0, 0, 1, 0, 0});
+            out.close();
+
+            PropNet propNet = cache.getPropNet(rules);
+            assertEquals(2, propNet.getRoles().size());
+            assertEquivalent(propNet, PropNetSerializer.read(file));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testReadingGarbageFails() throws Exception {
+        try {
+            PropNetSerializer.read(ByteBuffer.wrap("(role robot)".getBytes("UTF-8")));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGameHashIgnoresFormatting() throws Exception {
+        List<Gdl> rules = Arrays.asList(GdlFactory.create("(role robot)"), GdlFactory.create("(<= terminal (true (done)))"));
+        List<Gdl> reformatted = Arrays.asList(GdlFactory.create("( role\n\trobot )"), GdlFactory.create("(<=  terminal\n  (true (done)))"));
+        assertEquals(PropNetCache.getGameHash(rules), PropNetCache.getGameHash(reformatted));
+        assertFalse(PropNetCache.getGameHash(rules).equals(PropNetCache.getGameHash(getRules("ticTacToe"))));
+    }
+
+    private static void assertRoundTrips(String gameKey) throws Exception {
+        List<Gdl> rules = getRules(gameKey);
+        PropNet original = OptimizingPropNetFactory.create(rules);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PropNetSerializer.write(original, out);
+        PropNet loaded = PropNetSerializer.read(ByteBuffer.wrap(out.toByteArray()));
+        assertEquivalent(original, loaded);
+
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(new CompiledPropNet(loaded));
+        assertTrue(StateMachineVerifier.checkMachineConsistency(prover, sm, 500));
+    }
+
+    private static void assertEquivalent(PropNet expected, PropNet actual) {
+        assertEquals(expected.getRoles(), actual.getRoles());
+        assertEquals(expected.getComponents().size(), actual.getComponents().size());
+        assertEquals(expected.getNumLinks(), actual.getNumLinks());
+        assertEquals(expected.getNumAnds(), actual.getNumAnds());
+        assertEquals(expected.getNumOrs(), actual.getNumOrs());
+        assertEquals(expected.getNumNots(), actual.getNumNots());
+        assertEquals(expected.getBasePropositions().keySet(), actual.getBasePropositions().keySet());
+        assertEquals(expected.getInputPropositions().keySet(), actual.getInputPropositions().keySet());
+        assertEquals(getNames(expected.getLegalPropositions()), getNames(actual.getLegalPropositions()));
+        assertEquals(getNames(expected.getGoalPropositions()), getNames(actual.getGoalPropositions()));
+        assertEquals(expected.getInitProposition() == null, actual.getInitProposition() == null);
+        assertEquals(expected.getTerminalProposition().getName(), actual.getTerminalProposition().getName());
+    }
+
+    private static Map<Role, Set<GdlSentence>> getNames(Map<Role, Set<Proposition>> propositions) {
+        Map<Role, Set<GdlSentence>> names = new HashMap<Role, Set<GdlSentence>>();
+        for (Map.Entry<Role, Set<Proposition>> entry : propositions.entrySet()) {
+            Set<GdlSentence> roleNames = new HashSet<GdlSentence>();
+            for (Proposition proposition : entry.getValue()) {
+                roleNames.add(proposition.getName());
+            }
+            names.put(entry.getKey(), roleNames);
+        }
+        return names;
+    }
+
+    private static void deleteDirectory(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static List<Gdl> getRules(String gameKey) {
+        return new TestGameRepository().getGame(gameKey).getRules();
+    }
+}
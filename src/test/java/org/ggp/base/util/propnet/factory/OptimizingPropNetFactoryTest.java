@@ -0,0 +1,80 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OptimizingPropNetFactoryTest extends Assert {
+
+    @Test
+    public void testParallelBuildMatchesSequentialOnTicTacToe() throws Exception {
+        assertParallelBuildMatchesSequential("ticTacToe");
+    }
+
+    @Test
+    public void testParallelBuildMatchesSequentialOnConnectFour() throws Exception {
+        assertParallelBuildMatchesSequential("connectFour");
+    }
+
+    @Test
+    public void testParallelBuildMatchesSequentialOnTestCases() throws Exception {
+        for (String game : new String[] {"test_case_1a", "test_case_2a", "test_case_3a", "test_case_3d", "simpleMutex"}) {
+            assertParallelBuildMatchesSequential(game);
+        }
+    }
+
+    private void assertParallelBuildMatchesSequential(String game) throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+        PropNet sequential = OptimizingPropNetFactory.create(rules, false, 1);
+        PropNet parallel = OptimizingPropNetFactory.create(rules, false, 4);
+        assertEquals(game, sequential.getSize(), parallel.getSize());
+        assertEquals(game, sequential.getNumLinks(), parallel.getNumLinks());
+        assertEquals(game, getSignatures(sequential), getSignatures(parallel));
+    }
+
+    /**
+     * Returns a sorted description of every component in terms of its inputs,
+     * which is the same for two propnets with the same structure. Components
+     * other than named propositions are described by their inputs, down to a
+     * fixed depth so that cycles are cut off.
+     */
+    private static List<String> getSignatures(PropNet propNet) {
+        List<String> signatures = new ArrayList<String>();
+        for (Component component : propNet.getComponents()) {
+            signatures.add(getSignature(component, 4, true));
+        }
+        Collections.sort(signatures);
+        return signatures;
+    }
+
+    private static String getSignature(Component component, int depth, boolean expand) {
+        if (component instanceof Constant) {
+            return String.valueOf(component.getValue());
+        }
+        String type = component.getClass().getSimpleName();
+        if (component instanceof Proposition && !((Proposition) component).getName().toString().equals("anon")) {
+            type = ((Proposition) component).getName().toString();
+            if (!expand) {
+                return type;
+            }
+        }
+        if (depth == 0) {
+            return type;
+        }
+        List<String> inputs = new ArrayList<String>();
+        for (Component input : component.getInputs()) {
+            inputs.add(getSignature(input, depth - 1, false));
+        }
+        Collections.sort(inputs);
+        return type + inputs;
+    }
+}
@@ -0,0 +1,164 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetReducerTest extends Assert {
+    // on is always true, broken is never true, lamp stays lit once
+    // lit, and waving the flag makes no difference to anything
+    private static final String LATCH_GAME =
+            "(role robot) " +
+            "(init on) (init (step 0)) " +
+            "(<= (next on) (true on)) " +
+            "(<= (next broken) (true broken) (true on)) " +
+            "(<= (next lamp) (true lamp)) " +
+            "(<= (next lamp) (does robot light)) " +
+            "(<= (next flag) (does robot wave)) " +
+            "(<= (next (step ?y)) (true (step ?x)) (succ ?x ?y)) " +
+            "(succ 0 1) (succ 1 2) (succ 2 3) " +
+            "(legal robot light) (legal robot wave) " +
+            "(<= (legal robot fix) (true broken)) " +
+            "(<= terminal (true (step 3))) " +
+            "(<= terminal (true broken)) " +
+            "(<= (goal robot 100) (true lamp) (true on)) " +
+            "(<= (goal robot 0) (not (true lamp)))";
+
+    // Two counters that each player moves on their own
+    private static final String TWO_COUNTER_GAME =
+            "(role a) (role b) " +
+            "(init (ca 0)) (init (cb 0)) " +
+            "(<= (next (ca ?y)) (true (ca ?x)) (does a inc) (succ ?x ?y)) " +
+            "(<= (next (ca ?x)) (true (ca ?x)) (does a stay)) " +
+            "(<= (next (cb ?y)) (true (cb ?x)) (does b inc) (succ ?x ?y)) " +
+            "(<= (next (cb ?x)) (true (cb ?x)) (does b stay)) " +
+            "(succ 0 1) (succ 1 2) " +
+            "(legal a inc) (legal a stay) (legal b inc) (legal b stay) " +
+            "(<= terminal (true (ca 2)) (true (cb 2))) " +
+            "(<= (goal a 100) (true (ca 2))) " +
+            "(<= (goal a 0) (not (true (ca 2)))) " +
+            "(<= (goal b 100) (true (cb 2))) " +
+            "(<= (goal b 0) (not (true (cb 2))))";
+
+    @Test
+    public void testFindsLatchesAndConstants() throws Exception {
+        PropNetAnalysis analysis = PropNetAnalysis.analyze(OptimizingPropNetFactory.create(parse(LATCH_GAME)));
+        assertEquals(Boolean.TRUE, analysis.getConstantBases().get(sentence("(true on)")));
+        assertEquals(Boolean.FALSE, analysis.getConstantBases().get(sentence("(true broken)")));
+        assertFalse(analysis.getConstantBases().containsKey(sentence("(true lamp)")));
+        assertTrue(analysis.getTrueLatches().contains(sentence("(true lamp)")));
+        assertFalse(analysis.getFalseLatches().contains(sentence("(true lamp)")));
+        assertFalse(analysis.getTrueLatches().contains(sentence("(true flag)")));
+    }
+
+    @Test
+    public void testFindsIrrelevantPropositions() throws Exception {
+        PropNetAnalysis analysis = PropNetAnalysis.analyze(OptimizingPropNetFactory.create(parse(LATCH_GAME)));
+        assertEquals(set(sentence("(true flag)")), analysis.getIrrelevantBases());
+        // Fixing the robot does nothing either, and it can never break
+        assertEquals(set(sentence("(does robot wave)"), sentence("(does robot fix)")), analysis.getIrrelevantInputs());
+    }
+
+    @Test
+    public void testFindsFactors() throws Exception {
+        PropNetAnalysis analysis = PropNetAnalysis.analyze(OptimizingPropNetFactory.create(parse(TWO_COUNTER_GAME)));
+        assertEquals(2, analysis.getFactors().size());
+        for (PropNetAnalysis.Factor factor : analysis.getFactors()) {
+            String player = factor.getInputs().iterator().next().get(0).toString();
+            assertEquals(set(sentence("(does " + player + " inc)"), sentence("(does " + player + " stay)")), factor.getInputs());
+            for (GdlSentence base : factor.getBases()) {
+                assertEquals("c" + player, base.get(0).toSentence().getName().getValue());
+            }
+        }
+
+        PropNetAnalysis ticTacToe = PropNetAnalysis.analyze(OptimizingPropNetFactory.create(getRules("ticTacToe")));
+        assertEquals(1, ticTacToe.getFactors().size());
+    }
+
+    @Test
+    public void testReducedLatchGame() throws Exception {
+        List<Gdl> rules = parse(LATCH_GAME);
+        PropNet original = OptimizingPropNetFactory.create(rules);
+        PropNet reduced = PropNetReducer.reduce(original);
+        assertTrue(reduced.getComponents().size() < original.getComponents().size());
+        assertEquals(original.getBasePropositions().keySet(), reduced.getBasePropositions().keySet());
+        assertEquals(original.getInputPropositions().keySet(), reduced.getInputPropositions().keySet());
+        assertConsistent(rules, reduced);
+
+        PropNet smaller = PropNetReducer.reduce(original, false);
+        assertFalse(smaller.getBasePropositions().containsKey(sentence("(true flag)")));
+        assertEquals(original.getBasePropositions().size() - 1, smaller.getBasePropositions().size());
+        // Fixing can never be legal, so that move is gone, while waving is
+        // still a legal move even though nothing reads it any more
+        assertFalse(smaller.getInputPropositions().containsKey(sentence("(does robot fix)")));
+        assertEquals(2, smaller.getLegalPropositions().values().iterator().next().size());
+        Proposition wave = smaller.getInputPropositions().get(sentence("(does robot wave)"));
+        assertNotNull(wave);
+        assertTrue(wave.getOutputs().isEmpty());
+        assertTrue(smaller.getComponents().size() < reduced.getComponents().size());
+    }
+
+    @Test
+    public void testReducedGamesAreConsistent() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "test_case_1a", "test_case_2a", "test_case_3a", "test_case_3d", "simpleMutex"}) {
+            List<Gdl> rules = getRules(game);
+            PropNet original = OptimizingPropNetFactory.create(rules);
+            PropNet reduced = PropNetReducer.reduce(original);
+            assertTrue(game, reduced.getComponents().size() <= original.getComponents().size());
+            assertEquals(game, original.getBasePropositions().keySet(), reduced.getBasePropositions().keySet());
+            assertConsistent(rules, reduced);
+
+            // Without the irrelevant bases the states differ, but the games
+            // must still be playable to the end
+            CompiledPropNetStateMachine smaller = new CompiledPropNetStateMachine();
+            smaller.initialize(new CompiledPropNet(PropNetReducer.reduce(original, false)));
+            for (int i = 0; i < 50; i++) {
+                assertTrue(game, smaller.isTerminal(smaller.performDepthCharge(smaller.getInitialState(), null)));
+            }
+        }
+        assertConsistent(parse(TWO_COUNTER_GAME), PropNetReducer.reduce(OptimizingPropNetFactory.create(parse(TWO_COUNTER_GAME))));
+    }
+
+    private static void assertConsistent(List<Gdl> rules, PropNet propNet) throws Exception {
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(new CompiledPropNet(propNet));
+        assertTrue(StateMachineVerifier.checkMachineConsistency(prover, sm, 500));
+    }
+
+    private static List<Gdl> parse(String rulesheet) {
+        return Game.createEphemeralGame(Game.preprocessRulesheet(rulesheet)).getRules();
+    }
+
+    private static List<Gdl> getRules(String gameKey) {
+        return new TestGameRepository().getGame(gameKey).getRules();
+    }
+
+    private static GdlSentence sentence(String text) throws Exception {
+        return (GdlSentence) GdlFactory.create(text);
+    }
+
+    private static Set<GdlSentence> set(GdlSentence... sentences) {
+        Set<GdlSentence> result = new HashSet<GdlSentence>();
+        for (GdlSentence sentence : sentences) {
+            result.add(sentence);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+package org.ggp.base.util.prover.aima.knowledge;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KnowledgeBaseTest extends Assert {
+
+    private final KnowledgeBase knowledgeBase = new KnowledgeBase(createGdl(
+            "(cell 1 1 x)",
+            "(cell 1 2 o)",
+            "(cell 2 1 b)",
+            "(<= (cell 3 ?y b) (row ?y))",
+            "(<= (cell ?x ?y b) (empty ?x ?y))",
+            "(<= terminal (line x))",
+            "(role x)"));
+
+    @Test
+    public void testFetchByName() throws Exception {
+        assertEquals(5, fetch("(cell ?x ?y ?z)").size());
+        assertEquals(1, fetch("terminal").size());
+        assertEquals(0, fetch("(legal ?r ?m)").size());
+    }
+
+    @Test
+    public void testFetchByFirstArgument() throws Exception {
+        List<GdlRule> rules = fetch("(cell 1 ?y ?z)");
+        assertEquals(3, rules.size());
+        assertTrue(rules.contains(createRule("(cell 1 1 x)")));
+        assertTrue(rules.contains(createRule("(cell 1 2 o)")));
+        assertTrue(rules.contains(createRule("(<= (cell ?x ?y b) (empty ?x ?y))")));
+
+        assertEquals(2, fetch("(cell 3 ?y ?z)").size());
+        // Only rules whose heads' first arguments aren't ground can match
+        assertEquals(1, fetch("(cell 4 ?y ?z)").size());
+    }
+
+    @Test
+    public void testFetchGroundSentence() throws Exception {
+        List<GdlRule> rules = fetch("(cell 1 1 x)");
+        assertEquals(2, rules.size());
+        assertTrue(rules.contains(createRule("(cell 1 1 x)")));
+        assertTrue(rules.contains(createRule("(<= (cell ?x ?y b) (empty ?x ?y))")));
+
+        assertEquals(2, fetch("(cell 3 1 b)").size());
+        assertEquals(1, fetch("(cell 2 2 x)").size());
+        assertEquals(1, fetch("(role x)").size());
+        assertEquals(0, fetch("(role o)").size());
+    }
+
+    private List<GdlRule> fetch(String sentence) throws Exception {
+        return knowledgeBase.fetch((GdlSentence) GdlFactory.create(sentence));
+    }
+
+    private static GdlRule createRule(String gdl) throws Exception {
+        Gdl parsed = GdlFactory.create(gdl);
+        return (parsed instanceof GdlRule) ? (GdlRule) parsed : GdlPool.getRule((GdlSentence) parsed);
+    }
+
+    private static Set<Gdl> createGdl(String... gdls) {
+        Set<Gdl> results = new HashSet<Gdl>();
+        try {
+            for (String gdl : gdls) {
+                results.add(GdlFactory.create(gdl));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
+}
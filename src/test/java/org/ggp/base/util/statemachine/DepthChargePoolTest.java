@@ -0,0 +1,96 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DepthChargePoolTest extends Assert {
+    @Test
+    public void testCompiledDepthChargesMatchDefaultImplementation() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "test_case_3d"}) {
+            CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+            sm.initialize(getRules(game));
+            for (CompiledPropNetStateMachine.PropagationMode mode : CompiledPropNetStateMachine.PropagationMode.values()) {
+                CompiledPropNetStateMachine view = sm.createView();
+                view.setPropagationMode(mode);
+                // The cached machine does not override performDepthCharges,
+                // and lists legal moves in the same order
+                StateMachine reference = new CachedStateMachine(sm.createView());
+                MachineState state = sm.getInitialState();
+                assertSameDepthCharges(view, reference, state, null, null);
+                Role role = sm.getRoles().get(0);
+                for (Move move : sm.getLegalMoves(state, role)) {
+                    assertSameDepthCharges(view, reference, state, role, move);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFixedFirstMove() throws Exception {
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(getRules("ticTacToe"));
+        Role xRole = Role.create("xplayer");
+        // Taking the center favours X when both players then play randomly
+        DepthChargeResults results = new DepthChargeResults(2);
+        assertEquals(1000, sm.performDepthCharges(sm.getInitialState(), xRole, Move.create("( mark 2 2 )"), 1000, Long.MAX_VALUE, new Random(0), results));
+        assertEquals(1000, results.getNumCharges());
+        assertTrue(results.getAverageGoal(0) > results.getAverageGoal(1));
+        assertEquals(100 * 1000, results.getGoalSum(0) + results.getGoalSum(1));
+        assertTrue(results.getAverageDepth() >= 5 && results.getAverageDepth() <= 9);
+    }
+
+    @Test
+    public void testPoolRunsRequestedCharges() throws Exception {
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(getRules("connectFour"));
+        List<StateMachine> machines = new ArrayList<StateMachine>();
+        machines.add(sm);
+        for (int i = 1; i < 4; i++) {
+            machines.add(sm.createView());
+        }
+        DepthChargePool pool = new DepthChargePool(machines);
+        try {
+            assertEquals(4, pool.getNumThreads());
+            for (int count : new int[] {1, 3, 401}) {
+                DepthChargeResults results = pool.performDepthCharges(sm.getInitialState(), null, null, count, Long.MAX_VALUE);
+                assertEquals(count, results.getNumCharges());
+                assertEquals(100L * count, results.getGoalSum(0) + results.getGoalSum(1));
+                assertTrue(results.getAverageDepth() >= 7);
+            }
+            Role role = sm.getRoles().get(0);
+            Move move = sm.getLegalMoves(sm.getInitialState(), role).get(0);
+            assertEquals(100, pool.performDepthCharges(sm.getInitialState(), role, move, 100, Long.MAX_VALUE).getNumCharges());
+            // Nothing is run once the deadline has passed
+            assertEquals(0, pool.performDepthCharges(sm.getInitialState(), null, null, 100, 0).getNumCharges());
+            assertTrue(pool.performDepthCharges(sm.getInitialState(), null, null, System.currentTimeMillis() + 200).getNumCharges() > 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertSameDepthCharges(StateMachine machine, StateMachine reference, MachineState state, Role role, Move move) throws Exception {
+        int numRoles = machine.getRoles().size();
+        DepthChargeResults expected = new DepthChargeResults(numRoles);
+        DepthChargeResults actual = new DepthChargeResults(numRoles);
+        assertEquals(50, reference.performDepthCharges(state, role, move, 50, Long.MAX_VALUE, new Random(42), expected));
+        assertEquals(50, machine.performDepthCharges(state, role, move, 50, Long.MAX_VALUE, new Random(42), actual));
+        assertEquals(expected.getDepthSum(), actual.getDepthSum());
+        for (int r = 0; r < numRoles; r++) {
+            assertEquals(expected.getGoalSum(r), actual.getGoalSum(r));
+        }
+        // The machine must still answer correctly for the state afterwards
+        assertEquals(reference.isTerminal(state), machine.isTerminal(state));
+    }
+
+    private static List<Gdl> getRules(String gameKey) {
+        return new TestGameRepository().getGame(gameKey).getRules();
+    }
+}
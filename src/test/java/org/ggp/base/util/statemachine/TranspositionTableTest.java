@@ -0,0 +1,69 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.HashSet;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TranspositionTableTest extends Assert {
+
+    @Test
+    public void testIncrementalZobristHashes() throws Exception {
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(new TestGameRepository().getGame("connectFour").getRules());
+        for (int game = 0; game < 20; game++) {
+            MachineState state = sm.getInitialState();
+            while (true) {
+                // Every state derived incrementally must match a fresh computation.
+                MachineState plain = new MachineState(new HashSet<>(state.getContents()));
+                assertEquals(ZobristHasher.hash(plain), ZobristHasher.hash(state));
+                assertEquals(plain.hashCode(), state.hashCode());
+                if (sm.isTerminal(state)) {
+                    break;
+                }
+                state = sm.getRandomNextState(state);
+            }
+        }
+        assertNotEquals(ZobristHasher.hash(sm.getInitialState()),
+                ZobristHasher.hash(sm.getRandomNextState(sm.getInitialState())));
+    }
+
+    @Test
+    public void testStoreAndFind() {
+        TranspositionTable table = new TranspositionTable(1000);
+        assertEquals(1024, table.getCapacity());
+        assertEquals(-1, table.find(42L));
+
+        int slot = table.store(42L, 0.5, 0, 100, 3, 7);
+        assertEquals(slot, table.find(42L));
+        assertEquals(0.5, table.getValue(slot), 0.0);
+        assertEquals(0.0, table.getLowerBound(slot), 0.0);
+        assertEquals(100.0, table.getUpperBound(slot), 0.0);
+        assertEquals(3, table.getDepth(slot));
+        assertEquals(7, table.getVisits(slot));
+
+        // Storing the same hash again overwrites the entry in place.
+        assertEquals(slot, table.store(42L, 1.0, 50, 50, 4, 8));
+        assertEquals(1, table.size());
+        assertEquals(4, table.getDepth(table.find(42L)));
+    }
+
+    @Test
+    public void testReplacesShallowestEntry() {
+        TranspositionTable table = new TranspositionTable(16);
+        // All of these hashes have the same home slot.
+        long stride = 1L << 32 | 1L;
+        for (int i = 1; i <= 8; i++) {
+            table.store(i * stride * 16, 0, 0, 0, 10 + i, 0);
+        }
+        table.store(1000 * stride * 16, 0, 0, 0, 5, 0);
+        assertEquals(1, table.getReplacements());
+        assertEquals(-1, table.find(stride * 16));
+        for (int i = 2; i <= 8; i++) {
+            assertTrue(table.find(i * stride * 16) >= 0);
+        }
+        assertTrue(table.find(1000 * stride * 16) >= 0);
+    }
+}
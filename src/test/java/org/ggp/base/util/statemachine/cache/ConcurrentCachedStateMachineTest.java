@@ -0,0 +1,94 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentCachedStateMachineTest extends Assert {
+
+    @Test
+    public void testClockCacheIsBounded() {
+        ClockCache<Integer, String> cache = new ClockCache<Integer, String>(64, 4);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("v" + i, cache.putIfAbsent(i, "v" + i));
+        }
+        assertEquals(64, cache.getMaxEntries());
+        assertEquals(64, cache.size());
+        assertEquals(1000 - 64, cache.getEvictions());
+        assertEquals("v999", cache.get(999));
+        assertEquals("v999", cache.putIfAbsent(999, "other"));
+    }
+
+    @Test
+    public void testClockCacheKeepsReferencedEntries() {
+        ClockCache<Integer, String> cache = new ClockCache<Integer, String>(8, 1);
+        for (int i = 0; i < 8; i++) {
+            cache.putIfAbsent(i, "v" + i);
+        }
+        // Keep touching entry 0 while the rest of the cache turns over.
+        for (int i = 8; i < 100; i++) {
+            assertEquals("v0", cache.get(0));
+            cache.putIfAbsent(i, "v" + i);
+        }
+        assertEquals("v0", cache.get(0));
+        assertNull(cache.get(1));
+        assertEquals(93, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testMatchesProverOnConnectFour() {
+        List<Gdl> rules = new TestGameRepository().getGame("connectFour").getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        ConcurrentCachedStateMachine sm = new ConcurrentCachedStateMachine(new CompiledPropNetStateMachine(), 100);
+        sm.initialize(rules);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(prover, sm, 1000));
+        assertTrue(sm.getNumEntries() <= 100);
+        assertTrue(sm.getEvictions() > 0);
+        assertTrue(sm.getHits() > 0);
+    }
+
+    @Test
+    public void testSharedCacheAcrossThreads() throws Exception {
+        final List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        CompiledPropNetStateMachine compiled = new CompiledPropNetStateMachine();
+        ConcurrentCachedStateMachine sm = new ConcurrentCachedStateMachine(compiled);
+        sm.initialize(rules);
+        int numThreads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < numThreads; i++) {
+                final StateMachine worker = (i == 0) ? sm : sm.share(compiled.createView());
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        StateMachine prover = new ProverStateMachine();
+                        prover.initialize(rules);
+                        return StateMachineVerifier.checkMachineConsistency(prover, worker, 500);
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Tic-tac-toe has few enough states that most lookups are shared hits.
+        assertTrue(sm.getHits() > sm.getMisses());
+    }
+}
@@ -0,0 +1,138 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledPropNetStateMachineTest extends Assert {
+
+    protected final CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        sm.initialize(getRules("ticTacToe"));
+        MachineState state = sm.getInitialState();
+        Role xRole = Role.create("xplayer");
+        Role oRole = Role.create("oplayer");
+        assertEquals(Arrays.asList(xRole, oRole), sm.getRoles());
+        assertFalse(sm.isTerminal(state));
+        assertEquals(9, sm.getLegalMoves(state, xRole).size());
+        assertEquals(1, sm.getLegalMoves(state, oRole).size());
+        assertEquals(9, sm.getLegalJointMoves(state).size());
+
+        Move noop = Move.create("noop");
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 1 1 )"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, Move.create("( mark 1 3 )")));
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 3 1 )"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, Move.create("( mark 2 2 )")));
+        assertFalse(sm.isTerminal(state));
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 2 1 )"), noop));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, xRole));
+        assertEquals(0, sm.getGoal(state, oRole));
+    }
+
+    @Test
+    public void testMatchesProverOnTicTacToe() throws Exception {
+        assertConsistentWithProver("ticTacToe");
+    }
+
+    @Test
+    public void testMatchesProverOnConnectFour() throws Exception {
+        assertConsistentWithProver("connectFour");
+    }
+
+    @Test
+    public void testDifferentialMatchesProverOnConnectFour() throws Exception {
+        sm.setPropagationMode(CompiledPropNetStateMachine.PropagationMode.DIFFERENTIAL);
+        assertConsistentWithProver("connectFour");
+        assertTrue(sm.getMarkPropositionsAvoided() > 0);
+        assertTrue(sm.getMarkPropositionsAvoided() < sm.getTotalMarkPropositions());
+    }
+
+    @Test
+    public void testCase1A() throws Exception {
+        sm.initialize(getRules("test_case_1a"));
+        MachineState state = sm.getInitialState();
+        Role you = new Role(GdlPool.getConstant("you"));
+        assertFalse(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, you));
+        state = sm.getNextState(state, Arrays.asList(Move.create("proceed")));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, you));
+    }
+
+    @Test
+    public void testBitSetStatesAreInterchangeable() throws Exception {
+        sm.initialize(getRules("ticTacToe"));
+        MachineState state = sm.getNextState(sm.getInitialState(), Arrays.asList(Move.create("( mark 2 2 )"), Move.create("noop")));
+        assertTrue(state instanceof BitSetMachineState);
+
+        MachineState plain = new MachineState(new HashSet<>(state.getContents()));
+        assertEquals(plain.hashCode(), state.hashCode());
+        assertEquals(plain, state);
+        assertEquals(state, plain);
+        assertEquals(state, sm.getMachineStateFromSentenceList(plain.getContents()));
+        assertEquals(sm.getLegalMoves(state, Role.create("oplayer")), sm.getLegalMoves(plain, Role.create("oplayer")));
+        assertNotEquals(state, sm.getInitialState());
+    }
+
+    @Test
+    public void testViewsCanBeUsedConcurrently() throws Exception {
+        final List<Gdl> rules = getRules("connectFour");
+        sm.initialize(rules);
+        int numThreads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < numThreads; i++) {
+                final CompiledPropNetStateMachine view = sm.createView();
+                assertSame(sm.getCompiledPropNet(), view.getCompiledPropNet());
+                assertEquals(sm.getInitialState(), view.getInitialState());
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        StateMachine prover = new ProverStateMachine();
+                        prover.initialize(rules);
+                        return StateMachineVerifier.checkMachineConsistency(prover, view, 500);
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertConsistentWithProver(String gameKey) {
+        List<Gdl> rules = getRules(gameKey);
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        sm.initialize(rules);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(prover, sm, 1000));
+    }
+
+    private static List<Gdl> getRules(String gameKey) {
+        return new TestGameRepository().getGame(gameKey).getRules();
+    }
+}
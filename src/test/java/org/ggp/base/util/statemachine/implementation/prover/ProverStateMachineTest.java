@@ -4,8 +4,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlPool;
@@ -13,6 +15,8 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateSummary;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -206,6 +210,93 @@ public class ProverStateMachineTest extends Assert {
         assertEquals(Collections.singletonList(100), sm.getGoals(state));
     }
 
+    @Test
+    public void testStateSummaryMatchesSeparateQueries() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "test_case_3b"}) {
+            // Role indices are cached per machine, so use a new one for each game
+            ProverStateMachine sm = new ProverStateMachine();
+            sm.initialize(new TestGameRepository().getGame(game).getRules());
+            ProverStateMachine separateSm = new ProverStateMachine();
+            separateSm.initialize(new TestGameRepository().getGame(game).getRules());
+            Random random = new Random(0);
+            for (int i = 0; i < 5; i++) {
+                MachineState state = sm.getInitialState();
+                while (true) {
+                    StateSummary summary = sm.getStateSummary(state);
+                    assertEquals(separateSm.isTerminal(state), summary.isTerminal());
+                    for (Role role : sm.getRoles()) {
+                        if (summary.isTerminal()) {
+                            assertEquals(separateSm.getGoal(state, role), summary.getGoal(role));
+                        } else {
+                            assertEquals(ImmutableSet.copyOf(separateSm.getLegalMoves(state, role)),
+                                    ImmutableSet.copyOf(summary.getLegalMoves(role)));
+                        }
+                    }
+                    if (summary.isTerminal()) {
+                        break;
+                    }
+                    List<Move> jointMove = new ArrayList<Move>();
+                    for (Role role : sm.getRoles()) {
+                        List<Move> legalMoves = summary.getLegalMoves(role);
+                        jointMove.add(legalMoves.get(random.nextInt(legalMoves.size())));
+                    }
+                    MachineState nextState = separateSm.getNextState(state, jointMove);
+                    assertEquals(nextState, sm.getNextState(state, jointMove));
+                    // Asking for the next state along with the summary gives the same answer
+                    assertEquals(nextState, sm.getStateSummary(state, Collections.singletonList(jointMove)).getNextState(jointMove));
+                    state = nextState;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStateSummaryWithUndefinedGoals() throws Exception {
+        sm.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        StateSummary summary = sm.getStateSummary(sm.getInitialState());
+        Role xRole = new Role(GdlPool.getConstant("xplayer"));
+        assertFalse(summary.isTerminal());
+        assertEquals(9, summary.getLegalMoves(xRole).size());
+        // ticTacToe has no goal values while the game is undecided
+        try {
+            summary.getGoal(xRole);
+            fail("Expected no goal value in the initial state");
+        } catch (GoalDefinitionException e) {
+            // Expected
+        }
+        MachineState state = sm.getInitialState();
+        for (String[] jointMove : new String[][] {{"mark 1 1", "noop"}, {"noop", "mark 2 1"},
+                {"mark 1 2", "noop"}, {"noop", "mark 2 2"}, {"mark 1 3", "noop"}}) {
+            state = sm.getNextState(state, Arrays.asList(move(jointMove[0]), move(jointMove[1])));
+        }
+        summary = sm.getStateSummary(state);
+        assertTrue(summary.isTerminal());
+        assertEquals(100, summary.getGoal(xRole));
+        assertEquals(0, summary.getGoal(new Role(GdlPool.getConstant("oplayer"))));
+    }
+
+    @Test
+    public void testStateSummaryRejectsNonNumericGoals() throws Exception {
+        List<Gdl> rules = new ArrayList<Gdl>();
+        for (String rule : new String[] {"(role a)", "(role b)", "(role c)", "(init (cell 1))",
+                "(<= (legal ?r noop) (role ?r))", "(<= (next (cell 1)) (true (cell 1)))",
+                "(goal a 50)", "(goal b high)", "(goal c 0)", "(goal c 100)", "(<= terminal (true (cell 1)))"}) {
+            rules.add(GdlFactory.create(rule));
+        }
+        sm.initialize(rules);
+        StateSummary summary = sm.getStateSummary(sm.getInitialState());
+        assertEquals(50, summary.getGoal(new Role(GdlPool.getConstant("a"))));
+        // Neither an unparseable goal value nor two goal values are accepted
+        for (String role : new String[] {"b", "c"}) {
+            try {
+                summary.getGoal(new Role(GdlPool.getConstant(role)));
+                fail("Expected no goal value for role " + role);
+            } catch (GoalDefinitionException e) {
+                // Expected
+            }
+        }
+    }
+
     protected Move move(String description) {
         String[] parts = description.split(" ");
         GdlConstant head = GdlPool.getConstant(parts[0]);
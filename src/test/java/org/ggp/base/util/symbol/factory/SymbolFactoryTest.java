@@ -0,0 +1,81 @@
+package org.ggp.base.util.symbol.factory;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+import org.ggp.base.util.symbol.grammar.Symbol;
+import org.ggp.base.util.symbol.grammar.SymbolAtom;
+import org.ggp.base.util.symbol.grammar.SymbolList;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SymbolFactoryTest extends Assert {
+    @Test
+    public void testParsesNestedLists() throws Exception {
+        SymbolList list = (SymbolList) SymbolFactory.create("( play  match1\t(mark 1 2)\r\nnil)");
+        assertEquals(4, list.size());
+        assertEquals("play", ((SymbolAtom) list.get(0)).getValue());
+        assertEquals("( mark 1 2 )", list.get(2).toString());
+        assertEquals("( play match1 ( mark 1 2 ) nil )", list.toString());
+    }
+
+    @Test
+    public void testAtomsArePooled() throws Exception {
+        SymbolList list = (SymbolList) SymbolFactory.create("(cell (cell 1) cell)");
+        assertSame(list.get(0), list.get(2));
+        assertSame(list.get(0), ((SymbolList) list.get(1)).get(0));
+        assertSame(list.get(0), SymbolFactory.create("cell"));
+    }
+
+    @Test
+    public void testParensEndAtoms() throws Exception {
+        SymbolList list = (SymbolList) SymbolFactory.create("(a(b)c)");
+        assertEquals("( a ( b ) c )", list.toString());
+    }
+
+    @Test
+    public void testOnlyFirstSymbolIsParsed() throws Exception {
+        assertEquals("( a )", SymbolFactory.create(" (a) (b)").toString());
+    }
+
+    @Test(expected=SymbolFormatException.class)
+    public void testUnclosedList() throws Exception {
+        SymbolFactory.create("(a (b c)");
+    }
+
+    @Test(expected=SymbolFormatException.class)
+    public void testUnopenedList() throws Exception {
+        SymbolFactory.create(") a");
+    }
+
+    @Test(expected=SymbolFormatException.class)
+    public void testEmptyInput() throws Exception {
+        SymbolFactory.create("  ");
+    }
+
+    @Test
+    public void testStreamsSymbolsFromReader() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            input.append("(step ").append(i).append(") ");
+        }
+        SymbolTokenizer tokens = new SymbolTokenizer(new StringReader(input.toString()));
+        int count = 0;
+        for (Symbol symbol = SymbolFactory.create(tokens); symbol != null; symbol = SymbolFactory.create(tokens)) {
+            assertEquals("( step " + count + " )", symbol.toString());
+            count++;
+        }
+        assertEquals(5000, count);
+    }
+
+    @Test
+    public void testReadsFromBytes() throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        ByteBuffer bytes = ByteBuffer.wrap("(café (über))".getBytes(utf8));
+        Symbol symbol = SymbolFactory.create(new SymbolTokenizer(bytes, utf8));
+        assertEquals("( café ( über ) )", symbol.toString());
+        assertEquals(0, bytes.position());
+    }
+}